@@ -0,0 +1,83 @@
+package com.acertainbookstore.business;
+
+import java.util.List;
+
+/**
+ * {@link BookCursor} is a position in a listing of all books of the store, in
+ * pages of at most <code>numBooks</code> books ordered by ISBN. The cursor for
+ * the next page, which continues after the last book of the current page, is
+ * obtained by {@link #next(List)}.
+ *
+ * Since the listing resumes from the last ISBN returned, a book that is in the
+ * store during the whole listing is listed exactly once, whatever books are
+ * added or removed meanwhile.
+ */
+public class BookCursor {
+
+	/** The smallest ISBN of the page. */
+	private long fromISBN;
+
+	/** The maximum number of books in a page. */
+	private int numBooks;
+
+	/**
+	 * Instantiates a new {@link BookCursor}.
+	 *
+	 * @param fromISBN
+	 *            the smallest ISBN of the page
+	 * @param numBooks
+	 *            the maximum number of books in a page
+	 */
+	private BookCursor(long fromISBN, int numBooks) {
+		this.fromISBN = fromISBN;
+		this.numBooks = numBooks;
+	}
+
+	/**
+	 * Creates a cursor for the first page of books.
+	 *
+	 * @param numBooks
+	 *            the maximum number of books in a page
+	 * @return the cursor
+	 */
+	public static BookCursor first(int numBooks) {
+		return new BookCursor(Integer.MIN_VALUE, numBooks);
+	}
+
+	/**
+	 * Gets the cursor for the page following a page of books.
+	 *
+	 * @param page
+	 *            the page
+	 * @return the cursor for the next page, or null if the page was the last
+	 */
+	public BookCursor next(List<? extends Book> page) {
+		if (page.size() < numBooks) {
+			return null;
+		}
+
+		return new BookCursor(page.get(page.size() - 1).getISBN() + 1L, numBooks);
+	}
+
+	/**
+	 * Gets the range of books of the page.
+	 *
+	 * @return the range, or null if no books follow the previous page
+	 */
+	public BookRange toRange() {
+		if (fromISBN > Integer.MAX_VALUE) {
+			return null;
+		}
+
+		return BookRange.byISBN((int) fromISBN, Integer.MAX_VALUE, numBooks);
+	}
+
+	/**
+	 * Gets the maximum number of books in a page.
+	 *
+	 * @return the number of books
+	 */
+	public int getNumBooks() {
+		return numBooks;
+	}
+}
@@ -0,0 +1,76 @@
+package com.acertainbookstore.business;
+
+/**
+ * {@link BookQuery} represents a full-text query for books whose title or
+ * author contains all words of a text, ignoring case. Matching books are
+ * ranked by the number of query words found in their title, which count
+ * twice, and in their author, plus their average rating times
+ * <code>ratingWeight</code>; at most <code>numBooks</code> of the best ranked
+ * books are returned.
+ */
+public class BookQuery {
+
+	/** The text. */
+	private String text;
+
+	/** The maximum number of books. */
+	private int numBooks;
+
+	/** The weight of the average rating of a book in its rank. */
+	private float ratingWeight;
+
+	/**
+	 * Instantiates a new {@link BookQuery} ranking books by their words only.
+	 *
+	 * @param text
+	 *            the text
+	 * @param numBooks
+	 *            the maximum number of books
+	 */
+	public BookQuery(String text, int numBooks) {
+		this(text, numBooks, 0.0f);
+	}
+
+	/**
+	 * Instantiates a new {@link BookQuery}.
+	 *
+	 * @param text
+	 *            the text
+	 * @param numBooks
+	 *            the maximum number of books
+	 * @param ratingWeight
+	 *            the weight of the average rating of a book in its rank
+	 */
+	public BookQuery(String text, int numBooks, float ratingWeight) {
+		this.text = text;
+		this.numBooks = numBooks;
+		this.ratingWeight = ratingWeight;
+	}
+
+	/**
+	 * Gets the text.
+	 *
+	 * @return the text
+	 */
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * Gets the maximum number of books.
+	 *
+	 * @return the number of books
+	 */
+	public int getNumBooks() {
+		return numBooks;
+	}
+
+	/**
+	 * Gets the weight of the average rating of a book in its rank.
+	 *
+	 * @return the weight
+	 */
+	public float getRatingWeight() {
+		return ratingWeight;
+	}
+}
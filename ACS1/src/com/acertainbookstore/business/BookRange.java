@@ -0,0 +1,176 @@
+package com.acertainbookstore.business;
+
+import java.util.List;
+
+/**
+ * {@link BookRange} represents a query for the books whose price or ISBN lies
+ * in an inclusive range. Results are returned in pages of at most
+ * <code>numBooks</code> books, ordered by the queried field and then by ISBN;
+ * the query for the next page, which continues after the last book of the
+ * current page, is obtained by {@link #next(List)}.
+ *
+ * A range whose lower bound is greater than its upper bound is empty.
+ */
+public class BookRange {
+
+	/**
+	 * {@link Field} enumerates the fields of a book that can be queried by
+	 * range.
+	 */
+	public enum Field {
+
+		/** The price of the book. */
+		PRICE,
+
+		/** The ISBN of the book. */
+		ISBN;
+
+		/**
+		 * Maps a value of the field to an <code>int</code> with the same order.
+		 *
+		 * @param value
+		 *            the value
+		 * @return the key
+		 */
+		private int keyOf(float value) {
+			// Adding zero turns -0.0 into 0.0, so that both have the same key.
+			int bits = Float.floatToIntBits(value + 0.0f);
+			return bits ^ ((bits >> 31) & Integer.MAX_VALUE);
+		}
+
+		/**
+		 * Gets the position of a book in the order of the field.
+		 *
+		 * @param book
+		 *            the book
+		 * @return the position, ordered by the field and then by ISBN
+		 */
+		public long positionOf(Book book) {
+			int key = this == PRICE ? keyOf(book.getPrice()) : book.getISBN();
+			return ((long) key << 32) | (book.getISBN() & 0xFFFFFFFFL);
+		}
+	}
+
+	/** The queried field. */
+	private Field field;
+
+	/** The position of the first book, inclusive. */
+	private long from;
+
+	/** The position of the last book, inclusive. */
+	private long to;
+
+	/** The maximum number of books in a page. */
+	private int numBooks;
+
+	/**
+	 * Instantiates a new {@link BookRange}.
+	 *
+	 * @param field
+	 *            the queried field
+	 * @param from
+	 *            the position of the first book, inclusive
+	 * @param to
+	 *            the position of the last book, inclusive
+	 * @param numBooks
+	 *            the maximum number of books in a page
+	 */
+	private BookRange(Field field, long from, long to, int numBooks) {
+		this.field = field;
+		this.from = from;
+		this.to = to;
+		this.numBooks = numBooks;
+	}
+
+	/**
+	 * Creates a query for the first page of books priced between
+	 * <code>minPrice</code> and <code>maxPrice</code>, inclusive.
+	 *
+	 * @param minPrice
+	 *            the minimum price
+	 * @param maxPrice
+	 *            the maximum price
+	 * @param numBooks
+	 *            the maximum number of books in a page
+	 * @return the query
+	 */
+	public static BookRange byPrice(float minPrice, float maxPrice, int numBooks) {
+		return new BookRange(Field.PRICE, (long) Field.PRICE.keyOf(minPrice) << 32,
+				((long) Field.PRICE.keyOf(maxPrice) << 32) | 0xFFFFFFFFL, numBooks);
+	}
+
+	/**
+	 * Creates a query for the first page of books whose ISBN lies between
+	 * <code>minISBN</code> and <code>maxISBN</code>, inclusive.
+	 *
+	 * @param minISBN
+	 *            the minimum ISBN
+	 * @param maxISBN
+	 *            the maximum ISBN
+	 * @param numBooks
+	 *            the maximum number of books in a page
+	 * @return the query
+	 */
+	public static BookRange byISBN(int minISBN, int maxISBN, int numBooks) {
+		return new BookRange(Field.ISBN, (long) minISBN << 32, ((long) maxISBN << 32) | 0xFFFFFFFFL, numBooks);
+	}
+
+	/**
+	 * Gets the query for the page following a page of results of this query.
+	 *
+	 * @param page
+	 *            the page
+	 * @return the query for the next page, or null if the page was the last
+	 */
+	public BookRange next(List<? extends Book> page) {
+		if (page.size() < numBooks) {
+			return null;
+		}
+
+		long last = field.positionOf(page.get(page.size() - 1));
+
+		if (last >= to) {
+			return null;
+		}
+
+		return new BookRange(field, last + 1, to, numBooks);
+	}
+
+	/**
+	 * Gets the queried field.
+	 *
+	 * @return the field
+	 */
+	public Field getField() {
+		return field;
+	}
+
+	/**
+	 * Gets the position of the first book, as given by
+	 * {@link Field#positionOf(Book)}.
+	 *
+	 * @return the position, inclusive
+	 */
+	public long getFrom() {
+		return from;
+	}
+
+	/**
+	 * Gets the position of the last book, as given by
+	 * {@link Field#positionOf(Book)}.
+	 *
+	 * @return the position, inclusive
+	 */
+	public long getTo() {
+		return to;
+	}
+
+	/**
+	 * Gets the maximum number of books in a page.
+	 *
+	 * @return the number of books
+	 */
+	public int getNumBooks() {
+		return numBooks;
+	}
+}
@@ -0,0 +1,150 @@
+package com.acertainbookstore.business;
+
+import java.util.List;
+
+/**
+ * {@link BookSearch} represents a search for books whose title or author
+ * starts with a prefix, ignoring case. Results are returned in pages of at
+ * most <code>numBooks</code> books, ordered by the searched field and then by
+ * ISBN; the search for the next page is obtained from the current page by
+ * {@link #next(List)}.
+ */
+public class BookSearch {
+
+	/**
+	 * {@link Field} enumerates the fields of a book that can be searched.
+	 */
+	public enum Field {
+
+		/** The title of the book. */
+		TITLE,
+
+		/** The author of the book. */
+		AUTHOR;
+
+		/**
+		 * Gets the value of the field of a book.
+		 *
+		 * @param book
+		 *            the book
+		 * @return the value
+		 */
+		public String of(Book book) {
+			return this == TITLE ? book.getTitle() : book.getAuthor();
+		}
+	}
+
+	/** The searched field. */
+	private Field field;
+
+	/** The prefix. */
+	private String prefix;
+
+	/** The maximum number of books in a page. */
+	private int numBooks;
+
+	/** The field value of the last book of the previous page, if any. */
+	private String afterValue;
+
+	/** The ISBN of the last book of the previous page. */
+	private int afterISBN;
+
+	/**
+	 * Instantiates a new {@link BookSearch} for the first page of books whose
+	 * <code>field</code> starts with <code>prefix</code>.
+	 *
+	 * @param field
+	 *            the searched field
+	 * @param prefix
+	 *            the prefix
+	 * @param numBooks
+	 *            the maximum number of books in a page
+	 */
+	public BookSearch(Field field, String prefix, int numBooks) {
+		this(field, prefix, numBooks, null, 0);
+	}
+
+	/**
+	 * Instantiates a new {@link BookSearch}.
+	 *
+	 * @param field
+	 *            the searched field
+	 * @param prefix
+	 *            the prefix
+	 * @param numBooks
+	 *            the maximum number of books in a page
+	 * @param afterValue
+	 *            the field value of the last book of the previous page, or
+	 *            null for the first page
+	 * @param afterISBN
+	 *            the ISBN of the last book of the previous page
+	 */
+	private BookSearch(Field field, String prefix, int numBooks, String afterValue, int afterISBN) {
+		this.field = field;
+		this.prefix = prefix;
+		this.numBooks = numBooks;
+		this.afterValue = afterValue;
+		this.afterISBN = afterISBN;
+	}
+
+	/**
+	 * Gets the search for the page following a page of results of this search.
+	 *
+	 * @param page
+	 *            the page
+	 * @return the search for the next page, or null if the page was the last
+	 */
+	public BookSearch next(List<? extends Book> page) {
+		if (page.size() < numBooks) {
+			return null;
+		}
+
+		Book last = page.get(page.size() - 1);
+		return new BookSearch(field, prefix, numBooks, field.of(last), last.getISBN());
+	}
+
+	/**
+	 * Gets the searched field.
+	 *
+	 * @return the field
+	 */
+	public Field getField() {
+		return field;
+	}
+
+	/**
+	 * Gets the prefix.
+	 *
+	 * @return the prefix
+	 */
+	public String getPrefix() {
+		return prefix;
+	}
+
+	/**
+	 * Gets the maximum number of books in a page.
+	 *
+	 * @return the number of books
+	 */
+	public int getNumBooks() {
+		return numBooks;
+	}
+
+	/**
+	 * Gets the field value of the last book of the previous page.
+	 *
+	 * @return the field value, or null for the first page
+	 */
+	public String getAfterValue() {
+		return afterValue;
+	}
+
+	/**
+	 * Gets the ISBN of the last book of the previous page.
+	 *
+	 * @return the ISBN
+	 */
+	public int getAfterISBN() {
+		return afterISBN;
+	}
+}
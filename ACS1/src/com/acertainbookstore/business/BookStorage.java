@@ -0,0 +1,114 @@
+package com.acertainbookstore.business;
+
+/**
+ * {@link BookStorage} holds the books of the {@link CertainBookStore}, indexed
+ * by ISBN. The books it hands out are {@link BookStoreBook} instances through
+ * which the counters of the stored books are read and updated; they are valid
+ * until the next addition or removal of books.
+ * 
+ * A storage is not synchronized: the {@link CertainBookStore} calls it under
+ * its {@link BookStoreLockManager}, which excludes additions and removals from
+ * all other accesses.
+ * 
+ * @see StorageEngine
+ */
+public interface BookStorage extends Iterable<BookStoreBook> {
+
+	/**
+	 * Gets the number of books.
+	 *
+	 * @return the number of books
+	 */
+	public int size();
+
+	/**
+	 * Checks if the storage holds a book.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return true, if the storage holds the book
+	 */
+	public boolean contains(int isbn);
+
+	/**
+	 * Gets a book.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the book, or null if the storage does not hold the book
+	 */
+	public BookStoreBook get(int isbn);
+
+	/**
+	 * Gets a book read by a scan of many books, e.g., a page of a cursor or of
+	 * an export. Storages that keep the books accessed frequently in memory do
+	 * not count it as an access, so that a scan does not load the catalog.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the book, or null if the storage does not hold the book
+	 */
+	public default BookStoreBook scan(int isbn) {
+		return get(isbn);
+	}
+
+	/**
+	 * Gets a batch of books in one pass, stopping at the first book that is not
+	 * in the storage.
+	 *
+	 * @param isbns
+	 *            the ISBNs
+	 * @param books
+	 *            the array receiving each book at the index of its ISBN
+	 * @return the index of the first ISBN whose book is not in the storage, or
+	 *         -1 if all books are in the storage
+	 */
+	public int getAll(int[] isbns, BookStoreBook[] books);
+
+	/**
+	 * Adds a book, which must not be in the storage yet.
+	 *
+	 * @param book
+	 *            the book
+	 * @return the stored book
+	 */
+	public BookStoreBook add(StockBook book);
+
+	/**
+	 * Removes a book.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 */
+	public void remove(int isbn);
+
+	/**
+	 * Removes all books.
+	 */
+	public void clear();
+
+	/**
+	 * Ages the statistics of the accesses to the books the storage keeps in
+	 * memory, and selects those that were not accessed recently enough to stay
+	 * there. Storages that keep all books alike select none.
+	 *
+	 * @return the ISBNs of the books to evict
+	 * @see #evict(int)
+	 */
+	public default int[] idleBooks() {
+		return new int[0];
+	}
+
+	/**
+	 * Moves a book selected by {@link #idleBooks()} out of memory, unless it
+	 * was accessed since. The caller must hold the write lock of the book, so
+	 * that nobody holds the book while it moves.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return true, if the book was evicted
+	 */
+	public default boolean evict(int isbn) {
+		return false;
+	}
+}
@@ -1,5 +1,7 @@
 package com.acertainbookstore.business;
 
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
 import com.acertainbookstore.utils.BookStoreUtility;
 
 /**
@@ -13,6 +15,10 @@ import com.acertainbookstore.utils.BookStoreUtility;
  */
 public class BookStoreBook extends ImmutableBook {
 
+	/** The updater of the version. */
+	private static final AtomicLongFieldUpdater<BookStoreBook> VERSION = AtomicLongFieldUpdater
+			.newUpdater(BookStoreBook.class, "version");
+
 	/** The number of copies. */
 	private int numCopies;
 
@@ -28,6 +34,15 @@ public class BookStoreBook extends ImmutableBook {
 	/** Whether the book is editor picked. */
 	private boolean editorPick;
 
+	/** The version of the book, incremented after every update. */
+	private volatile long version;
+
+	/** The last {@link StockBook} copy of the book, if any. */
+	private volatile Snapshot snapshot;
+
+	/** The {@link ImmutableBook} copy of the book, if any. */
+	private volatile ImmutableBook immutableBook;
+
 	/**
 	 * Instantiates a new {@link BookStoreBook}.
 	 *
@@ -52,6 +67,14 @@ public class BookStoreBook extends ImmutableBook {
 		this.setEditorPick(false);
 	}
 
+	/**
+	 * Instantiates a new {@link BookStoreBook} for a subclass that keeps the
+	 * state of the book elsewhere and overrides all accessors.
+	 */
+	protected BookStoreBook() {
+		super();
+	}
+
 	/**
 	 * Instantiates a new {@link BookStoreBook} from a {@link StockBook}
 	 * instance.
@@ -111,7 +134,8 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return the average rating
 	 */
 	public float getAverageRating() {
-		return (numTimesRated == 0 ? -1.0f : (float) totalRating / numTimesRated);
+		long timesRated = getNumTimesRated();
+		return (timesRated == 0 ? -1.0f : (float) getTotalRating() / timesRated);
 	}
 
 	/**
@@ -173,6 +197,25 @@ public class BookStoreBook extends ImmutableBook {
 	 */
 	public void setEditorPick(boolean editorPick) {
 		this.editorPick = editorPick;
+		modified();
+	}
+
+	/**
+	 * Gets the version of the book, which is incremented after every update,
+	 * so that an unchanged version means unchanged counters.
+	 *
+	 * @return the version
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Increments the version of the book. Every method that updates the book
+	 * must call it after the update.
+	 */
+	protected final void modified() {
+		VERSION.incrementAndGet(this);
 	}
 
 	/**
@@ -183,7 +226,7 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return true, if successful
 	 */
 	public boolean areCopiesInStore(int numCopies) {
-		return this.numCopies >= numCopies;
+		return this.getNumCopies() >= numCopies;
 	}
 
 	/**
@@ -196,12 +239,28 @@ public class BookStoreBook extends ImmutableBook {
 	public boolean buyCopies(int numCopies) {
 		if (!BookStoreUtility.isInvalidNoCopies(numCopies) && areCopiesInStore(numCopies)) {
 			this.numCopies -= numCopies;
+			modified();
 			return true;
 		}
 
 		return false;
 	}
 
+	/**
+	 * Returns copies taken by {@link #buyCopies(int)} to the stock, when the
+	 * purchase they belong to could not be completed. Unlike
+	 * {@link #addCopies(int)}, the sale misses are kept.
+	 *
+	 * @param numCopies
+	 *            the number of copies
+	 */
+	public void returnCopies(int numCopies) {
+		if (!BookStoreUtility.isInvalidNoCopies(numCopies)) {
+			this.numCopies += numCopies;
+			modified();
+		}
+	}
+
 	/**
 	 * Adds <code>newCopies</code> to the total number of copies of the book.
 	 *
@@ -212,6 +271,7 @@ public class BookStoreBook extends ImmutableBook {
 		if (!BookStoreUtility.isInvalidNoCopies(numNewCopies)) {
 			this.numCopies += numNewCopies;
 			this.numSaleMisses = 0;
+			modified();
 		}
 	}
 
@@ -220,6 +280,7 @@ public class BookStoreBook extends ImmutableBook {
 	 */
 	public void addSaleMiss() {
 		this.numSaleMisses++;
+		modified();
 	}
 
 	/**
@@ -232,6 +293,7 @@ public class BookStoreBook extends ImmutableBook {
 		if (!BookStoreUtility.isInvalidRating(rating)) {
 			this.totalRating += rating;
 			this.numTimesRated++;
+			modified();
 		}
 	}
 
@@ -242,7 +304,7 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return true, if successful
 	 */
 	public boolean hadSaleMiss() {
-		return this.numSaleMisses > 0;
+		return this.getNumSaleMisses() > 0;
 	}
 
 	/**
@@ -257,24 +319,50 @@ public class BookStoreBook extends ImmutableBook {
 	}
 
 	/**
-	 * Returns a {@link ImmutableBook} copy of the book.
+	 * Returns a {@link ImmutableBook} copy of the book. The ISBN, title, author
+	 * and price of a book never change, so the copy is made once and shared.
 	 *
 	 * @return the immutable book
 	 */
 	public ImmutableBook immutableBook() {
-		return new ImmutableBook(this.getISBN(), new String(this.getTitle()), new String(this.getAuthor()),
-				this.getPrice());
+		ImmutableBook book = immutableBook;
+
+		if (book == null) {
+			book = new ImmutableBook(this.getISBN(), this.getTitle(), this.getAuthor(), this.getPrice());
+			immutableBook = book;
+		}
+
+		return book;
 	}
 
 	/**
-	 * Returns a {@link StockBook} copy of the book.
+	 * Returns a {@link StockBook} copy of the book. The copy is shared until
+	 * the book is updated, so that repeated reads of an unchanged book allocate
+	 * nothing.
+	 *
+	 * A copy is only memoized if the version of the book did not change while
+	 * it was made. A copy made concurrently with an update that does not hold
+	 * the lock of the book may already reflect part of the update, as with any
+	 * read of such a book, but it is never served after the update completed.
 	 *
 	 * @return the stock book
 	 */
 	public StockBook immutableStockBook() {
-		return new ImmutableStockBook(this.getISBN(), new String(this.getTitle()), new String(this.getAuthor()),
-				this.getPrice(), this.numCopies, this.numSaleMisses, this.numTimesRated, this.totalRating,
-				this.editorPick);
+		long version = getVersion();
+		Snapshot memo = snapshot;
+
+		if (memo != null && memo.version == version) {
+			return memo.book;
+		}
+
+		StockBook book = new ImmutableStockBook(immutableBook(), this.getNumCopies(), this.getNumSaleMisses(),
+				this.getNumTimesRated(), this.getTotalRating(), this.isEditorPick());
+
+		if (getVersion() == version) {
+			snapshot = new Snapshot(version, book);
+		}
+
+		return book;
 	}
 
 	/**
@@ -283,7 +371,33 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return the book store book
 	 */
 	public BookStoreBook copy() {
-		return new BookStoreBook(this.getISBN(), new String(this.getTitle()), new String(this.getAuthor()),
-				this.getPrice(), this.numCopies);
+		return new BookStoreBook(this.getISBN(), this.getTitle(), this.getAuthor(), this.getPrice(),
+				this.getNumCopies());
+	}
+
+	/**
+	 * {@link Snapshot} is a {@link StockBook} copy of a book together with the
+	 * version of the book it was made from.
+	 */
+	private static final class Snapshot {
+
+		/** The version. */
+		private final long version;
+
+		/** The copy. */
+		private final StockBook book;
+
+		/**
+		 * Instantiates a new {@link Snapshot}.
+		 *
+		 * @param version
+		 *            the version
+		 * @param book
+		 *            the copy
+		 */
+		private Snapshot(long version, StockBook book) {
+			this.version = version;
+			this.book = book;
+		}
 	}
 }
@@ -0,0 +1,74 @@
+package com.acertainbookstore.business;
+
+import java.util.Collection;
+
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link BookStoreLockManager} decides how the operations of the
+ * {@link CertainBookStore} are isolated from each other. Operations touching a
+ * known set of books declare the ISBNs up front, while operations that scan or
+ * restructure the catalog are executed at the catalog level.
+ * 
+ * @see CertainBookStore
+ * @see ConcurrencyMode
+ */
+public interface BookStoreLockManager {
+
+	/**
+	 * Executes an operation that reads the books with the given ISBNs.
+	 *
+	 * @param <T>
+	 *            the type of the result
+	 * @param isbns
+	 *            the ISBNs read by the operation
+	 * @param operation
+	 *            the operation
+	 * @return the result of the operation
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public <T> T readBooks(Collection<Integer> isbns, BookStoreOperation<T> operation) throws BookStoreException;
+
+	/**
+	 * Executes an operation that updates the books with the given ISBNs, but
+	 * does not add or remove books from the catalog.
+	 *
+	 * @param <T>
+	 *            the type of the result
+	 * @param isbns
+	 *            the ISBNs updated by the operation
+	 * @param operation
+	 *            the operation
+	 * @return the result of the operation
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public <T> T writeBooks(Collection<Integer> isbns, BookStoreOperation<T> operation) throws BookStoreException;
+
+	/**
+	 * Executes an operation that reads the whole catalog.
+	 *
+	 * @param <T>
+	 *            the type of the result
+	 * @param operation
+	 *            the operation
+	 * @return the result of the operation
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public <T> T readCatalog(BookStoreOperation<T> operation) throws BookStoreException;
+
+	/**
+	 * Executes an operation that adds or removes books from the catalog.
+	 *
+	 * @param <T>
+	 *            the type of the result
+	 * @param operation
+	 *            the operation
+	 * @return the result of the operation
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public <T> T writeCatalog(BookStoreOperation<T> operation) throws BookStoreException;
+}
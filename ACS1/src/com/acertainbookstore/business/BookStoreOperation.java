@@ -0,0 +1,24 @@
+package com.acertainbookstore.business;
+
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link BookStoreOperation} is a unit of work executed by a
+ * {@link BookStoreLockManager} on behalf of the {@link CertainBookStore}.
+ *
+ * @param <T>
+ *            the type of the result
+ * @see BookStoreLockManager
+ */
+@FunctionalInterface
+public interface BookStoreOperation<T> {
+
+	/**
+	 * Executes the operation.
+	 *
+	 * @return the result
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public T execute() throws BookStoreException;
+}
@@ -0,0 +1,282 @@
+package com.acertainbookstore.business;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.GZIPOutputStream;
+
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link CatalogExporter} writes a point-in-time consistent copy of all books
+ * of a {@link CertainBookStore} to a catalog file while the store keeps
+ * serving, including updates of the books being exported; see
+ * {@link CatalogSnapshot}. The books are streamed to the file as they are
+ * read, so that the exporter holds a copy of the books changed during the
+ * export only, not of the catalog.
+ *
+ * The file has one of the formats that {@link CatalogImporter} reads, chosen
+ * by its extension: files ending in <code>.bin</code> are binary catalogs
+ * with the full state of every book, all others CSV catalogs with the columns
+ * <code>isbn,title,author,price,numCopies,editorPick,numSaleMisses,numTimesRated,totalRating</code>
+ * and a header line. Files ending in <code>.gz</code> in addition, e.g.,
+ * <code>books.bin.gz</code>, are compressed with gzip. The file is written
+ * under a temporary name and renamed when it is complete, so that it never
+ * holds a partial export.
+ */
+public class CatalogExporter {
+
+	/**
+	 * {@link Progress} receives the progress of an export.
+	 */
+	@FunctionalInterface
+	public interface Progress {
+
+		/**
+		 * Receives the progress of an export.
+		 *
+		 * @param numBooks
+		 *            the number of books written so far
+		 * @param numBytes
+		 *            the number of bytes written to the file so far
+		 * @param elapsedNanos
+		 *            the time since the export started, in nanoseconds
+		 */
+		public void report(long numBooks, long numBytes, long elapsedNanos);
+	}
+
+	/** The default number of books between two reports of the progress. */
+	public static final int DEFAULT_PROGRESS_INTERVAL = 1000000;
+
+	/** The header line of a CSV catalog. */
+	private static final String CSV_HEADER = "isbn,title,author,price,numCopies,editorPick,numSaleMisses,"
+			+ "numTimesRated,totalRating";
+
+	/** The size of the buffers of the file. */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/** The store the books are exported from. */
+	private final CertainBookStore store;
+
+	/** The number of books between two reports of the progress. */
+	private final int progressInterval;
+
+	/** The consumer of the progress. */
+	private final Progress progress;
+
+	/**
+	 * Instantiates a new {@link CatalogExporter}.
+	 *
+	 * @param store
+	 *            the store the books are exported from
+	 * @param progressInterval
+	 *            the number of books between two reports of the progress
+	 * @param progress
+	 *            the consumer of the progress, called every
+	 *            <code>progressInterval</code> books and at the end
+	 */
+	public CatalogExporter(CertainBookStore store, int progressInterval, Progress progress) {
+		if (progressInterval < 1) {
+			throw new IllegalArgumentException(
+					"progressInterval = " + progressInterval + ", but it must be positive");
+		}
+
+		this.store = store;
+		this.progressInterval = progressInterval;
+		this.progress = progress;
+	}
+
+	/**
+	 * Exports all books to a catalog file, replacing it if it exists.
+	 *
+	 * @param file
+	 *            the file
+	 * @return the number of books exported
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 * @throws BookStoreException
+	 *             if the store cannot take a consistent snapshot
+	 */
+	public long exportFile(Path file) throws IOException, BookStoreException {
+		boolean compressed = CatalogImporter.isCompressed(file);
+		CatalogImporter.Format format = CatalogImporter.Format.of(file);
+		Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+		long startTime = System.nanoTime();
+
+		try (CatalogSnapshot snapshot = store.snapshot()) {
+			CountingOutputStream counter = new CountingOutputStream(Files.newOutputStream(temporaryFile));
+			long numBooks;
+
+			try (OutputStream out = new BufferedOutputStream(
+					compressed ? new GZIPOutputStream(counter, BUFFER_SIZE) : counter, BUFFER_SIZE)) {
+				if (format == CatalogImporter.Format.BINARY) {
+					DataOutputStream data = new DataOutputStream(out);
+					CatalogImporter.writeBinaryHeader(data, snapshot.size());
+					numBooks = export(snapshot, book -> CatalogImporter.writeBook(data, book), counter, startTime);
+					data.flush();
+				} else {
+					Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8),
+							BUFFER_SIZE);
+					writer.write(CSV_HEADER);
+					writer.write('\n');
+					numBooks = export(snapshot, book -> writeCsv(writer, book), counter, startTime);
+					writer.flush();
+				}
+			}
+
+			// A binary catalog announces its number of books up front.
+			if (numBooks != snapshot.size()) {
+				throw new IOException("The snapshot of " + snapshot.size() + " books yielded " + numBooks);
+			}
+
+			progress.report(numBooks, counter.numBytes, System.nanoTime() - startTime);
+			Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			return numBooks;
+		} finally {
+			Files.deleteIfExists(temporaryFile);
+		}
+	}
+
+	/**
+	 * Writes the books of a snapshot, reporting the progress every
+	 * {@link #progressInterval} books.
+	 *
+	 * @param snapshot
+	 *            the snapshot
+	 * @param writer
+	 *            writes a book to the file
+	 * @param counter
+	 *            counts the bytes written to the file
+	 * @param startTime
+	 *            the time the export started, in nanoseconds
+	 * @return the number of books written
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private long export(CatalogSnapshot snapshot, CatalogSnapshot.BookConsumer writer, CountingOutputStream counter,
+			long startTime) throws IOException, BookStoreException {
+		long[] numBooks = new long[1];
+
+		snapshot.forEach(book -> {
+			writer.accept(book);
+
+			if (++numBooks[0] % progressInterval == 0) {
+				progress.report(numBooks[0], counter.numBytes, System.nanoTime() - startTime);
+			}
+		});
+
+		return numBooks[0];
+	}
+
+	/**
+	 * Writes a book as a CSV record.
+	 *
+	 * @param writer
+	 *            the writer
+	 * @param book
+	 *            the book
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static void writeCsv(Writer writer, StockBook book) throws IOException {
+		writer.write(Integer.toString(book.getISBN()));
+		writer.write(',');
+		writeCsvString(writer, book.getTitle());
+		writer.write(',');
+		writeCsvString(writer, book.getAuthor());
+		writer.write(',');
+		writer.write(Float.toString(book.getPrice()));
+		writer.write(',');
+		writer.write(Integer.toString(book.getNumCopies()));
+		writer.write(',');
+		writer.write(book.isEditorPick() ? "true" : "false");
+		writer.write(',');
+		writer.write(Long.toString(book.getNumSaleMisses()));
+		writer.write(',');
+		writer.write(Long.toString(book.getNumTimesRated()));
+		writer.write(',');
+		writer.write(Long.toString(book.getTotalRating()));
+		writer.write('\n');
+	}
+
+	/**
+	 * Writes a string as a CSV field, enclosed in double quotes with doubled
+	 * quotes inside if it holds a comma, a quote or a line break.
+	 *
+	 * @param writer
+	 *            the writer
+	 * @param string
+	 *            the string
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static void writeCsvString(Writer writer, String string) throws IOException {
+		boolean quoted = false;
+
+		for (int i = 0; i < string.length() && !quoted; i++) {
+			char c = string.charAt(i);
+			quoted = c == ',' || c == '"' || c == '\n' || c == '\r';
+		}
+
+		if (!quoted) {
+			writer.write(string);
+			return;
+		}
+
+		writer.write('"');
+		writer.write(string.replace("\"", "\"\""));
+		writer.write('"');
+	}
+
+	/**
+	 * {@link CountingOutputStream} counts the bytes written to the file.
+	 */
+	private static final class CountingOutputStream extends FilterOutputStream {
+
+		/** The number of bytes written. */
+		private long numBytes = 0;
+
+		/**
+		 * Instantiates a new {@link CountingOutputStream}.
+		 *
+		 * @param out
+		 *            the stream of the file
+		 */
+		private CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.io.FilterOutputStream#write(int)
+		 */
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			numBytes++;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.io.FilterOutputStream#write(byte[], int, int)
+		 */
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			numBytes += len;
+		}
+	}
+}
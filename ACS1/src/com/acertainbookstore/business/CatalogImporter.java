@@ -0,0 +1,854 @@
+package com.acertainbookstore.business;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.LongConsumer;
+import java.util.zip.GZIPInputStream;
+
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link CatalogImporter} loads the books of a catalog file into a
+ * {@link StockManager}, in batches that are each added atomically. The file is
+ * read through memory-mapped windows and parsed in place; apart from the
+ * books themselves, parsing allocates nothing per book.
+ *
+ * A CSV catalog has one book per line, with the columns
+ * <code>isbn,title,author,price,numCopies[,editorPick[,numSaleMisses,numTimesRated,totalRating]]</code>;
+ * fields may be enclosed in double quotes, with doubled quotes inside, and an
+ * optional header line is skipped. A binary catalog, written by
+ * {@link #writeBinary(Collection, Path)}, holds the full state of every book
+ * in big-endian order: a header of the magic number, the version and the
+ * number of books, then per book its ISBN, price, number of copies, number of
+ * sale misses, number of times rated, total rating, editor pick flag, and its
+ * title and author as UTF-8 bytes preceded by their unsigned 16-bit length.
+ * Files ending in <code>.gz</code>, e.g., <code>books.csv.gz</code>, are
+ * compressed with gzip; they are decompressed to a temporary file first.
+ */
+public class CatalogImporter {
+
+	/**
+	 * {@link Format} enumerates the formats of catalog files.
+	 */
+	public enum Format {
+
+		/** Comma-separated values. */
+		CSV,
+
+		/** The binary format. */
+		BINARY;
+
+		/**
+		 * Gets the format of a file by its extension, ignoring a
+		 * <code>.gz</code> extension: files ending in <code>.bin</code> are
+		 * binary, all others CSV.
+		 *
+		 * @param file
+		 *            the file
+		 * @return the format
+		 */
+		public static Format of(Path file) {
+			String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+
+			if (isCompressed(file)) {
+				name = name.substring(0, name.length() - GZIP_EXTENSION.length());
+			}
+
+			return name.endsWith(".bin") ? BINARY : CSV;
+		}
+	}
+
+	/** The default number of books added at once. */
+	public static final int DEFAULT_BATCH_SIZE = 100000;
+
+	/** The extension of files compressed with gzip. */
+	private static final String GZIP_EXTENSION = ".gz";
+
+	/** The magic number starting a binary catalog, "ACSB". */
+	private static final int BINARY_MAGIC = 0x41435342;
+
+	/** The version of the binary format. */
+	private static final int BINARY_VERSION = 1;
+
+	/** The size of the header of a binary catalog. */
+	private static final int BINARY_HEADER_SIZE = 2 * Integer.BYTES + Long.BYTES;
+
+	/** The size of a binary record without its strings. */
+	private static final int BINARY_FIXED_SIZE = 3 * Integer.BYTES + 3 * Long.BYTES + 1 + 2 * Character.BYTES;
+
+	/** The maximum size of a mapped window, and thus of a record. */
+	private static final long WINDOW_SIZE = 1L << 30;
+
+	/** The powers of ten that are exact floats. */
+	private static final float[] FLOAT_POWERS_OF_TEN = { 1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f,
+			1e10f };
+
+	/** The stock manager the books are added to. */
+	private final StockManager stockManager;
+
+	/** The number of books added at once. */
+	private final int batchSize;
+
+	/** The consumer of the number of books imported so far. */
+	private final LongConsumer progress;
+
+	/**
+	 * Instantiates a new {@link CatalogImporter}.
+	 *
+	 * @param stockManager
+	 *            the stock manager the books are added to
+	 * @param batchSize
+	 *            the number of books added at once
+	 * @param progress
+	 *            the consumer of the number of books imported so far, called
+	 *            after every batch
+	 */
+	public CatalogImporter(StockManager stockManager, int batchSize, LongConsumer progress) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize = " + batchSize + ", but it must be positive");
+		}
+
+		this.stockManager = stockManager;
+		this.batchSize = batchSize;
+		this.progress = progress;
+	}
+
+	/**
+	 * Imports the books of a catalog file. Each batch of books is added
+	 * atomically; if a batch fails, the books of the previous batches remain
+	 * in the store.
+	 *
+	 * @param file
+	 *            the file
+	 * @return the number of books imported
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 * @throws BookStoreException
+	 *             if a record is malformed or a batch is rejected
+	 */
+	public long importFile(Path file) throws IOException, BookStoreException {
+		if (!isCompressed(file)) {
+			return importFile(file, Format.of(file));
+		}
+
+		// The parsers map the file, so it is decompressed first.
+		Path decompressedFile = Files.createTempFile("catalog", ".tmp");
+
+		try {
+			try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+				Files.copy(in, decompressedFile, StandardCopyOption.REPLACE_EXISTING);
+			}
+
+			return importFile(decompressedFile, Format.of(file));
+		} finally {
+			Files.deleteIfExists(decompressedFile);
+		}
+	}
+
+	/**
+	 * Imports the books of an uncompressed catalog file.
+	 *
+	 * @param file
+	 *            the file
+	 * @param format
+	 *            the format of the file
+	 * @return the number of books imported
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 * @throws BookStoreException
+	 *             if a record is malformed or a batch is rejected
+	 */
+	private long importFile(Path file, Format format) throws IOException, BookStoreException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			Parser parser = format == Format.BINARY ? new BinaryParser(channel) : new CsvParser(channel);
+			Set<StockBook> batch = new HashSet<>();
+			long numBooks = 0;
+
+			for (StockBook book = parser.next(); book != null; book = parser.next()) {
+				batch.add(book);
+
+				if (batch.size() == batchSize) {
+					stockManager.addBooks(batch);
+					numBooks += batch.size();
+					progress.accept(numBooks);
+					batch = new HashSet<>();
+				}
+			}
+
+			if (!batch.isEmpty()) {
+				stockManager.addBooks(batch);
+				numBooks += batch.size();
+				progress.accept(numBooks);
+			}
+
+			return numBooks;
+		}
+	}
+
+	/**
+	 * Writes books to a binary catalog file.
+	 *
+	 * @param books
+	 *            the books
+	 * @param file
+	 *            the file, which is replaced if it exists
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static void writeBinary(Collection<? extends StockBook> books, Path file) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+			writeBinaryHeader(out, books.size());
+
+			for (StockBook book : books) {
+				writeBook(out, book);
+			}
+		}
+	}
+
+	/**
+	 * Checks if a catalog file is compressed with gzip, by its extension.
+	 *
+	 * @param file
+	 *            the file
+	 * @return true, if the file ends in <code>.gz</code>
+	 */
+	static boolean isCompressed(Path file) {
+		return file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(GZIP_EXTENSION);
+	}
+
+	/**
+	 * Writes the header of a binary catalog.
+	 *
+	 * @param out
+	 *            the output
+	 * @param numBooks
+	 *            the number of books that follow
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	static void writeBinaryHeader(DataOutput out, long numBooks) throws IOException {
+		out.writeInt(BINARY_MAGIC);
+		out.writeInt(BINARY_VERSION);
+		out.writeLong(numBooks);
+	}
+
+	/**
+	 * Writes the full state of a book in the binary format, which the
+	 * {@link WriteAheadLog} records of the store share.
+	 *
+	 * @param out
+	 *            the output
+	 * @param book
+	 *            the book
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	static void writeBook(DataOutput out, StockBook book) throws IOException {
+		out.writeInt(book.getISBN());
+		out.writeFloat(book.getPrice());
+		out.writeInt(book.getNumCopies());
+		out.writeLong(book.getNumSaleMisses());
+		out.writeLong(book.getNumTimesRated());
+		out.writeLong(book.getTotalRating());
+		out.writeByte(book.isEditorPick() ? 1 : 0);
+		writeString(out, book.getTitle());
+		writeString(out, book.getAuthor());
+	}
+
+	/**
+	 * Reads a book written by {@link #writeBook(DataOutput, StockBook)} from a
+	 * buffer holding it entirely.
+	 *
+	 * @param in
+	 *            the buffer
+	 * @return the book
+	 */
+	static StockBook readBook(ByteBuffer in) {
+		int isbn = in.getInt();
+		float price = in.getFloat();
+		int numCopies = in.getInt();
+		long numSaleMisses = in.getLong();
+		long numTimesRated = in.getLong();
+		long totalRating = in.getLong();
+		boolean editorPick = in.get() != 0;
+		String title = readString(in);
+		String author = readString(in);
+		return new ImmutableStockBook(isbn, title, author, price, numCopies, numSaleMisses, numTimesRated,
+				totalRating, editorPick);
+	}
+
+	/**
+	 * Reads a string written by {@link #writeString(DataOutput, String)}.
+	 *
+	 * @param in
+	 *            the buffer
+	 * @return the string
+	 */
+	private static String readString(ByteBuffer in) {
+		byte[] bytes = new byte[in.getChar()];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Writes a string as UTF-8 bytes preceded by their length.
+	 *
+	 * @param out
+	 *            the output
+	 * @param string
+	 *            the string
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static void writeString(DataOutput out, String string) throws IOException {
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+
+		if (bytes.length > BookStoreConstants.MAX_STRING_BYTES) {
+			throw new IOException("The string " + string.substring(0, 32) + "... is too long");
+		}
+
+		out.writeChar(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * {@link Parser} reads the books of a catalog file one by one through a
+	 * mapped window, which is moved forward whenever a record does not fit.
+	 */
+	private abstract static class Parser {
+
+		/** The file. */
+		private final FileChannel channel;
+
+		/** The size of the file. */
+		protected final long size;
+
+		/** The window. */
+		protected MappedByteBuffer window;
+
+		/** The position of the window in the file. */
+		protected long windowStart;
+
+		/** The number of records read so far. */
+		protected long numRecords = 0;
+
+		/** The scratch space for the bytes of a field. */
+		protected byte[] scratch = new byte[256];
+
+		/**
+		 * Instantiates a new {@link Parser}.
+		 *
+		 * @param channel
+		 *            the file
+		 * @throws IOException
+		 *             Signals that an I/O exception has occurred.
+		 */
+		protected Parser(FileChannel channel) throws IOException {
+			this.channel = channel;
+			this.size = channel.size();
+			map(0);
+		}
+
+		/**
+		 * Maps the window starting at a position of the file.
+		 *
+		 * @param position
+		 *            the position
+		 * @throws IOException
+		 *             Signals that an I/O exception has occurred.
+		 */
+		protected void map(long position) throws IOException {
+			window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, size - position));
+			windowStart = position;
+		}
+
+		/**
+		 * Checks if the window reaches the end of the file.
+		 *
+		 * @return true, if the window is the last one
+		 */
+		protected boolean isLastWindow() {
+			return windowStart + window.limit() == size;
+		}
+
+		/**
+		 * Makes room for a field in the scratch space.
+		 *
+		 * @param length
+		 *            the length of the field
+		 */
+		protected void ensureScratch(int length) {
+			if (scratch.length < length) {
+				scratch = new byte[Math.max(length, scratch.length * 2)];
+			}
+		}
+
+		/**
+		 * Creates the exception for a malformed record.
+		 *
+		 * @return the exception
+		 */
+		protected BookStoreException malformed() {
+			return new BookStoreException(BookStoreConstants.RECORD + numRecords + BookStoreConstants.INVALID);
+		}
+
+		/**
+		 * Reads the next book.
+		 *
+		 * @return the book, or null at the end of the file
+		 * @throws IOException
+		 *             Signals that an I/O exception has occurred.
+		 * @throws BookStoreException
+		 *             if the record is malformed
+		 */
+		protected abstract StockBook next() throws IOException, BookStoreException;
+	}
+
+	/**
+	 * {@link CsvParser} reads a CSV catalog.
+	 */
+	private static final class CsvParser extends Parser {
+
+		/** The number of mandatory columns. */
+		private static final int NUM_COLUMNS = 5;
+
+		/** The position of the next record in the window. */
+		private int position = 0;
+
+		/** The position of the end of the current record in the window. */
+		private int end;
+
+		/** The length of the current field in the scratch space. */
+		private int length;
+
+		/**
+		 * Instantiates a new {@link CsvParser}.
+		 *
+		 * @param channel
+		 *            the file
+		 * @throws IOException
+		 *             Signals that an I/O exception has occurred.
+		 */
+		private CsvParser(FileChannel channel) throws IOException {
+			super(channel);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see
+		 * com.acertainbookstore.business.CatalogImporter.Parser#next()
+		 */
+		@Override
+		protected StockBook next() throws IOException, BookStoreException {
+			while (true) {
+				if (windowStart + position == size) {
+					return null;
+				}
+
+				end = findEndOfRecord();
+				numRecords++;
+
+				int start = position;
+				position = Math.min(end + 1, window.limit());
+
+				// Skip empty lines and the header.
+				if (end == start || (end == start + 1 && window.get(start) == '\r')) {
+					continue;
+				}
+
+				int current = readField(start);
+
+				if (numRecords == 1 && !isInteger()) {
+					continue;
+				}
+
+				try {
+					int isbn = parseInt();
+					current = readField(current);
+					String title = new String(scratch, 0, length, StandardCharsets.UTF_8);
+					current = readField(current);
+					String author = new String(scratch, 0, length, StandardCharsets.UTF_8);
+					current = readField(current);
+					float price = parseFloat();
+					current = readField(current);
+					int numCopies = parseInt();
+					boolean editorPick = false;
+					long numSaleMisses = 0;
+					long numTimesRated = 0;
+					long totalRating = 0;
+
+					if (current <= end) {
+						current = readField(current);
+						editorPick = parseBoolean();
+					}
+
+					// The statistics, as exported by the CatalogExporter.
+					if (current <= end) {
+						current = readField(current);
+						numSaleMisses = parseLong();
+						current = readField(current);
+						numTimesRated = parseLong();
+						current = readField(current);
+						totalRating = parseLong();
+					}
+
+					if (current <= end) {
+						throw malformed();
+					}
+
+					return new ImmutableStockBook(isbn, title, author, price, numCopies, numSaleMisses, numTimesRated,
+							totalRating, editorPick);
+				} catch (NumberFormatException | IndexOutOfBoundsException ex) {
+					throw malformed();
+				}
+			}
+		}
+
+		/**
+		 * Finds the end of the next record, i.e., the first line feed outside
+		 * of quotes, moving the window forward if the record does not fit.
+		 *
+		 * @return the position of the line feed in the window, or the limit of
+		 *         the window at the end of the file
+		 * @throws IOException
+		 *             Signals that an I/O exception has occurred.
+		 * @throws BookStoreException
+		 *             if the record is larger than a window
+		 */
+		private int findEndOfRecord() throws IOException, BookStoreException {
+			boolean quoted = false;
+
+			for (int i = position;; i++) {
+				if (i == window.limit()) {
+					if (isLastWindow()) {
+						return i;
+					}
+
+					if (position == 0) {
+						numRecords++;
+						throw malformed();
+					}
+
+					map(windowStart + position);
+					i -= position;
+					position = 0;
+				}
+
+				byte b = window.get(i);
+
+				if (b == '"') {
+					quoted = !quoted;
+				} else if (b == '\n' && !quoted) {
+					return i;
+				}
+			}
+		}
+
+		/**
+		 * Reads a field of the current record into the scratch space, removing
+		 * enclosing quotes and undoubling quotes inside.
+		 *
+		 * @param start
+		 *            the position of the field in the window
+		 * @return the position of the next field, or a position after the end
+		 *         of the record if the field was the last
+		 * @throws BookStoreException
+		 *             if the field is malformed
+		 */
+		private int readField(int start) throws BookStoreException {
+			if (start > end) {
+				throw malformed();
+			}
+
+			int recordEnd = end > start && window.get(end - 1) == '\r' ? end - 1 : end;
+			ensureScratch(recordEnd - start);
+			length = 0;
+
+			if (start < recordEnd && window.get(start) == '"') {
+				int i = start + 1;
+
+				while (true) {
+					if (i >= recordEnd) {
+						throw malformed();
+					}
+
+					byte b = window.get(i++);
+
+					if (b == '"') {
+						if (i < recordEnd && window.get(i) == '"') {
+							i++;
+						} else {
+							break;
+						}
+					}
+
+					scratch[length++] = b;
+				}
+
+				if (i < recordEnd && window.get(i) != ',') {
+					throw malformed();
+				}
+
+				return i < recordEnd ? i + 1 : end + 1;
+			}
+
+			int i = start;
+
+			while (i < recordEnd && window.get(i) != ',') {
+				scratch[length++] = window.get(i++);
+			}
+
+			return i < recordEnd ? i + 1 : end + 1;
+		}
+
+		/**
+		 * Checks if the field in the scratch space is an integer.
+		 *
+		 * @return true, if it is an integer
+		 */
+		private boolean isInteger() {
+			try {
+				parseInt();
+				return true;
+			} catch (NumberFormatException ex) {
+				return false;
+			}
+		}
+
+		/**
+		 * Parses the field in the scratch space as an <code>int</code>.
+		 *
+		 * @return the value
+		 */
+		private int parseInt() {
+			long value = parseLong();
+
+			if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+				throw new NumberFormatException();
+			}
+
+			return (int) value;
+		}
+
+		/**
+		 * Parses the field in the scratch space as a <code>long</code>.
+		 *
+		 * @return the value
+		 */
+		private long parseLong() {
+			int i = 0;
+			boolean negative = length > 0 && scratch[0] == '-';
+
+			if (negative) {
+				i++;
+			}
+
+			if (i == length) {
+				throw new NumberFormatException();
+			}
+
+			long value = 0;
+
+			for (; i < length; i++) {
+				int digit = scratch[i] - '0';
+
+				if (digit < 0 || digit > 9 || value > (Long.MAX_VALUE - digit) / 10) {
+					throw new NumberFormatException();
+				}
+
+				value = value * 10 + digit;
+			}
+
+			return negative ? -value : value;
+		}
+
+		/**
+		 * Parses the field in the scratch space as a <code>float</code>. Plain
+		 * decimals of up to seven digits, such as prices, are parsed in place
+		 * by a single, correctly rounded division; all others by
+		 * {@link Float#parseFloat(String)}.
+		 *
+		 * @return the value
+		 */
+		private float parseFloat() {
+			int i = 0;
+			boolean negative = length > 0 && scratch[0] == '-';
+
+			if (negative) {
+				i++;
+			}
+
+			int mantissa = 0;
+			int numDigits = 0;
+			int numFractionDigits = -1;
+
+			for (; i < length; i++) {
+				byte b = scratch[i];
+
+				if (b == '.' && numFractionDigits < 0) {
+					numFractionDigits = 0;
+				} else if (b >= '0' && b <= '9' && numDigits < 7) {
+					mantissa = mantissa * 10 + (b - '0');
+					numDigits++;
+
+					if (numFractionDigits >= 0) {
+						numFractionDigits++;
+					}
+				} else {
+					return Float.parseFloat(new String(scratch, 0, length, StandardCharsets.US_ASCII));
+				}
+			}
+
+			if (numDigits == 0) {
+				throw new NumberFormatException();
+			}
+
+			float value = mantissa / FLOAT_POWERS_OF_TEN[Math.max(numFractionDigits, 0)];
+			return negative ? -value : value;
+		}
+
+		/**
+		 * Parses the field in the scratch space as a <code>boolean</code>,
+		 * which is true for <code>true</code> or <code>1</code> and false for
+		 * <code>false</code>, <code>0</code> or nothing, ignoring case.
+		 *
+		 * @return the value
+		 */
+		private boolean parseBoolean() {
+			String value = new String(scratch, 0, length, StandardCharsets.US_ASCII);
+
+			if (value.isEmpty() || value.equals("0") || value.equalsIgnoreCase("false")) {
+				return false;
+			}
+
+			if (value.equals("1") || value.equalsIgnoreCase("true")) {
+				return true;
+			}
+
+			throw new NumberFormatException();
+		}
+	}
+
+	/**
+	 * {@link BinaryParser} reads a binary catalog.
+	 */
+	private static final class BinaryParser extends Parser {
+
+		/** The number of books in the file. */
+		private final long numBooks;
+
+		/**
+		 * Instantiates a new {@link BinaryParser}, reading the header.
+		 *
+		 * @param channel
+		 *            the file
+		 * @throws IOException
+		 *             Signals that an I/O exception has occurred.
+		 */
+		private BinaryParser(FileChannel channel) throws IOException {
+			super(channel);
+
+			if (size < BINARY_HEADER_SIZE || window.getInt() != BINARY_MAGIC || window.getInt() != BINARY_VERSION) {
+				throw new IOException("Not a binary catalog of version " + BINARY_VERSION);
+			}
+
+			numBooks = window.getLong();
+		}
+
+		/**
+		 * Makes sure that the window holds a number of bytes at its position,
+		 * moving it forward if necessary.
+		 *
+		 * @param recordStart
+		 *            the position of the current record in the window
+		 * @param length
+		 *            the number of bytes
+		 * @return the position of the current record in the window
+		 * @throws IOException
+		 *             Signals that an I/O exception has occurred.
+		 * @throws BookStoreException
+		 *             if the file ends before
+		 */
+		private int require(int recordStart, int length) throws IOException, BookStoreException {
+			if (window.remaining() >= length) {
+				return recordStart;
+			}
+
+			long recordEnd = windowStart + window.position() + length;
+
+			if (recordEnd > size || recordEnd - windowStart - recordStart > WINDOW_SIZE) {
+				throw malformed();
+			}
+
+			int offset = window.position() - recordStart;
+			map(windowStart + recordStart);
+			window.position(offset);
+			return 0;
+		}
+
+		/**
+		 * Reads a string of the current record.
+		 *
+		 * @param length
+		 *            the number of bytes of the string
+		 * @return the string
+		 */
+		private String readString(int length) {
+			ensureScratch(length);
+			window.get(scratch, 0, length);
+			return new String(scratch, 0, length, StandardCharsets.UTF_8);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see
+		 * com.acertainbookstore.business.CatalogImporter.Parser#next()
+		 */
+		@Override
+		protected StockBook next() throws IOException, BookStoreException {
+			if (numRecords == numBooks) {
+				return null;
+			}
+
+			numRecords++;
+
+			int recordStart = require(window.position(), BINARY_FIXED_SIZE);
+			int isbn = window.getInt();
+			float price = window.getFloat();
+			int numCopies = window.getInt();
+			long numSaleMisses = window.getLong();
+			long numTimesRated = window.getLong();
+			long totalRating = window.getLong();
+			boolean editorPick = window.get() != 0;
+
+			int titleLength = window.getChar();
+			recordStart = require(recordStart, titleLength + Character.BYTES);
+			String title = readString(titleLength);
+			int authorLength = window.getChar();
+			require(recordStart, authorLength);
+			String author = readString(authorLength);
+
+			return new ImmutableStockBook(isbn, title, author, price, numCopies, numSaleMisses, numTimesRated,
+					totalRating, editorPick);
+		}
+	}
+}
@@ -0,0 +1,297 @@
+package com.acertainbookstore.business;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.PersistentIntMap;
+
+/**
+ * {@link CatalogSnapshot} is the state of all books of a
+ * {@link CertainBookStore} at the moment it was taken, read while the store
+ * keeps serving, e.g., to export the catalog; see
+ * {@link CertainBookStore#snapshot()}.
+ *
+ * In the concurrency modes that read from snapshots, it is the version of the
+ * books published at that moment. In the other modes, the books are read
+ * from the store itself in pages of {@link #PAGE_SIZE} books, in the order of
+ * their ISBNs, each under the locks of its books; the store saves a copy of
+ * every book before it updates or removes it, and marks every book it adds,
+ * as long as the snapshot is open and has not read past the ISBN of the book.
+ * The pages read the saved copies instead of the current books and skip the
+ * added books, and the removed books are read from their copies at the end.
+ * The snapshot thus holds a copy of every book changed while it is read,
+ * rather than of the whole catalog.
+ */
+public class CatalogSnapshot implements Closeable {
+
+	/**
+	 * {@link BookConsumer} receives the books of a snapshot.
+	 */
+	@FunctionalInterface
+	public interface BookConsumer {
+
+		/**
+		 * Receives a book.
+		 *
+		 * @param book
+		 *            the book
+		 * @throws IOException
+		 *             if the book cannot be processed
+		 */
+		public void accept(StockBook book) throws IOException;
+	}
+
+	/** The number of books read under the same locks. */
+	public static final int PAGE_SIZE = 1024;
+
+	/** The marker of the books added after the snapshot was taken. */
+	private static final StockBook ADDED = new ImmutableStockBook(0, "", "", 0, 0, 0, 0, 0, false);
+
+	/** The published version of the books, or null if the store is read. */
+	private final PersistentIntMap<StockBook> publishedBooks;
+
+	/** The storage of the store, if it is read. */
+	private final BookStorage bookMap;
+
+	/** The ISBNs of the books of the store, in order, if it is read. */
+	private final RangeIndex rangeIndex;
+
+	/** The lock manager of the store, if it is read. */
+	private final BookStoreLockManager lockManager;
+
+	/** Whether the pages are read under exclusive locks. */
+	private final boolean lockExclusively;
+
+	/** Unregisters the snapshot from the store when it is closed, if any. */
+	private final Consumer<CatalogSnapshot> onClose;
+
+	/** The number of books. */
+	private final long size;
+
+	/** The books as of the snapshot that were changed since, by ISBN. */
+	private final ConcurrentHashMap<Integer, StockBook> savedBooks = new ConcurrentHashMap<>();
+
+	/** The largest ISBN read so far, beyond which books must be saved. */
+	private volatile int readIsbn = 0;
+
+	/** Whether the books were read. */
+	private boolean read = false;
+
+	/** Whether the snapshot is closed. */
+	private boolean closed = false;
+
+	/**
+	 * Instantiates a new {@link CatalogSnapshot} of a published version of
+	 * the books.
+	 *
+	 * @param publishedBooks
+	 *            the version of the books
+	 */
+	CatalogSnapshot(PersistentIntMap<StockBook> publishedBooks) {
+		this.publishedBooks = publishedBooks;
+		this.bookMap = null;
+		this.rangeIndex = null;
+		this.lockManager = null;
+		this.lockExclusively = false;
+		this.onClose = null;
+		this.size = publishedBooks.size();
+	}
+
+	/**
+	 * Instantiates a new {@link CatalogSnapshot} that reads the books of a
+	 * store. The caller must hold the catalog lock exclusively, and must
+	 * register the snapshot for the store to save the books it changes.
+	 *
+	 * @param bookMap
+	 *            the storage of the store
+	 * @param rangeIndex
+	 *            the ISBNs of the books of the store
+	 * @param lockManager
+	 *            the lock manager of the store
+	 * @param lockExclusively
+	 *            whether the pages must be read under exclusive locks, as in
+	 *            the concurrency modes that read without locks
+	 * @param onClose
+	 *            unregisters the snapshot from the store
+	 */
+	CatalogSnapshot(BookStorage bookMap, RangeIndex rangeIndex, BookStoreLockManager lockManager,
+			boolean lockExclusively, Consumer<CatalogSnapshot> onClose) {
+		this.publishedBooks = null;
+		this.bookMap = bookMap;
+		this.rangeIndex = rangeIndex;
+		this.lockManager = lockManager;
+		this.lockExclusively = lockExclusively;
+		this.onClose = onClose;
+		this.size = bookMap.size();
+	}
+
+	/**
+	 * Gets the number of books.
+	 *
+	 * @return the number of books
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * Saves a book before it is updated or removed, unless it was already
+	 * saved or read. The caller must hold the lock of the book.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	void save(BookStoreBook book) {
+		int isbn = book.getISBN();
+
+		if (isbn > readIsbn) {
+			savedBooks.computeIfAbsent(isbn, key -> book.immutableStockBook());
+		}
+	}
+
+	/**
+	 * Marks a book as added after the snapshot, before it is added. The
+	 * caller must hold the catalog lock exclusively.
+	 *
+	 * @param isbn
+	 *            the ISBN of the book
+	 */
+	void saveAdded(int isbn) {
+		if (isbn > readIsbn) {
+			savedBooks.putIfAbsent(isbn, ADDED);
+		}
+	}
+
+	/**
+	 * Passes every book of the snapshot to a consumer. The books can be read
+	 * only once.
+	 *
+	 * @param consumer
+	 *            the consumer
+	 * @return the number of books read
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws IOException
+	 *             if the consumer failed
+	 */
+	public long forEach(BookConsumer consumer) throws BookStoreException, IOException {
+		synchronized (this) {
+			if (read || closed) {
+				throw new IllegalStateException("The snapshot was already read or closed");
+			}
+
+			read = true;
+		}
+
+		long numBooks = 0;
+
+		if (publishedBooks != null) {
+			for (StockBook book : publishedBooks) {
+				consumer.accept(book);
+				numBooks++;
+			}
+
+			return numBooks;
+		}
+
+		Iterator<Integer> isbns = rangeIndex.range(BookRange.byISBN(1, Integer.MAX_VALUE, PAGE_SIZE));
+		Set<Integer> readSavedIsbns = new HashSet<>();
+
+		while (isbns.hasNext()) {
+			List<Integer> page = new ArrayList<>(PAGE_SIZE);
+
+			while (page.size() < PAGE_SIZE && isbns.hasNext()) {
+				page.add(isbns.next());
+			}
+
+			BookStoreOperation<List<StockBook>> readPage = () -> readPage(page);
+			List<StockBook> books = lockExclusively ? lockManager.writeBooks(page, readPage)
+					: lockManager.readBooks(page, readPage);
+
+			for (StockBook book : books) {
+				if (savedBooks.get(book.getISBN()) == book) {
+					readSavedIsbns.add(book.getISBN());
+				}
+
+				consumer.accept(book);
+				numBooks++;
+			}
+		}
+
+		// The books removed before their page was read.
+		readIsbn = Integer.MAX_VALUE;
+
+		for (Map.Entry<Integer, StockBook> entry : savedBooks.entrySet()) {
+			if (entry.getValue() != ADDED && !readSavedIsbns.contains(entry.getKey())) {
+				consumer.accept(entry.getValue());
+				numBooks++;
+			}
+		}
+
+		return numBooks;
+	}
+
+	/**
+	 * Reads a page of books as of the snapshot, and moves the ISBN beyond
+	 * which books are saved past the page. The caller must hold the locks of
+	 * the books.
+	 *
+	 * @param isbns
+	 *            the ISBNs of the page, in order
+	 * @return the books
+	 */
+	private List<StockBook> readPage(List<Integer> isbns) {
+		List<StockBook> books = new ArrayList<>(isbns.size());
+
+		for (int isbn : isbns) {
+			StockBook savedBook = savedBooks.get(isbn);
+
+			if (savedBook != null) {
+				if (savedBook != ADDED) {
+					books.add(savedBook);
+				}
+
+				continue;
+			}
+
+			// A book may be indexed before it is stored.
+			BookStoreBook book = bookMap.scan(isbn);
+
+			if (book != null) {
+				books.add(book.immutableStockBook());
+			}
+		}
+
+		readIsbn = isbns.get(isbns.size() - 1);
+		return books;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+
+			closed = true;
+		}
+
+		if (onClose != null) {
+			onClose.accept(this);
+		}
+	}
+}
@@ -1,23 +1,35 @@
 package com.acertainbookstore.business;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Random;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
 
 import com.acertainbookstore.interfaces.BookStore;
 import com.acertainbookstore.interfaces.StockManager;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
 import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.PersistentIntMap;
 
 /**
  * {@link CertainBookStore} implements the {@link BookStore} and
@@ -26,21 +38,1032 @@ import com.acertainbookstore.utils.BookStoreUtility;
  * @see BookStore
  * @see StockManager
  */
-public class CertainBookStore implements BookStore, StockManager {
+public class CertainBookStore implements BookStore, StockManager, Closeable {
 
-	/** The mapping of books from ISBN to {@link BookStoreBook}. */
-	private Map<Integer, BookStoreBook> bookMap = null;
+	/** The number of books evicted under the same locks. */
+	private static final int EVICTION_BATCH_SIZE = 1024;
+
+	/** The storage of the books, indexed by ISBN. */
+	private BookStorage bookMap = null;
 	
 	/** The mapping of books with ISBN and rating */
 	//private Map<Integer, BookRating> bookRatings = null;
 
-	/**
-	 * Instantiates a new {@link CertainBookStore}.
-	 */
-	public CertainBookStore() {
+	/** The ranking of the books by average rating. */
+	private final TopRatedIndex topRatedIndex = new TopRatedIndex();
+
+	/** The editor picks. */
+	private final EditorPickIndex editorPickIndex = new EditorPickIndex();
+
+	/** The books that had sale misses. */
+	private final InDemandIndex inDemandIndex = new InDemandIndex();
+
+	/** The titles and authors of the books. */
+	private final SearchIndex searchIndex = new SearchIndex();
+
+	/** The prices and ISBNs of the books. */
+	private final RangeIndex rangeIndex = new RangeIndex();
+
+	/** The words of the titles and authors of the books. */
+	private final FullTextIndex fullTextIndex = new FullTextIndex();
+
+	/** The concurrency mode. */
+	private final ConcurrencyMode concurrencyMode;
+
+	/** The lock manager isolating concurrent operations. */
+	private final BookStoreLockManager lockManager;
+
+	/**
+	 * The latest committed version of the books, read without locking, or null
+	 * if the concurrency mode does not serve reads from snapshots.
+	 */
+	private volatile PersistentIntMap<StockBook> publishedBooks = null;
+
+	/**
+	 * The lock serializing the operations that add or remove books, which
+	 * update the indexes partly outside of the catalog lock.
+	 */
+	private final Object catalogUpdateLock = new Object();
+
+	/** The lock ordering the publication of new versions of the books. */
+	private final Object publishLock = new Object();
+
+	/** The log of the mutations, or null if the store is not durable. */
+	private WriteAheadLog log = null;
+
+	/**
+	 * The ISBNs of the books updated, added or removed since the last
+	 * checkpoint, or null if the next checkpoint must be full.
+	 */
+	private volatile Set<Integer> dirtyIsbns = null;
+
+	/** The lock serializing the checkpoints and their merges. */
+	private final Object checkpointLock = new Object();
+
+	/** The sequence number of the last checkpoint written or loaded. */
+	private long checkpointSequence = 0;
+
+	/** The snapshots being read, which the books are saved for before they change. */
+	private final List<CatalogSnapshot> openSnapshots = new CopyOnWriteArrayList<>();
+
+	/**
+	 * The build of the indexes from the books found in the storage file, or
+	 * null if the store was not opened on a file.
+	 */
+	private CompletableFuture<Void> indexesBuilt = null;
+
+	/**
+	 * Instantiates a new {@link CertainBookStore} in which every operation takes
+	 * the store-wide lock.
+	 */
+	public CertainBookStore() {
+		this(ConcurrencyMode.GLOBAL);
+	}
+
+	/**
+	 * Instantiates a new {@link CertainBookStore}.
+	 *
+	 * @param concurrencyMode
+	 *            the concurrency mode
+	 */
+	public CertainBookStore(ConcurrencyMode concurrencyMode) {
+		this(concurrencyMode, StorageEngine.HEAP);
+	}
+
+	/**
+	 * Instantiates a new {@link CertainBookStore}.
+	 *
+	 * @param concurrencyMode
+	 *            the concurrency mode
+	 * @param storageEngine
+	 *            the storage engine
+	 * @throws IllegalArgumentException
+	 *             if the storage engine does not support the concurrency mode
+	 */
+	public CertainBookStore(ConcurrencyMode concurrencyMode, StorageEngine storageEngine) {
+		this(concurrencyMode, storageEngine.newStorage(concurrencyMode));
+	}
+
+	/**
+	 * Instantiates a new {@link CertainBookStore} on a storage.
+	 *
+	 * @param concurrencyMode
+	 *            the concurrency mode
+	 * @param bookMap
+	 *            the storage of the books
+	 */
+	private CertainBookStore(ConcurrencyMode concurrencyMode, BookStorage bookMap) {
+
+		// Constructors are not synchronized
+		this.bookMap = bookMap;
+		this.concurrencyMode = concurrencyMode;
+		this.lockManager = concurrencyMode.newLockManager();
+
+		if (concurrencyMode.readsFromSnapshot()) {
+			this.publishedBooks = PersistentIntMap.empty();
+		}
+	}
+
+	/**
+	 * Instantiates a new {@link CertainBookStore} that recovers its books from
+	 * a write-ahead log, and logs every mutation to it. A mutation returns once
+	 * the log has committed it as the durability mode of the log asks for.
+	 *
+	 * @param concurrencyMode
+	 *            the concurrency mode
+	 * @param storageEngine
+	 *            the storage engine
+	 * @param log
+	 *            the log, which is not recovered yet
+	 * @throws IOException
+	 *             if the log cannot be read or redone
+	 * @throws IllegalArgumentException
+	 *             if the storage engine does not support the concurrency
+	 *             mode, or if the concurrency mode updates books without locks,
+	 *             so that the log could not keep the order of their updates
+	 */
+	public CertainBookStore(ConcurrencyMode concurrencyMode, StorageEngine storageEngine, WriteAheadLog log)
+			throws IOException {
+		this(concurrencyMode, storageEngine, log, null);
+	}
+
+	/**
+	 * Instantiates a new {@link CertainBookStore} that recovers its books from
+	 * the latest checkpoint, if there is one, and the part of a write-ahead log
+	 * after it, and logs every mutation to the log.
+	 *
+	 * @param concurrencyMode
+	 *            the concurrency mode
+	 * @param storageEngine
+	 *            the storage engine
+	 * @param log
+	 *            the log, which is not recovered yet, or null if the store is
+	 *            not durable
+	 * @param checkpointFile
+	 *            the file of the latest checkpoint, which need not exist, or
+	 *            null
+	 * @throws IOException
+	 *             if the checkpoint or the log cannot be read or redone
+	 * @throws IllegalArgumentException
+	 *             if the storage engine does not support the concurrency
+	 *             mode, or if the concurrency mode updates books without locks,
+	 *             so that the log could not keep the order of their updates
+	 * @see #checkpoint(Path)
+	 */
+	public CertainBookStore(ConcurrencyMode concurrencyMode, StorageEngine storageEngine, WriteAheadLog log,
+			Path checkpointFile) throws IOException {
+		this(concurrencyMode, storageEngine);
+
+		if (log != null && concurrencyMode.updatesBooksWithoutLocks()) {
+			throw new IllegalArgumentException("The write-ahead log does not support the " + concurrencyMode
+					+ " concurrency mode");
+		}
+
+		long logPosition = 0;
+
+		Checkpoint checkpoint = checkpointFile == null ? null : Checkpoint.load(checkpointFile);
+
+		if (checkpoint != null) {
+			try {
+				List<StockBook> books = checkpoint.getBooks();
+
+				synchronized (catalogUpdateLock) {
+					for (int i = 0; i < books.size(); i += CatalogImporter.DEFAULT_BATCH_SIZE) {
+						bulkAddBooks(books.subList(i, Math.min(i + CatalogImporter.DEFAULT_BATCH_SIZE, books.size())),
+								CertainBookStore::isInvalidStoredBook);
+					}
+				}
+			} catch (BookStoreException ex) {
+				throw new IOException("The checkpoint " + checkpointFile + " cannot be loaded", ex);
+			}
+
+			logPosition = checkpoint.getLogPosition();
+			checkpointSequence = checkpoint.getSequence();
+
+			// Track the books the log updates from now on, so that the next
+			// checkpoint may be a delta on top of the loaded ones.
+			dirtyIsbns = ConcurrentHashMap.newKeySet();
+		}
+
+		// Redo the log before logging, so that the redone mutations are not
+		// logged again.
+		if (log != null) {
+			log.recover(logPosition, record -> LogRecord.redo(record, this));
+			this.log = log;
+		}
+	}
+
+	/**
+	 * Instantiates a new {@link CertainBookStore} whose storage keeps the books
+	 * in a file, so that they need neither a log nor a checkpoint to survive a
+	 * restart. The books stored in the file are served by ISBN as soon as the
+	 * storage is opened, and published first in the concurrency modes that
+	 * read from snapshots; the indexes are built from them in the background,
+	 * and the operations that need the indexes wait until they are built.
+	 * Mutations are made durable by the storage, not by a log.
+	 *
+	 * @param concurrencyMode
+	 *            the concurrency mode
+	 * @param storageEngine
+	 *            the storage engine, which must keep the books in a file
+	 * @param storeFile
+	 *            the file of the storage, which need not exist
+	 * @throws IOException
+	 *             if the file cannot be opened
+	 * @throws IllegalArgumentException
+	 *             if the storage engine does not support the concurrency
+	 *             mode, or does not keep the books in a file
+	 * @see StorageEngine#MAPPED
+	 */
+	public CertainBookStore(ConcurrencyMode concurrencyMode, StorageEngine storageEngine, Path storeFile)
+			throws IOException {
+		this(concurrencyMode, storageEngine.newStorage(concurrencyMode, storeFile));
+
+		List<BookStoreBook> storedBooks = new ArrayList<>(bookMap.size());
+
+		for (BookStoreBook book : bookMap) {
+			storedBooks.add(book);
+		}
+
+		publish(storedBooks);
+		CompletableFuture<Void> indexes = new CompletableFuture<>();
+		Thread indexer = new Thread(() -> {
+			try {
+				indexStoredBooks(storedBooks);
+				indexes.complete(null);
+			} catch (RuntimeException | Error ex) {
+				indexes.completeExceptionally(ex);
+			}
+		}, "CertainBookStore indexer");
+		indexer.setDaemon(true);
+		this.indexesBuilt = indexes;
+		indexer.start();
+	}
+
+	/**
+	 * Enters the books found in the storage when the store is opened into the
+	 * indexes.
+	 *
+	 * @param storedBooks
+	 *            the stored books
+	 */
+	private void indexStoredBooks(List<BookStoreBook> storedBooks) {
+
+		// Index copies of the books, as bulkAddBooks does, so that the title
+		// and author of each book are read from the storage once.
+		List<BookStoreBook> indexedBooks = storedBooks.parallelStream()
+				.map(book -> new BookStoreBook(book.immutableStockBook())).collect(Collectors.toList());
+		indexedBooks.parallelStream().forEach(book -> {
+			topRatedIndex.update(book);
+			editorPickIndex.update(book);
+			inDemandIndex.update(book);
+			searchIndex.add(book);
+		});
+		rangeIndex.addAll(indexedBooks);
+		fullTextIndex.addAll(indexedBooks);
+	}
+
+	/**
+	 * Waits until the indexes hold the books found in the storage when the
+	 * store was opened. Every operation that reads or updates an index calls
+	 * this first, so that the books are served by ISBN while the indexes are
+	 * built.
+	 *
+	 * @throws BookStoreException
+	 *             if the indexes could not be built, or the wait was
+	 *             interrupted
+	 */
+	private void awaitIndexes() throws BookStoreException {
+		CompletableFuture<Void> indexes = indexesBuilt;
+
+		if (indexes == null || indexes.isDone() && !indexes.isCompletedExceptionally()) {
+			return;
+		}
+
+		try {
+			indexes.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new BookStoreException(ex);
+		} catch (ExecutionException ex) {
+			throw new BookStoreException(ex.getCause());
+		}
+	}
+
+	/**
+	 * Closes the storage of the books, if it keeps them in a file, making the
+	 * books durable, and stops the threads of the lock manager, if any. The
+	 * store must not be used afterwards.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			awaitIndexes();
+		} catch (BookStoreException ex) {
+			// The storage is closed whether the indexes were built or not.
+		}
+
+		try {
+			if (lockManager instanceof Closeable) {
+				((Closeable) lockManager).close();
+			}
+		} finally {
+			if (bookMap instanceof Closeable) {
+				((Closeable) bookMap).close();
+			}
+		}
+	}
+
+	/**
+	 * Moves the books that were not accessed recently out of the heap, if the
+	 * storage keeps only the frequently accessed books there, cf.
+	 * {@link StorageEngine#TIERED}. Each book is evicted under its write lock,
+	 * in batches, so that the store keeps serving meanwhile. This is meant to
+	 * be called periodically; the period is the unit in which the storage
+	 * measures idleness.
+	 *
+	 * @return the number of books evicted
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public int evictIdleBooks() throws BookStoreException {
+		int[] isbns = bookMap.idleBooks();
+		int numEvicted = 0;
+
+		for (int i = 0; i < isbns.length; i += EVICTION_BATCH_SIZE) {
+			List<Integer> batch = new ArrayList<>();
+
+			for (int j = i; j < Math.min(i + EVICTION_BATCH_SIZE, isbns.length); j++) {
+				batch.add(isbns[j]);
+			}
+
+			numEvicted += lockManager.writeBooks(batch, () -> {
+				int numBatchEvicted = 0;
+
+				for (int isbn : batch) {
+					if (bookMap.evict(isbn)) {
+						numBatchEvicted++;
+					}
+				}
+
+				return numBatchEvicted;
+			});
+		}
+
+		return numEvicted;
+	}
+
+	/**
+	 * Writes a full checkpoint of the books while the store keeps serving.
+	 *
+	 * @param checkpointFile
+	 *            the file of the checkpoint
+	 * @return the number of books written
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 * @see #checkpoint(Path, CheckpointMode)
+	 */
+	public long checkpoint(Path checkpointFile) throws IOException {
+		return checkpoint(checkpointFile, CheckpointMode.FULL);
+	}
+
+	/**
+	 * Writes a checkpoint of the books while the store keeps serving, so that
+	 * the store is recovered from the checkpoint and the part of the log after
+	 * it. The books and the log position are captured together with the
+	 * catalog locked exclusively. A full checkpoint captures a
+	 * {@link CatalogSnapshot}, which takes constant time, and reads the books
+	 * from it while the file is written without any lock; only the lock-free
+	 * concurrency mode, which cannot take snapshots, copies the catalog. An
+	 * incremental checkpoint copies the books updated since the last
+	 * checkpoint. The log is forced up to the position before the checkpoint
+	 * is written.
+	 *
+	 * An incremental checkpoint is full if the store has neither written nor
+	 * loaded a checkpoint of the same file before, or if all books were
+	 * removed since then. A full checkpoint deletes the deltas of the previous
+	 * ones, and retires the segments of the log before its position; see
+	 * {@link WriteAheadLog#retire(long)}.
+	 *
+	 * @param checkpointFile
+	 *            the file of the full checkpoint
+	 * @param mode
+	 *            the checkpoint mode
+	 * @return the number of books written
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public long checkpoint(Path checkpointFile, CheckpointMode mode) throws IOException {
+		synchronized (checkpointLock) {
+			long[] logPosition = { 0 };
+			List<Integer> removedIsbns = new ArrayList<>();
+			boolean[] incremental = { false };
+			CatalogSnapshot[] snapshot = { null };
+			Iterable<StockBook> books;
+
+			try {
+				awaitIndexes();
+
+				// No books are being added or removed while a snapshot is
+				// taken, so that the index of the ISBNs matches the storage.
+				synchronized (catalogUpdateLock) {
+					books = lockManager.writeCatalog(() -> {
+						logPosition[0] = log == null ? 0 : log.position();
+						Set<Integer> isbns = dirtyIsbns;
+						dirtyIsbns = ConcurrentHashMap.newKeySet();
+
+						if (mode == CheckpointMode.INCREMENTAL && isbns != null) {
+							incremental[0] = true;
+							return listBooks(isbns, removedIsbns);
+						}
+
+						if (concurrencyMode.updatesBooksWithoutLocks()) {
+							return listAllBooks();
+						}
+
+						snapshot[0] = newSnapshot();
+						return null;
+					});
+				}
+			} catch (BookStoreException ex) {
+				throw new IOException(ex);
+			}
+
+			try {
+				if (log != null) {
+					log.force(logPosition[0]);
+				}
+
+				long numBooks;
+				int[] removed = removedIsbns.stream().mapToInt(Integer::intValue).toArray();
+
+				if (incremental[0]) {
+					numBooks = Checkpoint.write(Checkpoint.deltaFile(checkpointFile, checkpointSequence + 1),
+							checkpointSequence + 1, logPosition[0], books, removed);
+					checkpointSequence++;
+				} else {
+					long sequence = Math.max(checkpointSequence, Checkpoint.latestSequence(checkpointFile)) + 1;
+					numBooks = snapshot[0] != null
+							? Checkpoint.write(checkpointFile, sequence, logPosition[0], snapshot[0])
+							: Checkpoint.write(checkpointFile, sequence, logPosition[0], books, removed);
+					checkpointSequence = sequence;
+					Checkpoint.deleteDeltas(checkpointFile, sequence);
+
+					if (log != null) {
+						log.retire(logPosition[0]);
+					}
+				}
+
+				return numBooks;
+			} catch (IOException ex) {
+
+				// The books captured are not written, so the next checkpoint
+				// must be full.
+				dirtyIsbns = null;
+				throw ex;
+			} finally {
+				if (snapshot[0] != null) {
+					snapshot[0].close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Folds the deltas of incremental checkpoints into the full checkpoint in
+	 * the background, so that fewer files are read during recovery. The
+	 * checkpoints are read and the folded checkpoint is written without any
+	 * lock; it replaces the full checkpoint unless a full checkpoint was
+	 * written meanwhile, and then retires the segments of the log before its
+	 * position.
+	 *
+	 * @param checkpointFile
+	 *            the file of the full checkpoint
+	 * @return the number of deltas folded
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 * @see CheckpointMode#INCREMENTAL
+	 */
+	public int mergeCheckpoints(Path checkpointFile) throws IOException {
+		Checkpoint checkpoint = Checkpoint.load(checkpointFile);
+
+		if (checkpoint == null || checkpoint.getNumDeltas() == 0) {
+			return 0;
+		}
+
+		Path mergedFile = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".merged");
+
+		try {
+			Checkpoint.write(mergedFile, checkpoint.getSequence(), checkpoint.getLogPosition(),
+					checkpoint.getBooks(), new int[0]);
+
+			synchronized (checkpointLock) {
+				if (Checkpoint.readSequence(checkpointFile) != checkpoint.getSequence()
+						- checkpoint.getNumDeltas()) {
+					return 0;
+				}
+
+				Files.move(mergedFile, checkpointFile, StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+				Checkpoint.deleteDeltas(checkpointFile, checkpoint.getSequence());
+
+				if (log != null) {
+					log.retire(checkpoint.getLogPosition());
+				}
+
+				return checkpoint.getNumDeltas();
+			}
+		} finally {
+			Files.deleteIfExists(mergedFile);
+		}
+	}
+
+	/**
+	 * Takes a snapshot of all books, which is read while the store keeps
+	 * serving; see {@link CatalogSnapshot}. In the concurrency modes that read
+	 * from snapshots, it is the published version of the books. In the other
+	 * modes, the catalog is locked exclusively only while the snapshot is
+	 * registered, which takes constant time; until the snapshot is closed,
+	 * every operation that changes books saves a copy of those that the
+	 * snapshot has not read yet.
+	 *
+	 * @return the snapshot, which must be closed
+	 * @throws BookStoreException
+	 *             if the concurrency mode updates books without locks, so
+	 *             that no copy can be saved before they change
+	 */
+	public CatalogSnapshot snapshot() throws BookStoreException {
+		awaitIndexes();
+
+		if (concurrencyMode.updatesBooksWithoutLocks()) {
+			throw new BookStoreException(BookStoreConstants.SNAPSHOT + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		PersistentIntMap<StockBook> snapshot = publishedBooks;
+
+		if (snapshot != null) {
+			return new CatalogSnapshot(snapshot);
+		}
+
+		// No books are being added or removed while the snapshot is taken, so
+		// that the index of the ISBNs matches the storage.
+		synchronized (catalogUpdateLock) {
+			return lockManager.writeCatalog(this::newSnapshot);
+		}
+	}
+
+	/**
+	 * Takes a snapshot of all books, and registers it with the store unless
+	 * it is the published version of the books. The caller must hold the
+	 * catalog update lock and the catalog lock exclusively.
+	 *
+	 * @return the snapshot, which must be closed
+	 */
+	private CatalogSnapshot newSnapshot() {
+		if (publishedBooks != null) {
+			return new CatalogSnapshot(publishedBooks);
+		}
+
+		CatalogSnapshot catalogSnapshot = new CatalogSnapshot(bookMap, rangeIndex, lockManager,
+				concurrencyMode.readsWithoutLocks(), openSnapshots::remove);
+		openSnapshots.add(catalogSnapshot);
+		return catalogSnapshot;
+	}
+
+	/**
+	 * Reads the records the log has committed from a position on, to ship
+	 * them to a backup, waiting for new records if there are none yet; see
+	 * {@link WriteAheadLog#read(long, int, long)}.
+	 *
+	 * @param from
+	 *            the position to read from, which the backup has reached
+	 * @param maxBytes
+	 *            the maximum number of bytes to read
+	 * @param timeoutMillis
+	 *            the time to wait for new records, in milliseconds
+	 * @return the bytes of the records, which may end in the middle of one
+	 * @throws BookStoreException
+	 *             if the store has no log, or the log cannot be read from the
+	 *             position, e.g., because it was retired
+	 * @see #snapshotLog()
+	 */
+	public byte[] readLog(long from, int maxBytes, long timeoutMillis) throws BookStoreException {
+		if (log == null || from < 0 || maxBytes < 1) {
+			throw new BookStoreException(BookStoreConstants.LOG + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		try {
+			return log.read(from, maxBytes, timeoutMillis);
+		} catch (IOException ex) {
+			throw new BookStoreException(BookStoreConstants.LOG + BookStoreConstants.NOT_AVAILABLE, ex);
+		}
+	}
+
+	/**
+	 * Gets the position of the first record the log still holds, before which
+	 * backups cannot read it anymore; see {@link WriteAheadLog#retire(long)}.
+	 *
+	 * @return the position
+	 * @throws BookStoreException
+	 *             if the store has no log
+	 */
+	public long getLogStartPosition() throws BookStoreException {
+		if (log == null) {
+			throw new BookStoreException(BookStoreConstants.LOG + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		return log.getStartPosition();
+	}
+
+	/**
+	 * Captures all books together with the position of the log they reflect,
+	 * for a backup whose position in the log was retired, so that it replaces
+	 * its books and redoes the log from that position on. The catalog is
+	 * locked exclusively only while a {@link CatalogSnapshot} is taken, and
+	 * the books are read from it while the store keeps serving. The log is
+	 * committed up to the position, so that the backup does not get ahead of
+	 * the log.
+	 *
+	 * @return the books and the position, as a checkpoint that is not written
+	 * @throws BookStoreException
+	 *             if the store has no log, or the log failed
+	 * @see #restoreBooks(List)
+	 */
+	public Checkpoint snapshotLog() throws BookStoreException {
+		if (log == null) {
+			throw new BookStoreException(BookStoreConstants.LOG + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		awaitIndexes();
+
+		long[] logPosition = { 0 };
+		CatalogSnapshot snapshot;
+
+		// No books are being added or removed while the snapshot is taken, so
+		// that the index of the ISBNs matches the storage.
+		synchronized (catalogUpdateLock) {
+			snapshot = lockManager.writeCatalog(() -> {
+				logPosition[0] = log.position();
+				return newSnapshot();
+			});
+		}
+
+		List<StockBook> books = new ArrayList<>();
+
+		try {
+			snapshot.forEach(books::add);
+			log.commit(logPosition[0]);
+		} catch (IOException ex) {
+			throw new BookStoreException(BookStoreConstants.LOG + BookStoreConstants.NOT_AVAILABLE, ex);
+		} finally {
+			snapshot.close();
+		}
+
+		return Checkpoint.of(logPosition[0], books);
+	}
+
+	/**
+	 * Replaces all books with those captured from a primary, e.g., when the
+	 * log of the primary no longer holds the records the backup needs to
+	 * catch up. Readers may see the books partly replaced meanwhile, as they
+	 * do while records are redone.
+	 *
+	 * @param books
+	 *            the books, with their full state
+	 * @throws BookStoreException
+	 *             if the store logs its own mutations, or a book is invalid
+	 * @see #snapshotLog()
+	 */
+	public void restoreBooks(List<StockBook> books) throws BookStoreException {
+		if (log != null) {
+			throw new BookStoreException(BookStoreConstants.LOG + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		if (books == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		synchronized (catalogUpdateLock) {
+			removeAllBooks();
+
+			for (int i = 0; i < books.size(); i += CatalogImporter.DEFAULT_BATCH_SIZE) {
+				bulkAddBooks(books.subList(i, Math.min(i + CatalogImporter.DEFAULT_BATCH_SIZE, books.size())),
+						CertainBookStore::isInvalidStoredBook);
+			}
+		}
+	}
+
+	/**
+	 * Redoes the complete records among bytes shipped from the log of a
+	 * primary, in order, through the same operations that clients call, so
+	 * that the store serves reads meanwhile. The buffer is left at the start
+	 * of the first incomplete record.
+	 *
+	 * @param records
+	 *            the bytes of the records, starting with a record
+	 * @return the number of records redone
+	 * @throws BookStoreException
+	 *             if the store logs its own mutations, or a record is corrupt
+	 *             or cannot be redone
+	 */
+	public long redoLog(ByteBuffer records) throws BookStoreException {
+		if (log != null) {
+			throw new BookStoreException(BookStoreConstants.LOG + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		try {
+			return WriteAheadLog.redo(records, record -> LogRecord.redo(record, this));
+		} catch (IOException ex) {
+			throw new BookStoreException(BookStoreConstants.LOG + BookStoreConstants.NOT_AVAILABLE, ex);
+		}
+	}
+
+	/**
+	 * Lists the current state of books. The caller must hold the catalog lock
+	 * exclusively.
+	 *
+	 * @param isbns
+	 *            the ISBNs of the books
+	 * @param removedIsbns
+	 *            collects the ISBNs of the books that are not in the store
+	 * @return the books that are in the store
+	 */
+	private List<StockBook> listBooks(Set<Integer> isbns, List<Integer> removedIsbns) {
+		List<StockBook> books = new ArrayList<>(isbns.size());
+
+		for (int isbn : isbns) {
+			StockBook book;
+
+			if (publishedBooks != null) {
+				book = publishedBooks.get(isbn);
+			} else {
+				BookStoreBook storedBook = bookMap.get(isbn);
+				book = storedBook == null ? null : storedBook.immutableStockBook();
+			}
+
+			if (book == null) {
+				removedIsbns.add(isbn);
+			} else {
+				books.add(book);
+			}
+		}
+
+		return books;
+	}
+
+	/**
+	 * Appends a mutation to the log, if the store is durable. The caller must
+	 * hold the locks of the books, so that the log keeps the order in which
+	 * the mutations of each book took effect.
+	 *
+	 * @param record
+	 *            the supplier of the record, called only if the store is
+	 *            durable
+	 * @return the position to commit, or 0 if the store is not durable
+	 */
+	private long append(Supplier<byte[]> record) {
+		return log == null ? 0 : log.append(record.get());
+	}
+
+	/**
+	 * Waits until the log has committed a mutation. The caller must not hold
+	 * any locks, so that other mutations are appended meanwhile and committed
+	 * in the same group.
+	 *
+	 * @param position
+	 *            the position returned by {@link #append(Supplier)}
+	 * @throws BookStoreException
+	 *             if the log failed
+	 */
+	private void commit(long position) throws BookStoreException {
+		if (position > 0) {
+			try {
+				log.commit(position);
+			} catch (IOException ex) {
+				throw new BookStoreException(BookStoreConstants.LOG + BookStoreConstants.NOT_AVAILABLE, ex);
+			}
+		}
+	}
+
+	/**
+	 * Saves books for the open snapshots before they are updated or removed.
+	 * The caller must hold the locks of the books.
+	 *
+	 * @param books
+	 *            the books
+	 */
+	private void preserve(BookStoreBook... books) {
+		if (openSnapshots.isEmpty()) {
+			return;
+		}
+
+		for (CatalogSnapshot snapshot : openSnapshots) {
+			for (BookStoreBook book : books) {
+				snapshot.save(book);
+			}
+		}
+	}
+
+	/**
+	 * Marks books as added for the open snapshots before they are added. The
+	 * caller must hold the catalog lock exclusively.
+	 *
+	 * @param books
+	 *            the books
+	 */
+	private void preserveAdded(Collection<? extends StockBook> books) {
+		if (openSnapshots.isEmpty()) {
+			return;
+		}
+
+		for (CatalogSnapshot snapshot : openSnapshots) {
+			for (StockBook book : books) {
+				snapshot.saveAdded(book.getISBN());
+			}
+		}
+	}
+
+	/**
+	 * Publishes the current state of the books to snapshot readers, as one
+	 * atomic step, and marks them dirty for the next checkpoint. The caller
+	 * must hold the locks of the books.
+	 *
+	 * @param books
+	 *            the books that were added or updated
+	 */
+	private void publish(Collection<BookStoreBook> books) {
+		Set<Integer> isbns = dirtyIsbns;
+
+		if (isbns != null) {
+			for (BookStoreBook book : books) {
+				isbns.add(book.getISBN());
+			}
+		}
+
+		if (publishedBooks == null) {
+			return;
+		}
+
+		synchronized (publishLock) {
+			PersistentIntMap<StockBook> version = publishedBooks;
+
+			for (BookStoreBook book : books) {
+				version = version.plus(book.getISBN(), book.immutableStockBook());
+			}
+
+			publishedBooks = version;
+		}
+	}
+
+	/**
+	 * Publishes the removal of books to snapshot readers, as one atomic step,
+	 * and marks them dirty for the next checkpoint, which must be full if all
+	 * books were removed. The caller must hold the catalog lock.
+	 *
+	 * @param isbns
+	 *            the ISBNs of the removed books, or null if all books were
+	 *            removed
+	 */
+	private void unpublish(Collection<Integer> isbns) {
+		Set<Integer> removedIsbns = dirtyIsbns;
+
+		if (isbns == null) {
+			dirtyIsbns = null;
+		} else if (removedIsbns != null) {
+			removedIsbns.addAll(isbns);
+		}
+
+		if (publishedBooks == null) {
+			return;
+		}
+
+		synchronized (publishLock) {
+			PersistentIntMap<StockBook> version = PersistentIntMap.empty();
+
+			if (isbns != null) {
+				version = publishedBooks;
+
+				for (int isbn : isbns) {
+					version = version.minus(isbn);
+				}
+			}
+
+			publishedBooks = version;
+		}
+	}
+
+	/**
+	 * Looks up books in a snapshot, validating the ISBNs.
+	 *
+	 * @param snapshot
+	 *            the snapshot
+	 * @param isbnSet
+	 *            the ISBNs
+	 * @return the books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private static List<StockBook> lookUp(PersistentIntMap<StockBook> snapshot, Set<Integer> isbnSet)
+			throws BookStoreException {
+		List<StockBook> listBooks = new ArrayList<>(isbnSet.size());
+
+		for (Integer ISBN : isbnSet) {
+			if (BookStoreUtility.isInvalidISBN(ISBN)) {
+				throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+			}
+
+			StockBook book = snapshot.get(ISBN);
+
+			if (book == null) {
+				throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+			}
+
+			listBooks.add(book);
+		}
+
+		return listBooks;
+	}
+
+	/**
+	 * Gets the parts of a book that are available to the bookstore client.
+	 *
+	 * @param book
+	 *            the book, as read from the snapshot or copied from the store
+	 * @return the immutable book
+	 */
+	private static ImmutableBook immutableBookOf(StockBook book) {
+		if (book instanceof ImmutableStockBook) {
+			return ((ImmutableStockBook) book).immutableBook();
+		}
+
+		return new ImmutableBook(book.getISBN(), book.getTitle(), book.getAuthor(), book.getPrice());
+	}
+
+	/**
+	 * Collects the ISBNs of a set of items, e.g., {@link BookCopy} instances.
+	 *
+	 * @param <E>
+	 *            the type of the items
+	 * @param items
+	 *            the items
+	 * @param isbnOf
+	 *            the function extracting the ISBN of an item
+	 * @return the ISBNs
+	 */
+	private static <E> List<Integer> isbnsOf(Collection<E> items, ToIntFunction<E> isbnOf) {
+		List<Integer> isbns = new ArrayList<>(items.size());
+
+		for (E item : items) {
+			isbns.add(isbnOf.applyAsInt(item));
+		}
+
+		return isbns;
+	}
+
+	/**
+	 * Resolves the books of a set of items, e.g., {@link BookCopy} instances,
+	 * in one pass over the items and one batch lookup, validating the ISBNs.
+	 * The caller must hold the locks of the books.
+	 *
+	 * @param <E>
+	 *            the type of the items
+	 * @param items
+	 *            the items
+	 * @param isbnOf
+	 *            the function extracting the ISBN of an item
+	 * @param missing
+	 *            the message suffix of the exception thrown if a book is not
+	 *            in the store
+	 * @return the books, in the iteration order of the items
+	 * @throws BookStoreException
+	 *             if an ISBN is invalid or a book is not in the store
+	 */
+	private <E> BookStoreBook[] resolve(Collection<E> items, ToIntFunction<E> isbnOf, String missing)
+			throws BookStoreException {
+		int[] isbns = new int[items.size()];
+		int i = 0;
+
+		for (E item : items) {
+			int isbn = isbnOf.applyAsInt(item);
+
+			if (BookStoreUtility.isInvalidISBN(isbn)) {
+				throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+			}
+
+			isbns[i++] = isbn;
+		}
 
-		// Constructors are not synchronized
-		this.bookMap = new HashMap<>();
+		BookStoreBook[] books = new BookStoreBook[isbns.length];
+		int missingIndex = bookMap.getAll(isbns, books);
+
+		if (missingIndex >= 0) {
+			throw new BookStoreException(BookStoreConstants.ISBN + isbns[missingIndex] + missing);
+		}
+
+		return books;
 	}
 
 	/*
@@ -49,49 +1072,201 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * @see
 	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
 	 */
-	public synchronized void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		awaitIndexes();
+
 		if (bookSet == null) {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		// Check if all are there
-		for (StockBook book : bookSet) {
-			int isbn = book.getISBN();
-			String bookTitle = book.getTitle();
-			String bookAuthor = book.getAuthor();
-			int noCopies = book.getNumCopies();
-			float bookPrice = book.getPrice();
-			
+		long position;
 
-			if (BookStoreUtility.isInvalidISBN(isbn)) {
-				throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		synchronized (catalogUpdateLock) {
+			if (bookSet.size() >= BookStoreConstants.BULK_LOAD_THRESHOLD) {
+				position = bulkAddBooks(new ArrayList<>(bookSet), CertainBookStore::isInvalidNewBook);
+			} else {
+				position = addBooksExclusively(bookSet);
 			}
+		}
+
+		commit(position);
+	}
+
+	/**
+	 * Adds a small batch of books, keeping the catalog locked throughout. The
+	 * caller must hold the catalog update lock.
+	 *
+	 * @param bookSet
+	 *            the books
+	 * @return the position of the mutation in the log
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private long addBooksExclusively(Set<StockBook> bookSet) throws BookStoreException {
+		return lockManager.writeCatalog(() -> {
+			Set<Integer> isbns = new HashSet<>();
 
-			if (BookStoreUtility.isEmpty(bookTitle)) {
-				throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+			// Check if all are there
+			for (StockBook book : bookSet) {
+				int isbn = book.getISBN();
+
+				if (isInvalidNewBook(book)) {
+					throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+				}
+
+				if (!isbns.add(isbn) || bookMap.contains(isbn)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+				}
 			}
 
-			if (BookStoreUtility.isEmpty(bookAuthor)) {
-				throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+			// Encode the log record before anything changes.
+			byte[] record = log == null ? null : LogRecord.addBooks(bookSet);
+			List<BookStoreBook> addedBooks = new ArrayList<>(bookSet.size());
+			preserveAdded(bookSet);
+
+			for (StockBook book : bookSet) {
+				BookStoreBook addedBook = bookMap.add(book);
+				topRatedIndex.update(addedBook);
+				editorPickIndex.update(addedBook);
+				inDemandIndex.update(addedBook);
+				searchIndex.add(addedBook);
+				rangeIndex.add(addedBook);
+				addedBooks.add(addedBook);
 			}
 
-			if (BookStoreUtility.isInvalidNoCopies(noCopies)) {
-				throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+			fullTextIndex.addAll(addedBooks);
+			publish(addedBooks);
+			return append(() -> record);
+		});
+	}
+
+	/**
+	 * Checks if a book to be added has an invalid ISBN, title, author, number
+	 * of copies or price. Titles and authors must fit the records of the log.
+	 *
+	 * @param book
+	 *            the book
+	 * @return true, if the book is invalid
+	 */
+	private static boolean isInvalidNewBook(StockBook book) {
+		return BookStoreUtility.isInvalidISBN(book.getISBN()) || BookStoreUtility.isEmpty(book.getTitle())
+				|| BookStoreUtility.isEmpty(book.getAuthor()) || BookStoreUtility.isTooLong(book.getTitle())
+				|| BookStoreUtility.isTooLong(book.getAuthor())
+				|| BookStoreUtility.isInvalidNoCopies(book.getNumCopies()) || book.getPrice() < 0.0;
+	}
+
+	/**
+	 * Checks if a book restored from a checkpoint has an invalid ISBN, title,
+	 * author, number of copies or price. Unlike new books, stored books may be
+	 * sold out.
+	 *
+	 * @param book
+	 *            the book
+	 * @return true, if the book is invalid
+	 */
+	private static boolean isInvalidStoredBook(StockBook book) {
+		return BookStoreUtility.isInvalidISBN(book.getISBN()) || BookStoreUtility.isEmpty(book.getTitle())
+				|| BookStoreUtility.isEmpty(book.getAuthor()) || book.getNumCopies() < 0 || book.getPrice() < 0.0;
+	}
+
+	/**
+	 * Adds a large batch of books, keeping the catalog locked only while the
+	 * books are inserted into the storage. The caller must hold the catalog
+	 * update lock, so that no books are added or removed meanwhile.
+	 *
+	 * The books are validated in parallel, and checked against the store under
+	 * the shared catalog lock. They are then entered into the indexes without
+	 * any lock: readers that find them there before they are inserted skip
+	 * them, as they skip removed books. If the indexing or the insertion fails,
+	 * the books are taken out of the storage and the indexes again, so that
+	 * the batch is added entirely or not at all.
+	 *
+	 * @param books
+	 *            the books
+	 * @param isInvalid
+	 *            the predicate rejecting invalid books
+	 * @return the position of the mutation in the log
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private long bulkAddBooks(List<StockBook> books, Predicate<StockBook> isInvalid) throws BookStoreException {
+		Optional<StockBook> invalidBook = books.parallelStream().filter(isInvalid).findFirst();
+
+		if (invalidBook.isPresent()) {
+			throw new BookStoreException(
+					BookStoreConstants.BOOK + invalidBook.get().toString() + BookStoreConstants.INVALID);
+		}
+
+		int[] isbns = books.stream().mapToInt(StockBook::getISBN).toArray();
+		Arrays.parallelSort(isbns);
+
+		for (int i = 1; i < isbns.length; i++) {
+			if (isbns[i] == isbns[i - 1]) {
+				throw new BookStoreException(BookStoreConstants.ISBN + isbns[i] + BookStoreConstants.DUPLICATED);
 			}
+		}
 
-			if (bookPrice < 0.0) {
-				throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		lockManager.readCatalog(() -> {
+			for (int isbn : isbns) {
+				if (bookMap.contains(isbn)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+				}
 			}
 
-			if (bookMap.containsKey(isbn)) {
-				//System.out.println(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
-				throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+			return null;
+		});
+
+		// Encode the log record before anything changes, and before locking
+		// the catalog.
+		byte[] record = log == null ? null : LogRecord.addBooks(books);
+
+		// Index copies of the books; the indexes read the stored books again
+		// whenever they are updated.
+		List<BookStoreBook> indexedBooks = books.parallelStream().map(BookStoreBook::new)
+				.collect(Collectors.toList());
+
+		try {
+			// If the indexing fails part way, the books indexed so far are
+			// taken out again below, with the rest of the batch.
+			indexedBooks.parallelStream().forEach(book -> {
+				topRatedIndex.update(book);
+				editorPickIndex.update(book);
+				inDemandIndex.update(book);
+				searchIndex.add(book);
+			});
+			rangeIndex.addAll(indexedBooks);
+			fullTextIndex.addAll(indexedBooks);
+
+			return lockManager.writeCatalog(() -> {
+				List<BookStoreBook> addedBooks = new ArrayList<>(books.size());
+				preserveAdded(books);
+
+				try {
+					for (StockBook book : books) {
+						addedBooks.add(bookMap.add(book));
+					}
+				} catch (RuntimeException ex) {
+					for (BookStoreBook addedBook : addedBooks) {
+						bookMap.remove(addedBook.getISBN());
+					}
+
+					throw ex;
+				}
+
+				publish(addedBooks);
+				return append(() -> record);
+			});
+		} catch (BookStoreException | RuntimeException ex) {
+			for (BookStoreBook book : indexedBooks) {
+				topRatedIndex.remove(book.getISBN());
+				editorPickIndex.remove(book.getISBN());
+				inDemandIndex.remove(book.getISBN());
+				searchIndex.remove(book);
+				rangeIndex.remove(book);
 			}
-		}
 
-		for (StockBook book : bookSet) {
-			int isbn = book.getISBN();
-			bookMap.put(isbn, new BookStoreBook(book));
+			fullTextIndex.removeAll(indexedBooks);
+			throw ex;
 		}
 	}
 
@@ -101,52 +1276,97 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * @see
 	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
 	 */
-	public synchronized void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
-		int isbn;
-		int numCopies;
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		awaitIndexes();
 
 		if (bookCopiesSet == null) {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		for (BookCopy bookCopy : bookCopiesSet) {
-			isbn = bookCopy.getISBN();
-			numCopies = bookCopy.getNumCopies();
+		commit(lockManager.writeBooks(isbnsOf(bookCopiesSet, BookCopy::getISBN), () -> {
+			BookStoreBook[] books = resolve(bookCopiesSet, BookCopy::getISBN, BookStoreConstants.NOT_AVAILABLE);
+			preserve(books);
+			int numCopies;
 
-			if (BookStoreUtility.isInvalidISBN(isbn)) {
-				throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
-			}
+			for (BookCopy bookCopy : bookCopiesSet) {
+				numCopies = bookCopy.getNumCopies();
 
-			if (!bookMap.containsKey(isbn)) {
-				throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.NOT_AVAILABLE);
+				if (BookStoreUtility.isInvalidNoCopies(numCopies)) {
+					throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+				}
 			}
 
-			if (BookStoreUtility.isInvalidNoCopies(numCopies)) {
-				throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+			List<BookStoreBook> updatedBooks = new ArrayList<>(bookCopiesSet.size());
+			int i = 0;
+
+			// Update the number of copies
+			for (BookCopy bookCopy : bookCopiesSet) {
+				BookStoreBook book = books[i++];
+				book.addCopies(bookCopy.getNumCopies());
+				inDemandIndex.update(book);
+				updatedBooks.add(book);
 			}
-		}
 
-		BookStoreBook book;
+			publish(updatedBooks);
+			return append(() -> LogRecord.addCopies(bookCopiesSet));
+		}));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() throws BookStoreException {
+		PersistentIntMap<StockBook> snapshot = publishedBooks;
+
+		if (snapshot != null) {
+			List<StockBook> listBooks = new ArrayList<>(snapshot.size());
+
+			for (StockBook book : snapshot) {
+				listBooks.add(book);
+			}
 
-		// Update the number of copies
-		for (BookCopy bookCopy : bookCopiesSet) {
-			isbn = bookCopy.getISBN();
-			numCopies = bookCopy.getNumCopies();
-			book = bookMap.get(isbn);
-			book.addCopies(numCopies);
+			return listBooks;
 		}
+
+		return lockManager.readCatalog(this::listAllBooks);
 	}
 
 	/*
 	 * (non-Javadoc)
 	 * 
-	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooks(com.
+	 * acertainbookstore.business.BookCursor)
+	 */
+	@Override
+	public List<StockBook> getBooks(BookCursor cursor) throws BookStoreException {
+		if (cursor == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		// The pages are read from the index of the ISBNs.
+		awaitIndexes();
+		BookRange range = cursor.toRange();
+
+		// The previous page ended with the largest possible ISBN.
+		if (range == null) {
+			return new ArrayList<>();
+		}
+
+		return lookUpRange(range);
+	}
+
+	/**
+	 * Copies all books of the catalog. The caller must have locked the catalog.
+	 *
+	 * @return the books
 	 */
-	public synchronized List<StockBook> getBooks() {
-		List<StockBook> listBooks = new ArrayList<>();
-		Collection<BookStoreBook> bookMapValues = bookMap.values();
+	private List<StockBook> listAllBooks() {
+		List<StockBook> listBooks = new ArrayList<>(bookMap.size());
 
-		for (BookStoreBook book : bookMapValues) {
+		for (BookStoreBook book : bookMap) {
 			listBooks.add(book.immutableStockBook());
 		}
 
@@ -161,142 +1381,317 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
 	 * .Set)
 	 */
-	public synchronized void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		awaitIndexes();
+
 
 		// Check that all ISBNs that we add/remove are there first.
 		if (editorPicks == null) {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		int isbnValue;
+		commit(lockManager.writeBooks(isbnsOf(editorPicks, BookEditorPick::getISBN), () -> {
+			BookStoreBook[] books = resolve(editorPicks, BookEditorPick::getISBN, BookStoreConstants.NOT_AVAILABLE);
+			preserve(books);
+			List<BookStoreBook> updatedBooks = new ArrayList<>(editorPicks.size());
+			int i = 0;
+
+			for (BookEditorPick editorPickArg : editorPicks) {
+				BookStoreBook book = books[i++];
+				book.setEditorPick(editorPickArg.isEditorPick());
+				editorPickIndex.update(book);
+				updatedBooks.add(book);
+			}
 
-		for (BookEditorPick editorPickArg : editorPicks) {
-			isbnValue = editorPickArg.getISBN();
+			publish(updatedBooks);
+			return append(() -> LogRecord.updateEditorPicks(editorPicks));
+		}));
+	}
 
-			if (BookStoreUtility.isInvalidISBN(isbnValue)) {
-				throw new BookStoreException(BookStoreConstants.ISBN + isbnValue + BookStoreConstants.INVALID);
-			}
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		awaitIndexes();
 
-			if (!bookMap.containsKey(isbnValue)) {
-				throw new BookStoreException(BookStoreConstants.ISBN + isbnValue + BookStoreConstants.NOT_AVAILABLE);
-			}
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		for (BookEditorPick editorPickArg : editorPicks) {
-			bookMap.get(editorPickArg.getISBN()).setEditorPick(editorPickArg.isEditorPick());
+		// The position of a failed purchase that recorded sale misses.
+		long[] missPosition = { 0 };
+		long position;
+
+		try {
+			position = lockManager.writeBooks(isbnsOf(bookCopiesToBuy, BookCopy::getISBN), () -> {
+
+				// Check that all ISBNs that we buy are there first.
+				BookStoreBook[] books = resolve(bookCopiesToBuy, BookCopy::getISBN, BookStoreConstants.NOT_AVAILABLE);
+				preserve(books);
+				BookStoreBook book;
+				Boolean saleMiss = false;
+				List<BookStoreBook> updatedBooks = new ArrayList<>(bookCopiesToBuy.size());
+				List<Integer> boughtCopies = new ArrayList<>(bookCopiesToBuy.size());
+				int i = 0;
+
+				for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+					if (bookCopyToBuy.getNumCopies() < 0) {
+						throw new BookStoreException(BookStoreConstants.NUM_COPIES + bookCopyToBuy.getNumCopies()
+								+ BookStoreConstants.INVALID);
+					}
+
+					book = books[i++];
+
+					if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+
+						// If we cannot sell the copies of the book, it is a miss.
+						book.addSaleMiss();
+						inDemandIndex.update(book);
+						saleMiss = true;
+						updatedBooks.add(book);
+					}
+				}
+
+				// We throw exception now since we want to see how many books in the
+				// order incurred misses which is used by books in demand
+				if (saleMiss) {
+					publish(updatedBooks);
+					missPosition[0] = append(() -> LogRecord.buyBooks(bookCopiesToBuy, true));
+					throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+				}
+
+				// Then make the purchase. Buying can only fail now if a concurrent
+				// buyer took the copies without locking the book, cf.
+				// ConcurrencyMode.LOCK_FREE; then the copies taken so far are
+				// returned and the purchase is a miss after all.
+				i = 0;
+
+				for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+					book = books[i++];
+					int numCopies = bookCopyToBuy.getNumCopies();
+
+					if (!book.buyCopies(numCopies) && !BookStoreUtility.isInvalidNoCopies(numCopies)) {
+						book.addSaleMiss();
+						inDemandIndex.update(book);
+
+						for (int j = 0; j < updatedBooks.size(); j++) {
+							updatedBooks.get(j).returnCopies(boughtCopies.get(j));
+						}
+
+						updatedBooks.add(book);
+						publish(updatedBooks);
+						missPosition[0] = append(() -> LogRecord.buyBooks(bookCopiesToBuy, true));
+						throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+					}
+
+					updatedBooks.add(book);
+					boughtCopies.add(numCopies);
+				}
+
+				publish(updatedBooks);
+				return append(() -> LogRecord.buyBooks(bookCopiesToBuy, false));
+			});
+		} catch (BookStoreException ex) {
+
+			// The sale misses are committed, although the purchase failed.
+			commit(missPosition[0]);
+			throw ex;
 		}
+
+		commit(position);
 	}
 
 	/*
 	 * (non-Javadoc)
 	 * 
-	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getStockBooksInRange(com.
+	 * acertainbookstore.business.BookRange)
 	 */
-	public synchronized void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
-		if (bookCopiesToBuy == null) {
+	@Override
+	public List<StockBook> getStockBooksInRange(BookRange range) throws BookStoreException {
+		awaitIndexes();
+
+		return lookUpRange(range);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		// Check that all ISBNs that we buy are there first.
-		int isbn;
-		BookStoreBook book;
-		Boolean saleMiss = false;
+		PersistentIntMap<StockBook> snapshot = publishedBooks;
 
-		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
-			isbn = bookCopyToBuy.getISBN();
+		if (snapshot != null) {
+			return lookUp(snapshot, isbnSet);
+		}
 
-			if (bookCopyToBuy.getNumCopies() < 0) {
-				throw new BookStoreException(
-						BookStoreConstants.NUM_COPIES + bookCopyToBuy.getNumCopies() + BookStoreConstants.INVALID);
-			}
+		return lockManager.readBooks(isbnSet, () -> {
+			BookStoreBook[] books = resolve(isbnSet, Integer::intValue, BookStoreConstants.NOT_AVAILABLE);
+			List<StockBook> listBooks = new ArrayList<>(books.length);
 
-			if (BookStoreUtility.isInvalidISBN(isbn)) {
-				throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+			for (BookStoreBook book : books) {
+				listBooks.add(book.immutableStockBook());
 			}
 
-			if (!bookMap.containsKey(isbn)) {
-				throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.NOT_AVAILABLE);
-			}
+			return listBooks;
+		});
+	}
+
+	/**
+	 * Passes the books with the given ISBNs to a visitor without copying them,
+	 * for code running in the same process as the store. In concurrency modes
+	 * that read from snapshots, the visitor gets the published, immutable
+	 * versions of the books; otherwise it gets a {@link StockBookView} of each
+	 * book, which is only valid during the call, while the books are locked
+	 * for reading. In the concurrency modes that read without locks, the books
+	 * are locked exclusively instead, since an optimistic read may run the
+	 * visitor on inconsistent books and then run it again.
+	 *
+	 * @param isbnSet
+	 *            the ISBNs
+	 * @param visitor
+	 *            the visitor, which must neither keep the books nor call back
+	 *            into the store
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public void viewBooks(Set<Integer> isbnSet, Consumer<? super StockBook> visitor) throws BookStoreException {
+		if (isbnSet == null || visitor == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
 
-			book = bookMap.get(isbn);
+		PersistentIntMap<StockBook> snapshot = publishedBooks;
 
-			if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+		if (snapshot != null) {
+			lookUp(snapshot, isbnSet).forEach(visitor);
+			return;
+		}
+
+		BookStoreOperation<Void> visit = () -> {
+			BookStoreBook[] books = resolve(isbnSet, Integer::intValue, BookStoreConstants.NOT_AVAILABLE);
+			StockBookView view = new StockBookView();
 
-				// If we cannot sell the copies of the book, it is a miss.
-				book.addSaleMiss();
-				saleMiss = true;
+			for (BookStoreBook book : books) {
+				visitor.accept(view.of(book));
 			}
-		}
 
-		// We throw exception now since we want to see how many books in the
-		// order incurred misses which is used by books in demand
-		if (saleMiss) {
-			throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
-		}
+			return null;
+		};
 
-		// Then make the purchase.
-		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
-			book = bookMap.get(bookCopyToBuy.getISBN());
-			book.buyCopies(bookCopyToBuy.getNumCopies());
+		if (concurrencyMode.readsWithoutLocks()) {
+			lockManager.writeBooks(isbnSet, visit);
+		} else {
+			lockManager.readBooks(isbnSet, visit);
 		}
 	}
 
 	/*
 	 * (non-Javadoc)
 	 * 
-	 * @see
-	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
-	 * Set)
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
 	 */
-	public synchronized List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
 		if (isbnSet == null) {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		for (Integer ISBN : isbnSet) {
-			if (BookStoreUtility.isInvalidISBN(ISBN)) {
-				throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		PersistentIntMap<StockBook> snapshot = publishedBooks;
+
+		if (snapshot != null) {
+			List<Book> listBooks = new ArrayList<>(isbnSet.size());
+
+			for (StockBook book : lookUp(snapshot, isbnSet)) {
+				listBooks.add(immutableBookOf(book));
 			}
 
-			if (!bookMap.containsKey(ISBN)) {
-				throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+			return listBooks;
+		}
+
+		return lockManager.readBooks(isbnSet, () -> {
+
+			// Check that all ISBNs that we rate are there to start with.
+			BookStoreBook[] books = resolve(isbnSet, Integer::intValue, BookStoreConstants.NOT_AVAILABLE);
+			List<Book> listBooks = new ArrayList<>(books.length);
+
+			for (BookStoreBook book : books) {
+				listBooks.add(book.immutableBook());
 			}
+
+			return listBooks;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		awaitIndexes();
+
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
 		}
 
-		List<StockBook> listBooks = new ArrayList<>();
+		// Sample the picks from the index and look them up; books removed or
+		// unpicked since they were sampled are left out.
+		List<Book> listEditorPicks = new ArrayList<>();
 
-		for (Integer isbn : isbnSet) {
-			listBooks.add(bookMap.get(isbn).immutableStockBook());
+		for (StockBook book : lookUpPresent(editorPickIndex.sample(numBooks))) {
+			if (book.isEditorPick()) {
+				listEditorPicks.add(immutableBookOf(book));
+			}
 		}
 
-		return listBooks;
+		return listEditorPicks;
+	}
+
+	/**
+	 * Seeds the random number generator used to pick books, which makes
+	 * {@link #getEditorPicks(int)} reproducible.
+	 *
+	 * @param seed
+	 *            the seed
+	 */
+	public void setRandomSeed(long seed) {
+		editorPickIndex.setSeed(seed);
 	}
 
 	/*
 	 * (non-Javadoc)
 	 * 
-	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#searchBooks(com.acertainbookstore
+	 * .business.BookSearch)
 	 */
-	public synchronized List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
-		if (isbnSet == null) {
+	@Override
+	public List<Book> searchBooks(BookSearch search) throws BookStoreException {
+		awaitIndexes();
+
+		if (search == null || search.getField() == null || search.getPrefix() == null) {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		// Check that all ISBNs that we rate are there to start with.
-		for (Integer ISBN : isbnSet) {
-			if (BookStoreUtility.isInvalidISBN(ISBN)) {
-				throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
-			}
+		int numBooks = search.getNumBooks();
 
-			if (!bookMap.containsKey(ISBN)) {
-				throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
-			}
+		if (numBooks < 1 || numBooks > BookStoreConstants.MAX_PAGE_SIZE) {
+			throw new BookStoreException(BookStoreConstants.BOOK_NUM_PARAM + BookStoreConstants.INVALID);
 		}
 
-		List<Book> listBooks = new ArrayList<>();
+		List<Book> listBooks = new ArrayList<>(numBooks);
 
-		for (Integer isbn : isbnSet) {
-			listBooks.add(bookMap.get(isbn).immutableBook());
+		for (StockBook book : lookUpPage(searchIndex.search(search), numBooks)) {
+			listBooks.add(immutableBookOf(book));
 		}
 
 		return listBooks;
@@ -305,57 +1700,108 @@ public class CertainBookStore implements BookStore, StockManager {
 	/*
 	 * (non-Javadoc)
 	 * 
-	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#getBooksInRange(com.
+	 * acertainbookstore.business.BookRange)
 	 */
-	public synchronized List<Book> getEditorPicks(int numBooks) throws BookStoreException {
-		if (numBooks < 0) {
-			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+	@Override
+	public List<Book> getBooksInRange(BookRange range) throws BookStoreException {
+		awaitIndexes();
+
+		List<Book> listBooks = new ArrayList<>();
+
+		for (StockBook book : lookUpRange(range)) {
+			listBooks.add(immutableBookOf(book));
 		}
 
-		List<BookStoreBook> listAllEditorPicks = new ArrayList<>();
-		List<Book> listEditorPicks = new ArrayList<>();
-		Iterator<Entry<Integer, BookStoreBook>> it = bookMap.entrySet().iterator();
-		BookStoreBook book;
+		return listBooks;
+	}
 
-		// Get all books that are editor picks.
-		while (it.hasNext()) {
-			Entry<Integer, BookStoreBook> pair = it.next();
-			book = pair.getValue();
+	/**
+	 * Looks up a page of the books in a range.
+	 *
+	 * @param range
+	 *            the range
+	 * @return the page of books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private List<StockBook> lookUpRange(BookRange range) throws BookStoreException {
+		if (range == null || range.getField() == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
 
-			if (book.isEditorPick()) {
-				listAllEditorPicks.add(book);
-			}
+		int numBooks = range.getNumBooks();
+
+		if (numBooks < 1 || numBooks > BookStoreConstants.MAX_PAGE_SIZE) {
+			throw new BookStoreException(BookStoreConstants.BOOK_NUM_PARAM + BookStoreConstants.INVALID);
 		}
 
-		// Find numBooks random indices of books that will be picked.
-		Random rand = new Random();
-		Set<Integer> tobePicked = new HashSet<>();
-		int rangePicks = listAllEditorPicks.size();
+		return lookUpPage(rangeIndex.range(range), numBooks);
+	}
+
+	/**
+	 * Looks up a page of books read off an index, in batches; books removed
+	 * since they were indexed are skipped. The page is read as a scan.
+	 *
+	 * @param matches
+	 *            the ISBNs of the books, in order
+	 * @param numBooks
+	 *            the maximum number of books in the page
+	 * @return the page of books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private List<StockBook> lookUpPage(Iterator<Integer> matches, int numBooks) throws BookStoreException {
+		List<StockBook> listBooks = new ArrayList<>(numBooks);
 
-		if (rangePicks <= numBooks) {
+		while (listBooks.size() < numBooks && matches.hasNext()) {
+			List<Integer> isbns = new ArrayList<>(numBooks - listBooks.size());
 
-			// We need to add all books.
-			for (int i = 0; i < listAllEditorPicks.size(); i++) {
-				tobePicked.add(i);
+			while (isbns.size() < numBooks - listBooks.size() && matches.hasNext()) {
+				isbns.add(matches.next());
 			}
-		} else {
 
-			// We need to pick randomly the books that need to be returned.
-			int randNum;
+			listBooks.addAll(lookUpPresent(isbns, true));
+		}
 
-			while (tobePicked.size() < numBooks) {
-				randNum = rand.nextInt(rangePicks);
-				tobePicked.add(randNum);
-			}
+		return listBooks;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#queryBooks(com.acertainbookstore
+	 * .business.BookQuery)
+	 */
+	@Override
+	public List<Book> queryBooks(BookQuery query) throws BookStoreException {
+		awaitIndexes();
+
+		if (query == null || query.getText() == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		// Get the numBooks random books.
-		for (Integer index : tobePicked) {
-			book = listAllEditorPicks.get(index);
-			listEditorPicks.add(book.immutableBook());
+		int numBooks = query.getNumBooks();
+		float ratingWeight = query.getRatingWeight();
+
+		if (numBooks < 1 || numBooks > BookStoreConstants.MAX_PAGE_SIZE || !(ratingWeight >= 0.0f)
+				|| Float.isInfinite(ratingWeight)) {
+			throw new BookStoreException(BookStoreConstants.BOOK_NUM_PARAM + BookStoreConstants.INVALID);
 		}
 
-		return listEditorPicks;
+		// Rank the matching books on the index without locking; books removed
+		// since they were ranked are skipped.
+		List<Integer> isbns = fullTextIndex.query(query.getText(), numBooks, ratingWeight,
+				topRatedIndex::averageRatingOf);
+		List<Book> listBooks = new ArrayList<>(isbns.size());
+
+		for (StockBook book : lookUpPresent(isbns)) {
+			listBooks.add(immutableBookOf(book));
+		}
+
+		return listBooks;
 	}
 
 	/*
@@ -364,40 +1810,89 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
 	 */
 	@Override
-	public synchronized List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
-		// Get all books in a list
-		List<StockBook> books = this.getBooks();
-		
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		awaitIndexes();
+
 		// If numBooks is larger than number of books in the collection or 
 		// is a negative number, return an exception
-		if (numBooks > books.size() || numBooks < 0){
+		if (numBooks > topRatedIndex.size() || numBooks < 0){
 			throw new BookStoreException(BookStoreConstants.BOOK_NUM_PARAM + BookStoreConstants.INVALID);
 		}
-		
-		// Sort books according to their average rating
-		Collections.sort(books, new Comparator<StockBook>() {
-		       public int compare(StockBook o1, StockBook o2) {
-		    	   float rating1 = o1.getAverageRating();
-		    	   float rating2 = o2.getAverageRating();
-		    	   
-		    	   if (rating1 < rating2) return 1;
-			       if (rating1 > rating2) return -1;
-			       return 0;
-		       }
-		   });
-		
-		// Create new list for return value
-		List<Book> newList = new ArrayList<>();
-		
-		// from the highest rated books, for each, add book to the result list
-		// as immutable book to prevent changes.
-		for (int i = 0; i < numBooks; i++) {
-			int bookISBN = books.get(i).getISBN();
-			BookStoreBook book = this.bookMap.get(bookISBN);
-			newList.add(book.immutableStockBook()); // To prevent tampering with book map
+
+		// Read the highest rated books off the ranking. Books removed since
+		// they were ranked are skipped, so ask the ranking for more books
+		// until we have enough or it is exhausted.
+		int numRanked = numBooks;
+
+		while (true) {
+			List<Integer> isbns = topRatedIndex.topRated(numRanked);
+			List<Book> topRatedBooks = new ArrayList<>(lookUpPresent(isbns));
+
+			if (topRatedBooks.size() >= numBooks || isbns.size() < numRanked) {
+				return new ArrayList<>(topRatedBooks.subList(0, Math.min(numBooks, topRatedBooks.size())));
+			}
+
+			numRanked += numBooks - topRatedBooks.size();
 		}
-			
-		return newList;	
+	}
+
+	/**
+	 * Looks up the books that are still in the store among a list of books, in
+	 * the order of the list.
+	 *
+	 * @param isbns
+	 *            the ISBNs
+	 * @return the books that are in the store
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private List<StockBook> lookUpPresent(List<Integer> isbns) throws BookStoreException {
+		return lookUpPresent(isbns, false);
+	}
+
+	/**
+	 * Looks up the books that are still in the store among a list of books, in
+	 * the order of the list.
+	 *
+	 * @param isbns
+	 *            the ISBNs
+	 * @param scan
+	 *            whether the books are read by a scan, which the storage does
+	 *            not count as accesses, cf. {@link BookStorage#scan(int)}
+	 * @return the books that are in the store
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private List<StockBook> lookUpPresent(List<Integer> isbns, boolean scan) throws BookStoreException {
+		PersistentIntMap<StockBook> snapshot = publishedBooks;
+
+		if (snapshot != null) {
+			List<StockBook> listBooks = new ArrayList<>(isbns.size());
+
+			for (int isbn : isbns) {
+				StockBook book = snapshot.get(isbn);
+
+				if (book != null) {
+					listBooks.add(book);
+				}
+			}
+
+			return listBooks;
+		}
+
+		return lockManager.readBooks(isbns, () -> {
+			List<StockBook> listBooks = new ArrayList<>(isbns.size());
+
+			for (int isbn : isbns) {
+				BookStoreBook book = scan ? bookMap.scan(isbn) : bookMap.get(isbn);
+
+				if (book != null) {
+					listBooks.add(book.immutableStockBook());
+				}
+			}
+
+			return listBooks;
+		});
 	}
 
 	/*
@@ -406,20 +1901,20 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
 	 */
 	@Override
-	public synchronized List<StockBook> getBooksInDemand() throws BookStoreException {
-		// Get all books in a list
-		List<StockBook> books = this.getBooks();
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		awaitIndexes();
+
+		// Get the books that had sale misses according to the index
+		List<StockBook> books = lookUpPresent(inDemandIndex.inDemand());
 				
 		// Create new list for return value
-		List<StockBook> newList = new ArrayList<>();
+		List<StockBook> newList = new ArrayList<>(books.size());
 		
-		// For each book, if number of missed sales are larger than 0,
+		// For each book, if number of missed sales are still larger than 0,
 		// then add to return list
 		for (StockBook book : books) {
 			if (book.getNumSaleMisses() > 0){
-				int bookISBN = book.getISBN();
-				BookStoreBook br = this.bookMap.get(bookISBN);
-				newList.add(br.immutableStockBook()); // To prevent tampering with book map
+				newList.add(book);
 			}
 		}
 		
@@ -432,31 +1927,41 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
 	 */
 	@Override
-	public synchronized void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
-		// test if books are in the books list and rating is valid
-		for (BookRating br : bookRating) {
-			int isbn = br.getISBN();
-			int rating = br.getRating();
-			
-			// If book does not exist throw exception
-			if (!this.bookMap.containsKey(isbn)) {
-				throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		awaitIndexes();
+
+		commit(lockManager.writeBooks(isbnsOf(bookRating, BookRating::getISBN), () -> {
+			// test if books are in the books list and rating is valid; if a book
+			// does not exist, throw exception
+			BookStoreBook[] books = resolve(bookRating, BookRating::getISBN, BookStoreConstants.INVALID);
+			preserve(books);
+
+			for (BookRating br : bookRating) {
+				int rating = br.getRating();
+
+				// If rating is invalid throw exception
+				if (rating < 0 || rating > 5) {
+					throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+				}
 			}
 			
-			// If rating is invalid throw exception
-			if (rating < 0 || rating > 5) {
-				throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+			// update the books and their ratings in the book map
+			List<BookStoreBook> updatedBooks = new ArrayList<>(bookRating.size());
+			int i = 0;
+
+			for (BookRating br : bookRating) {
+				// get book resolved from the book map
+				BookStoreBook book = books[i++];
+				
+				// Update the given books rating
+				book.addRating(br.getRating());
+				topRatedIndex.update(book);
+				updatedBooks.add(book);
 			}
-		}
-		
-		// update the books and their ratings in the book map
-		for (BookRating br : bookRating) {
-			// get book from book map
-			BookStoreBook book = this.bookMap.get(br.getISBN());
-			
-			// Update the given books rating
-			book.addRating(br.getRating());
-		}
+
+			publish(updatedBooks);
+			return append(() -> LogRecord.rateBooks(bookRating));
+		}));
 	}
 
 	/*
@@ -464,8 +1969,32 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * 
 	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
 	 */
-	public synchronized void removeAllBooks() throws BookStoreException {
-		bookMap.clear();
+	public void removeAllBooks() throws BookStoreException {
+		awaitIndexes();
+
+		long position;
+
+		synchronized (catalogUpdateLock) {
+			position = lockManager.writeCatalog(() -> {
+				if (!openSnapshots.isEmpty()) {
+					for (BookStoreBook book : bookMap) {
+						preserve(book);
+					}
+				}
+
+				bookMap.clear();
+				topRatedIndex.clear();
+				editorPickIndex.clear();
+				inDemandIndex.clear();
+				searchIndex.clear();
+				rangeIndex.clear();
+				fullTextIndex.clear();
+				unpublish(null);
+				return append(LogRecord::removeAllBooks);
+			});
+		}
+
+		commit(position);
 	}
 
 	/*
@@ -474,23 +2003,38 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * @see
 	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
 	 */
-	public synchronized void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		awaitIndexes();
+
 		if (isbnSet == null) {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		for (Integer ISBN : isbnSet) {
-			if (BookStoreUtility.isInvalidISBN(ISBN)) {
-				throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
-			}
-
-			if (!bookMap.containsKey(ISBN)) {
-				throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
-			}
+		long position;
+
+		synchronized (catalogUpdateLock) {
+			position = lockManager.writeCatalog(() -> {
+				resolve(isbnSet, Integer::intValue, BookStoreConstants.NOT_AVAILABLE);
+				List<Book> removedBooks = new ArrayList<>(isbnSet.size());
+
+				for (int isbn : isbnSet) {
+					BookStoreBook removedBook = bookMap.get(isbn);
+					preserve(removedBook);
+					searchIndex.remove(removedBook);
+					rangeIndex.remove(removedBook);
+					removedBooks.add(removedBook.immutableBook());
+					bookMap.remove(isbn);
+					topRatedIndex.remove(isbn);
+					editorPickIndex.remove(isbn);
+					inDemandIndex.remove(isbn);
+				}
+
+				fullTextIndex.removeAll(removedBooks);
+				unpublish(isbnSet);
+				return append(() -> LogRecord.removeBooks(isbnSet));
+			});
 		}
 
-		for (int isbn : isbnSet) {
-			bookMap.remove(isbn);
-		}
+		commit(position);
 	}
 }
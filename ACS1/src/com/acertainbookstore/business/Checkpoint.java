@@ -0,0 +1,708 @@
+package com.acertainbookstore.business;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link Checkpoint} is a snapshot of the books of the {@link CertainBookStore}
+ * together with the position of the {@link WriteAheadLog} it reflects, so that
+ * the store is recovered by loading the snapshot and redoing only the log after
+ * that position.
+ *
+ * A full checkpoint holds all books. A delta checkpoint holds only the books
+ * updated or added since the previous checkpoint, and the ISBNs of the books
+ * removed since then, cf. {@link CheckpointMode#INCREMENTAL}. Checkpoints are
+ * numbered in sequence: the full checkpoint lies in the given file and carries
+ * the sequence number of the last checkpoint folded into it, and the deltas on
+ * top of it lie next to it, in the file suffixed with their sequence number.
+ *
+ * The file holds a header of the magic number, the version, the sequence
+ * number and the log position, then the books in segments, laid out as in
+ * binary catalogs, cf. {@link CatalogImporter}, then the removed ISBNs, then a
+ * table of the offset, length, number of books and CRC-32 checksum of every
+ * segment, and a trailer of the number of segments, the number of books, the
+ * number and checksum of the removed ISBNs, the offset of the table and the
+ * magic number. The segments are mapped and parsed in parallel when the file
+ * is read, and the books are then sorted by ISBN.
+ */
+public final class Checkpoint {
+
+	/** The magic number starting and ending a checkpoint, "ACSC". */
+	private static final int MAGIC = 0x41435343;
+
+	/** The version of the format. */
+	private static final int VERSION = 2;
+
+	/** The size of the header. */
+	private static final int HEADER_SIZE = 2 * Integer.BYTES + 2 * Long.BYTES;
+
+	/** The size of the entry of a segment in the table. */
+	private static final int SEGMENT_ENTRY_SIZE = 2 * Long.BYTES + 2 * Integer.BYTES;
+
+	/** The size of the trailer. */
+	private static final int TRAILER_SIZE = 4 * Integer.BYTES + 2 * Long.BYTES;
+
+	/** The maximum number of books in a segment. */
+	private static final int SEGMENT_NUM_BOOKS = 1 << 16;
+
+	/** The sequence number of the checkpoint. */
+	private final long sequence;
+
+	/** The position of the log the books reflect. */
+	private final long logPosition;
+
+	/** The books, in ISBN order. */
+	private final List<StockBook> books;
+
+	/** The ISBNs of the removed books, in order. */
+	private final int[] removedIsbns;
+
+	/** The number of deltas folded into the checkpoint when it was loaded. */
+	private final int numDeltas;
+
+	/**
+	 * Instantiates a new {@link Checkpoint}.
+	 *
+	 * @param sequence
+	 *            the sequence number
+	 * @param logPosition
+	 *            the position of the log the books reflect
+	 * @param books
+	 *            the books, in ISBN order
+	 * @param removedIsbns
+	 *            the ISBNs of the removed books, in order
+	 * @param numDeltas
+	 *            the number of deltas folded into the checkpoint
+	 */
+	private Checkpoint(long sequence, long logPosition, List<StockBook> books, int[] removedIsbns, int numDeltas) {
+		this.sequence = sequence;
+		this.logPosition = logPosition;
+		this.books = books;
+		this.removedIsbns = removedIsbns;
+		this.numDeltas = numDeltas;
+	}
+
+	/**
+	 * Creates a {@link Checkpoint} of books that is kept in memory instead of
+	 * being written, e.g., to ship the books to a backup.
+	 *
+	 * @param logPosition
+	 *            the position of the log the books reflect
+	 * @param books
+	 *            the books
+	 * @return the checkpoint
+	 */
+	static Checkpoint of(long logPosition, List<StockBook> books) {
+		return new Checkpoint(0, logPosition, books, new int[0], 0);
+	}
+
+	/**
+	 * Gets the sequence number.
+	 *
+	 * @return the sequence number
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Gets the position of the log the books reflect.
+	 *
+	 * @return the log position
+	 */
+	public long getLogPosition() {
+		return logPosition;
+	}
+
+	/**
+	 * Gets the books, in ISBN order.
+	 *
+	 * @return the books
+	 */
+	public List<StockBook> getBooks() {
+		return books;
+	}
+
+	/**
+	 * Gets the ISBNs of the books removed since the previous checkpoint, in
+	 * order; they are empty for full checkpoints.
+	 *
+	 * @return the removed ISBNs
+	 */
+	public int[] getRemovedIsbns() {
+		return removedIsbns.clone();
+	}
+
+	/**
+	 * Gets the number of deltas folded into the checkpoint by
+	 * {@link #load(Path)}.
+	 *
+	 * @return the number of deltas
+	 */
+	public int getNumDeltas() {
+		return numDeltas;
+	}
+
+	/**
+	 * Gets the file of a delta checkpoint.
+	 *
+	 * @param file
+	 *            the file of the full checkpoint
+	 * @param sequence
+	 *            the sequence number of the delta
+	 * @return the file of the delta
+	 */
+	public static Path deltaFile(Path file, long sequence) {
+		return file.resolveSibling(file.getFileName() + "." + sequence);
+	}
+
+	/**
+	 * Writes a checkpoint. The file is written under a temporary name, forced
+	 * to disk and then renamed, so that it replaces an older checkpoint
+	 * atomically.
+	 *
+	 * @param file
+	 *            the file
+	 * @param sequence
+	 *            the sequence number
+	 * @param logPosition
+	 *            the position of the log the books reflect
+	 * @param books
+	 *            the books
+	 * @param removedIsbns
+	 *            the ISBNs of the removed books
+	 * @return the number of books written
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static long write(Path file, long sequence, long logPosition, Iterable<? extends StockBook> books,
+			int[] removedIsbns) throws IOException {
+		return write(file, sequence, logPosition, consumer -> {
+			for (StockBook book : books) {
+				consumer.accept(book);
+			}
+		}, removedIsbns);
+	}
+
+	/**
+	 * Writes a full checkpoint of the books of a snapshot, which are read
+	 * while the file is written.
+	 *
+	 * @param file
+	 *            the file
+	 * @param sequence
+	 *            the sequence number
+	 * @param logPosition
+	 *            the position of the log the snapshot reflects
+	 * @param snapshot
+	 *            the snapshot, which is read but not closed
+	 * @return the number of books written
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	static long write(Path file, long sequence, long logPosition, CatalogSnapshot snapshot) throws IOException {
+		return write(file, sequence, logPosition, consumer -> {
+			try {
+				snapshot.forEach(consumer);
+			} catch (BookStoreException ex) {
+				throw new IOException(ex);
+			}
+		}, new int[0]);
+	}
+
+	/**
+	 * Writes a checkpoint of the books a source passes on.
+	 *
+	 * @param file
+	 *            the file
+	 * @param sequence
+	 *            the sequence number
+	 * @param logPosition
+	 *            the position of the log the books reflect
+	 * @param books
+	 *            the source of the books
+	 * @param removedIsbns
+	 *            the ISBNs of the removed books
+	 * @return the number of books written
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static long write(Path file, long sequence, long logPosition, BookSource books, int[] removedIsbns)
+			throws IOException {
+		Path directory = file.toAbsolutePath().getParent();
+		Path temporaryFile = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+
+		try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).putLong(sequence).putLong(logPosition).flip();
+			writeFully(channel, header);
+
+			SegmentWriter segments = new SegmentWriter(channel);
+			books.forEach(segments);
+			segments.flush();
+			long offset = segments.offset;
+			CRC32 checksum = segments.checksum;
+
+			ByteBuffer removed = ByteBuffer.allocate(removedIsbns.length * Integer.BYTES);
+			removed.asIntBuffer().put(removedIsbns);
+			checksum.reset();
+			checksum.update(removed.array(), 0, removed.capacity());
+			writeFully(channel, removed);
+			offset += removed.capacity();
+
+			writeFully(channel, ByteBuffer.wrap(segments.table.toByteArray()));
+			ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+			trailer.putInt(segments.numSegments).putLong(segments.numBooks).putInt(removedIsbns.length)
+					.putInt((int) checksum.getValue()).putLong(offset).putInt(MAGIC).flip();
+			writeFully(channel, trailer);
+			channel.force(true);
+
+			Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			return segments.numBooks;
+		} finally {
+			Files.deleteIfExists(temporaryFile);
+		}
+	}
+
+	/**
+	 * Writes a buffer entirely.
+	 *
+	 * @param channel
+	 *            the file
+	 * @param buffer
+	 *            the buffer
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * Reads the sequence number of a checkpoint from its header.
+	 *
+	 * @param file
+	 *            the file
+	 * @return the sequence number, or -1 if the file does not exist
+	 * @throws IOException
+	 *             if the file cannot be read or is not a checkpoint
+	 */
+	public static long readSequence(Path file) throws IOException {
+		if (!Files.exists(file)) {
+			return -1;
+		}
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			return readHeader(file, channel).getLong();
+		}
+	}
+
+	/**
+	 * Reads the header of a checkpoint, checking its magic number and version.
+	 *
+	 * @param file
+	 *            the file
+	 * @param channel
+	 *            the open file
+	 * @return the header, positioned at the sequence number
+	 * @throws IOException
+	 *             if the file cannot be read or is not a checkpoint
+	 */
+	private static ByteBuffer readHeader(Path file, FileChannel channel) throws IOException {
+		if (channel.size() < HEADER_SIZE + TRAILER_SIZE) {
+			throw new IOException("The checkpoint " + file + " is truncated");
+		}
+
+		ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+
+		if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+			throw new IOException("The file " + file + " is not a checkpoint of version " + VERSION);
+		}
+
+		return header;
+	}
+
+	/**
+	 * Reads a checkpoint, mapping and parsing its segments in parallel.
+	 *
+	 * @param file
+	 *            the file
+	 * @return the checkpoint
+	 * @throws IOException
+	 *             if the file cannot be read or is not an intact checkpoint
+	 */
+	public static Checkpoint read(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			ByteBuffer header = readHeader(file, channel);
+			ByteBuffer trailer = channel.map(FileChannel.MapMode.READ_ONLY, size - TRAILER_SIZE, TRAILER_SIZE);
+			long sequence = header.getLong();
+			long logPosition = header.getLong();
+			int numSegments = trailer.getInt();
+			long numBooks = trailer.getLong();
+			int numRemoved = trailer.getInt();
+			int removedChecksum = trailer.getInt();
+			long tableOffset = trailer.getLong();
+
+			if (trailer.getInt() != MAGIC || numBooks > Integer.MAX_VALUE || numRemoved < 0
+					|| tableOffset - (long) numRemoved * Integer.BYTES < HEADER_SIZE
+					|| tableOffset + (long) numSegments * SEGMENT_ENTRY_SIZE != size - TRAILER_SIZE) {
+				throw new IOException("The checkpoint " + file + " is truncated");
+			}
+
+			ByteBuffer table = channel.map(FileChannel.MapMode.READ_ONLY, tableOffset,
+					(long) numSegments * SEGMENT_ENTRY_SIZE);
+			long[] offsets = new long[numSegments];
+			long[] lengths = new long[numSegments];
+			int[] firstBooks = new int[numSegments + 1];
+			int[] checksums = new int[numSegments];
+
+			for (int i = 0; i < numSegments; i++) {
+				offsets[i] = table.getLong();
+				lengths[i] = table.getLong();
+				firstBooks[i + 1] = firstBooks[i] + table.getInt();
+				checksums[i] = table.getInt();
+			}
+
+			if (firstBooks[numSegments] != numBooks) {
+				throw new IOException("The checkpoint " + file + " is corrupt");
+			}
+
+			MappedByteBuffer removed = channel.map(FileChannel.MapMode.READ_ONLY,
+					tableOffset - (long) numRemoved * Integer.BYTES, (long) numRemoved * Integer.BYTES);
+			CRC32 checksum = new CRC32();
+			checksum.update(removed);
+
+			if ((int) checksum.getValue() != removedChecksum) {
+				throw new IOException("The removed ISBNs of the checkpoint " + file + " are corrupt");
+			}
+
+			removed.rewind();
+			int[] removedIsbns = new int[numRemoved];
+			removed.asIntBuffer().get(removedIsbns);
+			Arrays.sort(removedIsbns);
+
+			StockBook[] books = new StockBook[(int) numBooks];
+
+			try {
+				IntStream.range(0, numSegments).parallel().forEach(i -> {
+					try {
+						MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, offsets[i], lengths[i]);
+						CRC32 segmentChecksum = new CRC32();
+						segmentChecksum.update(segment);
+
+						if ((int) segmentChecksum.getValue() != checksums[i]) {
+							throw new IOException("The segment " + i + " of the checkpoint " + file + " is corrupt");
+						}
+
+						segment.rewind();
+
+						for (int j = firstBooks[i]; j < firstBooks[i + 1]; j++) {
+							books[j] = CatalogImporter.readBook(segment);
+						}
+					} catch (IOException ex) {
+						throw new UncheckedIOException(ex);
+					}
+				});
+			} catch (UncheckedIOException ex) {
+				throw ex.getCause();
+			} catch (BufferUnderflowException ex) {
+				throw new IOException("The checkpoint " + file + " is corrupt", ex);
+			}
+
+			// Books are loaded much faster in ISBN order, in which the ordered
+			// indexes are appended to.
+			Arrays.parallelSort(books, Comparator.comparingInt(StockBook::getISBN));
+			return new Checkpoint(sequence, logPosition, Arrays.asList(books), removedIsbns, 0);
+		}
+	}
+
+	/**
+	 * Loads the latest state of the books: reads the full checkpoint and folds
+	 * the deltas on top of it into it, in sequence. Deltas that were already
+	 * folded into the full checkpoint are skipped.
+	 *
+	 * @param file
+	 *            the file of the full checkpoint
+	 * @return the folded checkpoint, with the sequence number and log position
+	 *         of the last delta, or null if there is no full checkpoint
+	 * @throws IOException
+	 *             if a checkpoint cannot be read or is not intact
+	 */
+	public static Checkpoint load(Path file) throws IOException {
+		if (!Files.exists(file)) {
+			return null;
+		}
+
+		Checkpoint checkpoint = read(file);
+
+		while (true) {
+			Path deltaFile = deltaFile(file, checkpoint.sequence + 1);
+
+			if (!Files.exists(deltaFile)) {
+				return checkpoint;
+			}
+
+			checkpoint = fold(checkpoint, read(deltaFile));
+		}
+	}
+
+	/**
+	 * Folds a delta into a checkpoint, merging their books in ISBN order.
+	 *
+	 * @param checkpoint
+	 *            the checkpoint
+	 * @param delta
+	 *            the delta
+	 * @return the folded checkpoint
+	 */
+	private static Checkpoint fold(Checkpoint checkpoint, Checkpoint delta) {
+		List<StockBook> books = new ArrayList<>(checkpoint.books.size() + delta.books.size());
+		int i = 0;
+		int j = 0;
+		int k = 0;
+
+		while (i < checkpoint.books.size() || j < delta.books.size()) {
+			int isbn = i < checkpoint.books.size() ? checkpoint.books.get(i).getISBN() : Integer.MAX_VALUE;
+			int deltaIsbn = j < delta.books.size() ? delta.books.get(j).getISBN() : Integer.MAX_VALUE;
+
+			// A book of the delta replaces the book of the checkpoint.
+			if (j < delta.books.size() && deltaIsbn <= isbn) {
+				books.add(delta.books.get(j++));
+
+				if (deltaIsbn == isbn) {
+					i++;
+				}
+
+				continue;
+			}
+
+			while (k < delta.removedIsbns.length && delta.removedIsbns[k] < isbn) {
+				k++;
+			}
+
+			if (k == delta.removedIsbns.length || delta.removedIsbns[k] != isbn) {
+				books.add(checkpoint.books.get(i));
+			}
+
+			i++;
+		}
+
+		return new Checkpoint(delta.sequence, delta.logPosition, books, checkpoint.removedIsbns,
+				checkpoint.numDeltas + 1);
+	}
+
+	/**
+	 * Deletes the deltas next to a full checkpoint up to a sequence number.
+	 *
+	 * @param file
+	 *            the file of the full checkpoint
+	 * @param sequence
+	 *            the sequence number of the last delta to delete
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static void deleteDeltas(Path file, long sequence) throws IOException {
+		for (Path deltaFile : listDeltas(file)) {
+			if (sequenceOf(file, deltaFile) <= sequence) {
+				Files.deleteIfExists(deltaFile);
+			}
+		}
+	}
+
+	/**
+	 * Gets the highest sequence number of a full checkpoint and the deltas next
+	 * to it, whether they were folded or not.
+	 *
+	 * @param file
+	 *            the file of the full checkpoint
+	 * @return the highest sequence number, or -1 if there are no checkpoints
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static long latestSequence(Path file) throws IOException {
+		long sequence = readSequence(file);
+
+		for (Path deltaFile : listDeltas(file)) {
+			sequence = Math.max(sequence, sequenceOf(file, deltaFile));
+		}
+
+		return sequence;
+	}
+
+	/**
+	 * Lists the deltas next to a full checkpoint.
+	 *
+	 * @param file
+	 *            the file of the full checkpoint
+	 * @return the files of the deltas
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static List<Path> listDeltas(Path file) throws IOException {
+		List<Path> deltaFiles = new ArrayList<>();
+		Path directory = file.toAbsolutePath().getParent();
+
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, file.getFileName() + ".*")) {
+			for (Path deltaFile : files) {
+				if (sequenceOf(file, deltaFile) >= 0) {
+					deltaFiles.add(deltaFile);
+				}
+			}
+		}
+
+		return deltaFiles;
+	}
+
+	/**
+	 * Gets the sequence number of a delta from the name of its file.
+	 *
+	 * @param file
+	 *            the file of the full checkpoint
+	 * @param deltaFile
+	 *            the file of the delta
+	 * @return the sequence number, or -1 if the file is not a delta
+	 */
+	private static long sequenceOf(Path file, Path deltaFile) {
+		String suffix = deltaFile.getFileName().toString().substring(file.getFileName().toString().length() + 1);
+
+		if (suffix.isEmpty() || !suffix.chars().allMatch(Character::isDigit)) {
+			return -1;
+		}
+
+		try {
+			return Long.parseLong(suffix);
+		} catch (NumberFormatException ex) {
+			return -1;
+		}
+	}
+
+	/**
+	 * {@link BookSource} passes the books of a checkpoint to a consumer.
+	 */
+	@FunctionalInterface
+	private interface BookSource {
+
+		/**
+		 * Passes every book to a consumer.
+		 *
+		 * @param consumer
+		 *            the consumer
+		 * @throws IOException
+		 *             Signals that an I/O exception has occurred.
+		 */
+		public void forEach(CatalogSnapshot.BookConsumer consumer) throws IOException;
+	}
+
+	/**
+	 * {@link SegmentWriter} encodes the books of a checkpoint into segments,
+	 * writes every full segment to the file and adds its entry to the table.
+	 */
+	private static final class SegmentWriter implements CatalogSnapshot.BookConsumer {
+
+		/** The file. */
+		private final FileChannel channel;
+
+		/** The encoded books of the current segment. */
+		private final ByteArrayOutputStream segment = new ByteArrayOutputStream();
+
+		/** The stream encoding the books into the current segment. */
+		private final DataOutputStream out = new DataOutputStream(segment);
+
+		/** The table of the segments. */
+		private final ByteArrayOutputStream table = new ByteArrayOutputStream();
+
+		/** The stream writing the entries of the table. */
+		private final DataOutputStream tableOut = new DataOutputStream(table);
+
+		/** The checksum. */
+		private final CRC32 checksum = new CRC32();
+
+		/** The offset after the segments written so far. */
+		private long offset = HEADER_SIZE;
+
+		/** The number of books so far. */
+		private long numBooks = 0;
+
+		/** The number of segments written so far. */
+		private int numSegments = 0;
+
+		/** The number of books of the current segment. */
+		private int segmentNumBooks = 0;
+
+		/**
+		 * Instantiates a new {@link SegmentWriter}.
+		 *
+		 * @param channel
+		 *            the file, positioned after the header
+		 */
+		private SegmentWriter(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see
+		 * com.acertainbookstore.business.CatalogSnapshot.BookConsumer#accept(com.
+		 * acertainbookstore.business.StockBook)
+		 */
+		@Override
+		public void accept(StockBook book) throws IOException {
+			CatalogImporter.writeBook(out, book);
+			numBooks++;
+
+			if (++segmentNumBooks == SEGMENT_NUM_BOOKS) {
+				flush();
+			}
+		}
+
+		/**
+		 * Writes the current segment, if it holds any books, and adds its entry
+		 * to the table.
+		 *
+		 * @throws IOException
+		 *             Signals that an I/O exception has occurred.
+		 */
+		private void flush() throws IOException {
+			if (segmentNumBooks == 0) {
+				return;
+			}
+
+			byte[] bytes = segment.toByteArray();
+			segment.reset();
+			checksum.reset();
+			checksum.update(bytes, 0, bytes.length);
+			writeFully(channel, ByteBuffer.wrap(bytes));
+
+			tableOut.writeLong(offset);
+			tableOut.writeLong(bytes.length);
+			tableOut.writeInt(segmentNumBooks);
+			tableOut.writeInt((int) checksum.getValue());
+			offset += bytes.length;
+			numSegments++;
+			segmentNumBooks = 0;
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package com.acertainbookstore.business;
+
+/**
+ * {@link CheckpointMode} enumerates what a {@link Checkpoint} of the
+ * {@link CertainBookStore} holds, trading the I/O of each checkpoint against
+ * the work of loading the checkpoints during recovery.
+ *
+ * @see CertainBookStore#checkpoint(java.nio.file.Path, CheckpointMode)
+ */
+public enum CheckpointMode {
+
+	/**
+	 * Every checkpoint holds all books and replaces the previous ones, so its
+	 * I/O is proportional to the size of the catalog.
+	 */
+	FULL,
+
+	/**
+	 * A checkpoint holds only the books that were updated, added or removed
+	 * since the previous checkpoint, as a delta on top of the last full
+	 * checkpoint, so its I/O is proportional to the churn. The deltas are
+	 * folded into the full checkpoint in the background, cf.
+	 * {@link CertainBookStore#mergeCheckpoints(java.nio.file.Path)}. The first
+	 * checkpoint of a store is full.
+	 */
+	INCREMENTAL
+}
@@ -0,0 +1,382 @@
+package com.acertainbookstore.business;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link CommandQueueLockManager} applies all operations of the
+ * {@link CertainBookStore} on one writer thread, so no two operations ever run
+ * concurrently and no lock is handed over between client threads. Callers
+ * submit their operation as a command to a preallocated ring buffer and wait
+ * for its completion, while the writer thread applies the commands in the
+ * order in which they were submitted, draining everything that is available
+ * before it goes to sleep.
+ * 
+ * The ring buffer follows the usual turn protocol: the slot of sequence
+ * <code>s</code> is free for the producer of <code>s</code> when its turn is
+ * <code>s</code>, holds a command for the writer when its turn is
+ * <code>s + 1</code>, and is released by the caller, once it has read the
+ * result, by setting its turn to <code>s + capacity</code>.
+ * 
+ * Closing the lock manager stops the writer thread once it has applied the
+ * commands submitted so far; later commands fail. Waiting callers are not
+ * interrupted by {@link Thread#interrupt()}, since their command is already
+ * queued, but keep their interrupt status.
+ * 
+ * @see BookStoreLockManager
+ * @see ConcurrencyMode#SINGLE_WRITER
+ */
+public class CommandQueueLockManager implements BookStoreLockManager, Closeable {
+
+	/** The default capacity of the ring buffer. */
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	/** The number of times a waiting thread spins before it parks. */
+	private static final int SPINS_BEFORE_PARKING = 100;
+
+	/** The time a caller parks at once while the writer thread stops. */
+	private static final long CLOSING_PARK_NANOS = 1000000L;
+
+	/** The slots of the ring buffer. */
+	private final Slot[] slots;
+
+	/** The mask mapping a sequence to its slot. */
+	private final int mask;
+
+	/** The next sequence to be claimed by a producer. */
+	private final AtomicLong nextSequence = new AtomicLong(0);
+
+	/** The writer thread. */
+	private final Thread writer;
+
+	/** Whether the writer thread is parked or about to park. */
+	private volatile boolean writerSleeping = false;
+
+	/** Whether the lock manager is closed. */
+	private volatile boolean closed = false;
+
+	/**
+	 * Instantiates a new {@link CommandQueueLockManager} with a ring buffer of
+	 * the default capacity, and starts its writer thread.
+	 */
+	public CommandQueueLockManager() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Instantiates a new {@link CommandQueueLockManager}, and starts its writer
+	 * thread.
+	 *
+	 * @param capacity
+	 *            the capacity of the ring buffer, rounded up to a power of two
+	 */
+	public CommandQueueLockManager(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity = " + capacity + ", but it must be positive");
+		}
+
+		int size = Integer.highestOneBit(capacity);
+
+		if (size < capacity) {
+			size <<= 1;
+		}
+
+		this.slots = new Slot[size];
+		this.mask = size - 1;
+
+		for (int i = 0; i < size; i++) {
+			slots[i] = new Slot(i);
+		}
+
+		this.writer = new Thread(this::applyCommands, "bookstore-writer");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	/**
+	 * Submits an operation to the writer thread and waits for its result.
+	 *
+	 * @param <T>
+	 *            the type of the result
+	 * @param operation
+	 *            the operation
+	 * @return the result of the operation
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> T submit(BookStoreOperation<T> operation) throws BookStoreException {
+		if (Thread.currentThread() == writer) {
+			return operation.execute();
+		}
+
+		if (closed) {
+			throw new BookStoreException(BookStoreConstants.STORE + BookStoreConstants.CLOSED);
+		}
+
+		long sequence = nextSequence.getAndIncrement();
+		Slot slot = slots[(int) sequence & mask];
+
+		boolean interrupted = false;
+
+		// Wait until the caller of the previous lap released the slot.
+		for (int spins = 0; slot.turn != sequence; spins++) {
+			backOff(spins);
+			interrupted |= Thread.interrupted();
+		}
+
+		slot.operation = operation;
+		slot.waiter = Thread.currentThread();
+		slot.done = false;
+		slot.turn = sequence + 1;
+
+		if (writerSleeping) {
+			LockSupport.unpark(writer);
+		}
+
+		for (int spins = 0; !slot.done; spins++) {
+			if (spins < SPINS_BEFORE_PARKING) {
+				Thread.yield();
+			} else if (!closed) {
+				// The writer reads the turn after it sees the lock manager
+				// closed, so it applies the command if it was not closed here.
+				LockSupport.park(this);
+			} else if (!writer.isAlive() && !slot.done) {
+				if (interrupted) {
+					Thread.currentThread().interrupt();
+				}
+
+				throw new BookStoreException(BookStoreConstants.STORE + BookStoreConstants.CLOSED);
+			} else {
+				LockSupport.parkNanos(this, CLOSING_PARK_NANOS);
+			}
+
+			// A parked caller returns at once while it is interrupted.
+			interrupted |= Thread.interrupted();
+		}
+
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+
+		Object result = slot.result;
+		Throwable failure = slot.failure;
+		slot.operation = null;
+		slot.result = null;
+		slot.failure = null;
+		slot.waiter = null;
+		slot.turn = sequence + slots.length;
+
+		if (failure == null) {
+			return (T) result;
+		} else if (failure instanceof BookStoreException) {
+			throw (BookStoreException) failure;
+		} else if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		} else if (failure instanceof Error) {
+			throw (Error) failure;
+		}
+
+		throw new BookStoreException(failure);
+	}
+
+	/**
+	 * Backs off while waiting for a slot of the ring buffer.
+	 *
+	 * @param spins
+	 *            the number of times the caller already waited
+	 */
+	private static void backOff(int spins) {
+		if (spins < SPINS_BEFORE_PARKING) {
+			Thread.yield();
+		} else {
+			LockSupport.parkNanos(1000L);
+		}
+	}
+
+	/**
+	 * Applies the submitted commands in sequence order until the lock manager
+	 * is closed; this is the body of the writer thread.
+	 */
+	private void applyCommands() {
+		long sequence = 0;
+
+		while (true) {
+			Slot slot = slots[(int) sequence & mask];
+
+			if (slot.turn != sequence + 1) {
+				if (!awaitCommand(slot, sequence + 1)) {
+					return;
+				}
+
+				continue;
+			}
+
+			try {
+				slot.result = slot.operation.execute();
+			} catch (Throwable ex) {
+				slot.failure = ex;
+			}
+
+			Thread waiter = slot.waiter;
+			slot.done = true;
+			LockSupport.unpark(waiter);
+			sequence++;
+		}
+	}
+
+	/**
+	 * Waits on the writer thread until the slot holds the command of the
+	 * expected turn, or the lock manager is closed.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @param turn
+	 *            the expected turn
+	 * @return true if the slot holds the command, false if the lock manager is
+	 *         closed and no command is pending
+	 */
+	private boolean awaitCommand(Slot slot, long turn) {
+		for (int spins = 0; spins < SPINS_BEFORE_PARKING; spins++) {
+			if (slot.turn == turn) {
+				return true;
+			}
+
+			Thread.yield();
+		}
+
+		writerSleeping = true;
+
+		// Producers check writerSleeping after publishing a command, so either
+		// they see the flag or we see their command here. Likewise, closed is
+		// read before the turn, since producers publish before they read it.
+		while (slot.turn != turn) {
+			if (closed) {
+				writerSleeping = false;
+				return slot.turn == turn;
+			}
+
+			LockSupport.park(this);
+		}
+
+		writerSleeping = false;
+		return true;
+	}
+
+	/**
+	 * Stops the writer thread once it has applied the commands submitted so
+	 * far, and waits until it has stopped. Commands submitted afterwards fail.
+	 * 
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		LockSupport.unpark(writer);
+
+		if (Thread.currentThread() == writer) {
+			return;
+		}
+
+		boolean interrupted = false;
+
+		while (writer.isAlive()) {
+			try {
+				writer.join();
+			} catch (InterruptedException ex) {
+				interrupted = true;
+			}
+		}
+
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.business.BookStoreLockManager#readBooks(java.util.
+	 * Collection, com.acertainbookstore.business.BookStoreOperation)
+	 */
+	@Override
+	public <T> T readBooks(Collection<Integer> isbns, BookStoreOperation<T> operation) throws BookStoreException {
+		return submit(operation);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.business.BookStoreLockManager#writeBooks(java.util.
+	 * Collection, com.acertainbookstore.business.BookStoreOperation)
+	 */
+	@Override
+	public <T> T writeBooks(Collection<Integer> isbns, BookStoreOperation<T> operation) throws BookStoreException {
+		return submit(operation);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.business.BookStoreLockManager#readCatalog(com.
+	 * acertainbookstore.business.BookStoreOperation)
+	 */
+	@Override
+	public <T> T readCatalog(BookStoreOperation<T> operation) throws BookStoreException {
+		return submit(operation);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.business.BookStoreLockManager#writeCatalog(com.
+	 * acertainbookstore.business.BookStoreOperation)
+	 */
+	@Override
+	public <T> T writeCatalog(BookStoreOperation<T> operation) throws BookStoreException {
+		return submit(operation);
+	}
+
+	/**
+	 * {@link Slot} is a preallocated entry of the ring buffer.
+	 */
+	private static final class Slot {
+
+		/** The turn, cf. {@link CommandQueueLockManager}. */
+		private volatile long turn;
+
+		/** The operation. */
+		private BookStoreOperation<?> operation;
+
+		/** The thread waiting for the result. */
+		private Thread waiter;
+
+		/** The result. */
+		private Object result;
+
+		/** The failure. */
+		private Throwable failure;
+
+		/** Whether the operation was applied. */
+		private volatile boolean done;
+
+		/**
+		 * Instantiates a new {@link Slot}.
+		 *
+		 * @param turn
+		 *            the initial turn
+		 */
+		private Slot(long turn) {
+			this.turn = turn;
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package com.acertainbookstore.business;
+
+/**
+ * {@link ConcurrencyMode} enumerates the ways in which the
+ * {@link CertainBookStore} can isolate concurrent operations.
+ * 
+ * @see BookStoreLockManager
+ * @see CertainBookStore
+ */
+public enum ConcurrencyMode {
+
+	/** Every operation takes one store-wide lock. */
+	GLOBAL {
+		@Override
+		public BookStoreLockManager newLockManager() {
+			return new GlobalLockManager();
+		}
+	},
+
+	/**
+	 * Operations on books take per-ISBN lock stripes, operations on the catalog
+	 * take a catalog lock.
+	 */
+	STRIPED {
+		@Override
+		public BookStoreLockManager newLockManager() {
+			return new StripedLockManager();
+		}
+	},
+
+	/**
+	 * Reads run optimistically without locking and fall back to a shared lock
+	 * when a writer interferes, writes take the lock exclusively.
+	 */
+	OPTIMISTIC {
+		@Override
+		public BookStoreLockManager newLockManager() {
+			return new OptimisticLockManager();
+		}
+
+		@Override
+		public boolean readsWithoutLocks() {
+			return true;
+		}
+	},
+
+	/**
+	 * Every committed write publishes a new immutable version of the books,
+	 * from which reads are served without locking. Writes take lock stripes.
+	 */
+	SNAPSHOT {
+		@Override
+		public BookStoreLockManager newLockManager() {
+			return new StripedLockManager();
+		}
+
+		@Override
+		public boolean readsFromSnapshot() {
+			return true;
+		}
+	},
+
+	/**
+	 * Books are {@link ConcurrentBookStoreBook} instances, updated with
+	 * compare-and-set and striped adders. Operations on a single book take no
+	 * lock stripe, operations on several books take lock stripes as in
+	 * {@link #STRIPED}.
+	 */
+	LOCK_FREE {
+		@Override
+		public BookStoreLockManager newLockManager() {
+			return new LockFreeLockManager();
+		}
+
+		@Override
+		public BookStoreBook newBook(StockBook book) {
+			return new ConcurrentBookStoreBook(book);
+		}
+
+		@Override
+		public boolean updatesBooksWithoutLocks() {
+			return true;
+		}
+	},
+
+	/**
+	 * All writes are submitted as commands to a ring buffer and applied in
+	 * order by one writer thread, reads are served from the published snapshot
+	 * as in {@link #SNAPSHOT}.
+	 */
+	SINGLE_WRITER {
+		@Override
+		public BookStoreLockManager newLockManager() {
+			return new CommandQueueLockManager();
+		}
+
+		@Override
+		public boolean readsFromSnapshot() {
+			return true;
+		}
+	};
+
+	/**
+	 * Creates the lock manager implementing the mode.
+	 *
+	 * @return the lock manager
+	 */
+	public abstract BookStoreLockManager newLockManager();
+
+	/**
+	 * Checks if reads are served from the published snapshot of the books
+	 * rather than under the lock manager.
+	 *
+	 * @return true, if reads are served from snapshots
+	 */
+	public boolean readsFromSnapshot() {
+		return false;
+	}
+
+	/**
+	 * Checks if books may be read from the storage without holding their locks,
+	 * so that reads must not change the storage.
+	 *
+	 * @return true, if books are read without locks
+	 */
+	public boolean readsWithoutLocks() {
+		return readsFromSnapshot() || updatesBooksWithoutLocks();
+	}
+
+	/**
+	 * Checks if books may be updated concurrently without holding their locks,
+	 * which requires the books to be thread-safe.
+	 *
+	 * @return true, if books are updated without locks
+	 */
+	public boolean updatesBooksWithoutLocks() {
+		return false;
+	}
+
+	/**
+	 * Creates the representation of a book added to the store.
+	 *
+	 * @param book
+	 *            the book
+	 * @return the book store book
+	 */
+	public BookStoreBook newBook(StockBook book) {
+		return new BookStoreBook(book);
+	}
+}
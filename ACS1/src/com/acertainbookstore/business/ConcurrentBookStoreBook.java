@@ -0,0 +1,194 @@
+package com.acertainbookstore.business;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * {@link ConcurrentBookStoreBook} is a {@link BookStoreBook} whose counters can
+ * be updated concurrently without locking. Copies are reserved with
+ * compare-and-set, so {@link #buyCopies(int)} never sells more copies than
+ * there are in stock, while ratings are accumulated in striped adders that do
+ * not contend. Sale misses are kept in an atomic counter instead, so that
+ * {@link #addCopies(int)} clears them atomically, without losing a miss
+ * recorded at the same time. Reads of several counters are not atomic with
+ * respect to concurrent updates, e.g., a rating in flight may already be part
+ * of the total rating but not yet of the number of times rated.
+ * 
+ * @see BookStoreBook
+ * @see ConcurrencyMode#LOCK_FREE
+ */
+public class ConcurrentBookStoreBook extends BookStoreBook {
+
+	/** The number of copies. */
+	private final AtomicInteger numCopies;
+
+	/** The total rating. */
+	private final LongAdder totalRating = new LongAdder();
+
+	/** The number of times rated. */
+	private final LongAdder numTimesRated = new LongAdder();
+
+	/** The number of sale misses. */
+	private final AtomicLong numSaleMisses;
+
+	/** Whether the book is editor picked. */
+	private volatile boolean editorPick;
+
+	/**
+	 * Instantiates a new {@link ConcurrentBookStoreBook} from a
+	 * {@link StockBook} instance.
+	 *
+	 * @param bookToCopy
+	 *            the book to copy
+	 */
+	public ConcurrentBookStoreBook(StockBook bookToCopy) {
+		super(bookToCopy);
+
+		this.numCopies = new AtomicInteger(bookToCopy.getNumCopies());
+		this.totalRating.add(bookToCopy.getTotalRating());
+		this.numTimesRated.add(bookToCopy.getNumTimesRated());
+		this.numSaleMisses = new AtomicLong(bookToCopy.getNumSaleMisses());
+		this.editorPick = bookToCopy.isEditorPick();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.business.BookStoreBook#getTotalRating()
+	 */
+	@Override
+	public long getTotalRating() {
+		return totalRating.sum();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.business.BookStoreBook#getNumTimesRated()
+	 */
+	@Override
+	public long getNumTimesRated() {
+		return numTimesRated.sum();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.business.BookStoreBook#getNumCopies()
+	 */
+	@Override
+	public int getNumCopies() {
+		return numCopies.get();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.business.BookStoreBook#getNumSaleMisses()
+	 */
+	@Override
+	public long getNumSaleMisses() {
+		return numSaleMisses.get();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.business.BookStoreBook#isEditorPick()
+	 */
+	@Override
+	public boolean isEditorPick() {
+		return editorPick;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.business.BookStoreBook#setEditorPick(boolean)
+	 */
+	@Override
+	public void setEditorPick(boolean editorPick) {
+		this.editorPick = editorPick;
+		modified();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.business.BookStoreBook#buyCopies(int)
+	 */
+	@Override
+	public boolean buyCopies(int numCopies) {
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) {
+			return false;
+		}
+
+		while (true) {
+			int inStore = this.numCopies.get();
+
+			if (inStore < numCopies) {
+				return false;
+			}
+
+			if (this.numCopies.compareAndSet(inStore, inStore - numCopies)) {
+				modified();
+				return true;
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.business.BookStoreBook#returnCopies(int)
+	 */
+	@Override
+	public void returnCopies(int numCopies) {
+		if (!BookStoreUtility.isInvalidNoCopies(numCopies)) {
+			this.numCopies.addAndGet(numCopies);
+			modified();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.business.BookStoreBook#addCopies(int)
+	 */
+	@Override
+	public void addCopies(int numNewCopies) {
+		if (!BookStoreUtility.isInvalidNoCopies(numNewCopies)) {
+			this.numCopies.addAndGet(numNewCopies);
+			this.numSaleMisses.set(0);
+			modified();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.business.BookStoreBook#addSaleMiss()
+	 */
+	@Override
+	public void addSaleMiss() {
+		this.numSaleMisses.incrementAndGet();
+		modified();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.business.BookStoreBook#addRating(int)
+	 */
+	@Override
+	public void addRating(int rating) {
+		if (!BookStoreUtility.isInvalidRating(rating)) {
+			this.totalRating.add(rating);
+			this.numTimesRated.increment();
+			modified();
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package com.acertainbookstore.business;
+
+/**
+ * {@link DurabilityMode} enumerates when the {@link WriteAheadLog} forces the
+ * logged mutations of the {@link CertainBookStore} to disk, trading the
+ * mutations lost in a crash of the machine against the latency of each
+ * mutation. In all modes, a mutation is written to the operating system before
+ * it returns, so it survives a crash of the server process.
+ *
+ * @see WriteAheadLog
+ */
+public enum DurabilityMode {
+
+	/**
+	 * Every mutation returns only once it is on disk. The mutations of
+	 * concurrent writers are forced together, with one <code>fsync</code> per
+	 * group.
+	 */
+	BATCH,
+
+	/**
+	 * The log is forced periodically in the background, so a crash of the
+	 * machine loses the mutations of the last interval at most.
+	 */
+	PERIODIC,
+
+	/**
+	 * The log is never forced; the operating system decides when the
+	 * mutations reach the disk.
+	 */
+	NONE;
+
+	/**
+	 * Checks if the writers wait for the log to be forced.
+	 *
+	 * @return true, if every group commit forces the log
+	 */
+	public boolean forcesOnCommit() {
+		return this == BATCH;
+	}
+}
@@ -0,0 +1,144 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * {@link EditorPickIndex} holds the ISBNs of the editor picks of the
+ * {@link CertainBookStore} in an array with random access by position, so
+ * that picks are sampled without scanning the catalog. The store updates the
+ * index whenever the editor picks change or books are removed.
+ *
+ * The index is synchronized; sampling takes O(k) time for k picks, whatever
+ * the number of picks and books.
+ */
+public class EditorPickIndex {
+
+	/** The ISBNs of the editor picks, in positions 0 to size - 1. */
+	private int[] isbns = new int[16];
+
+	/** The number of editor picks. */
+	private int size = 0;
+
+	/** The position of every editor pick, by ISBN. */
+	private final Map<Integer, Integer> positions = new HashMap<>();
+
+	/** The random number generator used for sampling. */
+	private final Random random = new Random();
+
+	/**
+	 * Adds a book that was added or updated to the editor picks, or removes it,
+	 * depending on whether it is an editor pick. The flag is read under the
+	 * lock of the index, so that concurrent updates of a book always leave its
+	 * final state behind, even if the book is updated without holding its lock.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	public synchronized void update(BookStoreBook book) {
+		set(book.getISBN(), book.isEditorPick());
+	}
+
+	/**
+	 * Adds a book to or removes a book from the editor picks.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param editorPick
+	 *            whether the book is an editor pick
+	 */
+	private synchronized void set(int isbn, boolean editorPick) {
+		if (editorPick) {
+			if (!positions.containsKey(isbn)) {
+				if (size == isbns.length) {
+					isbns = Arrays.copyOf(isbns, size * 2);
+				}
+
+				positions.put(isbn, size);
+				isbns[size++] = isbn;
+			}
+		} else {
+			Integer position = positions.remove(isbn);
+
+			// Move the last pick into the position of the removed one.
+			if (position != null) {
+				int last = isbns[--size];
+
+				if (position != size) {
+					isbns[position] = last;
+					positions.put(last, position);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes a book from the editor picks.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 */
+	public void remove(int isbn) {
+		set(isbn, false);
+	}
+
+	/**
+	 * Removes all editor picks.
+	 */
+	public synchronized void clear() {
+		isbns = new int[16];
+		size = 0;
+		positions.clear();
+	}
+
+	/**
+	 * Gets the number of editor picks.
+	 *
+	 * @return the number of editor picks
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Seeds the random number generator, which makes the sampling
+	 * reproducible.
+	 *
+	 * @param seed
+	 *            the seed
+	 */
+	public synchronized void setSeed(long seed) {
+		random.setSeed(seed);
+	}
+
+	/**
+	 * Samples editor picks uniformly at random without replacement, or returns
+	 * all picks if there are not more than <code>numBooks</code>.
+	 *
+	 * The sample is drawn by the first <code>numBooks</code> steps of a
+	 * Fisher-Yates shuffle, whose swaps are recorded in a map instead of the
+	 * array, so that the index is left untouched.
+	 *
+	 * @param numBooks
+	 *            the number of picks
+	 * @return the ISBNs of the picks, in random order
+	 */
+	public synchronized List<Integer> sample(int numBooks) {
+		int numPicked = Math.min(numBooks, size);
+		List<Integer> picked = new ArrayList<>(numPicked);
+		Map<Integer, Integer> swapped = new HashMap<>();
+
+		for (int i = 0; i < numPicked; i++) {
+			int j = i + random.nextInt(size - i);
+			int isbnAtJ = swapped.getOrDefault(j, isbns[j]);
+			swapped.put(j, swapped.getOrDefault(i, isbns[i]));
+			picked.add(isbnAtJ);
+		}
+
+		return picked;
+	}
+}
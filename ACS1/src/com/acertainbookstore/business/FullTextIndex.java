@@ -0,0 +1,494 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntToDoubleFunction;
+
+import com.acertainbookstore.utils.PostingList;
+
+/**
+ * {@link FullTextIndex} is an inverted index over the words of the titles and
+ * the authors of the books of the {@link CertainBookStore}. Every word maps to
+ * the delta-encoded {@link PostingList} of the ISBNs of the books containing
+ * it, one for titles and one for authors. The store updates the index whenever
+ * books are added or removed, one batch of books at a time.
+ *
+ * Posting lists are immutable, so queries read them without locking. Small
+ * updates do not rebuild them: the books added to or removed from a word are
+ * buffered next to its posting list, and merged into a new list in the
+ * background once the buffer holds a fraction of the list. An update thus
+ * costs time proportional to the books it changes, and the lists of common
+ * words are rebuilt a bounded number of times per book. A query matches the books containing all of its words, in
+ * their title or author, and ranks them by the number of words found in the
+ * title, which count twice, and in the author, optionally blended with the
+ * average rating of the books.
+ *
+ * @see BookQuery
+ */
+public class FullTextIndex {
+
+	/** The weight of a query word found in the title. */
+	private static final double TITLE_WEIGHT = 2.0;
+
+	/** The weight of a query word found in the author. */
+	private static final double AUTHOR_WEIGHT = 1.0;
+
+	/** The number of buffered changes below which a word is never merged. */
+	private static final int MIN_MERGED_CHANGES = 64;
+
+	/**
+	 * The size of a posting list divided by the number of buffered changes at
+	 * which they are merged.
+	 */
+	private static final int MERGE_RATIO = 8;
+
+	/**
+	 * {@link Postings} holds the books containing a word: a posting list, which
+	 * only merges replace, and the changes since, by ISBN. The updates of the
+	 * index buffer the changes, while merges drop the changes they merged, so
+	 * the two may run concurrently.
+	 */
+	private static final class Postings {
+
+		/** The merged posting list. */
+		private volatile PostingList list = PostingList.empty();
+
+		/** Whether each changed book was added or removed. */
+		private final ConcurrentSkipListMap<Integer, Boolean> changes = new ConcurrentSkipListMap<>();
+
+		/** The number of changes. */
+		private final AtomicInteger numChanges = new AtomicInteger();
+
+		/** Whether a merge is scheduled. */
+		private final AtomicBoolean merging = new AtomicBoolean();
+
+		/**
+		 * Adds or removes books. A batch as large as the buffer allows is
+		 * merged into the posting list at once instead.
+		 *
+		 * @param isbns
+		 *            the ISBNs of the books, sorted and distinct
+		 * @param added
+		 *            whether the books are added or removed
+		 */
+		private void update(int[] isbns, boolean added) {
+			if (isbns.length < mergedChanges()) {
+				for (int isbn : isbns) {
+					if (changes.put(isbn, added) == null) {
+						numChanges.incrementAndGet();
+					}
+				}
+
+				return;
+			}
+
+			synchronized (this) {
+				list = added ? list.plus(isbns) : list.minus(isbns);
+
+				// The books are now in the list as they should be, so their
+				// older changes are dropped, after the list is replaced.
+				for (int isbn : isbns) {
+					if (changes.remove(isbn) != null) {
+						numChanges.decrementAndGet();
+					}
+				}
+			}
+		}
+
+		/**
+		 * Gets the number of changes at which they are merged.
+		 *
+		 * @return the number of changes
+		 */
+		private int mergedChanges() {
+			return Math.max(MIN_MERGED_CHANGES, list.size() / MERGE_RATIO);
+		}
+
+		/**
+		 * Checks if the changes should be merged.
+		 *
+		 * @return true, if the changes should be merged
+		 */
+		private boolean needsMerge() {
+			return numChanges.get() >= mergedChanges();
+		}
+
+		/**
+		 * Checks if no books contain the word.
+		 *
+		 * @return true, if the posting list and the changes are empty
+		 */
+		private boolean isEmpty() {
+			return list.isEmpty() && numChanges.get() == 0;
+		}
+
+		/**
+		 * Merges the changes into a new posting list. The list is replaced
+		 * before the changes are dropped, and a change updated meanwhile is
+		 * kept.
+		 */
+		private synchronized void merge() {
+			List<Map.Entry<Integer, Boolean>> merged = new ArrayList<>(changes.entrySet());
+			int[] added = merged.stream().filter(Map.Entry::getValue).mapToInt(Map.Entry::getKey).toArray();
+			int[] removed = merged.stream().filter(change -> !change.getValue()).mapToInt(Map.Entry::getKey)
+					.toArray();
+
+			list = list.plus(added).minus(removed);
+
+			for (Map.Entry<Integer, Boolean> change : merged) {
+				if (changes.remove(change.getKey(), change.getValue())) {
+					numChanges.decrementAndGet();
+				}
+			}
+		}
+
+		/**
+		 * Decodes the ISBNs of the books containing the word.
+		 *
+		 * @return the ISBNs, sorted
+		 */
+		private int[] toArray() {
+			// Read the changes before the list: a merge replaces the list
+			// before it drops the changes it merged.
+			List<Map.Entry<Integer, Boolean>> read = new ArrayList<>(changes.entrySet());
+			int[] added = read.stream().filter(Map.Entry::getValue).mapToInt(Map.Entry::getKey).toArray();
+			int[] removed = read.stream().filter(change -> !change.getValue()).mapToInt(Map.Entry::getKey)
+					.toArray();
+
+			return difference(union(list.toArray(), added), removed);
+		}
+	}
+
+	/** The postings of the words of the titles. */
+	private final ConcurrentHashMap<String, Postings> titleWords = new ConcurrentHashMap<>();
+
+	/** The postings of the words of the authors. */
+	private final ConcurrentHashMap<String, Postings> authorWords = new ConcurrentHashMap<>();
+
+	/**
+	 * Splits a text into its distinct words, i.e., the maximal runs of letters
+	 * and digits, ignoring case.
+	 *
+	 * @param text
+	 *            the text
+	 * @return the words, in order of first occurrence
+	 */
+	public static Set<String> wordsOf(String text) {
+		Set<String> words = new LinkedHashSet<>();
+		int start = -1;
+
+		for (int i = 0; i <= text.length(); i++) {
+			boolean inWord = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+
+			if (inWord && start < 0) {
+				start = i;
+			} else if (!inWord && start >= 0) {
+				words.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+				start = -1;
+			}
+		}
+
+		return words;
+	}
+
+	/**
+	 * Groups the ISBNs of books by the words of one of their fields.
+	 *
+	 * @param books
+	 *            the books
+	 * @param field
+	 *            the field
+	 * @return the sorted ISBNs of the books, by word
+	 */
+	private static Map<String, int[]> isbnsByWord(Collection<? extends Book> books, BookSearch.Field field) {
+		Map<String, List<Integer>> lists = new HashMap<>();
+
+		for (Book book : books) {
+			for (String word : wordsOf(field.of(book))) {
+				lists.computeIfAbsent(word, key -> new ArrayList<>()).add(book.getISBN());
+			}
+		}
+
+		Map<String, int[]> isbns = new HashMap<>();
+
+		for (Map.Entry<String, List<Integer>> entry : lists.entrySet()) {
+			int[] sorted = entry.getValue().stream().mapToInt(Integer::intValue).sorted().distinct().toArray();
+			isbns.put(entry.getKey(), sorted);
+		}
+
+		return isbns;
+	}
+
+	/**
+	 * Adds books. The caller must exclude all other updates.
+	 *
+	 * @param books
+	 *            the books
+	 */
+	public void addAll(Collection<? extends Book> books) {
+		update(titleWords, books, BookSearch.Field.TITLE, true);
+		update(authorWords, books, BookSearch.Field.AUTHOR, true);
+	}
+
+	/**
+	 * Removes books. The caller must exclude all other updates.
+	 *
+	 * @param books
+	 *            the books
+	 */
+	public void removeAll(Collection<? extends Book> books) {
+		update(titleWords, books, BookSearch.Field.TITLE, false);
+		update(authorWords, books, BookSearch.Field.AUTHOR, false);
+	}
+
+	/**
+	 * Adds books to or removes books from the postings of the words of one of
+	 * their fields, and schedules a merge of the words whose buffered changes
+	 * have grown large enough.
+	 *
+	 * @param words
+	 *            the postings
+	 * @param books
+	 *            the books
+	 * @param field
+	 *            the field
+	 * @param added
+	 *            whether the books are added or removed
+	 */
+	private static void update(ConcurrentHashMap<String, Postings> words, Collection<? extends Book> books,
+			BookSearch.Field field, boolean added) {
+		isbnsByWord(books, field).forEach((word, isbns) -> {
+			Postings postings = words.compute(word, (key, oldPostings) -> {
+				if (oldPostings == null && !added) {
+					return null;
+				}
+
+				Postings newPostings = oldPostings == null ? new Postings() : oldPostings;
+				newPostings.update(isbns, added);
+				return newPostings.isEmpty() ? null : newPostings;
+			});
+
+			if (postings != null && postings.needsMerge() && postings.merging.compareAndSet(false, true)) {
+				ForkJoinPool.commonPool().execute(() -> merge(words, word, postings));
+			}
+		});
+	}
+
+	/**
+	 * Merges the buffered changes of a word until they are few again, and
+	 * drops the word from the index if no book contains it any more.
+	 *
+	 * @param words
+	 *            the postings
+	 * @param word
+	 *            the word
+	 * @param postings
+	 *            the postings of the word
+	 */
+	private static void merge(ConcurrentHashMap<String, Postings> words, String word, Postings postings) {
+		do {
+			postings.merge();
+			postings.merging.set(false);
+		} while (postings.needsMerge() && postings.merging.compareAndSet(false, true));
+
+		words.computeIfPresent(word,
+				(key, oldPostings) -> oldPostings == postings && postings.isEmpty() ? null : oldPostings);
+	}
+
+	/**
+	 * Removes all books. The caller must exclude all other updates.
+	 */
+	public void clear() {
+		titleWords.clear();
+		authorWords.clear();
+	}
+
+	/**
+	 * Decodes the postings of a word.
+	 *
+	 * @param words
+	 *            the postings
+	 * @param word
+	 *            the word
+	 * @return the ISBNs, sorted
+	 */
+	private static int[] isbnsOf(Map<String, Postings> words, String word) {
+		Postings postings = words.get(word);
+		return postings == null ? new int[0] : postings.toArray();
+	}
+
+	/**
+	 * Computes the union of two sorted arrays.
+	 *
+	 * @param a
+	 *            the first array
+	 * @param b
+	 *            the second array
+	 * @return the union, sorted
+	 */
+	private static int[] union(int[] a, int[] b) {
+		int[] union = new int[a.length + b.length];
+		int i = 0;
+		int j = 0;
+		int length = 0;
+
+		while (i < a.length || j < b.length) {
+			if (j == b.length || (i < a.length && a[i] < b[j])) {
+				union[length++] = a[i++];
+			} else if (i == a.length || b[j] < a[i]) {
+				union[length++] = b[j++];
+			} else {
+				union[length++] = a[i++];
+				j++;
+			}
+		}
+
+		return Arrays.copyOf(union, length);
+	}
+
+	/**
+	 * Computes the difference of two sorted arrays.
+	 *
+	 * @param a
+	 *            the first array
+	 * @param b
+	 *            the second array
+	 * @return the values of the first array not in the second, sorted
+	 */
+	private static int[] difference(int[] a, int[] b) {
+		int[] difference = new int[a.length];
+		int j = 0;
+		int length = 0;
+
+		for (int value : a) {
+			while (j < b.length && b[j] < value) {
+				j++;
+			}
+
+			if (j == b.length || b[j] != value) {
+				difference[length++] = value;
+			}
+		}
+
+		return Arrays.copyOf(difference, length);
+	}
+
+	/**
+	 * Computes the intersection of two sorted arrays.
+	 *
+	 * @param a
+	 *            the first array
+	 * @param b
+	 *            the second array
+	 * @return the intersection, sorted
+	 */
+	private static int[] intersection(int[] a, int[] b) {
+		int[] intersection = new int[Math.min(a.length, b.length)];
+		int i = 0;
+		int j = 0;
+		int length = 0;
+
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j]) {
+				i++;
+			} else if (b[j] < a[i]) {
+				j++;
+			} else {
+				intersection[length++] = a[i++];
+				j++;
+			}
+		}
+
+		return Arrays.copyOf(intersection, length);
+	}
+
+	/**
+	 * Finds the books containing all words of a query, ranked.
+	 *
+	 * @param text
+	 *            the query
+	 * @param numBooks
+	 *            the maximum number of books
+	 * @param ratingWeight
+	 *            the weight of the average rating of a book in its rank
+	 * @param averageRatingOf
+	 *            the function giving the average rating of a book by ISBN,
+	 *            negative if the book was not rated
+	 * @return the ISBNs of the best ranked books, best first
+	 */
+	public List<Integer> query(String text, int numBooks, double ratingWeight, IntToDoubleFunction averageRatingOf) {
+		Set<String> words = wordsOf(text);
+		List<int[]> titleLists = new ArrayList<>(words.size());
+		List<int[]> authorLists = new ArrayList<>(words.size());
+		int[] matches = null;
+
+		// Intersect the books containing each word, in the title or the author.
+		for (String word : words) {
+			int[] titleList = isbnsOf(titleWords, word);
+			int[] authorList = isbnsOf(authorWords, word);
+			int[] wordMatches = union(titleList, authorList);
+
+			matches = matches == null ? wordMatches : intersection(matches, wordMatches);
+			titleLists.add(titleList);
+			authorLists.add(authorList);
+
+			if (matches.length == 0) {
+				return new ArrayList<>();
+			}
+		}
+
+		if (matches == null) {
+			return new ArrayList<>();
+		}
+
+		// Keep the numBooks best ranked books in a heap whose head is the worst.
+		Comparator<double[]> ranking = Comparator.<double[]> comparingDouble(match -> match[0])
+				.thenComparing(Comparator.<double[]> comparingDouble(match -> match[1]).reversed());
+		PriorityQueue<double[]> best = new PriorityQueue<>(numBooks + 1, ranking);
+
+		for (int isbn : matches) {
+			double score = ratingWeight * Math.max(0.0, averageRatingOf.applyAsDouble(isbn));
+
+			for (int i = 0; i < titleLists.size(); i++) {
+				if (Arrays.binarySearch(titleLists.get(i), isbn) >= 0) {
+					score += TITLE_WEIGHT;
+				}
+
+				if (Arrays.binarySearch(authorLists.get(i), isbn) >= 0) {
+					score += AUTHOR_WEIGHT;
+				}
+			}
+
+			best.add(new double[] { score, isbn });
+
+			if (best.size() > numBooks) {
+				best.poll();
+			}
+		}
+
+		List<double[]> ranked = new ArrayList<>(best);
+		ranked.sort(ranking.reversed());
+
+		List<Integer> isbns = new ArrayList<>(ranked.size());
+
+		for (double[] match : ranked) {
+			isbns.add((int) match[1]);
+		}
+
+		return isbns;
+	}
+}
@@ -0,0 +1,73 @@
+package com.acertainbookstore.business;
+
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link GlobalLockManager} executes every operation under one store-wide lock,
+ * i.e., operations on the {@link CertainBookStore} are fully serialized.
+ * 
+ * @see BookStoreLockManager
+ * @see ConcurrencyMode#GLOBAL
+ */
+public class GlobalLockManager implements BookStoreLockManager {
+
+	/** The store-wide lock. */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.business.BookStoreLockManager#readBooks(java.util.
+	 * Collection, com.acertainbookstore.business.BookStoreOperation)
+	 */
+	@Override
+	public <T> T readBooks(Collection<Integer> isbns, BookStoreOperation<T> operation) throws BookStoreException {
+		return writeCatalog(operation);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.business.BookStoreLockManager#writeBooks(java.util.
+	 * Collection, com.acertainbookstore.business.BookStoreOperation)
+	 */
+	@Override
+	public <T> T writeBooks(Collection<Integer> isbns, BookStoreOperation<T> operation) throws BookStoreException {
+		return writeCatalog(operation);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.business.BookStoreLockManager#readCatalog(com.
+	 * acertainbookstore.business.BookStoreOperation)
+	 */
+	@Override
+	public <T> T readCatalog(BookStoreOperation<T> operation) throws BookStoreException {
+		return writeCatalog(operation);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.business.BookStoreLockManager#writeCatalog(com.
+	 * acertainbookstore.business.BookStoreOperation)
+	 */
+	@Override
+	public <T> T writeCatalog(BookStoreOperation<T> operation) throws BookStoreException {
+		lock.lock();
+
+		try {
+			return operation.execute();
+		} finally {
+			lock.unlock();
+		}
+	}
+}
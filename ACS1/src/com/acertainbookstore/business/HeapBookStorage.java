@@ -0,0 +1,116 @@
+package com.acertainbookstore.business;
+
+import java.util.Iterator;
+
+import com.acertainbookstore.utils.IntObjectHashMap;
+
+/**
+ * {@link HeapBookStorage} keeps every book as a {@link BookStoreBook} object
+ * on the heap, created by the {@link ConcurrencyMode}.
+ * 
+ * @see BookStorage
+ * @see StorageEngine#HEAP
+ */
+public class HeapBookStorage implements BookStorage {
+
+	/** The mapping of books from ISBN to {@link BookStoreBook}. */
+	private final IntObjectHashMap<BookStoreBook> bookMap = new IntObjectHashMap<>();
+
+	/** The concurrency mode creating the books. */
+	private final ConcurrencyMode concurrencyMode;
+
+	/**
+	 * Instantiates a new {@link HeapBookStorage}.
+	 *
+	 * @param concurrencyMode
+	 *            the concurrency mode creating the books
+	 */
+	public HeapBookStorage(ConcurrencyMode concurrencyMode) {
+		this.concurrencyMode = concurrencyMode;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.business.BookStorage#size()
+	 */
+	@Override
+	public int size() {
+		return bookMap.size();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.business.BookStorage#contains(int)
+	 */
+	@Override
+	public boolean contains(int isbn) {
+		return bookMap.containsKey(isbn);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.business.BookStorage#get(int)
+	 */
+	@Override
+	public BookStoreBook get(int isbn) {
+		return bookMap.get(isbn);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.business.BookStorage#getAll(int[],
+	 * com.acertainbookstore.business.BookStoreBook[])
+	 */
+	@Override
+	public int getAll(int[] isbns, BookStoreBook[] books) {
+		return bookMap.getAll(isbns, books);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.business.BookStorage#add(com.acertainbookstore.
+	 * business.StockBook)
+	 */
+	@Override
+	public BookStoreBook add(StockBook book) {
+		BookStoreBook addedBook = concurrencyMode.newBook(book);
+		bookMap.put(book.getISBN(), addedBook);
+		return addedBook;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.business.BookStorage#remove(int)
+	 */
+	@Override
+	public void remove(int isbn) {
+		bookMap.remove(isbn);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.business.BookStorage#clear()
+	 */
+	@Override
+	public void clear() {
+		bookMap.clear();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Iterable#iterator()
+	 */
+	@Override
+	public Iterator<BookStoreBook> iterator() {
+		return bookMap.iterator();
+	}
+}
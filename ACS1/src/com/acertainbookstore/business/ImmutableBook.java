@@ -101,7 +101,7 @@ public class ImmutableBook implements Book {
 		}
 
 		Book book = (Book) obj;
-		return this.isbn == book.getISBN() && this.getTitle().equals(book.getTitle())
+		return this.getISBN() == book.getISBN() && this.getTitle().equals(book.getTitle())
 				&& this.getAuthor().equals(book.getAuthor())
 				&& Math.abs(this.getPrice() - book.getPrice()) < BookStoreConstants.EPSILON;
 	}
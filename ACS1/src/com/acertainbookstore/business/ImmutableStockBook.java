@@ -25,6 +25,12 @@ public final class ImmutableStockBook extends ImmutableBook implements StockBook
 	/** Whether the book is editor picked. */
 	private final boolean editorPick;
 
+	/**
+	 * The {@link ImmutableBook} copy of the book, shared by all copies made of
+	 * the same book, or null until it is first needed. It is not serialized.
+	 */
+	private transient ImmutableBook book;
+
 	/**
 	 * Instantiates a new {@link ImmutableStockBook}. This constructor is
 	 * necessary for serialization and has no other purpose.
@@ -70,6 +76,49 @@ public final class ImmutableStockBook extends ImmutableBook implements StockBook
 		this.editorPick = editorPick;
 	}
 
+	/**
+	 * Instantiates a new {@link ImmutableStockBook} that shares the
+	 * {@link ImmutableBook} copy of a book.
+	 *
+	 * @param book
+	 *            the immutable book
+	 * @param numCopies
+	 *            the number of copies
+	 * @param numSaleMisses
+	 *            the number of sale misses
+	 * @param numTimesRated
+	 *            the number of times rated
+	 * @param totalRating
+	 *            the total rating
+	 * @param editorPick
+	 *            whether the book is editor picked
+	 */
+	ImmutableStockBook(ImmutableBook book, int numCopies, long numSaleMisses, long numTimesRated, long totalRating,
+			boolean editorPick) {
+		this(book.getISBN(), book.getTitle(), book.getAuthor(), book.getPrice(), numCopies, numSaleMisses,
+				numTimesRated, totalRating, editorPick);
+		this.book = book;
+	}
+
+	/**
+	 * Returns the {@link ImmutableBook} copy of the book, which holds the parts
+	 * of the book that are available to the bookstore client. The copy is made
+	 * once and shared.
+	 *
+	 * @return the immutable book
+	 */
+	public ImmutableBook immutableBook() {
+		ImmutableBook book = this.book;
+
+		// Racing threads may make a copy each, which are all equal.
+		if (book == null) {
+			book = new ImmutableBook(getISBN(), getTitle(), getAuthor(), getPrice());
+			this.book = book;
+		}
+
+		return book;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
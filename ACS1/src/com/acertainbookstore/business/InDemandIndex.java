@@ -0,0 +1,59 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link InDemandIndex} holds the ISBNs of the books of the
+ * {@link CertainBookStore} that had sale misses, so that the books in demand
+ * are listed without scanning the catalog. The store updates the index
+ * whenever a sale miss is recorded or copies are added to a book.
+ *
+ * Updates of one book are serialized by the underlying map and read the sale
+ * misses of the book only then, so that concurrent updates of a book always
+ * leave its final state behind, cf. {@link TopRatedIndex}.
+ */
+public class InDemandIndex {
+
+	/** The ISBNs of the books in demand. */
+	private final ConcurrentHashMap<Integer, Boolean> inDemand = new ConcurrentHashMap<>();
+
+	/**
+	 * Adds a book that was added or updated to the books in demand, or removes
+	 * it, depending on whether it had sale misses.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	public void update(BookStoreBook book) {
+		inDemand.compute(book.getISBN(), (isbn, old) -> book.hadSaleMiss() ? Boolean.TRUE : null);
+	}
+
+	/**
+	 * Removes a book from the books in demand.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 */
+	public void remove(int isbn) {
+		inDemand.remove(isbn);
+	}
+
+	/**
+	 * Removes all books from the books in demand. The caller must exclude all
+	 * other updates.
+	 */
+	public void clear() {
+		inDemand.clear();
+	}
+
+	/**
+	 * Gets the ISBNs of the books in demand.
+	 *
+	 * @return the ISBNs
+	 */
+	public List<Integer> inDemand() {
+		return new ArrayList<>(inDemand.keySet());
+	}
+}
@@ -0,0 +1,52 @@
+package com.acertainbookstore.business;
+
+import java.util.Collection;
+
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link LockFreeLockManager} lets operations on a single book run without
+ * taking a lock stripe, relying on the books being
+ * {@link ConcurrentBookStoreBook} instances that can be updated concurrently.
+ * Operations on several books still take the stripes of their ISBNs, so that
+ * they are observed atomically by other multi-book operations, and the catalog
+ * lock is still shared by all book operations so that adding and removing
+ * books stays atomic.
+ * 
+ * @see StripedLockManager
+ * @see ConcurrencyMode#LOCK_FREE
+ */
+public class LockFreeLockManager extends StripedLockManager {
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.business.StripedLockManager#readBooks(java.util.
+	 * Collection, com.acertainbookstore.business.BookStoreOperation)
+	 */
+	@Override
+	public <T> T readBooks(Collection<Integer> isbns, BookStoreOperation<T> operation) throws BookStoreException {
+		if (isbns.size() == 1) {
+			return withCatalogShared(operation);
+		}
+
+		return super.readBooks(isbns, operation);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.business.StripedLockManager#writeBooks(java.util.
+	 * Collection, com.acertainbookstore.business.BookStoreOperation)
+	 */
+	@Override
+	public <T> T writeBooks(Collection<Integer> isbns, BookStoreOperation<T> operation) throws BookStoreException {
+		if (isbns.size() == 1) {
+			return withCatalogShared(operation);
+		}
+
+		return super.writeBooks(isbns, operation);
+	}
+}
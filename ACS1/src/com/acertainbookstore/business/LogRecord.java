@@ -0,0 +1,330 @@
+package com.acertainbookstore.business;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.ToIntFunction;
+
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link LogRecord} encodes the mutations of the {@link CertainBookStore} as
+ * records of its {@link WriteAheadLog}, and redoes them during recovery. A
+ * record is the type of the mutation followed by its arguments: the ISBN and
+ * value of every item, or the full state of every added book as laid out in
+ * binary catalogs, cf. {@link CatalogImporter}.
+ *
+ * Records are redone by calling the store again, which reproduces the
+ * mutation since the log holds the mutations of every book in the order in
+ * which they took effect.
+ */
+final class LogRecord {
+
+	/**
+	 * {@link Type} enumerates the types of records.
+	 */
+	enum Type {
+
+		/** Books were added. */
+		ADD_BOOKS,
+
+		/** Copies were added. */
+		ADD_COPIES,
+
+		/** Copies were bought. */
+		BUY_BOOKS,
+
+		/** A purchase failed, recording sale misses. */
+		MISS_BOOKS,
+
+		/** Books were rated. */
+		RATE_BOOKS,
+
+		/** Editor picks were updated. */
+		UPDATE_EDITOR_PICKS,
+
+		/** Books were removed. */
+		REMOVE_BOOKS,
+
+		/** All books were removed. */
+		REMOVE_ALL_BOOKS
+	}
+
+	/**
+	 * {@link Writer} writes the arguments of a record.
+	 */
+	@FunctionalInterface
+	private interface Writer {
+
+		/**
+		 * Writes the arguments.
+		 *
+		 * @param out
+		 *            the output
+		 * @throws IOException
+		 *             Signals that an I/O exception has occurred.
+		 */
+		void write(DataOutputStream out) throws IOException;
+	}
+
+	/**
+	 * Prevents the instantiation of a new {@link LogRecord}.
+	 */
+	private LogRecord() {
+		// Prevent instances from being created.
+	}
+
+	/**
+	 * Encodes a record.
+	 *
+	 * @param type
+	 *            the type of the record
+	 * @param writer
+	 *            the writer of the arguments
+	 * @return the record
+	 */
+	private static byte[] encode(Type type, Writer writer) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeByte(type.ordinal());
+			writer.write(out);
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Encodes a record whose arguments are pairs of an ISBN and a value.
+	 *
+	 * @param <E>
+	 *            the type of the items
+	 * @param type
+	 *            the type of the record
+	 * @param items
+	 *            the items
+	 * @param isbnOf
+	 *            the function extracting the ISBN of an item
+	 * @param valueOf
+	 *            the function extracting the value of an item
+	 * @return the record
+	 */
+	private static <E> byte[] encode(Type type, Collection<E> items, ToIntFunction<E> isbnOf,
+			ToIntFunction<E> valueOf) {
+		return encode(type, out -> {
+			out.writeInt(items.size());
+
+			for (E item : items) {
+				out.writeInt(isbnOf.applyAsInt(item));
+				out.writeInt(valueOf.applyAsInt(item));
+			}
+		});
+	}
+
+	/**
+	 * Encodes the addition of books.
+	 *
+	 * @param books
+	 *            the books
+	 * @return the record
+	 */
+	static byte[] addBooks(Collection<? extends StockBook> books) {
+		return encode(Type.ADD_BOOKS, out -> {
+			out.writeInt(books.size());
+
+			for (StockBook book : books) {
+				CatalogImporter.writeBook(out, book);
+			}
+		});
+	}
+
+	/**
+	 * Encodes the addition of copies.
+	 *
+	 * @param copies
+	 *            the copies
+	 * @return the record
+	 */
+	static byte[] addCopies(Collection<BookCopy> copies) {
+		return encode(Type.ADD_COPIES, copies, BookCopy::getISBN, BookCopy::getNumCopies);
+	}
+
+	/**
+	 * Encodes a purchase.
+	 *
+	 * @param copies
+	 *            the copies bought
+	 * @param missed
+	 *            whether the purchase failed, recording sale misses
+	 * @return the record
+	 */
+	static byte[] buyBooks(Collection<BookCopy> copies, boolean missed) {
+		return encode(missed ? Type.MISS_BOOKS : Type.BUY_BOOKS, copies, BookCopy::getISBN,
+				BookCopy::getNumCopies);
+	}
+
+	/**
+	 * Encodes ratings.
+	 *
+	 * @param ratings
+	 *            the ratings
+	 * @return the record
+	 */
+	static byte[] rateBooks(Collection<BookRating> ratings) {
+		return encode(Type.RATE_BOOKS, ratings, BookRating::getISBN, BookRating::getRating);
+	}
+
+	/**
+	 * Encodes an update of the editor picks.
+	 *
+	 * @param editorPicks
+	 *            the editor picks
+	 * @return the record
+	 */
+	static byte[] updateEditorPicks(Collection<BookEditorPick> editorPicks) {
+		return encode(Type.UPDATE_EDITOR_PICKS, editorPicks, BookEditorPick::getISBN,
+				editorPick -> editorPick.isEditorPick() ? 1 : 0);
+	}
+
+	/**
+	 * Encodes the removal of books.
+	 *
+	 * @param isbns
+	 *            the ISBNs of the books
+	 * @return the record
+	 */
+	static byte[] removeBooks(Collection<Integer> isbns) {
+		return encode(Type.REMOVE_BOOKS, out -> {
+			out.writeInt(isbns.size());
+
+			for (int isbn : isbns) {
+				out.writeInt(isbn);
+			}
+		});
+	}
+
+	/**
+	 * Encodes the removal of all books.
+	 *
+	 * @return the record
+	 */
+	static byte[] removeAllBooks() {
+		return encode(Type.REMOVE_ALL_BOOKS, out -> {
+		});
+	}
+
+	/**
+	 * Redoes a record on a store that does not log.
+	 *
+	 * @param record
+	 *            the record
+	 * @param store
+	 *            the store
+	 * @throws IOException
+	 *             if the record is malformed or cannot be redone
+	 */
+	static void redo(ByteBuffer record, CertainBookStore store) throws IOException {
+		try {
+			Type type = Type.values()[record.get()];
+			int size = type == Type.REMOVE_ALL_BOOKS ? 0 : record.getInt();
+
+			switch (type) {
+			case ADD_BOOKS:
+				Set<StockBook> books = new HashSet<>();
+
+				for (int i = 0; i < size; i++) {
+					books.add(CatalogImporter.readBook(record));
+				}
+
+				store.addBooks(books);
+				break;
+
+			case ADD_COPIES:
+				store.addCopies(readCopies(record, size));
+				break;
+
+			case BUY_BOOKS:
+				store.buyBooks(readCopies(record, size));
+				break;
+
+			case MISS_BOOKS:
+				try {
+					store.buyBooks(readCopies(record, size));
+				} catch (BookStoreException ex) {
+					// The purchase fails again, recording the same sale misses.
+					break;
+				}
+
+				throw new IOException("A failed purchase succeeded when it was redone");
+
+			case RATE_BOOKS:
+				Set<BookRating> ratings = new HashSet<>();
+
+				for (int i = 0; i < size; i++) {
+					ratings.add(new BookRating(record.getInt(), record.getInt()));
+				}
+
+				store.rateBooks(ratings);
+				break;
+
+			case UPDATE_EDITOR_PICKS:
+				Set<BookEditorPick> editorPicks = new HashSet<>();
+
+				for (int i = 0; i < size; i++) {
+					editorPicks.add(new BookEditorPick(record.getInt(), record.getInt() != 0));
+				}
+
+				store.updateEditorPicks(editorPicks);
+				break;
+
+			case REMOVE_BOOKS:
+				Set<Integer> isbns = new HashSet<>();
+
+				for (int i = 0; i < size; i++) {
+					isbns.add(record.getInt());
+				}
+
+				store.removeBooks(isbns);
+				break;
+
+			case REMOVE_ALL_BOOKS:
+				store.removeAllBooks();
+				break;
+
+			default:
+				throw new IOException("Unsupported record type " + type);
+			}
+		} catch (BufferUnderflowException | IndexOutOfBoundsException ex) {
+			throw new IOException("Malformed log record", ex);
+		} catch (BookStoreException ex) {
+			throw new IOException("The log record cannot be redone", ex);
+		}
+	}
+
+	/**
+	 * Reads the copies of a record.
+	 *
+	 * @param record
+	 *            the record
+	 * @param size
+	 *            the number of copies
+	 * @return the copies
+	 */
+	private static Set<BookCopy> readCopies(ByteBuffer record, int size) {
+		Set<BookCopy> copies = new HashSet<>();
+
+		for (int i = 0; i < size; i++) {
+			copies.add(new BookCopy(record.getInt(), record.getInt()));
+		}
+
+		return copies;
+	}
+}
@@ -0,0 +1,1108 @@
+package com.acertainbookstore.business;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.OffHeapIntIntMap;
+
+/**
+ * {@link MappedBookStorage} keeps the books in a pair of memory-mapped files,
+ * so that the catalog lives in the page cache rather than on the heap and
+ * survives a restart without being loaded: reopening the files maps them and
+ * scans the slots to rebuild the mapping from ISBN to slot, which takes
+ * milliseconds per million books.
+ *
+ * The slot file starts with a header page and holds one fixed-size slot per
+ * book, with the ISBN, the price, the references of title and author, a state
+ * and two copies of the counters. Titles and authors are appended to the
+ * strings file, prefixed by their length. Slots never move and are reused
+ * after their book is removed; the space of the strings of removed books is
+ * only reclaimed when all books are removed.
+ *
+ * The files are kept crash-consistent by ordering the writes rather than by
+ * logging them:
+ * <ul>
+ * <li>A new book is written to a free slot marked pending, which is ignored
+ * when the files are reopened. A sync, run periodically and on close, forces
+ * both files to disk and only then marks the slots committed, so that a
+ * committed slot never references strings that did not reach the disk. A
+ * slot stays pending until a sync commits it, so the next sync retries the
+ * slots of a failed one; meanwhile, additions fail.</li>
+ * <li>A counter update writes the inactive copy of the counters with the next
+ * sequence number and a checksum, so that the copy a crash tears is detected
+ * and the other one is used.</li>
+ * <li>A removal marks the slot free, which is a single write.</li>
+ * </ul>
+ * Slots are aligned to their size, which divides the size of a disk sector,
+ * so that the disk writes each slot as a whole. Counter updates are durable
+ * as soon as the operating system writes the page back, and new books at the
+ * next sync; an operation on several books is not atomic across a crash.
+ *
+ * Views update their counters with plain reads and writes, so the storage
+ * requires a concurrency mode that locks the books, cf.
+ * {@link ConcurrencyMode#updatesBooksWithoutLocks()}.
+ *
+ * @see BookStorage
+ * @see StorageEngine#MAPPED
+ */
+public class MappedBookStorage implements BookStorage, Closeable {
+
+	/** The interval at which the files are synced. */
+	public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 1000;
+
+	/** The suffix of the strings file. */
+	private static final String STRINGS_SUFFIX = ".strings";
+
+	/** The magic number of the slot file. */
+	private static final int MAGIC = 0x4143534d;
+
+	/** The format version of the files. */
+	private static final int VERSION = 1;
+
+	/** The size of the header page of the slot file. */
+	private static final int HEADER_SIZE = 4096;
+
+	/** The offset of the number of slots ever used in the header. */
+	private static final int HEADER_NUM_SLOTS = 8;
+
+	/** The offset of the end of the strings in the header. */
+	private static final int HEADER_STRINGS_END = 16;
+
+	/** The size of a slot, a divisor of the size of a disk sector. */
+	private static final int SLOT_SIZE = 128;
+
+	/** The size of the mapped chunks of both files, a power of two. */
+	private static final int CHUNK_SIZE = 1 << 24;
+
+	/** The number of slots per chunk of the slot file. */
+	private static final int SLOTS_PER_CHUNK = CHUNK_SIZE / SLOT_SIZE;
+
+	/** The offsets of the fields of a slot. */
+	private static final int ISBN = 0, PRICE = 4, TITLE = 8, AUTHOR = 16, STATE = 24, CHECKSUM = 28,
+			COUNTERS = 32, EPOCH = 112;
+
+	/** The size of a copy of the counters. */
+	private static final int COUNTERS_SIZE = 40;
+
+	/** The offsets of the fields of a copy of the counters. */
+	private static final int SEQUENCE = 0, COUNTERS_CHECKSUM = 4, NUM_COPIES = 8, EDITOR_PICK = 12,
+			TOTAL_RATING = 16, NUM_TIMES_RATED = 24, NUM_SALE_MISSES = 32;
+
+	/** The states of a slot. */
+	private static final int FREE = 0, PENDING = 1, COMMITTED = 2;
+
+	/** The seed of the checksums, so that a zeroed slot is invalid. */
+	private static final long CHECKSUM_SEED = 0x2545f4914f6cdd1dL;
+
+	/** The path of the slot file. */
+	private final Path file;
+
+	/**
+	 * Whether the files are kept across restarts, and thus synced; temporary
+	 * files are never reopened.
+	 */
+	private final boolean durable;
+
+	/** The file of the slots. */
+	private final FileChannel slotFile;
+
+	/** The file of the strings. */
+	private final FileChannel stringsFile;
+
+	/** The header of the slot file. */
+	private final MappedByteBuffer header;
+
+	/** The mapped chunks of the slot file. */
+	private final List<MappedByteBuffer> slotChunks = new ArrayList<>();
+
+	/** The mapped chunks of the strings file. */
+	private final List<MappedByteBuffer> stringChunks = new ArrayList<>();
+
+	/** The mapping of books from ISBN to slot. */
+	private OffHeapIntIntMap index;
+
+	/** The number of slots ever used, free or not. */
+	private int numSlots;
+
+	/** The end of the strings. */
+	private long stringsEnd;
+
+	/** The free slots below the number of slots ever used. */
+	private int[] freeSlots = new int[16];
+
+	/** The number of free slots. */
+	private int numFreeSlots;
+
+	/**
+	 * The lock excluding additions and removals from the commit of pending
+	 * slots by a sync.
+	 */
+	private final Object syncLock = new Object();
+
+	/** The slots written and not yet committed by a sync. */
+	private int[] pendingSlots = new int[16];
+
+	/** The number of pending slots. */
+	private int numPendingSlots;
+
+	/** The number of syncs started, which tags the pending slots. */
+	private int syncEpoch;
+
+	/** The number of times all books were removed. */
+	private int numClears;
+
+	/** The lock serializing the syncs. */
+	private final Object commitLock = new Object();
+
+	/**
+	 * The failure of the last periodic sync, if it failed, which fails the
+	 * additions until a sync succeeds.
+	 */
+	private volatile Exception syncFailure = null;
+
+	/** The lock the periodic sync thread waits on between syncs. */
+	private final Object syncThreadLock = new Object();
+
+	/** The thread syncing the files periodically, if any. */
+	private Thread syncThread = null;
+
+	/** Whether the storage is closed. */
+	private volatile boolean closed = false;
+
+	/**
+	 * Maps the files, creating them if they do not exist.
+	 *
+	 * @param file
+	 *            the slot file
+	 * @param durable
+	 *            whether the files are kept across restarts
+	 * @throws IOException
+	 *             if the files cannot be mapped, or are not slot and strings
+	 *             files
+	 */
+	private MappedBookStorage(Path file, boolean durable) throws IOException {
+		this.file = file;
+		this.durable = durable;
+		this.slotFile = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		this.stringsFile = FileChannel.open(stringsFile(file), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+
+		try {
+			this.header = slotFile.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+
+			// A file whose header was never written is new.
+			if (header.getInt(0) == 0) {
+				header.putInt(HEADER_NUM_SLOTS, 0);
+				header.putLong(HEADER_STRINGS_END, 0);
+				header.putInt(4, VERSION);
+				header.putInt(0, MAGIC);
+				header.force();
+			} else if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+				throw new IOException(file + " is not a book store file");
+			}
+
+			numSlots = header.getInt(HEADER_NUM_SLOTS);
+			stringsEnd = header.getLong(HEADER_STRINGS_END);
+			mapSlots(numSlots);
+			mapStrings(stringsEnd);
+			index = new OffHeapIntIntMap(numSlots);
+			recoverSlots();
+		} catch (IOException | RuntimeException ex) {
+			slotFile.close();
+			stringsFile.close();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Opens the storage kept in a file, creating it if it does not exist, and
+	 * syncs it periodically until it is closed.
+	 *
+	 * @param file
+	 *            the slot file; the strings are kept next to it
+	 * @return the storage
+	 * @throws IOException
+	 *             if the files cannot be mapped, or are not slot and strings
+	 *             files
+	 */
+	public static MappedBookStorage open(Path file) throws IOException {
+		MappedBookStorage storage = new MappedBookStorage(file, true);
+		storage.syncThread = new Thread(storage::syncPeriodically, "MappedBookStorage sync");
+		storage.syncThread.setDaemon(true);
+		storage.syncThread.start();
+		return storage;
+	}
+
+	/**
+	 * Creates a storage in temporary files, which are deleted when the storage
+	 * is closed or the virtual machine exits. The files are never synced, so
+	 * the storage does not track the slots of new books.
+	 *
+	 * @return the storage
+	 * @throws UncheckedIOException
+	 *             if the files cannot be created
+	 */
+	public static MappedBookStorage temporary() {
+		try {
+			Path file = Files.createTempFile("books", ".slots");
+			file.toFile().deleteOnExit();
+			stringsFile(file).toFile().deleteOnExit();
+			return new MappedBookStorage(file, false);
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	/**
+	 * Gets the strings file next to a slot file.
+	 *
+	 * @param file
+	 *            the slot file
+	 * @return the strings file
+	 */
+	public static Path stringsFile(Path file) {
+		return Paths.get(file.toString() + STRINGS_SUFFIX);
+	}
+
+	/**
+	 * Maps the chunks of the slot file holding a number of slots, and at least
+	 * one chunk.
+	 *
+	 * @param numSlots
+	 *            the number of slots
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void mapSlots(int numSlots) throws IOException {
+		while ((long) slotChunks.size() * SLOTS_PER_CHUNK < Math.max(numSlots, 1)) {
+			slotChunks.add(slotFile.map(FileChannel.MapMode.READ_WRITE,
+					HEADER_SIZE + (long) slotChunks.size() * CHUNK_SIZE, CHUNK_SIZE));
+		}
+	}
+
+	/**
+	 * Maps the chunks of the strings file holding the strings up to an end,
+	 * and at least one chunk.
+	 *
+	 * @param end
+	 *            the end of the strings
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void mapStrings(long end) throws IOException {
+		while ((long) stringChunks.size() * CHUNK_SIZE < Math.max(end, 1)) {
+			stringChunks.add(stringsFile.map(FileChannel.MapMode.READ_WRITE, (long) stringChunks.size() * CHUNK_SIZE,
+					CHUNK_SIZE));
+		}
+	}
+
+	/**
+	 * Scans the slots after the files are mapped: indexes the committed slots
+	 * and frees the pending and torn ones.
+	 */
+	private void recoverSlots() {
+		for (int slot = 0; slot < numSlots; slot++) {
+			MappedByteBuffer chunk = slotChunk(slot);
+			int offset = slotOffset(slot);
+
+			if (chunk.getInt(offset + STATE) == COMMITTED && isIntact(chunk, offset)) {
+				index.put(chunk.getInt(offset + ISBN), slot);
+			} else {
+				chunk.putInt(offset + STATE, FREE);
+				pushFreeSlot(slot);
+			}
+		}
+	}
+
+	/**
+	 * Checks if a committed slot is intact, and makes its valid copy of the
+	 * counters the current one.
+	 *
+	 * @param chunk
+	 *            the chunk of the slot
+	 * @param offset
+	 *            the offset of the slot in the chunk
+	 * @return true, if the slot and one copy of its counters are intact
+	 */
+	private static boolean isIntact(MappedByteBuffer chunk, int offset) {
+		if (chunk.getInt(offset + CHECKSUM) != bookChecksum(chunk, offset)) {
+			return false;
+		}
+
+		int current = currentCopy(chunk, offset);
+		int other = current ^ 1;
+		boolean currentIntact = isIntactCopy(chunk, offset + COUNTERS + current * COUNTERS_SIZE);
+		boolean otherIntact = isIntactCopy(chunk, offset + COUNTERS + other * COUNTERS_SIZE);
+
+		if (!currentIntact && otherIntact) {
+
+			// The update of the current copy was torn: make it older than
+			// the other one, so that the next update overwrites it.
+			int otherOffset = offset + COUNTERS + other * COUNTERS_SIZE;
+			chunk.putInt(offset + COUNTERS + current * COUNTERS_SIZE + SEQUENCE,
+					chunk.getInt(otherOffset + SEQUENCE) - 1);
+		}
+
+		return currentIntact || otherIntact;
+	}
+
+	/**
+	 * Checks if a copy of the counters matches its checksum.
+	 *
+	 * @param chunk
+	 *            the chunk of the slot
+	 * @param offset
+	 *            the offset of the copy in the chunk
+	 * @return true, if the copy is intact
+	 */
+	private static boolean isIntactCopy(MappedByteBuffer chunk, int offset) {
+		return chunk.getInt(offset + COUNTERS_CHECKSUM) == countersChecksum(chunk.getInt(offset + SEQUENCE),
+				chunk.getInt(offset + NUM_COPIES), chunk.getInt(offset + EDITOR_PICK),
+				chunk.getLong(offset + TOTAL_RATING), chunk.getLong(offset + NUM_TIMES_RATED),
+				chunk.getLong(offset + NUM_SALE_MISSES));
+	}
+
+	/**
+	 * Gets the copy of the counters of a slot with the higher sequence number.
+	 *
+	 * @param chunk
+	 *            the chunk of the slot
+	 * @param offset
+	 *            the offset of the slot in the chunk
+	 * @return the copy, 0 or 1
+	 */
+	private static int currentCopy(MappedByteBuffer chunk, int offset) {
+		int sequence0 = chunk.getInt(offset + COUNTERS + SEQUENCE);
+		int sequence1 = chunk.getInt(offset + COUNTERS + COUNTERS_SIZE + SEQUENCE);
+		return sequence1 - sequence0 > 0 ? 1 : 0;
+	}
+
+	/**
+	 * Computes the checksum of the immutable fields of a slot.
+	 *
+	 * @param chunk
+	 *            the chunk of the slot
+	 * @param offset
+	 *            the offset of the slot in the chunk
+	 * @return the checksum
+	 */
+	private static int bookChecksum(MappedByteBuffer chunk, int offset) {
+		long hash = mix(CHECKSUM_SEED, chunk.getInt(offset + ISBN));
+		hash = mix(hash, chunk.getInt(offset + PRICE));
+		hash = mix(hash, chunk.getLong(offset + TITLE));
+		hash = mix(hash, chunk.getLong(offset + AUTHOR));
+		return (int) (hash ^ (hash >>> 32));
+	}
+
+	/**
+	 * Computes the checksum of a copy of the counters.
+	 *
+	 * @param sequence
+	 *            the sequence number
+	 * @param numCopies
+	 *            the number of copies
+	 * @param editorPick
+	 *            the editor pick flag
+	 * @param totalRating
+	 *            the total rating
+	 * @param numTimesRated
+	 *            the number of times rated
+	 * @param numSaleMisses
+	 *            the number of sale misses
+	 * @return the checksum
+	 */
+	private static int countersChecksum(int sequence, int numCopies, int editorPick, long totalRating,
+			long numTimesRated, long numSaleMisses) {
+		long hash = mix(CHECKSUM_SEED, sequence);
+		hash = mix(hash, numCopies);
+		hash = mix(hash, editorPick);
+		hash = mix(hash, totalRating);
+		hash = mix(hash, numTimesRated);
+		hash = mix(hash, numSaleMisses);
+		return (int) (hash ^ (hash >>> 32));
+	}
+
+	/**
+	 * Mixes a value into a hash.
+	 *
+	 * @param hash
+	 *            the hash
+	 * @param value
+	 *            the value
+	 * @return the new hash
+	 */
+	private static long mix(long hash, long value) {
+		hash = (hash ^ value) * 0x9e3779b97f4a7c15L;
+		return hash ^ (hash >>> 29);
+	}
+
+	/**
+	 * Gets the chunk of the slot file holding a slot.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @return the chunk
+	 */
+	private MappedByteBuffer slotChunk(int slot) {
+		return slotChunks.get(slot / SLOTS_PER_CHUNK);
+	}
+
+	/**
+	 * Gets the offset of a slot in its chunk.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @return the offset
+	 */
+	private static int slotOffset(int slot) {
+		return (slot % SLOTS_PER_CHUNK) * SLOT_SIZE;
+	}
+
+	/**
+	 * Pushes a slot onto the free slots.
+	 *
+	 * @param slot
+	 *            the slot
+	 */
+	private void pushFreeSlot(int slot) {
+		if (numFreeSlots == freeSlots.length) {
+			freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+		}
+
+		freeSlots[numFreeSlots++] = slot;
+	}
+
+	/**
+	 * Reads a string of the strings file.
+	 *
+	 * @param reference
+	 *            the offset of the string in the file
+	 * @return the string
+	 * @throws IllegalStateException
+	 *             if the string does not lie within its chunk, i.e., the
+	 *             reference is stale or torn
+	 */
+	private String getString(long reference) {
+		MappedByteBuffer chunk = stringChunks.get((int) (reference / CHUNK_SIZE));
+		int offset = (int) (reference % CHUNK_SIZE);
+		int length = chunk.getInt(offset);
+
+		// A reader without locks may hold a view of a slot whose strings were
+		// overwritten since all books were removed.
+		if (length < 0 || length > CHUNK_SIZE - offset - Integer.BYTES) {
+			throw new IllegalStateException("The string at " + reference + " has the invalid length " + length);
+		}
+
+		byte[] bytes = new byte[length];
+		ByteBuffer source = chunk.duplicate();
+		source.position(offset + Integer.BYTES);
+		source.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Appends a string to the strings file, starting a new chunk if it does
+	 * not fit into the last one.
+	 *
+	 * @param string
+	 *            the string
+	 * @return the offset of the string in the file
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private long addString(String string) throws IOException {
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		int size = Integer.BYTES + bytes.length;
+
+		if (size > CHUNK_SIZE) {
+			throw new IllegalArgumentException("The string is longer than " + CHUNK_SIZE + " bytes");
+		}
+
+		long reference = stringsEnd;
+
+		if (reference % CHUNK_SIZE + size > CHUNK_SIZE) {
+			reference += CHUNK_SIZE - reference % CHUNK_SIZE;
+		}
+
+		mapStrings(reference + size);
+		MappedByteBuffer chunk = stringChunks.get((int) (reference / CHUNK_SIZE));
+		int offset = (int) (reference % CHUNK_SIZE);
+		chunk.putInt(offset, bytes.length);
+		ByteBuffer target = chunk.duplicate();
+		target.position(offset + Integer.BYTES);
+		target.put(bytes);
+
+		stringsEnd = reference + size;
+		header.putLong(HEADER_STRINGS_END, stringsEnd);
+		return reference;
+	}
+
+	/**
+	 * Writes a copy of the counters of a slot.
+	 *
+	 * @param chunk
+	 *            the chunk of the slot
+	 * @param offset
+	 *            the offset of the copy in the chunk
+	 * @param sequence
+	 *            the sequence number
+	 * @param numCopies
+	 *            the number of copies
+	 * @param editorPick
+	 *            the editor pick flag
+	 * @param totalRating
+	 *            the total rating
+	 * @param numTimesRated
+	 *            the number of times rated
+	 * @param numSaleMisses
+	 *            the number of sale misses
+	 */
+	private static void putCounters(MappedByteBuffer chunk, int offset, int sequence, int numCopies,
+			boolean editorPick, long totalRating, long numTimesRated, long numSaleMisses) {
+		int pick = editorPick ? 1 : 0;
+		chunk.putInt(offset + NUM_COPIES, numCopies);
+		chunk.putInt(offset + EDITOR_PICK, pick);
+		chunk.putLong(offset + TOTAL_RATING, totalRating);
+		chunk.putLong(offset + NUM_TIMES_RATED, numTimesRated);
+		chunk.putLong(offset + NUM_SALE_MISSES, numSaleMisses);
+		chunk.putInt(offset + COUNTERS_CHECKSUM,
+				countersChecksum(sequence, numCopies, pick, totalRating, numTimesRated, numSaleMisses));
+		chunk.putInt(offset + SEQUENCE, sequence);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStorage#size()
+	 */
+	@Override
+	public int size() {
+		return index.size();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStorage#contains(int)
+	 */
+	@Override
+	public boolean contains(int isbn) {
+		return index.get(isbn) >= 0;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStorage#get(int)
+	 */
+	@Override
+	public BookStoreBook get(int isbn) {
+		int slot = index.get(isbn);
+		return slot < 0 ? null : new SlotView(slot);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStorage#getAll(int[],
+	 * com.acertainbookstore.business.BookStoreBook[])
+	 */
+	@Override
+	public int getAll(int[] isbns, BookStoreBook[] books) {
+		for (int i = 0; i < isbns.length; i++) {
+			int slot = index.get(isbns[i]);
+
+			if (slot < 0) {
+				return i;
+			}
+
+			books[i] = new SlotView(slot);
+		}
+
+		return -1;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.business.BookStorage#add(com.acertainbookstore.
+	 * business.StockBook)
+	 */
+	@Override
+	public BookStoreBook add(StockBook book) {
+		Exception failure = syncFailure;
+
+		if (failure != null) {
+			throw new UncheckedIOException(new IOException("The books could not be synced", failure));
+		}
+
+		synchronized (syncLock) {
+			try {
+				long title = addString(book.getTitle());
+				long author = addString(book.getAuthor());
+				int slot;
+
+				if (numFreeSlots > 0) {
+					slot = freeSlots[--numFreeSlots];
+				} else {
+					mapSlots(numSlots + 1);
+					slot = numSlots++;
+					header.putInt(HEADER_NUM_SLOTS, numSlots);
+				}
+
+				MappedByteBuffer chunk = slotChunk(slot);
+				int offset = slotOffset(slot);
+				chunk.putInt(offset + ISBN, book.getISBN());
+				chunk.putFloat(offset + PRICE, book.getPrice());
+				chunk.putLong(offset + TITLE, title);
+				chunk.putLong(offset + AUTHOR, author);
+				chunk.putInt(offset + CHECKSUM, bookChecksum(chunk, offset));
+
+				for (int copy = 0; copy < 2; copy++) {
+					putCounters(chunk, offset + COUNTERS + copy * COUNTERS_SIZE, 1 - copy, book.getNumCopies(),
+							book.isEditorPick(), book.getTotalRating(), book.getNumTimesRated(),
+							book.getNumSaleMisses());
+				}
+
+				chunk.putInt(offset + EPOCH, syncEpoch);
+
+				// The slots of temporary files are never recovered.
+				if (!durable) {
+					chunk.putInt(offset + STATE, COMMITTED);
+				} else {
+					chunk.putInt(offset + STATE, PENDING);
+
+					if (numPendingSlots == pendingSlots.length) {
+						pendingSlots = Arrays.copyOf(pendingSlots, pendingSlots.length * 2);
+					}
+
+					pendingSlots[numPendingSlots++] = slot;
+				}
+				index.put(book.getISBN(), slot);
+				return new SlotView(slot);
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+		}
+	}
+
+	/**
+	 * Overwrites the counters of a stored book with those of another copy of
+	 * the book, which was updated instead of the stored one.
+	 *
+	 * @param book
+	 *            the copy of the book
+	 */
+	void write(BookStoreBook book) {
+		int slot = index.get(book.getISBN());
+
+		if (slot >= 0) {
+			new SlotView(slot).update(book.getNumCopies(), book.isEditorPick(), book.getTotalRating(),
+					book.getNumTimesRated(), book.getNumSaleMisses());
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStorage#remove(int)
+	 */
+	@Override
+	public void remove(int isbn) {
+		synchronized (syncLock) {
+			int slot = index.remove(isbn);
+
+			if (slot < 0) {
+				return;
+			}
+
+			slotChunk(slot).putInt(slotOffset(slot) + STATE, FREE);
+			pushFreeSlot(slot);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStorage#clear()
+	 */
+	@Override
+	public void clear() {
+		synchronized (syncLock) {
+			for (int slot = 0; slot < numSlots; slot++) {
+				slotChunk(slot).putInt(slotOffset(slot) + STATE, FREE);
+			}
+
+			numSlots = 0;
+			stringsEnd = 0;
+			header.putInt(HEADER_NUM_SLOTS, 0);
+			header.putLong(HEADER_STRINGS_END, 0);
+			numFreeSlots = 0;
+			numPendingSlots = 0;
+			numClears++;
+			index.clear();
+
+			// Force the cleared slots before their strings are overwritten.
+			if (durable) {
+				try {
+					force();
+				} catch (IOException ex) {
+					throw new UncheckedIOException(ex);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Forces the mapped chunks of both files to disk, the strings first.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void force() throws IOException {
+		List<MappedByteBuffer> strings;
+		List<MappedByteBuffer> slots;
+
+		synchronized (syncLock) {
+			strings = new ArrayList<>(stringChunks);
+			slots = new ArrayList<>(slotChunks);
+		}
+
+		// A mapped buffer reports the failures to write it back unchecked.
+		try {
+			for (MappedByteBuffer chunk : strings) {
+				chunk.force();
+			}
+
+			for (MappedByteBuffer chunk : slots) {
+				chunk.force();
+			}
+
+			header.force();
+		} catch (UncheckedIOException ex) {
+			throw ex.getCause();
+		}
+	}
+
+	/**
+	 * Makes the books added so far durable: forces both files to disk, marks
+	 * the slots of the books committed, and forces the slots again. Additions
+	 * and removals proceed meanwhile, except while the slots are marked. The
+	 * slots stay pending unless the sync succeeds.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void sync() throws IOException {
+		synchronized (commitLock) {
+			int[] slots;
+			int epoch;
+			int clears;
+
+			synchronized (syncLock) {
+				slots = Arrays.copyOf(pendingSlots, numPendingSlots);
+				epoch = syncEpoch++;
+				clears = numClears;
+			}
+
+			force();
+
+			if (slots.length == 0) {
+				return;
+			}
+
+			synchronized (syncLock) {
+				for (int slot : slots) {
+					MappedByteBuffer chunk = slotChunk(slot);
+					int offset = slotOffset(slot);
+
+					// Skip the slots freed, and possibly reused, since the
+					// sync started.
+					if (chunk.getInt(offset + STATE) == PENDING && epoch - chunk.getInt(offset + EPOCH) >= 0) {
+						chunk.putInt(offset + STATE, COMMITTED);
+					}
+				}
+			}
+
+			force();
+
+			// Only now drop the slots, so that a failed sync leaves them to
+			// the next one.
+			synchronized (syncLock) {
+				if (numClears == clears) {
+					numPendingSlots -= slots.length;
+					System.arraycopy(pendingSlots, slots.length, pendingSlots, 0, numPendingSlots);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Syncs the files at a fixed interval, until the storage is closed.
+	 */
+	private void syncPeriodically() {
+		while (true) {
+			synchronized (syncThreadLock) {
+				try {
+					syncThreadLock.wait(DEFAULT_SYNC_INTERVAL_MILLIS);
+				} catch (InterruptedException ex) {
+					return;
+				}
+			}
+
+			if (closed) {
+				return;
+			}
+
+			try {
+				sync();
+				syncFailure = null;
+			} catch (IOException | RuntimeException ex) {
+				syncFailure = ex;
+				System.err.println("Could not sync the books: " + ex);
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+
+		closed = true;
+
+		if (syncThread != null) {
+			synchronized (syncThreadLock) {
+				syncThreadLock.notifyAll();
+			}
+
+			try {
+				syncThread.join();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		try {
+			if (durable) {
+				sync();
+			}
+		} finally {
+			slotFile.close();
+			stringsFile.close();
+
+			if (!durable) {
+				Files.deleteIfExists(file);
+				Files.deleteIfExists(stringsFile(file));
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Iterable#iterator()
+	 */
+	@Override
+	public Iterator<BookStoreBook> iterator() {
+		return new Iterator<BookStoreBook>() {
+			private int slot = advance(0);
+
+			private int advance(int from) {
+				int next = from;
+
+				while (next < numSlots && slotChunk(next).getInt(slotOffset(next) + STATE) == FREE) {
+					next++;
+				}
+
+				return next;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return slot < numSlots;
+			}
+
+			@Override
+			public BookStoreBook next() {
+				if (slot >= numSlots) {
+					throw new NoSuchElementException();
+				}
+
+				BookStoreBook book = new SlotView(slot);
+				slot = advance(slot + 1);
+				return book;
+			}
+		};
+	}
+
+	/**
+	 * {@link SlotView} is the {@link BookStoreBook} view of a slot, reading and
+	 * writing the mapped slot file. Every update writes a new copy of the
+	 * counters.
+	 */
+	private final class SlotView extends BookStoreBook {
+
+		/** The chunk of the slot. */
+		private final MappedByteBuffer chunk;
+
+		/** The offset of the slot in the chunk. */
+		private final int offset;
+
+		/**
+		 * Instantiates a new {@link SlotView}.
+		 *
+		 * @param slot
+		 *            the slot
+		 */
+		private SlotView(int slot) {
+			this.chunk = slotChunk(slot);
+			this.offset = slotOffset(slot);
+		}
+
+		/**
+		 * Gets the offset of the current copy of the counters in the chunk.
+		 *
+		 * @return the offset
+		 */
+		private int counters() {
+			return offset + COUNTERS + currentCopy(chunk, offset) * COUNTERS_SIZE;
+		}
+
+		/**
+		 * Writes the counters into the inactive copy, which becomes the
+		 * current one.
+		 *
+		 * @param numCopies
+		 *            the number of copies
+		 * @param editorPick
+		 *            the editor pick flag
+		 * @param totalRating
+		 *            the total rating
+		 * @param numTimesRated
+		 *            the number of times rated
+		 * @param numSaleMisses
+		 *            the number of sale misses
+		 */
+		private void update(int numCopies, boolean editorPick, long totalRating, long numTimesRated,
+				long numSaleMisses) {
+			int current = currentCopy(chunk, offset);
+			int sequence = chunk.getInt(offset + COUNTERS + current * COUNTERS_SIZE + SEQUENCE);
+			putCounters(chunk, offset + COUNTERS + (current ^ 1) * COUNTERS_SIZE, sequence + 1, numCopies,
+					editorPick, totalRating, numTimesRated, numSaleMisses);
+			modified();
+		}
+
+		@Override
+		public int getISBN() {
+			return chunk.getInt(offset + ISBN);
+		}
+
+		@Override
+		public String getTitle() {
+			return getString(chunk.getLong(offset + TITLE));
+		}
+
+		@Override
+		public String getAuthor() {
+			return getString(chunk.getLong(offset + AUTHOR));
+		}
+
+		@Override
+		public float getPrice() {
+			return chunk.getFloat(offset + PRICE);
+		}
+
+		@Override
+		public long getTotalRating() {
+			return chunk.getLong(counters() + TOTAL_RATING);
+		}
+
+		@Override
+		public long getNumTimesRated() {
+			return chunk.getLong(counters() + NUM_TIMES_RATED);
+		}
+
+		@Override
+		public int getNumCopies() {
+			return chunk.getInt(counters() + NUM_COPIES);
+		}
+
+		@Override
+		public long getNumSaleMisses() {
+			return chunk.getLong(counters() + NUM_SALE_MISSES);
+		}
+
+		@Override
+		public boolean isEditorPick() {
+			return chunk.getInt(counters() + EDITOR_PICK) != 0;
+		}
+
+		@Override
+		public void setEditorPick(boolean editorPick) {
+			update(getNumCopies(), editorPick, getTotalRating(), getNumTimesRated(), getNumSaleMisses());
+		}
+
+		@Override
+		public boolean buyCopies(int numCopies) {
+			if (!BookStoreUtility.isInvalidNoCopies(numCopies) && areCopiesInStore(numCopies)) {
+				update(getNumCopies() - numCopies, isEditorPick(), getTotalRating(), getNumTimesRated(),
+						getNumSaleMisses());
+				return true;
+			}
+
+			return false;
+		}
+
+		@Override
+		public void returnCopies(int numCopies) {
+			if (!BookStoreUtility.isInvalidNoCopies(numCopies)) {
+				update(getNumCopies() + numCopies, isEditorPick(), getTotalRating(), getNumTimesRated(),
+						getNumSaleMisses());
+			}
+		}
+
+		@Override
+		public void addCopies(int numNewCopies) {
+			if (!BookStoreUtility.isInvalidNoCopies(numNewCopies)) {
+				update(getNumCopies() + numNewCopies, isEditorPick(), getTotalRating(), getNumTimesRated(), 0);
+			}
+		}
+
+		@Override
+		public void addSaleMiss() {
+			update(getNumCopies(), isEditorPick(), getTotalRating(), getNumTimesRated(), getNumSaleMisses() + 1);
+		}
+
+		@Override
+		public void addRating(int rating) {
+			if (!BookStoreUtility.isInvalidRating(rating)) {
+				update(getNumCopies(), isEditorPick(), getTotalRating() + rating, getNumTimesRated() + 1,
+						getNumSaleMisses());
+			}
+		}
+	}
+}
@@ -0,0 +1,446 @@
+package com.acertainbookstore.business;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.OffHeapIntIntMap;
+import com.acertainbookstore.utils.OffHeapStringArena;
+
+/**
+ * {@link OffHeapBookStorage} keeps the books in direct memory, as columns
+ * indexed by a dense slot id: the ISBN, price and every counter of the book
+ * are stored in a column of their own, title and author in an
+ * {@link OffHeapStringArena}, and the ISBNs are mapped to slots by an
+ * {@link OffHeapIntIntMap}. The storage thus occupies no heap per book, and
+ * the books it hands out are short-lived views of a slot, so that objects are
+ * only materialized at the API boundary.
+ *
+ * Removing a book moves the book in the last slot into its slot, which keeps
+ * the slots dense. Columns grow by doubling; the string arena is compacted
+ * when less than half of it is live.
+ *
+ * Views update their counters with plain reads and writes, so the storage
+ * requires a concurrency mode that locks the books, cf.
+ * {@link ConcurrencyMode#updatesBooksWithoutLocks()}. The snapshot modes still
+ * publish their versions of the books on the heap.
+ *
+ * @see BookStorage
+ * @see StorageEngine#OFF_HEAP
+ */
+public class OffHeapBookStorage implements BookStorage {
+
+	/** The initial number of slots. */
+	private static final int INITIAL_CAPACITY = 1024;
+
+	/** The maximum number of slots, bounded by the size of a direct buffer. */
+	private static final int MAX_CAPACITY = 1 << 27;
+
+	/** The ISBN column. */
+	private ByteBuffer isbns;
+
+	/** The price column. */
+	private ByteBuffer prices;
+
+	/** The column of the number of copies. */
+	private ByteBuffer numCopies;
+
+	/** The total rating column. */
+	private ByteBuffer totalRatings;
+
+	/** The column of the number of times rated. */
+	private ByteBuffer numTimesRated;
+
+	/** The column of the number of sale misses. */
+	private ByteBuffer numSaleMisses;
+
+	/** The editor pick column, one byte per slot. */
+	private ByteBuffer editorPicks;
+
+	/** The column of the title references into the string arena. */
+	private ByteBuffer titles;
+
+	/** The column of the author references into the string arena. */
+	private ByteBuffer authors;
+
+	/** The number of slots of the columns. */
+	private int capacity;
+
+	/** The number of used slots. */
+	private int size;
+
+	/** The mapping of books from ISBN to slot. */
+	private final OffHeapIntIntMap index = new OffHeapIntIntMap();
+
+	/** The titles and authors. */
+	private OffHeapStringArena strings = new OffHeapStringArena();
+
+	/** The number of bytes of the arena referenced by the books. */
+	private long liveStringBytes;
+
+	/**
+	 * Instantiates a new, empty {@link OffHeapBookStorage}.
+	 */
+	public OffHeapBookStorage() {
+		allocate(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Allocates a direct buffer in native byte order.
+	 *
+	 * @param numBytes
+	 *            the size in bytes
+	 * @return the buffer
+	 */
+	private static ByteBuffer allocateColumn(long numBytes) {
+		return ByteBuffer.allocateDirect((int) numBytes).order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Copies a column into a larger one.
+	 *
+	 * @param column
+	 *            the column
+	 * @param numBytes
+	 *            the size of the new column in bytes
+	 * @return the new column
+	 */
+	private static ByteBuffer growColumn(ByteBuffer column, long numBytes) {
+		ByteBuffer source = column.duplicate();
+		source.clear();
+
+		ByteBuffer grown = allocateColumn(numBytes);
+		grown.put(source);
+		return grown;
+	}
+
+	/**
+	 * Allocates empty columns.
+	 *
+	 * @param capacity
+	 *            the number of slots
+	 */
+	private void allocate(int capacity) {
+		isbns = allocateColumn((long) capacity * Integer.BYTES);
+		prices = allocateColumn((long) capacity * Float.BYTES);
+		numCopies = allocateColumn((long) capacity * Integer.BYTES);
+		totalRatings = allocateColumn((long) capacity * Long.BYTES);
+		numTimesRated = allocateColumn((long) capacity * Long.BYTES);
+		numSaleMisses = allocateColumn((long) capacity * Long.BYTES);
+		editorPicks = allocateColumn(capacity);
+		titles = allocateColumn((long) capacity * Long.BYTES);
+		authors = allocateColumn((long) capacity * Long.BYTES);
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Doubles the number of slots of the columns.
+	 */
+	private void grow() {
+		if (capacity >= MAX_CAPACITY) {
+			throw new IllegalStateException("The storage cannot hold more than " + capacity + " books");
+		}
+
+		long newCapacity = (long) capacity << 1;
+		isbns = growColumn(isbns, newCapacity * Integer.BYTES);
+		prices = growColumn(prices, newCapacity * Float.BYTES);
+		numCopies = growColumn(numCopies, newCapacity * Integer.BYTES);
+		totalRatings = growColumn(totalRatings, newCapacity * Long.BYTES);
+		numTimesRated = growColumn(numTimesRated, newCapacity * Long.BYTES);
+		numSaleMisses = growColumn(numSaleMisses, newCapacity * Long.BYTES);
+		editorPicks = growColumn(editorPicks, newCapacity);
+		titles = growColumn(titles, newCapacity * Long.BYTES);
+		authors = growColumn(authors, newCapacity * Long.BYTES);
+		capacity = (int) newCapacity;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStorage#size()
+	 */
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStorage#contains(int)
+	 */
+	@Override
+	public boolean contains(int isbn) {
+		return index.get(isbn) >= 0;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStorage#get(int)
+	 */
+	@Override
+	public BookStoreBook get(int isbn) {
+		int slot = index.get(isbn);
+		return slot < 0 ? null : new SlotView(slot);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStorage#getAll(int[],
+	 * com.acertainbookstore.business.BookStoreBook[])
+	 */
+	@Override
+	public int getAll(int[] isbns, BookStoreBook[] books) {
+		for (int i = 0; i < isbns.length; i++) {
+			int slot = index.get(isbns[i]);
+
+			if (slot < 0) {
+				return i;
+			}
+
+			books[i] = new SlotView(slot);
+		}
+
+		return -1;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.business.BookStorage#add(com.acertainbookstore.
+	 * business.StockBook)
+	 */
+	@Override
+	public BookStoreBook add(StockBook book) {
+		if (size == capacity) {
+			grow();
+		}
+
+		int slot = size++;
+		long title = strings.add(book.getTitle());
+		long author = strings.add(book.getAuthor());
+		liveStringBytes += strings.sizeOf(title) + strings.sizeOf(author);
+
+		isbns.putInt(slot * Integer.BYTES, book.getISBN());
+		prices.putFloat(slot * Float.BYTES, book.getPrice());
+		numCopies.putInt(slot * Integer.BYTES, book.getNumCopies());
+		totalRatings.putLong(slot * Long.BYTES, book.getTotalRating());
+		numTimesRated.putLong(slot * Long.BYTES, book.getNumTimesRated());
+		numSaleMisses.putLong(slot * Long.BYTES, book.getNumSaleMisses());
+		editorPicks.put(slot, (byte) (book.isEditorPick() ? 1 : 0));
+		titles.putLong(slot * Long.BYTES, title);
+		authors.putLong(slot * Long.BYTES, author);
+		index.put(book.getISBN(), slot);
+		return new SlotView(slot);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStorage#remove(int)
+	 */
+	@Override
+	public void remove(int isbn) {
+		int slot = index.remove(isbn);
+
+		if (slot < 0) {
+			return;
+		}
+
+		liveStringBytes -= strings.sizeOf(titles.getLong(slot * Long.BYTES))
+				+ strings.sizeOf(authors.getLong(slot * Long.BYTES));
+		int last = --size;
+
+		if (slot != last) {
+			isbns.putInt(slot * Integer.BYTES, isbns.getInt(last * Integer.BYTES));
+			prices.putFloat(slot * Float.BYTES, prices.getFloat(last * Float.BYTES));
+			numCopies.putInt(slot * Integer.BYTES, numCopies.getInt(last * Integer.BYTES));
+			totalRatings.putLong(slot * Long.BYTES, totalRatings.getLong(last * Long.BYTES));
+			numTimesRated.putLong(slot * Long.BYTES, numTimesRated.getLong(last * Long.BYTES));
+			numSaleMisses.putLong(slot * Long.BYTES, numSaleMisses.getLong(last * Long.BYTES));
+			editorPicks.put(slot, editorPicks.get(last));
+			titles.putLong(slot * Long.BYTES, titles.getLong(last * Long.BYTES));
+			authors.putLong(slot * Long.BYTES, authors.getLong(last * Long.BYTES));
+			index.put(isbns.getInt(slot * Integer.BYTES), slot);
+		}
+
+		if (strings.usedBytes() > 2 * liveStringBytes + OffHeapStringArena.DEFAULT_CHUNK_SIZE) {
+			compactStrings();
+		}
+	}
+
+	/**
+	 * Copies the titles and authors of the books into a new string arena,
+	 * releasing the space of removed books.
+	 */
+	private void compactStrings() {
+		OffHeapStringArena compacted = new OffHeapStringArena();
+
+		for (int slot = 0; slot < size; slot++) {
+			titles.putLong(slot * Long.BYTES, compacted.add(strings.get(titles.getLong(slot * Long.BYTES))));
+			authors.putLong(slot * Long.BYTES, compacted.add(strings.get(authors.getLong(slot * Long.BYTES))));
+		}
+
+		strings = compacted;
+		liveStringBytes = compacted.usedBytes();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStorage#clear()
+	 */
+	@Override
+	public void clear() {
+		allocate(INITIAL_CAPACITY);
+		index.clear();
+		strings = new OffHeapStringArena();
+		liveStringBytes = 0;
+		size = 0;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Iterable#iterator()
+	 */
+	@Override
+	public Iterator<BookStoreBook> iterator() {
+		return new Iterator<BookStoreBook>() {
+			private int slot = 0;
+
+			@Override
+			public boolean hasNext() {
+				return slot < size;
+			}
+
+			@Override
+			public BookStoreBook next() {
+				if (slot >= size) {
+					throw new NoSuchElementException();
+				}
+
+				return new SlotView(slot++);
+			}
+		};
+	}
+
+	/**
+	 * {@link SlotView} is the {@link BookStoreBook} view of a slot, reading and
+	 * writing the columns of the storage.
+	 */
+	private final class SlotView extends BookStoreBook {
+
+		/** The slot. */
+		private final int slot;
+
+		/**
+		 * Instantiates a new {@link SlotView}.
+		 *
+		 * @param slot
+		 *            the slot
+		 */
+		private SlotView(int slot) {
+			this.slot = slot;
+		}
+
+		@Override
+		public int getISBN() {
+			return isbns.getInt(slot * Integer.BYTES);
+		}
+
+		@Override
+		public String getTitle() {
+			return strings.get(titles.getLong(slot * Long.BYTES));
+		}
+
+		@Override
+		public String getAuthor() {
+			return strings.get(authors.getLong(slot * Long.BYTES));
+		}
+
+		@Override
+		public float getPrice() {
+			return prices.getFloat(slot * Float.BYTES);
+		}
+
+		@Override
+		public long getTotalRating() {
+			return totalRatings.getLong(slot * Long.BYTES);
+		}
+
+		@Override
+		public long getNumTimesRated() {
+			return numTimesRated.getLong(slot * Long.BYTES);
+		}
+
+		@Override
+		public int getNumCopies() {
+			return numCopies.getInt(slot * Integer.BYTES);
+		}
+
+		@Override
+		public long getNumSaleMisses() {
+			return numSaleMisses.getLong(slot * Long.BYTES);
+		}
+
+		@Override
+		public boolean isEditorPick() {
+			return editorPicks.get(slot) != 0;
+		}
+
+		@Override
+		public void setEditorPick(boolean editorPick) {
+			editorPicks.put(slot, (byte) (editorPick ? 1 : 0));
+			modified();
+		}
+
+		@Override
+		public boolean buyCopies(int numCopies) {
+			if (!BookStoreUtility.isInvalidNoCopies(numCopies) && areCopiesInStore(numCopies)) {
+				OffHeapBookStorage.this.numCopies.putInt(slot * Integer.BYTES, getNumCopies() - numCopies);
+				modified();
+				return true;
+			}
+
+			return false;
+		}
+
+		@Override
+		public void returnCopies(int numCopies) {
+			if (!BookStoreUtility.isInvalidNoCopies(numCopies)) {
+				OffHeapBookStorage.this.numCopies.putInt(slot * Integer.BYTES, getNumCopies() + numCopies);
+				modified();
+			}
+		}
+
+		@Override
+		public void addCopies(int numNewCopies) {
+			if (!BookStoreUtility.isInvalidNoCopies(numNewCopies)) {
+				numCopies.putInt(slot * Integer.BYTES, getNumCopies() + numNewCopies);
+				numSaleMisses.putLong(slot * Long.BYTES, 0);
+				modified();
+			}
+		}
+
+		@Override
+		public void addSaleMiss() {
+			numSaleMisses.putLong(slot * Long.BYTES, getNumSaleMisses() + 1);
+			modified();
+		}
+
+		@Override
+		public void addRating(int rating) {
+			if (!BookStoreUtility.isInvalidRating(rating)) {
+				totalRatings.putLong(slot * Long.BYTES, getTotalRating() + rating);
+				numTimesRated.putLong(slot * Long.BYTES, getNumTimesRated() + 1);
+				modified();
+			}
+		}
+	}
+}
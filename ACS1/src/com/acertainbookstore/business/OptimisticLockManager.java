@@ -0,0 +1,143 @@
+package com.acertainbookstore.business;
+
+import java.util.Collection;
+import java.util.concurrent.locks.StampedLock;
+
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link OptimisticLockManager} isolates the operations of the
+ * {@link CertainBookStore} with a {@link StampedLock}. Writers take the lock
+ * exclusively. Readers first run without locking and validate afterwards that
+ * no writer interfered; only if validation fails is the read repeated under
+ * the lock in shared mode. Read operations must therefore be free of side
+ * effects and tolerate observing inconsistent state, whose results (including
+ * runtime exceptions) are discarded when validation fails. They must detect
+ * inconsistent state before acting on it in ways that fail with an error,
+ * e.g., check lengths read from storage before allocating arrays of them.
+ * 
+ * @see BookStoreLockManager
+ * @see ConcurrencyMode#OPTIMISTIC
+ */
+public class OptimisticLockManager implements BookStoreLockManager {
+
+	/** The lock. */
+	private final StampedLock lock = new StampedLock();
+
+	/**
+	 * Executes a read operation, optimistically if possible.
+	 *
+	 * @param <T>
+	 *            the type of the result
+	 * @param operation
+	 *            the operation
+	 * @return the result of the operation
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private <T> T read(BookStoreOperation<T> operation) throws BookStoreException {
+		long stamp = lock.tryOptimisticRead();
+
+		if (stamp != 0L) {
+			T result = null;
+			BookStoreException failure = null;
+			boolean completed = false;
+
+			try {
+				result = operation.execute();
+				completed = true;
+			} catch (BookStoreException ex) {
+				failure = ex;
+				completed = true;
+			} catch (RuntimeException ex) {
+				// A writer changed the state under our feet, or the operation
+				// failed for real; validation and the locked retry decide.
+			}
+
+			if (completed && lock.validate(stamp)) {
+				if (failure != null) {
+					throw failure;
+				}
+
+				return result;
+			}
+		}
+
+		stamp = lock.readLock();
+
+		try {
+			return operation.execute();
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Executes a write operation under the exclusive lock.
+	 *
+	 * @param <T>
+	 *            the type of the result
+	 * @param operation
+	 *            the operation
+	 * @return the result of the operation
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private <T> T write(BookStoreOperation<T> operation) throws BookStoreException {
+		long stamp = lock.writeLock();
+
+		try {
+			return operation.execute();
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.business.BookStoreLockManager#readBooks(java.util.
+	 * Collection, com.acertainbookstore.business.BookStoreOperation)
+	 */
+	@Override
+	public <T> T readBooks(Collection<Integer> isbns, BookStoreOperation<T> operation) throws BookStoreException {
+		return read(operation);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.business.BookStoreLockManager#writeBooks(java.util.
+	 * Collection, com.acertainbookstore.business.BookStoreOperation)
+	 */
+	@Override
+	public <T> T writeBooks(Collection<Integer> isbns, BookStoreOperation<T> operation) throws BookStoreException {
+		return write(operation);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.business.BookStoreLockManager#readCatalog(com.
+	 * acertainbookstore.business.BookStoreOperation)
+	 */
+	@Override
+	public <T> T readCatalog(BookStoreOperation<T> operation) throws BookStoreException {
+		return read(operation);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.business.BookStoreLockManager#writeCatalog(com.
+	 * acertainbookstore.business.BookStoreOperation)
+	 */
+	@Override
+	public <T> T writeCatalog(BookStoreOperation<T> operation) throws BookStoreException {
+		return write(operation);
+	}
+}
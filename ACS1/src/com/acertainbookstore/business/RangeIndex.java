@@ -0,0 +1,97 @@
+package com.acertainbookstore.business;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.PrimitiveIterator;
+
+import com.acertainbookstore.utils.SortedLongSet;
+
+/**
+ * {@link RangeIndex} keeps the books of the {@link CertainBookStore} sorted by
+ * price and by ISBN, so that the books in a range are found by seeking to the
+ * start of the range and reading on until its end, at a cost proportional to
+ * the number of books read instead of the size of the catalog. Every book is
+ * indexed by its position in each order, as given by
+ * {@link BookRange.Field#positionOf(Book)}. The store updates the index
+ * whenever books are added or removed; prices never change in between.
+ *
+ * The positions are kept unboxed in a {@link SortedLongSet}, so a book costs
+ * about sixteen bytes of heap for both orders, whichever storage engine holds
+ * the books themselves.
+ *
+ * @see BookRange
+ */
+public class RangeIndex {
+
+	/** The positions of the books by price. */
+	private final SortedLongSet prices = new SortedLongSet();
+
+	/** The positions of the books by ISBN. */
+	private final SortedLongSet isbns = new SortedLongSet();
+
+	/**
+	 * Adds a book.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	public void add(Book book) {
+		prices.add(BookRange.Field.PRICE.positionOf(book));
+		isbns.add(BookRange.Field.ISBN.positionOf(book));
+	}
+
+	/**
+	 * Adds many books at once, merging them into the index in one pass.
+	 *
+	 * @param books
+	 *            the books
+	 */
+	public void addAll(Collection<? extends Book> books) {
+		prices.addAll(books.parallelStream().mapToLong(BookRange.Field.PRICE::positionOf).toArray());
+		isbns.addAll(books.parallelStream().mapToLong(BookRange.Field.ISBN::positionOf).toArray());
+	}
+
+	/**
+	 * Removes a book.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	public void remove(Book book) {
+		prices.remove(BookRange.Field.PRICE.positionOf(book));
+		isbns.remove(BookRange.Field.ISBN.positionOf(book));
+	}
+
+	/**
+	 * Removes all books. The caller must exclude all other updates.
+	 */
+	public void clear() {
+		prices.clear();
+		isbns.clear();
+	}
+
+	/**
+	 * Finds the books in a range, in the order of the queried field and then
+	 * of the ISBN.
+	 *
+	 * @param range
+	 *            the range
+	 * @return the ISBNs of the books, read lazily from the index
+	 */
+	public Iterator<Integer> range(BookRange range) {
+		SortedLongSet positions = range.getField() == BookRange.Field.PRICE ? prices : isbns;
+		PrimitiveIterator.OfLong it = positions.range(range.getFrom(), range.getTo());
+
+		return new Iterator<Integer>() {
+			@Override
+			public boolean hasNext() {
+				return it.hasNext();
+			}
+
+			@Override
+			public Integer next() {
+				return (int) it.nextLong();
+			}
+		};
+	}
+}
@@ -0,0 +1,177 @@
+package com.acertainbookstore.business;
+
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * {@link SearchIndex} keeps the titles and the authors of the books of the
+ * {@link CertainBookStore} in sorted dictionaries, so that the books whose
+ * title or author starts with a prefix are found by seeking to the prefix and
+ * reading on while the prefix matches, at a cost independent of the size of
+ * the catalog. Titles and authors are compared ignoring case. The store
+ * updates the index whenever books are added or removed.
+ *
+ * @see BookSearch
+ */
+public class SearchIndex {
+
+	/** The titles. */
+	private final ConcurrentSkipListSet<Entry> titles = new ConcurrentSkipListSet<>();
+
+	/** The authors. */
+	private final ConcurrentSkipListSet<Entry> authors = new ConcurrentSkipListSet<>();
+
+	/**
+	 * Normalizes a title or author for comparison.
+	 *
+	 * @param value
+	 *            the title or author
+	 * @return the normalized value
+	 */
+	private static String normalize(String value) {
+		return value.toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Gets the dictionary of a field.
+	 *
+	 * @param field
+	 *            the field
+	 * @return the dictionary
+	 */
+	private NavigableSet<Entry> dictionaryOf(BookSearch.Field field) {
+		return field == BookSearch.Field.TITLE ? titles : authors;
+	}
+
+	/**
+	 * Adds a book.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	public void add(Book book) {
+		titles.add(new Entry(normalize(book.getTitle()), book.getISBN()));
+		authors.add(new Entry(normalize(book.getAuthor()), book.getISBN()));
+	}
+
+	/**
+	 * Removes a book.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	public void remove(Book book) {
+		titles.remove(new Entry(normalize(book.getTitle()), book.getISBN()));
+		authors.remove(new Entry(normalize(book.getAuthor()), book.getISBN()));
+	}
+
+	/**
+	 * Removes all books. The caller must exclude all other updates.
+	 */
+	public void clear() {
+		titles.clear();
+		authors.clear();
+	}
+
+	/**
+	 * Finds the books matching a search, in the order of the searched field
+	 * and then of the ISBN, starting after the last book of the previous page.
+	 *
+	 * @param search
+	 *            the search
+	 * @return the ISBNs of the matching books, read lazily from the index
+	 */
+	public Iterator<Integer> search(BookSearch search) {
+		String prefix = normalize(search.getPrefix());
+		Entry from = new Entry(prefix, Integer.MIN_VALUE);
+		boolean inclusive = true;
+
+		if (search.getAfterValue() != null) {
+			Entry after = new Entry(normalize(search.getAfterValue()), search.getAfterISBN());
+
+			if (after.compareTo(from) >= 0) {
+				from = after;
+				inclusive = false;
+			}
+		}
+
+		Iterator<Entry> entries = dictionaryOf(search.getField()).tailSet(from, inclusive).iterator();
+
+		return new Iterator<Integer>() {
+			private Entry next = advance();
+
+			private Entry advance() {
+				if (entries.hasNext()) {
+					Entry entry = entries.next();
+
+					if (entry.value.startsWith(prefix)) {
+						return entry;
+					}
+				}
+
+				return null;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			@Override
+			public Integer next() {
+				if (next == null) {
+					throw new NoSuchElementException();
+				}
+
+				int isbn = next.isbn;
+				next = advance();
+				return isbn;
+			}
+		};
+	}
+
+	/**
+	 * {@link Entry} is an entry of a dictionary, ordered by value and then by
+	 * ISBN.
+	 */
+	private static final class Entry implements Comparable<Entry> {
+
+		/** The normalized value. */
+		private final String value;
+
+		/** The ISBN. */
+		private final int isbn;
+
+		/**
+		 * Instantiates a new {@link Entry}.
+		 *
+		 * @param value
+		 *            the normalized value
+		 * @param isbn
+		 *            the ISBN
+		 */
+		private Entry(String value, int isbn) {
+			this.value = value;
+			this.isbn = isbn;
+		}
+
+		@Override
+		public int compareTo(Entry other) {
+			int order = value.compareTo(other.value);
+			return order != 0 ? order : Integer.compare(isbn, other.isbn);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Entry && compareTo((Entry) obj) == 0;
+		}
+
+		@Override
+		public int hashCode() {
+			return value.hashCode() * 31 + isbn;
+		}
+	}
+}
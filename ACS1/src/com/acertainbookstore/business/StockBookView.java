@@ -0,0 +1,130 @@
+package com.acertainbookstore.business;
+
+/**
+ * {@link StockBookView} is a read-only, flyweight view of a book in the
+ * {@link CertainBookStore}, which reads the state of the book instead of
+ * copying it. A single view is pointed at one book after another, so that
+ * reading many books allocates nothing.
+ *
+ * A view is only valid during the call it is passed to, and reflects updates
+ * of the book made meanwhile without holding its lock.
+ *
+ * @see CertainBookStore#viewBooks(java.util.Set, java.util.function.Consumer)
+ */
+public final class StockBookView implements StockBook {
+
+	/** The book. */
+	private BookStoreBook book;
+
+	/**
+	 * Points the view at a book.
+	 *
+	 * @param book
+	 *            the book
+	 * @return the view
+	 */
+	StockBookView of(BookStoreBook book) {
+		this.book = book;
+		return this;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.business.Book#getISBN()
+	 */
+	public int getISBN() {
+		return book.getISBN();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.business.Book#getTitle()
+	 */
+	public String getTitle() {
+		return book.getTitle();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.business.Book#getAuthor()
+	 */
+	public String getAuthor() {
+		return book.getAuthor();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.business.Book#getPrice()
+	 */
+	public float getPrice() {
+		return book.getPrice();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.business.StockBook#getTotalRating()
+	 */
+	public long getTotalRating() {
+		return book.getTotalRating();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.business.StockBook#getNumTimesRated()
+	 */
+	public long getNumTimesRated() {
+		return book.getNumTimesRated();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.business.StockBook#getNumCopies()
+	 */
+	public int getNumCopies() {
+		return book.getNumCopies();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.business.StockBook#getNumSaleMisses()
+	 */
+	public long getNumSaleMisses() {
+		return book.getNumSaleMisses();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.business.StockBook#getAverageRating()
+	 */
+	public float getAverageRating() {
+		return book.getAverageRating();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.business.StockBook#isEditorPick()
+	 */
+	public boolean isEditorPick() {
+		return book.isEditorPick();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return book.toString();
+	}
+}
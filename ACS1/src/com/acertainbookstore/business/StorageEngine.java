@@ -0,0 +1,139 @@
+package com.acertainbookstore.business;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * {@link StorageEngine} enumerates the ways in which the
+ * {@link CertainBookStore} can store its books.
+ * 
+ * @see BookStorage
+ * @see CertainBookStore
+ */
+public enum StorageEngine {
+
+	/** Every book is an object on the heap. */
+	HEAP {
+		@Override
+		public BookStorage newStorage(ConcurrencyMode concurrencyMode) {
+			return new HeapBookStorage(concurrencyMode);
+		}
+	},
+
+	/**
+	 * The books are stored in columns in direct memory, so the heap does not
+	 * grow with the catalog.
+	 */
+	OFF_HEAP {
+		@Override
+		public BookStorage newStorage(ConcurrencyMode concurrencyMode) {
+			checkSupport(concurrencyMode);
+			return new OffHeapBookStorage();
+		}
+
+		@Override
+		public boolean supports(ConcurrencyMode concurrencyMode) {
+			return !concurrencyMode.updatesBooksWithoutLocks();
+		}
+	},
+
+	/**
+	 * The books are stored in memory-mapped files, so they are held by the
+	 * page cache and survive a restart, cf. {@link MappedBookStorage}. Without
+	 * a file, the books are mapped from temporary files.
+	 */
+	MAPPED {
+		@Override
+		public BookStorage newStorage(ConcurrencyMode concurrencyMode) {
+			checkSupport(concurrencyMode);
+			return MappedBookStorage.temporary();
+		}
+
+		@Override
+		public BookStorage newStorage(ConcurrencyMode concurrencyMode, Path file) throws IOException {
+			checkSupport(concurrencyMode);
+			return MappedBookStorage.open(file);
+		}
+
+		@Override
+		public boolean supports(ConcurrencyMode concurrencyMode) {
+			return !concurrencyMode.updatesBooksWithoutLocks();
+		}
+	},
+
+	/**
+	 * The books that are accessed frequently are kept on the heap, all others
+	 * only in a memory-mapped file, so the heap tracks the working set rather
+	 * than the catalog, cf. {@link TieredBookStorage}. The books are moved
+	 * between the tiers as they are read, so reads must hold the locks of the
+	 * books.
+	 */
+	TIERED {
+		@Override
+		public BookStorage newStorage(ConcurrencyMode concurrencyMode) {
+			checkSupport(concurrencyMode);
+			return new TieredBookStorage(concurrencyMode);
+		}
+
+		@Override
+		public boolean supports(ConcurrencyMode concurrencyMode) {
+			return !concurrencyMode.readsWithoutLocks();
+		}
+	};
+
+	/**
+	 * Creates the storage implementing the engine.
+	 *
+	 * @param concurrencyMode
+	 *            the concurrency mode of the store
+	 * @return the storage
+	 * @throws IllegalArgumentException
+	 *             if the engine does not support the concurrency mode
+	 */
+	public abstract BookStorage newStorage(ConcurrencyMode concurrencyMode);
+
+	/**
+	 * Opens the storage implementing the engine on a file, which keeps the
+	 * books across restarts.
+	 *
+	 * @param concurrencyMode
+	 *            the concurrency mode of the store
+	 * @param file
+	 *            the file, which need not exist
+	 * @return the storage, holding the books kept in the file
+	 * @throws IOException
+	 *             if the file cannot be opened
+	 * @throws IllegalArgumentException
+	 *             if the engine does not support the concurrency mode, or
+	 *             does not keep the books in a file
+	 */
+	public BookStorage newStorage(ConcurrencyMode concurrencyMode, Path file) throws IOException {
+		throw new IllegalArgumentException("The " + this + " storage engine does not keep the books in a file");
+	}
+
+	/**
+	 * Checks if the engine supports a concurrency mode.
+	 *
+	 * @param concurrencyMode
+	 *            the concurrency mode
+	 * @return true, if the engine supports the concurrency mode
+	 */
+	public boolean supports(ConcurrencyMode concurrencyMode) {
+		return true;
+	}
+
+	/**
+	 * Checks that the engine supports a concurrency mode.
+	 *
+	 * @param concurrencyMode
+	 *            the concurrency mode
+	 * @throws IllegalArgumentException
+	 *             if the engine does not support the concurrency mode
+	 */
+	void checkSupport(ConcurrencyMode concurrencyMode) {
+		if (!supports(concurrencyMode)) {
+			throw new IllegalArgumentException(
+					"The " + this + " storage engine does not support the " + concurrencyMode + " concurrency mode");
+		}
+	}
+}
@@ -0,0 +1,217 @@
+package com.acertainbookstore.business;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link StripedLockManager} guards the books of the {@link CertainBookStore}
+ * with a fixed number of lock stripes, selected by ISBN. An operation on a set
+ * of books acquires the stripes of all its ISBNs in increasing stripe order, so
+ * multi-book operations stay atomic and cannot deadlock with each other.
+ * Operations that scan or restructure the catalog take the catalog lock
+ * exclusively, while book operations share it.
+ * 
+ * @see BookStoreLockManager
+ * @see ConcurrencyMode#STRIPED
+ */
+public class StripedLockManager implements BookStoreLockManager {
+
+	/** The default number of lock stripes. */
+	public static final int DEFAULT_NUM_STRIPES = 1024;
+
+	/** The catalog lock. */
+	private final ReentrantReadWriteLock catalogLock = new ReentrantReadWriteLock();
+
+	/** The lock stripes. */
+	private final ReentrantLock[] stripes;
+
+	/** The mask used to map a hashed ISBN to a stripe. */
+	private final int stripeMask;
+
+	/**
+	 * Instantiates a new {@link StripedLockManager} with the default number of
+	 * stripes.
+	 */
+	public StripedLockManager() {
+		this(DEFAULT_NUM_STRIPES);
+	}
+
+	/**
+	 * Instantiates a new {@link StripedLockManager}.
+	 *
+	 * @param numStripes
+	 *            the number of stripes, rounded up to a power of two
+	 */
+	public StripedLockManager(int numStripes) {
+		if (numStripes < 1) {
+			throw new IllegalArgumentException("numStripes = " + numStripes + ", but it must be positive");
+		}
+
+		int size = Integer.highestOneBit(numStripes);
+
+		if (size < numStripes) {
+			size <<= 1;
+		}
+
+		this.stripes = new ReentrantLock[size];
+		this.stripeMask = size - 1;
+
+		for (int i = 0; i < size; i++) {
+			stripes[i] = new ReentrantLock();
+		}
+	}
+
+	/**
+	 * Gets the stripe index of an ISBN.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the stripe index
+	 */
+	private int stripeOf(int isbn) {
+		int h = isbn * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & stripeMask;
+	}
+
+	/**
+	 * Gets the distinct stripe indices of the ISBNs in increasing order, which
+	 * is the global order in which stripes are acquired.
+	 *
+	 * @param isbns
+	 *            the ISBNs
+	 * @return the stripe indices
+	 */
+	private int[] orderedStripes(Collection<Integer> isbns) {
+		int[] indices = new int[isbns.size()];
+		int n = 0;
+
+		for (Integer isbn : isbns) {
+			indices[n++] = (isbn == null) ? 0 : stripeOf(isbn);
+		}
+
+		Arrays.sort(indices);
+		int distinct = 0;
+
+		for (int i = 0; i < n; i++) {
+			if (distinct == 0 || indices[distinct - 1] != indices[i]) {
+				indices[distinct++] = indices[i];
+			}
+		}
+
+		return (distinct == n) ? indices : Arrays.copyOf(indices, distinct);
+	}
+
+	/**
+	 * Executes the operation while holding the catalog lock in shared mode and
+	 * the stripes of the ISBNs.
+	 *
+	 * @param <T>
+	 *            the type of the result
+	 * @param isbns
+	 *            the ISBNs
+	 * @param operation
+	 *            the operation
+	 * @return the result of the operation
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private <T> T withStripes(Collection<Integer> isbns, BookStoreOperation<T> operation) throws BookStoreException {
+		int[] indices = orderedStripes(isbns);
+		int locked = 0;
+		catalogLock.readLock().lock();
+
+		try {
+			for (; locked < indices.length; locked++) {
+				stripes[indices[locked]].lock();
+			}
+
+			return operation.execute();
+		} finally {
+			while (locked > 0) {
+				stripes[indices[--locked]].unlock();
+			}
+
+			catalogLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Executes the operation while holding only the catalog lock in shared
+	 * mode, i.e., without taking any lock stripe.
+	 *
+	 * @param <T>
+	 *            the type of the result
+	 * @param operation
+	 *            the operation
+	 * @return the result of the operation
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	protected <T> T withCatalogShared(BookStoreOperation<T> operation) throws BookStoreException {
+		catalogLock.readLock().lock();
+
+		try {
+			return operation.execute();
+		} finally {
+			catalogLock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.business.BookStoreLockManager#readBooks(java.util.
+	 * Collection, com.acertainbookstore.business.BookStoreOperation)
+	 */
+	@Override
+	public <T> T readBooks(Collection<Integer> isbns, BookStoreOperation<T> operation) throws BookStoreException {
+		return withStripes(isbns, operation);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.business.BookStoreLockManager#writeBooks(java.util.
+	 * Collection, com.acertainbookstore.business.BookStoreOperation)
+	 */
+	@Override
+	public <T> T writeBooks(Collection<Integer> isbns, BookStoreOperation<T> operation) throws BookStoreException {
+		return withStripes(isbns, operation);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.business.BookStoreLockManager#readCatalog(com.
+	 * acertainbookstore.business.BookStoreOperation)
+	 */
+	@Override
+	public <T> T readCatalog(BookStoreOperation<T> operation) throws BookStoreException {
+		return writeCatalog(operation);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.business.BookStoreLockManager#writeCatalog(com.
+	 * acertainbookstore.business.BookStoreOperation)
+	 */
+	@Override
+	public <T> T writeCatalog(BookStoreOperation<T> operation) throws BookStoreException {
+		catalogLock.writeLock().lock();
+
+		try {
+			return operation.execute();
+		} finally {
+			catalogLock.writeLock().unlock();
+		}
+	}
+}
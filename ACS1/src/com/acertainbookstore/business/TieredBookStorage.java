@@ -0,0 +1,351 @@
+package com.acertainbookstore.business;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.acertainbookstore.utils.FrequencySketch;
+
+/**
+ * {@link TieredBookStorage} keeps the books that are accessed frequently as
+ * {@link BookStoreBook} objects on the heap, the hot tier, and all books in a
+ * {@link MappedBookStorage}, the cold tier, whose pages are held by the page
+ * cache and written to a temporary file under memory pressure. The heap thus
+ * holds the working set rather than the catalog.
+ *
+ * A book that is not on the heap is served from the cold tier, whose views
+ * read and update the mapped file in place. Every such access is counted in a
+ * {@link FrequencySketch}; once a book is estimated to have been accessed
+ * {@link #ADMISSION_FREQUENCY} times recently, it is copied to the heap, so
+ * that books read once stay cold. Scans, e.g., cursors and exports, read the
+ * books through {@link #scan(int)}, which is not counted at all. The sketch
+ * grows with the catalog, keeping about one counter per book in each row, so
+ * that the estimates of books read once are not inflated by collisions. While
+ * a book is on the heap, its copy there is the current one.
+ *
+ * Every call to {@link #idleBooks()}, run periodically, halves the frequency
+ * of the books on the heap that were not accessed since the previous call,
+ * and selects those whose frequency drops to zero: a book is evicted after it
+ * was not accessed for two to four periods, the longer the more often it was
+ * accessed before. Evicting a book writes its counters back to the cold tier
+ * if they changed on the heap.
+ *
+ * Books are admitted on reads, so the storage requires a concurrency mode in
+ * which reads hold the locks of their books, cf.
+ * {@link ConcurrencyMode#readsWithoutLocks()}.
+ *
+ * @see BookStorage
+ * @see StorageEngine#TIERED
+ */
+public class TieredBookStorage implements BookStorage, Closeable {
+
+	/** The number of recent accesses after which a book is admitted. */
+	public static final int ADMISSION_FREQUENCY = 2;
+
+	/** The smallest number of counters per row of the frequency sketch. */
+	private static final int MIN_SKETCH_WIDTH = 1 << 16;
+
+	/** The largest number of counters per row of the frequency sketch. */
+	private static final int MAX_SKETCH_WIDTH = 1 << 28;
+
+	/** The books on the heap. */
+	private final ConcurrentHashMap<Integer, HotBook> hotBooks = new ConcurrentHashMap<>();
+
+	/** All books. */
+	private final MappedBookStorage coldBooks = MappedBookStorage.temporary();
+
+	/** The recent accesses to the cold books. */
+	private volatile FrequencySketch sketch = new FrequencySketch(MIN_SKETCH_WIDTH);
+
+	/** The number of counters per row of the frequency sketch. */
+	private int sketchWidth = MIN_SKETCH_WIDTH;
+
+	/** The concurrency mode creating the books on the heap. */
+	private final ConcurrencyMode concurrencyMode;
+
+	/**
+	 * Instantiates a new, empty {@link TieredBookStorage}.
+	 *
+	 * @param concurrencyMode
+	 *            the concurrency mode creating the books on the heap
+	 */
+	public TieredBookStorage(ConcurrencyMode concurrencyMode) {
+		this.concurrencyMode = concurrencyMode;
+	}
+
+	/**
+	 * Gets the number of books on the heap.
+	 *
+	 * @return the number of books on the heap
+	 */
+	public int hotSize() {
+		return hotBooks.size();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStorage#size()
+	 */
+	@Override
+	public int size() {
+		return coldBooks.size();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStorage#contains(int)
+	 */
+	@Override
+	public boolean contains(int isbn) {
+		return coldBooks.contains(isbn);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStorage#get(int)
+	 */
+	@Override
+	public BookStoreBook get(int isbn) {
+		HotBook hotBook = hotBooks.get(isbn);
+
+		if (hotBook != null) {
+			hotBook.touch();
+			return hotBook.book;
+		}
+
+		BookStoreBook coldBook = coldBooks.get(isbn);
+
+		if (coldBook == null) {
+			return null;
+		}
+
+		int frequency = sketch.increment(isbn);
+
+		if (frequency < ADMISSION_FREQUENCY) {
+			return coldBook;
+		}
+
+		return hotBooks.computeIfAbsent(isbn,
+				key -> new HotBook(concurrencyMode.newBook(coldBook.immutableStockBook()), frequency)).book;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStorage#scan(int)
+	 */
+	@Override
+	public BookStoreBook scan(int isbn) {
+		HotBook hotBook = hotBooks.get(isbn);
+		return hotBook == null ? coldBooks.get(isbn) : hotBook.book;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStorage#getAll(int[],
+	 * com.acertainbookstore.business.BookStoreBook[])
+	 */
+	@Override
+	public int getAll(int[] isbns, BookStoreBook[] books) {
+		for (int i = 0; i < isbns.length; i++) {
+			BookStoreBook book = get(isbns[i]);
+
+			if (book == null) {
+				return i;
+			}
+
+			books[i] = book;
+		}
+
+		return -1;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.business.BookStorage#add(com.acertainbookstore.
+	 * business.StockBook)
+	 */
+	@Override
+	public BookStoreBook add(StockBook book) {
+		BookStoreBook coldBook = coldBooks.add(book);
+
+		// Grow the sketch with the catalog; its counters start over.
+		if (coldBooks.size() > sketchWidth && sketchWidth < MAX_SKETCH_WIDTH) {
+			sketchWidth = Math.min(MAX_SKETCH_WIDTH, sketchWidth * 2);
+			sketch = new FrequencySketch(sketchWidth);
+		}
+
+		return coldBook;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStorage#remove(int)
+	 */
+	@Override
+	public void remove(int isbn) {
+		hotBooks.remove(isbn);
+		coldBooks.remove(isbn);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStorage#clear()
+	 */
+	@Override
+	public void clear() {
+		hotBooks.clear();
+		coldBooks.clear();
+		sketchWidth = MIN_SKETCH_WIDTH;
+		sketch = new FrequencySketch(MIN_SKETCH_WIDTH);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStorage#idleBooks()
+	 */
+	@Override
+	public int[] idleBooks() {
+		int[] isbns = new int[16];
+		int numIsbns = 0;
+
+		for (HotBook hotBook : hotBooks.values()) {
+			if (hotBook.age()) {
+				if (numIsbns == isbns.length) {
+					isbns = Arrays.copyOf(isbns, numIsbns * 2);
+				}
+
+				isbns[numIsbns++] = hotBook.book.getISBN();
+			}
+		}
+
+		return Arrays.copyOf(isbns, numIsbns);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStorage#evict(int)
+	 */
+	@Override
+	public boolean evict(int isbn) {
+		HotBook hotBook = hotBooks.get(isbn);
+
+		if (hotBook == null || hotBook.frequency > 0) {
+			return false;
+		}
+
+		if (hotBook.book.getVersion() != hotBook.version) {
+			coldBooks.write(hotBook.book);
+		}
+
+		hotBooks.remove(isbn);
+		return true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Iterable#iterator()
+	 */
+	@Override
+	public Iterator<BookStoreBook> iterator() {
+		Iterator<BookStoreBook> books = coldBooks.iterator();
+
+		// Iterating does not count as an access.
+		return new Iterator<BookStoreBook>() {
+			@Override
+			public boolean hasNext() {
+				return books.hasNext();
+			}
+
+			@Override
+			public BookStoreBook next() {
+				BookStoreBook coldBook = books.next();
+				HotBook hotBook = hotBooks.get(coldBook.getISBN());
+				return hotBook == null ? coldBook : hotBook.book;
+			}
+		};
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		coldBooks.close();
+	}
+
+	/**
+	 * {@link HotBook} is a book on the heap, together with the statistics of
+	 * its accesses.
+	 */
+	private static final class HotBook {
+
+		/** The book. */
+		private final BookStoreBook book;
+
+		/** The version of the book when it was copied from the cold tier. */
+		private final long version;
+
+		/** The frequency of the accesses, halved in every idle period. */
+		private volatile int frequency;
+
+		/** Whether the book was accessed since the last aging. */
+		private volatile boolean touched = true;
+
+		/**
+		 * Instantiates a new {@link HotBook}.
+		 *
+		 * @param book
+		 *            the book
+		 * @param frequency
+		 *            the frequency of the accesses before its admission
+		 */
+		private HotBook(BookStoreBook book, int frequency) {
+			this.book = book;
+			this.version = book.getVersion();
+			this.frequency = frequency;
+		}
+
+		/**
+		 * Records an access.
+		 */
+		private void touch() {
+			if (frequency < FrequencySketch.MAX_FREQUENCY) {
+				frequency++;
+			}
+
+			touched = true;
+		}
+
+		/**
+		 * Ages the statistics: a book that was not accessed since the last
+		 * aging has its frequency halved.
+		 *
+		 * @return true, if the frequency dropped to zero
+		 */
+		private boolean age() {
+			if (touched) {
+				touched = false;
+				return false;
+			}
+
+			frequency >>= 1;
+			return frequency == 0;
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * {@link TopRatedIndex} ranks the books of the {@link CertainBookStore} by
+ * average rating, highest first, with the ISBN as tie-breaker, so that the
+ * top rated books are read off the front of the ranking instead of sorting the
+ * catalog. The store updates the index whenever a book is added, rated or
+ * removed.
+ *
+ * Each rank is packed into a <code>long</code> whose natural order is the
+ * ranking. Updates of one book are serialized by the map of current ranks, and
+ * read the rating of the book only then, so that concurrent ratings of a book
+ * always leave the rank of its final rating behind, even if the book is rated
+ * without holding its lock. Readers iterate the ranking concurrently with
+ * updates and may observe a book that is being re-ranked at either position.
+ */
+public class TopRatedIndex {
+
+	/** The ranks, in ranking order. */
+	private final ConcurrentSkipListSet<Long> ranking = new ConcurrentSkipListSet<>();
+
+	/** The current rank of every book, by ISBN. */
+	private final ConcurrentHashMap<Integer, Long> ranks = new ConcurrentHashMap<>();
+
+	/**
+	 * Packs the rank of a book.
+	 *
+	 * @param averageRating
+	 *            the average rating
+	 * @param isbn
+	 *            the ISBN
+	 * @return the rank
+	 */
+	private static long rankOf(float averageRating, int isbn) {
+
+		// Map the float to an int with the same order, and invert it so that
+		// higher ratings come first.
+		int bits = Float.floatToIntBits(averageRating);
+		int sortable = bits ^ ((bits >> 31) & Integer.MAX_VALUE);
+		return ((long) ~sortable << 32) | (isbn & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Gets the ISBN of a rank.
+	 *
+	 * @param rank
+	 *            the rank
+	 * @return the ISBN
+	 */
+	private static int isbnOf(long rank) {
+		return (int) rank;
+	}
+
+	/**
+	 * Gets the average rating of a rank.
+	 *
+	 * @param rank
+	 *            the rank
+	 * @return the average rating
+	 */
+	private static float ratingOf(long rank) {
+		int sortable = ~(int) (rank >> 32);
+		return Float.intBitsToFloat(sortable ^ ((sortable >> 31) & Integer.MAX_VALUE));
+	}
+
+	/**
+	 * Ranks a book that was added or rated, by its current average rating.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	public void update(BookStoreBook book) {
+		ranks.compute(book.getISBN(), (isbn, oldRank) -> {
+			if (oldRank != null) {
+				ranking.remove(oldRank);
+			}
+
+			Long rank = rankOf(book.getAverageRating(), isbn);
+			ranking.add(rank);
+			return rank;
+		});
+	}
+
+	/**
+	 * Removes a book from the ranking.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 */
+	public void remove(int isbn) {
+		ranks.computeIfPresent(isbn, (key, oldRank) -> {
+			ranking.remove(oldRank);
+			return null;
+		});
+	}
+
+	/**
+	 * Removes all books from the ranking. The caller must exclude all other
+	 * updates.
+	 */
+	public void clear() {
+		ranks.clear();
+		ranking.clear();
+	}
+
+	/**
+	 * Gets the number of ranked books.
+	 *
+	 * @return the number of books
+	 */
+	public int size() {
+		return ranks.size();
+	}
+
+	/**
+	 * Gets the average rating of a book as of its last update.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the average rating, or -1 if the book is not ranked
+	 */
+	public float averageRatingOf(int isbn) {
+		Long rank = ranks.get(isbn);
+		return rank == null ? -1.0f : ratingOf(rank);
+	}
+
+	/**
+	 * Gets the ISBNs of the top rated books, in ranking order. A book that is
+	 * re-ranked during the iteration is only listed once.
+	 *
+	 * @param numBooks
+	 *            the maximum number of books
+	 * @return the ISBNs
+	 */
+	public List<Integer> topRated(int numBooks) {
+		Set<Integer> isbns = new LinkedHashSet<>();
+		Iterator<Long> it = ranking.iterator();
+
+		while (isbns.size() < numBooks && it.hasNext()) {
+			isbns.add(isbnOf(it.next()));
+		}
+
+		return new ArrayList<>(isbns);
+	}
+}
@@ -0,0 +1,867 @@
+package com.acertainbookstore.business;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * {@link WriteAheadLog} is an append-only file of the mutations of the
+ * {@link CertainBookStore}, from which the store is recovered after a restart.
+ * Each record is framed by its length and its CRC-32 checksum, so that a
+ * record torn by a crash is detected and cut off during recovery, together
+ * with anything after it.
+ *
+ * Appending only copies a record into a memory buffer, so that writers can
+ * append while holding the locks of their books and the log keeps the order
+ * in which the mutations took effect. Writers then wait for their records
+ * outside of the locks, in {@link #commit(long)}: the first waiting writer
+ * writes the whole buffer, and forces it to disk if the
+ * {@link DurabilityMode} asks for it, on behalf of all writers that appended
+ * meanwhile. While it does, the next group collects in a second buffer.
+ *
+ * The committed records can be read by position while the log is written,
+ * with {@link #read(long, int, long)}, to ship them to backups that redo them
+ * with {@link #redo(ByteBuffer, RecordConsumer)}.
+ *
+ * The log is split into segments, so that its prefix is retired once a full
+ * {@link Checkpoint} covers it, with {@link #retire(long)}. The positions
+ * count from the start of the first segment ever written, across segments:
+ * the segment starting at 0 lies in the given file, and every later one next
+ * to it, in the file suffixed with its start position. Once a group leaves
+ * the current segment larger than the segment size, the segment is forced
+ * and the next group starts a new one, so that records never span segments.
+ *
+ * @see DurabilityMode
+ */
+public class WriteAheadLog implements Closeable {
+
+	/**
+	 * {@link RecordConsumer} redoes the records of the log during recovery.
+	 */
+	@FunctionalInterface
+	public interface RecordConsumer {
+
+		/**
+		 * Redoes a record.
+		 *
+		 * @param record
+		 *            the record
+		 * @throws IOException
+		 *             if the record cannot be redone
+		 */
+		public void accept(ByteBuffer record) throws IOException;
+	}
+
+	/**
+	 * {@link Segment} is a file of the log, holding the records from a
+	 * position on.
+	 */
+	private static final class Segment {
+
+		/** The position of the first record. */
+		private final long start;
+
+		/** The file, or null if the log was opened on a channel. */
+		private final Path file;
+
+		/** The channel of the file. */
+		private final FileChannel channel;
+
+		/**
+		 * Instantiates a new {@link Segment}.
+		 *
+		 * @param start
+		 *            the position of the first record
+		 * @param file
+		 *            the file, or null if the log was opened on a channel
+		 * @param channel
+		 *            the channel of the file
+		 */
+		private Segment(long start, Path file, FileChannel channel) {
+			this.start = start;
+			this.file = file;
+			this.channel = channel;
+		}
+	}
+
+	/** The size after which a new segment is started by default. */
+	public static final long DEFAULT_SEGMENT_SIZE = 1L << 26;
+
+	/** The interval at which the log is forced in the periodic mode. */
+	public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 100;
+
+	/** The size of the length and checksum preceding each record. */
+	private static final int FRAME_SIZE = 2 * Integer.BYTES;
+
+	/** The initial size of the buffers. */
+	private static final int INITIAL_BUFFER_SIZE = 1 << 16;
+
+	/** The file of the first segment, or null if the log has one channel. */
+	private final Path file;
+
+	/** The size after which a new segment is started. */
+	private final long segmentSize;
+
+	/** The segments, by their start positions. */
+	private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+
+	/** The segment records are written to, or null before recovery. */
+	private volatile Segment currentSegment = null;
+
+	/** The durability mode. */
+	private final DurabilityMode durabilityMode;
+
+	/** The lock guarding the buffer that records are appended to. */
+	private final Object appendLock = new Object();
+
+	/** The lock guarding the commit state. */
+	private final Object commitLock = new Object();
+
+	/** The records appended since the last write. */
+	private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+	/** The buffer written by the leader of the current group. */
+	private ByteBuffer spareBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+	/** The end of the last appended record, or -1 before recovery. */
+	private long appendedPosition = -1;
+
+	/** The end of the records the writers need not wait for anymore. */
+	private volatile long committedPosition = 0;
+
+	/** Whether a writer is writing a group. */
+	private boolean writing = false;
+
+	/** The exception that failed the log, after which nothing is committed. */
+	private IOException failure = null;
+
+	/** Whether the log is closed. */
+	private volatile boolean closed = false;
+
+	/** The lock the periodic sync thread waits on between syncs. */
+	private final Object syncLock = new Object();
+
+	/** The thread forcing the log in the periodic mode, if any. */
+	private Thread syncThread = null;
+
+	/**
+	 * Opens a {@link WriteAheadLog}, creating the file if it does not exist.
+	 * The log must be recovered before records are appended.
+	 *
+	 * @param file
+	 *            the file
+	 * @param durabilityMode
+	 *            the durability mode
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public WriteAheadLog(Path file, DurabilityMode durabilityMode) throws IOException {
+		this(file, durabilityMode, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Opens a {@link WriteAheadLog} whose segments are started after a given
+	 * size, creating the file if no segment exists. The log must be recovered
+	 * before records are appended.
+	 *
+	 * @param file
+	 *            the file of the first segment
+	 * @param durabilityMode
+	 *            the durability mode
+	 * @param segmentSize
+	 *            the size after which a new segment is started
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public WriteAheadLog(Path file, DurabilityMode durabilityMode, long segmentSize) throws IOException {
+		if (segmentSize < 1) {
+			throw new IllegalArgumentException("The segment size must be positive");
+		}
+
+		this.file = file;
+		this.segmentSize = segmentSize;
+		this.durabilityMode = durabilityMode;
+
+		for (Map.Entry<Long, Path> segment : listSegments(file).entrySet()) {
+			segments.put(segment.getKey(), new Segment(segment.getKey(), segment.getValue(), open(segment.getValue())));
+		}
+
+		if (segments.isEmpty()) {
+			segments.put(0L, new Segment(0, file, open(file)));
+		}
+	}
+
+	/**
+	 * Opens a {@link WriteAheadLog} on a channel that is open for reading and
+	 * writing, e.g., one that injects faults in tests. The log is kept in one
+	 * segment, which is never retired. The log closes the channel when it is
+	 * closed itself. The log must be recovered before records are appended.
+	 *
+	 * @param channel
+	 *            the channel of the file
+	 * @param durabilityMode
+	 *            the durability mode
+	 */
+	public WriteAheadLog(FileChannel channel, DurabilityMode durabilityMode) {
+		this.file = null;
+		this.segmentSize = Long.MAX_VALUE;
+		this.durabilityMode = durabilityMode;
+		segments.put(0L, new Segment(0, null, channel));
+	}
+
+	/**
+	 * Opens the file of a segment for reading and writing, creating it if it
+	 * does not exist.
+	 *
+	 * @param segmentFile
+	 *            the file
+	 * @return the channel
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static FileChannel open(Path segmentFile) throws IOException {
+		return FileChannel.open(segmentFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * Gets the file of the segment starting at a position.
+	 *
+	 * @param file
+	 *            the file of the first segment
+	 * @param start
+	 *            the start position of the segment
+	 * @return the file
+	 */
+	private static Path segmentFile(Path file, long start) {
+		return start == 0 ? file : file.resolveSibling(file.getFileName() + "." + start);
+	}
+
+	/**
+	 * Lists the existing segments of a log.
+	 *
+	 * @param file
+	 *            the file of the first segment
+	 * @return the files of the segments, by their start positions
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static Map<Long, Path> listSegments(Path file) throws IOException {
+		Map<Long, Path> segmentFiles = new TreeMap<>();
+		String prefix = file.getFileName() + ".";
+
+		if (Files.exists(file)) {
+			segmentFiles.put(0L, file);
+		}
+
+		Path directory = file.toAbsolutePath().getParent();
+
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*")) {
+			for (Path segmentFile : files) {
+				String suffix = segmentFile.getFileName().toString().substring(prefix.length());
+
+				if (!suffix.isEmpty() && suffix.chars().allMatch(Character::isDigit) && suffix.length() < 19) {
+					segmentFiles.put(Long.parseLong(suffix), file.resolveSibling(segmentFile.getFileName()));
+				}
+			}
+		}
+
+		return segmentFiles;
+	}
+
+	/**
+	 * Deletes all segments of a log that is closed.
+	 *
+	 * @param file
+	 *            the file of the first segment
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static void delete(Path file) throws IOException {
+		for (Path segmentFile : listSegments(file).values()) {
+			Files.deleteIfExists(segmentFile);
+		}
+	}
+
+	/**
+	 * Gets the durability mode.
+	 *
+	 * @return the durability mode
+	 */
+	public DurabilityMode getDurabilityMode() {
+		return durabilityMode;
+	}
+
+	/**
+	 * Redoes the records of the log in order, starting at a position, e.g.,
+	 * that of a {@link Checkpoint}, cuts off a torn record at the end, and
+	 * opens the log for appending after the last intact record. A torn record
+	 * is cut off together with anything after it, including later segments.
+	 *
+	 * @param from
+	 *            the position of the first record to redo
+	 * @param consumer
+	 *            the consumer redoing the records
+	 * @return the number of records redone
+	 * @throws IOException
+	 *             if the log cannot be read, or starts after or ends before
+	 *             the position
+	 */
+	public long recover(long from, RecordConsumer consumer) throws IOException {
+		synchronized (appendLock) {
+			if (appendedPosition >= 0) {
+				throw new IllegalStateException("The log is already recovered");
+			}
+
+			long start = segments.firstKey();
+
+			if (from < start) {
+				throw new IOException("The log starts at " + start + ", after the position " + from);
+			}
+
+			Segment segment = segments.floorEntry(from).getValue();
+			long position = from;
+			long[] numRecords = { 0 };
+
+			while (true) {
+				long end = segment.start + segment.channel.size();
+
+				if (position > end) {
+					throw new IOException("The log ends at " + end + ", before the position " + position);
+				}
+
+				position = redo(segment, position, consumer, numRecords);
+				Long next = segments.higherKey(segment.start);
+
+				// A segment is forced before the next one is started, so it
+				// ends where the next one starts unless it was torn.
+				if (next == null || position != end || end != next) {
+					break;
+				}
+
+				segment = segments.get(next);
+			}
+
+			// Cut off the torn record, so that new records follow intact ones.
+			cutOff(segment, position);
+			segment.channel.position(position - segment.start);
+			currentSegment = segment;
+			appendedPosition = position;
+			committedPosition = position;
+
+			if (durabilityMode == DurabilityMode.PERIODIC) {
+				syncThread = new Thread(this::syncPeriodically, "WriteAheadLog sync");
+				syncThread.setDaemon(true);
+				syncThread.start();
+			}
+
+			return numRecords[0];
+		}
+	}
+
+	/**
+	 * Redoes the intact records of a segment in order, starting at a position.
+	 *
+	 * @param segment
+	 *            the segment
+	 * @param from
+	 *            the position of the first record to redo
+	 * @param consumer
+	 *            the consumer redoing the records
+	 * @param numRecords
+	 *            the number of records redone, which is incremented
+	 * @return the position of the end of the last intact record
+	 * @throws IOException
+	 *             if the segment cannot be read
+	 */
+	private static long redo(Segment segment, long from, RecordConsumer consumer, long[] numRecords)
+			throws IOException {
+		long size = segment.channel.size();
+		long offset = from - segment.start;
+		segment.channel.position(offset);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(segment.channel)));
+		CRC32 checksum = new CRC32();
+
+		try {
+			while (offset + FRAME_SIZE <= size) {
+				int length = in.readInt();
+				int expectedChecksum = in.readInt();
+
+				if (length < 0 || offset + FRAME_SIZE + length > size) {
+					break;
+				}
+
+				byte[] record = new byte[length];
+				in.readFully(record);
+				checksum.reset();
+				checksum.update(record, 0, length);
+
+				if ((int) checksum.getValue() != expectedChecksum) {
+					break;
+				}
+
+				consumer.accept(ByteBuffer.wrap(record));
+				offset += FRAME_SIZE + length;
+				numRecords[0]++;
+			}
+		} catch (EOFException ex) {
+			// The file was truncated while it was read.
+		}
+
+		return segment.start + offset;
+	}
+
+	/**
+	 * Cuts off the log at a position in a segment, deleting the later
+	 * segments.
+	 *
+	 * @param segment
+	 *            the segment
+	 * @param position
+	 *            the position
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void cutOff(Segment segment, long position) throws IOException {
+		segment.channel.truncate(position - segment.start);
+
+		// Delete the last segment first, so that a crash leaves a prefix.
+		for (Segment later : segments.tailMap(segment.start, false).descendingMap().values()) {
+			segments.remove(later.start);
+			later.channel.close();
+			Files.deleteIfExists(later.file);
+		}
+	}
+
+	/**
+	 * Reads the committed records starting at a position, waiting for records
+	 * to be committed if there are none yet. The bytes read may end in the
+	 * middle of a record if there are more than the given maximum.
+	 *
+	 * @param from
+	 *            the position to read from, the end of a record
+	 * @param maxBytes
+	 *            the maximum number of bytes to read
+	 * @param timeoutMillis
+	 *            the time to wait for records, in milliseconds
+	 * @return the bytes, which are empty if no records were committed after
+	 *         the position in time
+	 * @throws IOException
+	 *             if the log cannot be read, or starts after or ends before
+	 *             the position, e.g., because the position was retired
+	 */
+	public byte[] read(long from, int maxBytes, long timeoutMillis) throws IOException {
+		long end;
+
+		synchronized (commitLock) {
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+			while (committedPosition <= from && failure == null && !closed) {
+				long remainingNanos = deadline - System.nanoTime();
+
+				if (remainingNanos <= 0) {
+					break;
+				}
+
+				try {
+					TimeUnit.NANOSECONDS.timedWait(commitLock, remainingNanos);
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException();
+				}
+			}
+
+			if (failure != null) {
+				throw new IOException("The log failed", failure);
+			}
+
+			end = committedPosition;
+		}
+
+		if (from > end) {
+			throw new IOException("The log ends at " + end + ", before the position " + from);
+		}
+
+		ByteBuffer bytes = ByteBuffer.allocate((int) Math.min(maxBytes, end - from));
+
+		while (bytes.hasRemaining()) {
+			long position = from + bytes.position();
+			Map.Entry<Long, Segment> segment = segments.floorEntry(position);
+
+			if (segment == null) {
+				throw new IOException("The log starts at " + getStartPosition() + ", after the position " + from);
+			}
+
+			// A segment read past its end yields nothing, but records never
+			// span segments, so the next one starts right there.
+			if (segment.getValue().channel.read(bytes, position - segment.getKey()) < 0) {
+				throw new EOFException("The log ends before the committed position " + end);
+			}
+		}
+
+		return bytes.array();
+	}
+
+	/**
+	 * Redoes the complete records among bytes read from a log, e.g., shipped
+	 * to a backup, and leaves the buffer at the start of the first incomplete
+	 * record.
+	 *
+	 * @param bytes
+	 *            the bytes, starting with a record
+	 * @param consumer
+	 *            the consumer redoing the records
+	 * @return the number of records redone
+	 * @throws IOException
+	 *             if a record is corrupt or cannot be redone
+	 */
+	public static long redo(ByteBuffer bytes, RecordConsumer consumer) throws IOException {
+		CRC32 checksum = new CRC32();
+		long numRecords = 0;
+
+		while (bytes.remaining() >= FRAME_SIZE) {
+			int start = bytes.position();
+			int length = bytes.getInt(start);
+			int expectedChecksum = bytes.getInt(start + Integer.BYTES);
+
+			if (length < 0) {
+				throw new IOException("Corrupt log record at " + start);
+			}
+
+			if (bytes.remaining() < FRAME_SIZE + length) {
+				break;
+			}
+
+			byte[] record = new byte[length];
+			bytes.position(start + FRAME_SIZE);
+			bytes.get(record);
+			checksum.reset();
+			checksum.update(record, 0, length);
+
+			// Committed records are intact, unlike the torn end of a log.
+			if ((int) checksum.getValue() != expectedChecksum) {
+				throw new IOException("Corrupt log record at " + start);
+			}
+
+			consumer.accept(ByteBuffer.wrap(record));
+			numRecords++;
+		}
+
+		return numRecords;
+	}
+
+	/**
+	 * Appends a record to the buffer of the log. The record is neither written
+	 * nor durable before it is committed.
+	 *
+	 * @param record
+	 *            the record
+	 * @return the position of the end of the record, to be committed
+	 */
+	public long append(byte[] record) {
+		CRC32 checksum = new CRC32();
+		checksum.update(record, 0, record.length);
+
+		synchronized (appendLock) {
+			if (appendedPosition < 0) {
+				throw new IllegalStateException("The log is not recovered");
+			}
+
+			if (buffer.remaining() < FRAME_SIZE + record.length) {
+				ByteBuffer larger = ByteBuffer
+						.allocate(Math.max(buffer.capacity() * 2, buffer.position() + FRAME_SIZE + record.length));
+				buffer.flip();
+				larger.put(buffer);
+				buffer = larger;
+			}
+
+			buffer.putInt(record.length);
+			buffer.putInt((int) checksum.getValue());
+			buffer.put(record);
+			appendedPosition += FRAME_SIZE + record.length;
+			return appendedPosition;
+		}
+	}
+
+	/**
+	 * Gets the position of the end of the last appended record. Read while
+	 * all appenders are excluded, it is the position of a consistent state.
+	 *
+	 * @return the position
+	 */
+	public long position() {
+		synchronized (appendLock) {
+			return appendedPosition;
+		}
+	}
+
+	/**
+	 * Waits until the records up to a position are written and forced to
+	 * disk, whatever the durability mode.
+	 *
+	 * @param position
+	 *            the position
+	 * @throws IOException
+	 *             if the log failed to write or force the records
+	 */
+	public void force(long position) throws IOException {
+		commit(position);
+
+		if (!durabilityMode.forcesOnCommit()) {
+			currentSegment.channel.force(false);
+		}
+	}
+
+	/**
+	 * Waits until the records up to a position are written, and forced to disk
+	 * if the durability mode asks for it. The first waiting writer commits the
+	 * records of all writers, which then return together.
+	 *
+	 * @param position
+	 *            the position returned by {@link #append(byte[])}
+	 * @throws IOException
+	 *             if the log failed to write or force the records
+	 */
+	public void commit(long position) throws IOException {
+		while (committedPosition < position) {
+			synchronized (commitLock) {
+				while (true) {
+					if (failure != null) {
+						throw new IOException("The log failed", failure);
+					}
+
+					if (committedPosition >= position) {
+						return;
+					}
+
+					if (!writing) {
+						writing = true;
+						break;
+					}
+
+					try {
+						commitLock.wait();
+					} catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+						throw new InterruptedIOException();
+					}
+				}
+			}
+
+			// Lead the group: write everything appended so far.
+			long end = -1;
+			IOException error = null;
+
+			try {
+				end = writeBuffer(durabilityMode.forcesOnCommit());
+			} catch (IOException ex) {
+				error = ex;
+			}
+
+			synchronized (commitLock) {
+				writing = false;
+
+				if (error != null) {
+					failure = error;
+				} else {
+					committedPosition = end;
+				}
+
+				commitLock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Writes the records appended so far, swapping the buffers so that writers
+	 * keep appending meanwhile. Only the leader of a group calls this.
+	 *
+	 * @param force
+	 *            whether to force the records to disk
+	 * @return the position of the end of the written records
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private long writeBuffer(boolean force) throws IOException {
+		ByteBuffer group;
+		long end;
+
+		synchronized (appendLock) {
+			group = buffer;
+			buffer = spareBuffer;
+			spareBuffer = group;
+			end = appendedPosition;
+		}
+
+		group.flip();
+		Segment segment = currentSegment;
+		long start = end - group.remaining();
+
+		if (group.hasRemaining() && start - segment.start >= segmentSize) {
+			segment = startSegment(start);
+		}
+
+		while (group.hasRemaining()) {
+			segment.channel.write(group);
+		}
+
+		group.clear();
+
+		if (force) {
+			segment.channel.force(false);
+		}
+
+		return end;
+	}
+
+	/**
+	 * Starts a new segment after the current one, which is forced first, so
+	 * that a segment is only followed by another once it is complete. Only
+	 * the leader of a group calls this.
+	 *
+	 * @param start
+	 *            the position of the end of the current segment
+	 * @return the new segment
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private Segment startSegment(long start) throws IOException {
+		currentSegment.channel.force(false);
+		Path segmentFile = segmentFile(file, start);
+		Segment segment = new Segment(start, segmentFile, FileChannel.open(segmentFile, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE));
+		segments.put(start, segment);
+		currentSegment = segment;
+		return segment;
+	}
+
+	/**
+	 * Gets the position of the first record the log still holds, which is 0
+	 * unless a prefix was retired.
+	 *
+	 * @return the position
+	 */
+	public long getStartPosition() {
+		return segments.firstKey();
+	}
+
+	/**
+	 * Retires the prefix of the log before a position, e.g., that of a full
+	 * {@link Checkpoint}, so that the log does not grow forever. Only whole
+	 * segments before the position are deleted, oldest first, and the current
+	 * segment is kept, so the log may still start before the position. A
+	 * backup reading a retired position fails, cf.
+	 * {@link #read(long, int, long)}.
+	 *
+	 * @param position
+	 *            the position, before which no record is needed anymore
+	 * @return the number of segments deleted
+	 * @throws IOException
+	 *             if a segment cannot be deleted
+	 */
+	public long retire(long position) throws IOException {
+		long numSegments = 0;
+
+		while (true) {
+			Map.Entry<Long, Segment> first = segments.firstEntry();
+			Long next = segments.higherKey(first.getKey());
+
+			if (next == null || next > position) {
+				return numSegments;
+			}
+
+			// Only the thread that removes the segment deletes it.
+			if (segments.remove(first.getKey(), first.getValue())) {
+				first.getValue().channel.close();
+				Files.deleteIfExists(first.getValue().file);
+				numSegments++;
+			}
+		}
+	}
+
+	/**
+	 * Forces the log to disk at a fixed interval, until the log is closed. The
+	 * thread waits on a lock instead of sleeping, so that closing the log wakes
+	 * it without an interrupt, which would close the file in the middle of a
+	 * write.
+	 */
+	private void syncPeriodically() {
+		while (true) {
+			synchronized (syncLock) {
+				try {
+					syncLock.wait(DEFAULT_SYNC_INTERVAL_MILLIS);
+				} catch (InterruptedException ex) {
+					return;
+				}
+			}
+
+			if (closed) {
+				return;
+			}
+
+			try {
+				commit(position());
+				currentSegment.channel.force(false);
+			} catch (IOException ex) {
+				synchronized (commitLock) {
+					failure = ex;
+					commitLock.notifyAll();
+				}
+
+				return;
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+
+		closed = true;
+
+		if (syncThread != null) {
+			synchronized (syncLock) {
+				syncLock.notifyAll();
+			}
+
+			try {
+				syncThread.join();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		try {
+			if (position() > 0) {
+				commit(position());
+				currentSegment.channel.force(false);
+			}
+		} finally {
+			for (Segment segment : segments.values()) {
+				segment.channel.close();
+			}
+		}
+	}
+}
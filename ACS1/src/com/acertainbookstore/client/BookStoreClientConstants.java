@@ -17,6 +17,9 @@ public final class BookStoreClientConstants {
 	/** The Constant CLIENT_MAX_TIMEOUT_MILLISECS. */
 	public static final int CLIENT_MAX_TIMEOUT_MILLISECS = 30000;
 
+	/** The staleness of reads from backups that means no bound. */
+	public static final long UNBOUNDED_STALENESS = Long.MAX_VALUE;
+
 	/** The Constant strERR_CLIENT_REQUEST_SENDING. */
 	public static final String STR_ERR_CLIENT_REQUEST_SENDING = "ERR_CLIENT_REQUEST_SENDING";
 
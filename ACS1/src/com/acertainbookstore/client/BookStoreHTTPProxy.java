@@ -2,6 +2,7 @@ package com.acertainbookstore.client;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import org.eclipse.jetty.client.HttpClient;
@@ -10,6 +11,9 @@ import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.BookQuery;
+import com.acertainbookstore.business.BookRange;
+import com.acertainbookstore.business.BookSearch;
 import com.acertainbookstore.interfaces.BookStore;
 import com.acertainbookstore.utils.BookStoreKryoSerializer;
 import com.acertainbookstore.interfaces.BookStoreSerializer;
@@ -39,6 +43,9 @@ public class BookStoreHTTPProxy implements BookStore {
 	/** The serializer. */
 	private static ThreadLocal<BookStoreSerializer> serializer;
 
+	/** Routes the reads to the backups of the server, if any. */
+	private final ReadRouter readRouter;
+
 	/**
 	 * Initializes a new {@link BookStoreHTTPProxy}.
 	 *
@@ -48,6 +55,29 @@ public class BookStoreHTTPProxy implements BookStore {
 	 *             the exception
 	 */
 	public BookStoreHTTPProxy(String serverAddress) throws Exception {
+		this(serverAddress, Collections.emptyList(), BookStoreClientConstants.UNBOUNDED_STALENESS);
+	}
+
+	/**
+	 * Initializes a new {@link BookStoreHTTPProxy} that sends the writes to the
+	 * server, a primary, and spreads the reads across its backups in turn; a
+	 * read a backup fails, e.g., because it lags behind the primary by more
+	 * than the allowed staleness, is sent to the primary instead.
+	 *
+	 * @param serverAddress
+	 *            the server address of the primary
+	 * @param backupAddresses
+	 *            the server addresses of the backups
+	 * @param maxStalenessMillis
+	 *            how far the backups may lag behind the primary for a read, in
+	 *            milliseconds, or
+	 *            {@link BookStoreClientConstants#UNBOUNDED_STALENESS}
+	 * @throws Exception
+	 *             the exception
+	 */
+	public BookStoreHTTPProxy(String serverAddress, List<String> backupAddresses, long maxStalenessMillis)
+			throws Exception {
+		readRouter = new ReadRouter(backupAddresses, maxStalenessMillis);
 
 		// Setup the type of serializer.
 		if (BookStoreConstants.BINARY_SERIALIZATION) {
@@ -108,10 +138,9 @@ public class BookStoreHTTPProxy implements BookStore {
 	 */
 	@SuppressWarnings("unchecked")
 	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
-		String urlString = serverAddress + "/" + BookStoreMessageTag.GETBOOKS;
-		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbnSet);
-		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
-				serializer.get());
+		String path = "/" + BookStoreMessageTag.GETBOOKS;
+		BookStoreResponse bookStoreResponse = readRouter.read(client, serverAddress, path,
+				urlString -> BookStoreRequest.newPostRequest(urlString, isbnSet), serializer.get());
 		return (List<Book>) bookStoreResponse.getList();
 	}
 
@@ -130,12 +159,11 @@ public class BookStoreHTTPProxy implements BookStore {
 			throw new BookStoreException("unsupported encoding of numbooks", ex);
 		}
 
-		String urlString = serverAddress + "/" + BookStoreMessageTag.GETEDITORPICKS + "?"
-				+ BookStoreConstants.BOOK_NUM_PARAM + "=" + urlEncodedNumBooks;
+		String path = "/" + BookStoreMessageTag.GETEDITORPICKS + "?" + BookStoreConstants.BOOK_NUM_PARAM + "="
+				+ urlEncodedNumBooks;
 
-		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
-		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
-				serializer.get());
+		BookStoreResponse bookStoreResponse = readRouter.read(client, serverAddress, path,
+				BookStoreRequest::newGetRequest, serializer.get());
 		return (List<Book>) bookStoreResponse.getList();
 	}
 
@@ -169,10 +197,57 @@ public class BookStoreHTTPProxy implements BookStore {
 	 */
 	@SuppressWarnings("unchecked")
 	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
-		String urlString = serverAddress + "/" + BookStoreMessageTag.GETTOPRATEDBOOKS;
-		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, numBooks);
-		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
-				serializer.get());
+		String path = "/" + BookStoreMessageTag.GETTOPRATEDBOOKS;
+		BookStoreResponse bookStoreResponse = readRouter.read(client, serverAddress, path,
+				urlString -> BookStoreRequest.newPostRequest(urlString, numBooks), serializer.get());
+		return (List<Book>) bookStoreResponse.getList();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#searchBooks(com.acertainbookstore
+	 * .business.BookSearch)
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<Book> searchBooks(BookSearch search) throws BookStoreException {
+		String path = "/" + BookStoreMessageTag.SEARCHBOOKS;
+		BookStoreResponse bookStoreResponse = readRouter.read(client, serverAddress, path,
+				urlString -> BookStoreRequest.newPostRequest(urlString, search), serializer.get());
+		return (List<Book>) bookStoreResponse.getList();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#queryBooks(com.acertainbookstore
+	 * .business.BookQuery)
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<Book> queryBooks(BookQuery query) throws BookStoreException {
+		String path = "/" + BookStoreMessageTag.QUERYBOOKS;
+		BookStoreResponse bookStoreResponse = readRouter.read(client, serverAddress, path,
+				urlString -> BookStoreRequest.newPostRequest(urlString, query), serializer.get());
+		return (List<Book>) bookStoreResponse.getList();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#getBooksInRange(com.
+	 * acertainbookstore.business.BookRange)
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<Book> getBooksInRange(BookRange range) throws BookStoreException {
+		String path = "/" + BookStoreMessageTag.GETBOOKSINRANGE;
+		BookStoreResponse bookStoreResponse = readRouter.read(client, serverAddress, path,
+				urlString -> BookStoreRequest.newPostRequest(urlString, range), serializer.get());
 		return (List<Book>) bookStoreResponse.getList();
 	}
 }
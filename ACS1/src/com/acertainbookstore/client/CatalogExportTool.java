@@ -0,0 +1,61 @@
+package com.acertainbookstore.client;
+
+import java.util.List;
+
+import com.acertainbookstore.business.CatalogExporter;
+import com.acertainbookstore.server.BookStoreHTTPServer;
+
+/**
+ * {@link CatalogExportTool} makes a running {@link BookStoreHTTPServer} export
+ * a consistent snapshot of its books to a catalog file in its export
+ * directory through the {@link StockManagerHTTPProxy}, and reports how long
+ * the export took. The server writes the file itself while it keeps serving,
+ * so the books are not sent over HTTP; see {@link CatalogExporter} for the
+ * file formats.
+ *
+ * The arguments are the name of the file, relative to the export directory of
+ * the server, and optionally the address of the server, by default
+ * <code>http://localhost:8081</code>.
+ */
+public class CatalogExportTool {
+
+	/** The Constant DEFAULT_SERVER_ADDRESS. */
+	private static final String DEFAULT_SERVER_ADDRESS = "http://localhost:8081";
+
+	/**
+	 * Prevents the instantiation of a new {@link CatalogExportTool}.
+	 */
+	private CatalogExportTool() {
+		// Prevent instances from being created.
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *            the name of the file and the address of the server
+	 * @throws Exception
+	 *             the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1 || args.length > 2) {
+			System.err.println("Usage: CatalogExportTool <file> [<server address>]");
+			System.exit(1);
+		}
+
+		String serverAddress = args.length == 2 ? args[1] : DEFAULT_SERVER_ADDRESS;
+		StockManagerHTTPProxy storeManager = new StockManagerHTTPProxy(serverAddress + "/stock");
+
+		try {
+			long start = System.nanoTime();
+			List<Long> result = storeManager.exportBooks(args[0]);
+			double seconds = (System.nanoTime() - start) / 1e9;
+			long numBooks = result.get(0);
+			long numBytes = result.get(1);
+			System.out.printf("Exported %d books, %.1f MB in %.1f s (%.0f books/s, %.1f MB/s)%n", numBooks,
+					numBytes / 1e6, seconds, numBooks / seconds, numBytes / 1e6 / seconds);
+		} finally {
+			storeManager.stop();
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package com.acertainbookstore.client;
+
+import com.acertainbookstore.business.CatalogImporter;
+import com.acertainbookstore.server.BookStoreHTTPServer;
+
+/**
+ * {@link CatalogImportTool} makes a running {@link BookStoreHTTPServer} import
+ * a catalog file from its import directory through the
+ * {@link StockManagerHTTPProxy}, and reports how long the import took. The
+ * server reads the file itself, so the books are not sent over HTTP; see
+ * {@link CatalogImporter} for the file formats.
+ *
+ * The arguments are the name of the file, relative to the import directory of
+ * the server, and optionally the address of the server, by default
+ * <code>http://localhost:8081</code>.
+ */
+public class CatalogImportTool {
+
+	/** The Constant DEFAULT_SERVER_ADDRESS. */
+	private static final String DEFAULT_SERVER_ADDRESS = "http://localhost:8081";
+
+	/**
+	 * Prevents the instantiation of a new {@link CatalogImportTool}.
+	 */
+	private CatalogImportTool() {
+		// Prevent instances from being created.
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *            the name of the file and the address of the server
+	 * @throws Exception
+	 *             the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1 || args.length > 2) {
+			System.err.println("Usage: CatalogImportTool <file> [<server address>]");
+			System.exit(1);
+		}
+
+		String serverAddress = args.length == 2 ? args[1] : DEFAULT_SERVER_ADDRESS;
+		StockManagerHTTPProxy storeManager = new StockManagerHTTPProxy(serverAddress + "/stock");
+
+		try {
+			long start = System.nanoTime();
+			long numBooks = storeManager.importBooks(args[0]);
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.printf("Imported %d books in %.1f s (%.0f books/s)%n", numBooks, seconds, numBooks / seconds);
+		} finally {
+			storeManager.stop();
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package com.acertainbookstore.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.eclipse.jetty.client.HttpClient;
+
+import com.acertainbookstore.interfaces.BookStoreSerializer;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreRequest;
+import com.acertainbookstore.utils.BookStoreResponse;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * {@link ReadRouter} spreads the reads of a proxy across the backups of its
+ * server, the primary, which replicate its log, in turn. A read is sent to the
+ * primary instead if there are no backups, and again to the primary if the
+ * backup fails it, e.g., because the backup is down or lags behind the
+ * primary by more than the staleness the proxy allows; the primary then also
+ * gives the answer to invalid requests.
+ */
+final class ReadRouter {
+
+	/** The addresses of the backups. */
+	private final List<String> backupAddresses;
+
+	/** The staleness the reads allow, in milliseconds. */
+	private final long maxStalenessMillis;
+
+	/** The number of the backup the next read is sent to. */
+	private final AtomicInteger nextBackup = new AtomicInteger();
+
+	/**
+	 * Instantiates a new {@link ReadRouter}.
+	 *
+	 * @param backupAddresses
+	 *            the addresses of the backups
+	 * @param maxStalenessMillis
+	 *            the staleness the reads allow, in milliseconds, or
+	 *            {@link BookStoreClientConstants#UNBOUNDED_STALENESS}
+	 */
+	ReadRouter(List<String> backupAddresses, long maxStalenessMillis) {
+		if (maxStalenessMillis < 0) {
+			throw new IllegalArgumentException(
+					"maxStalenessMillis = " + maxStalenessMillis + ", but it must not be negative");
+		}
+
+		this.backupAddresses = new ArrayList<>(backupAddresses);
+		this.maxStalenessMillis = maxStalenessMillis;
+	}
+
+	/**
+	 * Sends a read to the next backup, and to the primary if the backup
+	 * fails it.
+	 *
+	 * @param client
+	 *            the client
+	 * @param primaryAddress
+	 *            the address of the primary
+	 * @param path
+	 *            the path of the read, including its parameters, if any
+	 * @param newRequest
+	 *            creates the request of the read for its URL
+	 * @param serializer
+	 *            the serializer
+	 * @return the response
+	 * @throws BookStoreException
+	 *             if the primary fails the read
+	 */
+	BookStoreResponse read(HttpClient client, String primaryAddress, String path,
+			Function<String, BookStoreRequest> newRequest, BookStoreSerializer serializer) throws BookStoreException {
+		if (!backupAddresses.isEmpty()) {
+			String urlString = backupAddresses.get(Math.floorMod(nextBackup.getAndIncrement(), backupAddresses.size()))
+					+ path;
+
+			if (maxStalenessMillis != BookStoreClientConstants.UNBOUNDED_STALENESS) {
+				urlString += (path.contains("?") ? "&" : "?") + BookStoreConstants.MAX_STALENESS_PARAM + "="
+						+ maxStalenessMillis;
+			}
+
+			try {
+				return BookStoreUtility.performHttpExchange(client, newRequest.apply(urlString), serializer);
+			} catch (BookStoreException ex) {
+				// The primary answers instead.
+			}
+		}
+
+		return BookStoreUtility.performHttpExchange(client, newRequest.apply(primaryAddress + path), serializer);
+	}
+}
@@ -1,5 +1,6 @@
 package com.acertainbookstore.client;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 
@@ -7,7 +8,11 @@ import org.eclipse.jetty.client.HttpClient;
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
 import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookCursor;
 import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRange;
+import com.acertainbookstore.business.CatalogExporter;
+import com.acertainbookstore.business.CatalogImporter;
 import com.acertainbookstore.business.StockBook;
 import com.acertainbookstore.utils.BookStoreKryoSerializer;
 import com.acertainbookstore.interfaces.BookStoreSerializer;
@@ -39,6 +44,9 @@ public class StockManagerHTTPProxy implements StockManager {
 	/** The serializer. */
 	private static ThreadLocal<BookStoreSerializer> serializer;
 
+	/** Routes the reads to the backups of the server, if any. */
+	private final ReadRouter readRouter;
+
 	/**
 	 * Initializes a new {@link StockManagerHTTPProxy}.
 	 *
@@ -48,6 +56,29 @@ public class StockManagerHTTPProxy implements StockManager {
 	 *             the exception
 	 */
 	public StockManagerHTTPProxy(String serverAddress) throws Exception {
+		this(serverAddress, Collections.emptyList(), BookStoreClientConstants.UNBOUNDED_STALENESS);
+	}
+
+	/**
+	 * Initializes a new {@link StockManagerHTTPProxy} that sends the writes to the
+	 * server, a primary, and spreads the reads across its backups in turn; a
+	 * read a backup fails, e.g., because it lags behind the primary by more
+	 * than the allowed staleness, is sent to the primary instead.
+	 *
+	 * @param serverAddress
+	 *            the server address of the primary
+	 * @param backupAddresses
+	 *            the server addresses of the backups
+	 * @param maxStalenessMillis
+	 *            how far the backups may lag behind the primary for a read, in
+	 *            milliseconds, or
+	 *            {@link BookStoreClientConstants#UNBOUNDED_STALENESS}
+	 * @throws Exception
+	 *             the exception
+	 */
+	public StockManagerHTTPProxy(String serverAddress, List<String> backupAddresses, long maxStalenessMillis)
+			throws Exception {
+		readRouter = new ReadRouter(backupAddresses, maxStalenessMillis);
 
 		// Setup the type of serializer.
 		if (BookStoreConstants.BINARY_SERIALIZATION) {
@@ -121,11 +152,98 @@ public class StockManagerHTTPProxy implements StockManager {
 	 */
 	@SuppressWarnings("unchecked")
 	public List<StockBook> getBooks() throws BookStoreException {
-		String urlString = serverAddress + "/" + BookStoreMessageTag.LISTBOOKS;
-		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		String path = "/" + BookStoreMessageTag.LISTBOOKS;
+		BookStoreResponse bookStoreResponse = readRouter.read(client, serverAddress, path,
+				BookStoreRequest::newGetRequest, serializer.get());
+		return (List<StockBook>) bookStoreResponse.getList();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooks(com.
+	 * acertainbookstore.business.BookCursor)
+	 */
+	@SuppressWarnings("unchecked")
+	public List<StockBook> getBooks(BookCursor cursor) throws BookStoreException {
+		String path = "/" + BookStoreMessageTag.LISTBOOKSPAGE;
+		BookStoreResponse bookStoreResponse = readRouter.read(client, serverAddress, path,
+				urlString -> BookStoreRequest.newPostRequest(urlString, cursor), serializer.get());
+		return (List<StockBook>) bookStoreResponse.getList();
+	}
+
+	/**
+	 * Imports the books of a catalog file on the server, which must be started
+	 * with an import directory that holds the file. CSV files and binary files,
+	 * ending in <code>.bin</code>, are accepted; see {@link CatalogImporter}.
+	 * The books are added in batches that are each atomic.
+	 *
+	 * @param fileName
+	 *            the name of the file, relative to the import directory
+	 * @return the number of books imported
+	 * @throws BookStoreException
+	 *             if the file is not available or malformed, or a batch is
+	 *             rejected
+	 */
+	public long importBooks(String fileName) throws BookStoreException {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.IMPORTBOOKS;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, fileName);
 		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
 				serializer.get());
-		return (List<StockBook>) bookStoreResponse.getList();
+		return (Long) bookStoreResponse.getList().get(0);
+	}
+
+	/**
+	 * Exports a consistent snapshot of all books to a catalog file on the
+	 * server, which must be started with an export directory, while the
+	 * server keeps serving. Files ending in <code>.bin</code> are written as
+	 * binary catalogs, all others as CSV, and files ending in <code>.gz</code>
+	 * in addition are compressed; see {@link CatalogExporter}.
+	 *
+	 * @param fileName
+	 *            the name of the file, relative to the export directory
+	 * @return the number of books exported and the size of the file in bytes
+	 * @throws BookStoreException
+	 *             if the file cannot be written
+	 */
+	@SuppressWarnings("unchecked")
+	public List<Long> exportBooks(String fileName) throws BookStoreException {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.EXPORTBOOKS;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, fileName);
+		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
+				serializer.get());
+		return (List<Long>) bookStoreResponse.getList();
+	}
+
+	/**
+	 * Reads the records that the write-ahead log of the server, a primary, has
+	 * committed from a position on, as a backup does to replicate it. The
+	 * server holds the request back until there are records after the
+	 * position or the timeout expires.
+	 *
+	 * @param from
+	 *            the position in the log to read from
+	 * @param maxBytes
+	 *            the maximum number of bytes to read
+	 * @param timeoutMillis
+	 *            the time the server waits for new records, in milliseconds
+	 * @return the bytes of the records, which may end in the middle of one,
+	 *         and the time the server waited for them, in nanoseconds; if
+	 *         the log of the server no longer holds the position, no bytes,
+	 *         followed by the position of the log that all books reflect and
+	 *         the books
+	 * @throws BookStoreException
+	 *             if the server has no log, or the log cannot be read from
+	 *             the position
+	 */
+	public List<?> readLog(long from, int maxBytes, long timeoutMillis) throws BookStoreException {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.READLOG;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString,
+				new long[] { from, maxBytes, timeoutMillis });
+		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
+				serializer.get());
+		return bookStoreResponse.getList();
 	}
 
 	/*
@@ -148,10 +266,9 @@ public class StockManagerHTTPProxy implements StockManager {
 	 */
 	@SuppressWarnings("unchecked")
 	public List<StockBook> getBooksInDemand() throws BookStoreException {
-		String urlString = serverAddress + "/" + BookStoreMessageTag.GETBOOKSINDEMAND;
-		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
-		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
-				serializer.get());
+		String path = "/" + BookStoreMessageTag.GETBOOKSINDEMAND;
+		BookStoreResponse bookStoreResponse = readRouter.read(client, serverAddress, path,
+				BookStoreRequest::newGetRequest, serializer.get());
 		return (List<StockBook>) bookStoreResponse.getList();
 	}
 
@@ -191,10 +308,24 @@ public class StockManagerHTTPProxy implements StockManager {
 	 */
 	@SuppressWarnings("unchecked")
 	public List<StockBook> getBooksByISBN(Set<Integer> isbns) throws BookStoreException {
-		String urlString = serverAddress + "/" + BookStoreMessageTag.GETSTOCKBOOKSBYISBN;
-		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbns);
-		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
-				serializer.get());
+		String path = "/" + BookStoreMessageTag.GETSTOCKBOOKSBYISBN;
+		BookStoreResponse bookStoreResponse = readRouter.read(client, serverAddress, path,
+				urlString -> BookStoreRequest.newPostRequest(urlString, isbns), serializer.get());
+		return (List<StockBook>) bookStoreResponse.getList();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getStockBooksInRange(com.
+	 * acertainbookstore.business.BookRange)
+	 */
+	@SuppressWarnings("unchecked")
+	public List<StockBook> getStockBooksInRange(BookRange range) throws BookStoreException {
+		String path = "/" + BookStoreMessageTag.GETSTOCKBOOKSINRANGE;
+		BookStoreResponse bookStoreResponse = readRouter.read(client, serverAddress, path,
+				urlString -> BookStoreRequest.newPostRequest(urlString, range), serializer.get());
 		return (List<StockBook>) bookStoreResponse.getList();
 	}
 
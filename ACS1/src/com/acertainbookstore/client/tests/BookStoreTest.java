@@ -14,7 +14,10 @@ import org.junit.Test;
 
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookQuery;
+import com.acertainbookstore.business.BookRange;
 import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.BookSearch;
 import com.acertainbookstore.business.CertainBookStore;
 import com.acertainbookstore.business.ImmutableStockBook;
 import com.acertainbookstore.business.StockBook;
@@ -161,8 +164,17 @@ public class BookStoreTest {
 
 		List<StockBook> listBooks = storeManager.getBooks();
 		assertTrue(listBooks.size() == 6); // There are 6 books not 1 because we add another 5
-		StockBook bookInList = listBooks.get(listBooks.size()-1); // DEfault book is on the last place in the list
 		StockBook addedBook = getDefaultBook();
+		StockBook bookInList = null;
+
+		// The order of the books in the list is unspecified
+		for (StockBook book : listBooks) {
+			if (book.getISBN() == addedBook.getISBN()) {
+				bookInList = book;
+			}
+		}
+
+		assertTrue(bookInList != null);
 
 		assertTrue(bookInList.getISBN() == addedBook.getISBN() && bookInList.getTitle().equals(addedBook.getTitle())
 				&& bookInList.getAuthor().equals(addedBook.getAuthor()) && bookInList.getPrice() == addedBook.getPrice()
@@ -470,6 +482,91 @@ public class BookStoreTest {
 				   topSecondBookFirstRating.contains(aBook));
 	}
 	
+	// Rate books differently and check that the top rated books are ordered
+	@Test
+	public void testGetTopRatedBooksOrdered() throws BookStoreException {
+		// Get all books in the store
+		List<StockBook> booksInStorePreTest = storeManager.getBooks();
+
+		// Rate three books, the last one highest
+		Set<BookRating> setBr = new HashSet<BookRating>();
+
+		for (int i = 0; i < 3; i++) {
+			setBr.add(new BookRating(booksInStorePreTest.get(i).getISBN(), i + 3));
+		}
+
+		client.rateBooks(setBr);
+
+		// Get the top three books
+		List<Book> topRatedBooks = client.getTopRatedBooks(3);
+
+		// Assert result
+		assertTrue(topRatedBooks.size() == 3);
+
+		for (int i = 0; i < 3; i++) {
+			assertTrue(topRatedBooks.get(i).getISBN() == booksInStorePreTest.get(2 - i).getISBN());
+		}
+	}
+
+	// Search books by title prefix, one book per page
+	@Test
+	public void testSearchBooksByTitlePrefix() throws BookStoreException {
+		BookSearch search = new BookSearch(BookSearch.Field.TITLE, "a", 1);
+
+		// The first page holds the first matching title, ignoring case
+		List<Book> firstPage = client.searchBooks(search);
+		assertTrue(firstPage.size() == 1 && firstPage.get(0).getISBN() == ISBN_ARRAY[0]);
+
+		// The second page continues after it
+		search = search.next(firstPage);
+		List<Book> secondPage = client.searchBooks(search);
+		assertTrue(secondPage.size() == 1 && secondPage.get(0).getISBN() == ISBN_ARRAY[2]);
+
+		// And there are no more matches
+		assertTrue(client.searchBooks(search.next(secondPage)).isEmpty());
+	}
+
+	// Search books by author prefix
+	@Test
+	public void testSearchBooksByAuthorPrefix() throws BookStoreException {
+		List<Book> books = client.searchBooks(new BookSearch(BookSearch.Field.AUTHOR, "M", 10));
+
+		assertTrue(books.size() == 2 && books.get(0).getAuthor().equals("Marcos")
+				&& books.get(1).getAuthor().equals("Mikkel"));
+	}
+
+	// Query books containing all words of a text, in their title or author
+	@Test
+	public void testQueryBooks() throws BookStoreException {
+		List<Book> books = client.queryBooks(new BookQuery("HASKELL learn", 10));
+		assertTrue(books.size() == 1 && books.get(0).getISBN() == ISBN_ARRAY[1]);
+
+		books = client.queryBooks(new BookQuery("memes internet", 10));
+		assertTrue(books.size() == 1 && books.get(0).getISBN() == ISBN_ARRAY[3]);
+
+		// Words only match whole words
+		assertTrue(client.queryBooks(new BookQuery("learning haskell", 10)).isEmpty());
+	}
+
+	// Get books in a price range, two books per page
+	@Test
+	public void testGetBooksInPriceRange() throws BookStoreException {
+		BookRange range = BookRange.byPrice(8, 15, 2);
+
+		// The pages hold the books ordered by price
+		List<Book> firstPage = client.getBooksInRange(range);
+		assertTrue(firstPage.size() == 2 && firstPage.get(0).getISBN() == ISBN_ARRAY[3]
+				&& firstPage.get(1).getISBN() == TEST_ISBN);
+
+		range = range.next(firstPage);
+		List<Book> secondPage = client.getBooksInRange(range);
+		assertTrue(secondPage.size() == 2 && secondPage.get(0).getISBN() == ISBN_ARRAY[2]
+				&& secondPage.get(1).getISBN() == ISBN_ARRAY[1]);
+
+		// And there are no more books in the range
+		assertTrue(client.getBooksInRange(range.next(secondPage)).isEmpty());
+	}
+
 	// Try and get more rated books than there are books in the bookstore
 	@Test(expected=BookStoreException.class)
 	public void testGetTopRatedBooksTooMany() throws BookStoreException {
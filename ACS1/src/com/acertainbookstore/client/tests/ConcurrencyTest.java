@@ -0,0 +1,428 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.ConcurrencyMode;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.business.StorageEngine;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link ConcurrencyTest} runs concurrent clients against a local
+ * {@link CertainBookStore} in every {@link ConcurrencyMode}, with every
+ * {@link StorageEngine} supporting the mode.
+ * 
+ * @see CertainBookStore
+ * @see ConcurrencyMode
+ * @see StorageEngine
+ */
+@RunWith(Parameterized.class)
+public class ConcurrencyTest {
+
+	/** The Constant FIRST_ISBN. */
+	private static final int FIRST_ISBN = 1000;
+
+	/** The Constant NUM_BOOKS. */
+	private static final int NUM_BOOKS = 8;
+
+	/** The Constant NUM_COPIES. */
+	private static final int NUM_COPIES = 100000;
+
+	/** The Constant NUM_OPERATIONS. */
+	private static final int NUM_OPERATIONS = 5000;
+
+	/** The concurrency mode under test. */
+	private final ConcurrencyMode concurrencyMode;
+
+	/** The storage engine under test. */
+	private final StorageEngine storageEngine;
+
+	/** The store. */
+	private CertainBookStore store;
+
+	/**
+	 * Instantiates a new {@link ConcurrencyTest}.
+	 *
+	 * @param concurrencyMode
+	 *            the concurrency mode
+	 * @param storageEngine
+	 *            the storage engine
+	 */
+	public ConcurrencyTest(ConcurrencyMode concurrencyMode, StorageEngine storageEngine) {
+		this.concurrencyMode = concurrencyMode;
+		this.storageEngine = storageEngine;
+	}
+
+	/**
+	 * Gets the combinations of concurrency modes and storage engines to test.
+	 *
+	 * @return the concurrency modes and storage engines
+	 */
+	@Parameters(name = "{0}/{1}")
+	public static Collection<Object[]> concurrencyModes() {
+		List<Object[]> modes = new ArrayList<Object[]>();
+
+		for (ConcurrencyMode mode : ConcurrencyMode.values()) {
+			for (StorageEngine engine : StorageEngine.values()) {
+				if (engine.supports(mode)) {
+					modes.add(new Object[] { mode, engine });
+				}
+			}
+		}
+
+		return modes;
+	}
+
+	/**
+	 * Creates a store with NUM_BOOKS books, executed before every test case is
+	 * run.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Before
+	public void initializeBooks() throws BookStoreException {
+		store = new CertainBookStore(concurrencyMode, storageEngine);
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+
+		for (int i = 0; i < NUM_BOOKS; i++) {
+			booksToAdd.add(new ImmutableStockBook(FIRST_ISBN + i, "Concurrent Book " + i, "Author " + i, (float) 10,
+					NUM_COPIES, 0, 0, 0, false));
+		}
+
+		store.addBooks(booksToAdd);
+	}
+
+	/**
+	 * Closes the store, executed after every test case is run.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@After
+	public void closeStore() throws IOException {
+		store.close();
+	}
+
+	/**
+	 * Helper method building a set of book copies.
+	 *
+	 * @param numCopies
+	 *            the number of copies of each book
+	 * @param isbns
+	 *            the ISBNs
+	 * @return the book copies
+	 */
+	private static Set<BookCopy> copiesOf(int numCopies, int... isbns) {
+		Set<BookCopy> copies = new HashSet<BookCopy>();
+
+		for (int isbn : isbns) {
+			copies.add(new BookCopy(isbn, numCopies));
+		}
+
+		return copies;
+	}
+
+	/**
+	 * Helper method running the tasks on their own threads and waiting for
+	 * them to finish.
+	 *
+	 * @param tasks
+	 *            the tasks
+	 * @throws Exception
+	 *             the first exception thrown by a task
+	 */
+	private static void runConcurrently(List<ConcurrentTask> tasks) throws Exception {
+		List<Thread> threads = new ArrayList<Thread>();
+		List<Exception> failures = new ArrayList<Exception>();
+
+		for (ConcurrentTask task : tasks) {
+			threads.add(new Thread(() -> {
+				try {
+					task.run();
+				} catch (Exception ex) {
+					synchronized (failures) {
+						failures.add(ex);
+					}
+				}
+			}));
+		}
+
+		for (Thread thread : threads) {
+			thread.start();
+		}
+
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		if (!failures.isEmpty()) {
+			throw failures.get(0);
+		}
+	}
+
+	/**
+	 * Gets the number of copies of a book in the store.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the number of copies
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private int numCopiesOf(int isbn) throws BookStoreException {
+		return store.getBooksByISBN(new HashSet<Integer>(Arrays.asList(isbn))).get(0).getNumCopies();
+	}
+
+	/**
+	 * Tests that buyers of different books do not lose updates.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testConcurrentBuysOfDifferentBooks() throws Exception {
+		List<ConcurrentTask> tasks = new ArrayList<ConcurrentTask>();
+
+		for (int i = 0; i < NUM_BOOKS; i++) {
+			int isbn = FIRST_ISBN + i;
+
+			tasks.add(() -> {
+				for (int j = 0; j < NUM_OPERATIONS; j++) {
+					store.buyBooks(copiesOf(1, isbn));
+				}
+			});
+		}
+
+		runConcurrently(tasks);
+
+		for (int i = 0; i < NUM_BOOKS; i++) {
+			assertEquals(NUM_COPIES - NUM_OPERATIONS, numCopiesOf(FIRST_ISBN + i));
+		}
+	}
+
+	/**
+	 * Tests that concurrent buyers of the same book never buy more copies than
+	 * there are in stock, and that every failed purchase is a sale miss.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testConcurrentBuysDoNotOversell() throws Exception {
+		int numThreads = 4;
+		int attemptsPerThread = NUM_COPIES / 3;
+		AtomicInteger bought = new AtomicInteger(0);
+		List<ConcurrentTask> tasks = new ArrayList<ConcurrentTask>();
+
+		for (int i = 0; i < numThreads; i++) {
+			tasks.add(() -> {
+				for (int j = 0; j < attemptsPerThread; j++) {
+					try {
+						store.buyBooks(copiesOf(1, FIRST_ISBN));
+						bought.incrementAndGet();
+					} catch (BookStoreException ex) {
+						;
+					}
+				}
+			});
+		}
+
+		runConcurrently(tasks);
+
+		StockBook book = store.getBooksByISBN(new HashSet<Integer>(Arrays.asList(FIRST_ISBN))).get(0);
+		assertEquals(NUM_COPIES, bought.get());
+		assertEquals(0, book.getNumCopies());
+		assertEquals(numThreads * attemptsPerThread - NUM_COPIES, book.getNumSaleMisses());
+	}
+
+	/**
+	 * Tests that purchases and restocking of several books are all-or-nothing:
+	 * a reader never observes a state where only some of the books of an
+	 * operation were updated, and overlapping book sets do not deadlock.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testMultiBookOperationsAreAtomic() throws Exception {
+		int[] isbns = { FIRST_ISBN, FIRST_ISBN + 1, FIRST_ISBN + 2 };
+		Set<Integer> isbnSet = new HashSet<Integer>(Arrays.asList(isbns[0], isbns[1], isbns[2]));
+		AtomicBoolean done = new AtomicBoolean(false);
+		List<ConcurrentTask> tasks = new ArrayList<ConcurrentTask>();
+
+		tasks.add(() -> {
+			for (int j = 0; j < NUM_OPERATIONS; j++) {
+				store.buyBooks(copiesOf(2, isbns));
+			}
+		});
+
+		tasks.add(() -> {
+			for (int j = 0; j < NUM_OPERATIONS; j++) {
+				store.addCopies(copiesOf(1, isbns));
+			}
+		});
+
+		tasks.add(() -> {
+			for (int j = 0; j < NUM_OPERATIONS; j++) {
+				store.buyBooks(copiesOf(1, isbns[2], isbns[1], isbns[0]));
+				store.addCopies(copiesOf(1, isbns[1], isbns[0], isbns[2]));
+			}
+		});
+
+		tasks.add(() -> {
+			try {
+				while (!done.get()) {
+					List<StockBook> books = store.getBooksByISBN(isbnSet);
+					assertEquals(books.get(0).getNumCopies(), books.get(1).getNumCopies());
+					assertEquals(books.get(1).getNumCopies(), books.get(2).getNumCopies());
+				}
+			} catch (AssertionError ex) {
+				throw new Exception(ex);
+			}
+		});
+
+		List<ConcurrentTask> writers = tasks.subList(0, 3);
+		List<ConcurrentTask> all = new ArrayList<ConcurrentTask>();
+		all.add(() -> {
+			try {
+				runConcurrently(writers);
+			} finally {
+				done.set(true);
+			}
+		});
+		all.add(tasks.get(3));
+		runConcurrently(all);
+
+		for (int isbn : isbns) {
+			assertEquals(NUM_COPIES - NUM_OPERATIONS, numCopiesOf(isbn));
+		}
+	}
+
+	/**
+	 * Tests that viewBooks passes each book to the visitor exactly once, in a
+	 * consistent state, while multi-book operations change the books.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testViewBooksVisitsConsistentBooksOnce() throws Exception {
+		int[] isbns = { FIRST_ISBN, FIRST_ISBN + 1, FIRST_ISBN + 2 };
+		Set<Integer> isbnSet = new HashSet<Integer>(Arrays.asList(isbns[0], isbns[1], isbns[2]));
+		AtomicBoolean done = new AtomicBoolean(false);
+		List<ConcurrentTask> all = new ArrayList<ConcurrentTask>();
+
+		all.add(() -> {
+			try {
+				for (int j = 0; j < NUM_OPERATIONS; j++) {
+					store.buyBooks(copiesOf(1, isbns));
+					store.addCopies(copiesOf(1, isbns));
+				}
+			} finally {
+				done.set(true);
+			}
+		});
+
+		all.add(() -> {
+			try {
+				while (!done.get()) {
+					List<Integer> numCopies = new ArrayList<Integer>();
+					store.viewBooks(isbnSet, book -> numCopies.add(book.getNumCopies()));
+					assertEquals(isbns.length, numCopies.size());
+					assertEquals(numCopies.get(0), numCopies.get(1));
+					assertEquals(numCopies.get(1), numCopies.get(2));
+				}
+			} catch (AssertionError ex) {
+				throw new Exception(ex);
+			}
+		});
+
+		runConcurrently(all);
+	}
+
+	/**
+	 * Tests that an interrupted client still gets the result of its
+	 * operation, and keeps its interrupt status.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testInterruptedClientCompletes() throws Exception {
+		Thread.currentThread().interrupt();
+
+		try {
+			store.buyBooks(copiesOf(1, FIRST_ISBN));
+			assertEquals(NUM_COPIES - 1, numCopiesOf(FIRST_ISBN));
+			assertTrue(Thread.currentThread().isInterrupted());
+		} finally {
+			Thread.interrupted();
+		}
+	}
+
+	/**
+	 * Tests that closing the store stops the threads it started.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testCloseStopsThreads() throws Exception {
+		int numThreads = numWriterThreads();
+		store.close();
+		assertEquals(numThreads - (concurrencyMode == ConcurrencyMode.SINGLE_WRITER ? 1 : 0), numWriterThreads());
+	}
+
+	/**
+	 * Helper method counting the live writer threads of single-writer stores.
+	 *
+	 * @return the number of threads
+	 */
+	private static int numWriterThreads() {
+		int numThreads = 0;
+
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.isAlive() && thread.getName().equals("bookstore-writer")) {
+				numThreads++;
+			}
+		}
+
+		return numThreads;
+	}
+
+	/**
+	 * A task run by one of the concurrent clients.
+	 */
+	@FunctionalInterface
+	private interface ConcurrentTask {
+
+		/**
+		 * Runs the task.
+		 *
+		 * @throws Exception
+		 *             the exception
+		 */
+		void run() throws Exception;
+	}
+}
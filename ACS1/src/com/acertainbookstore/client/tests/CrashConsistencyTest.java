@@ -0,0 +1,727 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.CheckpointMode;
+import com.acertainbookstore.business.ConcurrencyMode;
+import com.acertainbookstore.business.DurabilityMode;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.MappedBookStorage;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.business.StorageEngine;
+import com.acertainbookstore.client.BookStoreHTTPProxy;
+import com.acertainbookstore.client.StockManagerHTTPProxy;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link CrashConsistencyTest} crashes a {@link CrashTestServer}, forked in
+ * its own JVM, at random points of a random workload, and checks that the
+ * restarted server recovers a consistent state. In each round, the server
+ * either crashes at a random write of its log, injected by a
+ * {@link FaultInjectingFileChannel} as a partial write followed by the loss of
+ * the unforced bytes and possibly a torn page, or it is killed at a random
+ * time, possibly in the middle of a request or a checkpoint.
+ *
+ * The workload is run by one client, so that the operations are serialized
+ * in the order they are sent, and is mirrored in a local
+ * {@link CertainBookStore}, which records the state after every operation.
+ * The recovered state must be that after a prefix of the operations: one
+ * that includes every acknowledged operation if commits are forced, and at
+ * most the operation in flight besides. Acknowledged failures count as
+ * operations, since a failed purchase records its sale misses.
+ *
+ * The {@link StorageEngine#MAPPED} storage keeps its files consistent without
+ * the log, and only per book: an operation on several books is not atomic
+ * across a crash. It is tested on crash images instead, i.e., copies of its
+ * files taken while a workload runs, and pairs of images torn into each other
+ * within the slots. Every image must open, hold only the titles and authors
+ * of the books added, and give every book counters it had at some point.
+ *
+ * The number of crashes per test is set by the system property
+ * {@link BookStoreConstants#PROPERTY_KEY_CRASH_ROUNDS}.
+ *
+ * @see CrashTestServer
+ * @see FaultInjectingFileChannel
+ */
+public class CrashConsistencyTest {
+
+	/** The default number of crashes per test. */
+	private static final int DEFAULT_NUM_ROUNDS = 4;
+
+	/** The number of ISBNs the workload draws from. */
+	private static final int NUM_ISBNS = 30;
+
+	/** The largest number of the log write that crashes. */
+	private static final int MAX_CRASHING_WRITE = 60;
+
+	/** The largest time after which the server is killed, in milliseconds. */
+	private static final int MAX_KILL_DELAY_MILLIS = 2000;
+
+	/** The largest number of operations in a round. */
+	private static final int MAX_OPERATIONS_PER_ROUND = 300;
+
+	/** The time the server may take to start and recover, in milliseconds. */
+	private static final long STARTUP_TIMEOUT_MILLIS = 60000;
+
+	/** The number of crash images of the mapped storage. */
+	private static final int NUM_IMAGES = 60;
+
+	/**
+	 * The length of the slot file copied into a crash image: the header page
+	 * and a slot of 128 bytes per ISBN of the workload.
+	 */
+	private static final int SLOT_FILE_PREFIX = 4096 + 128 * NUM_ISBNS;
+
+	/** The length of the strings file copied into a crash image. */
+	private static final int STRINGS_FILE_PREFIX = 1 << 16;
+
+	/** The largest number of bytes of a slot torn from an older image. */
+	private static final int MAX_TEAR_SIZE = 64;
+
+	/** The number of crashes per test. */
+	private static int numRounds = DEFAULT_NUM_ROUNDS;
+
+	/**
+	 * {@link Operation} is an operation of the workload, run against the
+	 * server through the proxies and against the local store alike.
+	 */
+	@FunctionalInterface
+	private interface Operation {
+
+		/**
+		 * Runs the operation.
+		 *
+		 * @param stockManager
+		 *            the stock manager
+		 * @param bookStore
+		 *            the book store
+		 * @throws BookStoreException
+		 *             the book store exception
+		 */
+		public void run(StockManager stockManager, BookStore bookStore) throws BookStoreException;
+	}
+
+	/** The operations so far, which the recovered state must have a prefix of. */
+	private final List<Operation> operations = new ArrayList<>();
+
+	/** The states after each prefix of the operations, starting with none. */
+	private final List<String> states = new ArrayList<>();
+
+	/** The local store mirroring the operations. */
+	private CertainBookStore reference;
+
+	/** The source of the workload and the faults. */
+	private Random random;
+
+	/** The seed of the random source, reported by failures. */
+	private long seed;
+
+	/** The directory of the files of the server. */
+	private Path directory;
+
+	/**
+	 * Initializes a new instance.
+	 */
+	@BeforeClass
+	public static void setUpBeforeClass() {
+		String numRoundsProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_CRASH_ROUNDS);
+
+		if (numRoundsProperty != null && !numRoundsProperty.isEmpty()) {
+			numRounds = Integer.parseInt(numRoundsProperty);
+		}
+	}
+
+	/**
+	 * Tests that no acknowledged operation is lost by crashes if commits are
+	 * forced to disk.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testCrashesWithBatchDurability() throws Exception {
+		crash(DurabilityMode.BATCH);
+	}
+
+	/**
+	 * Tests that crashes lose at most the last operations if the log is
+	 * forced periodically.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testCrashesWithPeriodicDurability() throws Exception {
+		crash(DurabilityMode.PERIODIC);
+	}
+
+	/**
+	 * Tests that the files of the mapped storage hold no torn slot, no
+	 * reference to a missing string and no invalid counters at any point of a
+	 * workload, spanning several syncs.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testMappedStorageCrashImages() throws Exception {
+		seed = System.nanoTime();
+		random = new Random(seed);
+		directory = Files.createTempDirectory("crash");
+		reference = new CertainBookStore();
+
+		List<ConcurrencyMode> modes = new ArrayList<>();
+
+		for (ConcurrencyMode mode : ConcurrencyMode.values()) {
+			if (StorageEngine.MAPPED.supports(mode)) {
+				modes.add(mode);
+			}
+		}
+
+		ConcurrencyMode mode = modes.get(random.nextInt(modes.size()));
+		Path file = directory.resolve("books.slots");
+		List<byte[][]> images = new ArrayList<>();
+		Map<Integer, Set<String>> histories = new HashMap<>();
+
+		try {
+			CertainBookStore store = new CertainBookStore(mode, StorageEngine.MAPPED, file);
+			// Run the workload through three syncs.
+			long duration = 7 * MappedBookStorage.DEFAULT_SYNC_INTERVAL_MILLIS / 2;
+			AtomicBoolean done = new AtomicBoolean();
+			AtomicReference<Exception> imagerFailure = new AtomicReference<>();
+
+			// Copy the slots before the strings, as a crash would find them:
+			// the strings of a committed slot are forced before its commit.
+			Thread imager = new Thread(() -> {
+				try {
+					while (!done.get() && images.size() < NUM_IMAGES) {
+						byte[] slots = readPrefix(file, SLOT_FILE_PREFIX);
+						byte[] strings = readPrefix(MappedBookStorage.stringsFile(file), STRINGS_FILE_PREFIX);
+
+						images.add(new byte[][] { slots, strings });
+
+						Thread.sleep(duration / NUM_IMAGES);
+					}
+				} catch (IOException | InterruptedException ex) {
+					imagerFailure.set(ex);
+				}
+			}, "Crash imager");
+
+			try {
+				imager.start();
+				long deadline = System.currentTimeMillis() + duration;
+
+				while (System.currentTimeMillis() < deadline) {
+					Operation operation = nextOperation();
+					boolean succeeds = true;
+
+					try {
+						operation.run(reference, reference);
+					} catch (BookStoreException ex) {
+						succeeds = false;
+					}
+
+					try {
+						operation.run(store, store);
+						assertTrue("The store did an operation that fails locally\nseed = " + seed, succeeds);
+					} catch (BookStoreException ex) {
+						assertFalse("The store failed an operation: " + ex + "\nseed = " + seed, succeeds);
+					}
+
+					for (StockBook book : reference.getBooks()) {
+						histories.computeIfAbsent(book.getISBN(), isbn -> new HashSet<>())
+								.add(stateOf(Collections.singletonList(book)));
+					}
+				}
+			} finally {
+				done.set(true);
+				imager.join();
+				store.close();
+			}
+
+			if (imagerFailure.get() != null) {
+				throw imagerFailure.get();
+			}
+
+			// Check every image, and every image torn into the previous one
+			for (int i = 0; i < images.size(); i++) {
+				checkImage(mode, images.get(i), histories, "Image " + i);
+
+				if (i > 0) {
+					byte[] slots = images.get(i)[0].clone();
+					int tearSize = 1 + random.nextInt(MAX_TEAR_SIZE);
+					int tearStart = 4096 + random.nextInt(slots.length - 4096 - tearSize);
+					System.arraycopy(images.get(i - 1)[0], tearStart, slots, tearStart, tearSize);
+					checkImage(mode, new byte[][] { slots, images.get(i)[1] }, histories,
+							"Image " + i + " torn at " + tearStart + " for " + tearSize + " bytes");
+				}
+			}
+		} finally {
+			try (Stream<Path> files = Files.walk(directory)) {
+				for (Path path : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+					Files.delete(path);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the start of a file, as far as it exists.
+	 *
+	 * @param file
+	 *            the file
+	 * @param length
+	 *            the largest number of bytes
+	 * @return the bytes
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static byte[] readPrefix(Path file, int length) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer bytes = ByteBuffer.allocate((int) Math.min(length, channel.size()));
+
+			while (bytes.hasRemaining() && channel.read(bytes, bytes.position()) >= 0) {
+				;
+			}
+
+			return Arrays.copyOf(bytes.array(), bytes.position());
+		}
+	}
+
+	/**
+	 * Opens a crash image of the mapped storage, and checks that it holds
+	 * only books added by the workload, each with counters it had.
+	 *
+	 * @param mode
+	 *            the concurrency mode
+	 * @param image
+	 *            the slot file and the strings file
+	 * @param histories
+	 *            the states of the books by ISBN
+	 * @param name
+	 *            the name of the image, reported by failures
+	 * @throws Exception
+	 *             the exception
+	 */
+	private void checkImage(ConcurrencyMode mode, byte[][] image, Map<Integer, Set<String>> histories, String name)
+			throws Exception {
+		Path file = directory.resolve("image.slots");
+		Path stringsFile = MappedBookStorage.stringsFile(file);
+		Files.write(file, image[0]);
+		Files.write(stringsFile, image[1]);
+
+		try (CertainBookStore store = new CertainBookStore(mode, StorageEngine.MAPPED, file)) {
+			for (StockBook book : store.getBooks()) {
+				String state = stateOf(Collections.singletonList(book));
+				String failure = name + " holds " + book + "\nseed = " + seed;
+				Set<String> history = histories.get(book.getISBN());
+
+				assertEquals(failure, "Title " + book.getISBN(), book.getTitle());
+				assertEquals(failure, "Author " + book.getISBN(), book.getAuthor());
+				assertTrue(failure, book.getPrice() == 10.0f);
+				assertTrue(failure + " with " + state, history != null && history.contains(state));
+			}
+		} finally {
+			Files.delete(file);
+			Files.delete(stringsFile);
+		}
+	}
+
+	/**
+	 * Runs the rounds of the workload, crashing the server at the end of each,
+	 * and checks the state recovered after each crash.
+	 *
+	 * @param durabilityMode
+	 *            the durability mode of the server
+	 * @throws Exception
+	 *             the exception
+	 */
+	private void crash(DurabilityMode durabilityMode) throws Exception {
+		seed = System.nanoTime();
+		random = new Random(seed);
+		directory = Files.createTempDirectory("crash");
+		reference = new CertainBookStore();
+		states.add(stateOf(reference.getBooks()));
+
+		int port;
+
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+
+		StockManagerHTTPProxy stockManager = new StockManagerHTTPProxy("http://localhost:" + port + "/stock");
+		BookStoreHTTPProxy bookStore = new BookStoreHTTPProxy("http://localhost:" + port);
+
+		// The range of the prefixes the next recovered state may match.
+		int minPrefix = 0;
+		int maxPrefix = 0;
+
+		try {
+			for (int round = 0; round <= numRounds; round++) {
+				boolean lastRound = round == numRounds;
+				int crashingWrite = lastRound || random.nextBoolean() ? 0 : 1 + random.nextInt(MAX_CRASHING_WRITE);
+				Process server = startServer(port, durabilityMode, crashingWrite);
+
+				try {
+					awaitServer(server, stockManager);
+					recover(stateOf(stockManager.getBooks()), minPrefix, maxPrefix, round);
+
+					if (lastRound) {
+						break;
+					}
+
+					Timer killer = new Timer(true);
+
+					if (crashingWrite == 0) {
+						killer.schedule(new TimerTask() {
+							@Override
+							public void run() {
+								server.destroyForcibly();
+							}
+						}, 1 + random.nextInt(MAX_KILL_DELAY_MILLIS));
+					}
+
+					int numOperations = operations.size();
+					int numAcknowledged = runWorkload(stockManager, bookStore);
+					killer.cancel();
+					minPrefix = durabilityMode == DurabilityMode.BATCH ? numAcknowledged : numOperations;
+					maxPrefix = operations.size();
+				} finally {
+					server.destroyForcibly();
+					server.waitFor();
+				}
+			}
+		} finally {
+			stockManager.stop();
+			bookStore.stop();
+
+			try (Stream<Path> files = Files.walk(directory)) {
+				for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+					Files.delete(file);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Forks a server on the files of the test, in a random concurrency mode
+	 * that supports the log and with a random checkpoint mode.
+	 *
+	 * @param port
+	 *            the port
+	 * @param durabilityMode
+	 *            the durability mode
+	 * @param crashingWrite
+	 *            the number of the log write that crashes, or 0 to never crash
+	 * @return the process of the server
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private Process startServer(int port, DurabilityMode durabilityMode, int crashingWrite) throws IOException {
+		List<ConcurrencyMode> modes = new ArrayList<>();
+
+		for (ConcurrencyMode mode : ConcurrencyMode.values()) {
+			if (StorageEngine.HEAP.supports(mode) && !mode.updatesBooksWithoutLocks()) {
+				modes.add(mode);
+			}
+		}
+
+		CheckpointMode[] checkpointModes = CheckpointMode.values();
+		List<String> command = new ArrayList<>();
+		command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+
+		// Pass on the options of this JVM, e.g., the modules opened to the
+		// serializers, but not those of debuggers and agents.
+		for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+			if (!argument.startsWith("-agent") && !argument.startsWith("-javaagent")
+					&& !argument.startsWith("-Xrunjdwp") && !argument.startsWith("-Xdebug")) {
+				command.add(argument);
+			}
+		}
+
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(CrashTestServer.class.getName());
+		command.add(Integer.toString(port));
+		command.add(directory.resolve("books.log").toString());
+		command.add(directory.resolve("books.checkpoint").toString());
+		command.add(modes.get(random.nextInt(modes.size())).toString());
+		command.add(durabilityMode.toString());
+		command.add(checkpointModes[random.nextInt(checkpointModes.length)].toString());
+		command.add(Integer.toString(crashingWrite));
+		command.add(Long.toString(random.nextLong()));
+
+		return new ProcessBuilder(command).redirectErrorStream(true)
+				.redirectOutput(ProcessBuilder.Redirect.appendTo(directory.resolve("server.out").toFile())).start();
+	}
+
+	/**
+	 * Waits until the server has recovered and serves requests.
+	 *
+	 * @param server
+	 *            the process of the server
+	 * @param stockManager
+	 *            the stock manager
+	 * @throws Exception
+	 *             the exception
+	 */
+	private void awaitServer(Process server, StockManager stockManager) throws Exception {
+		long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MILLIS;
+
+		while (true) {
+			if (!server.isAlive()) {
+				fail(failure("The server exited while it recovered"));
+			}
+
+			try {
+				stockManager.getBooks();
+				return;
+			} catch (BookStoreException ex) {
+				if (System.currentTimeMillis() > deadline) {
+					fail(failure("The server did not start in time"));
+				}
+
+				Thread.sleep(100);
+			}
+		}
+	}
+
+	/**
+	 * Checks that a recovered state is that after one of a range of prefixes
+	 * of the operations, and drops the operations after the prefix.
+	 *
+	 * @param state
+	 *            the recovered state
+	 * @param minPrefix
+	 *            the shortest prefix the state may match
+	 * @param maxPrefix
+	 *            the longest prefix the state may match
+	 * @param round
+	 *            the round the state was recovered in
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private void recover(String state, int minPrefix, int maxPrefix, int round) throws BookStoreException {
+		int prefix = maxPrefix;
+
+		while (prefix >= minPrefix && !states.get(prefix).equals(state)) {
+			prefix--;
+		}
+
+		if (prefix < minPrefix) {
+			fail(failure("Round " + round + " recovered a state after none of the operations " + minPrefix + " to "
+					+ maxPrefix + ":\n" + state + "\nexpected, e.g.:\n" + states.get(maxPrefix)));
+		}
+
+		if (prefix < operations.size()) {
+			operations.subList(prefix, operations.size()).clear();
+			states.subList(prefix + 1, states.size()).clear();
+			reference = new CertainBookStore();
+
+			for (Operation operation : operations) {
+				try {
+					operation.run(reference, reference);
+				} catch (BookStoreException ex) {
+					// The operation failed before the crash as well.
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs random operations against the server until it crashes, mirroring
+	 * them in the local store, and checks that both agree on which succeed.
+	 *
+	 * @param stockManager
+	 *            the stock manager of the server
+	 * @param bookStore
+	 *            the book store of the server
+	 * @return the number of operations acknowledged by the server, from the
+	 *         first one
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private int runWorkload(StockManager stockManager, BookStore bookStore) throws BookStoreException {
+		for (int i = 0; i < MAX_OPERATIONS_PER_ROUND; i++) {
+			Operation operation = nextOperation();
+			boolean succeeds = true;
+
+			try {
+				operation.run(reference, reference);
+			} catch (BookStoreException ex) {
+				succeeds = false;
+			}
+
+			operations.add(operation);
+			states.add(stateOf(reference.getBooks()));
+
+			try {
+				operation.run(stockManager, bookStore);
+			} catch (BookStoreException ex) {
+
+				// Requests that got no response have a cause; the operation is
+				// in flight, and the server is crashing.
+				if (ex.getCause() != null) {
+					return operations.size() - 1;
+				}
+
+				if (succeeds) {
+					fail(failure("The server failed operation " + operations.size() + ": " + ex));
+				}
+
+				continue;
+			}
+
+			if (!succeeds) {
+				fail(failure("The server did operation " + operations.size() + ", which fails locally"));
+			}
+		}
+
+		return operations.size();
+	}
+
+	/**
+	 * Draws a random operation: adding books, which fails for ISBNs that are
+	 * taken, buying copies, which fails for books out of stock, adding copies,
+	 * or rating books.
+	 *
+	 * @return the operation
+	 */
+	private Operation nextOperation() {
+		int kind = random.nextInt(100);
+		List<Integer> isbns = nextIsbns();
+
+		if (kind < 20) {
+			Set<StockBook> books = new HashSet<>();
+
+			for (int isbn : isbns) {
+				books.add(new ImmutableStockBook(isbn, "Title " + isbn, "Author " + isbn, 10.0f,
+						1 + random.nextInt(5), 0, 0, 0, false));
+			}
+
+			return (stockManager, bookStore) -> stockManager.addBooks(books);
+		} else if (kind < 55) {
+			Set<BookCopy> copies = new HashSet<>();
+
+			for (int isbn : isbns) {
+				copies.add(new BookCopy(isbn, 1 + random.nextInt(3)));
+			}
+
+			return (stockManager, bookStore) -> bookStore.buyBooks(copies);
+		} else if (kind < 80) {
+			Set<BookCopy> copies = new HashSet<>();
+
+			for (int isbn : isbns) {
+				copies.add(new BookCopy(isbn, 1 + random.nextInt(4)));
+			}
+
+			return (stockManager, bookStore) -> stockManager.addCopies(copies);
+		} else {
+			Set<BookRating> ratings = new HashSet<>();
+
+			for (int isbn : isbns) {
+				ratings.add(new BookRating(isbn, random.nextInt(6)));
+			}
+
+			return (stockManager, bookStore) -> bookStore.rateBooks(ratings);
+		}
+	}
+
+	/**
+	 * Draws one or two distinct random ISBNs.
+	 *
+	 * @return the ISBNs
+	 */
+	private List<Integer> nextIsbns() {
+		List<Integer> isbns = new ArrayList<>();
+		int numIsbns = 1 + random.nextInt(2);
+
+		while (isbns.size() < numIsbns) {
+			int isbn = 1 + random.nextInt(NUM_ISBNS);
+
+			if (!isbns.contains(isbn)) {
+				isbns.add(isbn);
+			}
+		}
+
+		return isbns;
+	}
+
+	/**
+	 * Formats a failure message with the seed of the test and the end of the
+	 * output of the servers.
+	 *
+	 * @param message
+	 *            the message
+	 * @return the failure message
+	 */
+	private String failure(String message) {
+		String output;
+
+		try {
+			List<String> lines = Files.readAllLines(directory.resolve("server.out"), StandardCharsets.UTF_8);
+			output = String.join("\n", lines.subList(Math.max(0, lines.size() - 20), lines.size()));
+		} catch (IOException ex) {
+			output = ex.toString();
+		}
+
+		return message + "\nseed = " + seed + "\nserver output:\n" + output;
+	}
+
+	/**
+	 * Gets the state of books, with all their counters, in the order of their
+	 * ISBNs.
+	 *
+	 * @param books
+	 *            the books
+	 * @return the state
+	 */
+	private static String stateOf(List<StockBook> books) {
+		List<String> states = new ArrayList<String>();
+
+		for (StockBook book : books) {
+			states.add(book.getISBN() + ": Copies = " + book.getNumCopies() + " Misses = " + book.getNumSaleMisses()
+					+ " Rated = " + book.getNumTimesRated() + " Rating = " + book.getTotalRating() + " Pick = "
+					+ book.isEditorPick());
+		}
+
+		Collections.sort(states);
+		return String.join("\n", states);
+	}
+}
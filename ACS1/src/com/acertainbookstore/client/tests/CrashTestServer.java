@@ -0,0 +1,96 @@
+package com.acertainbookstore.client.tests;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.CheckpointMode;
+import com.acertainbookstore.business.ConcurrencyMode;
+import com.acertainbookstore.business.DurabilityMode;
+import com.acertainbookstore.business.StorageEngine;
+import com.acertainbookstore.business.WriteAheadLog;
+import com.acertainbookstore.server.BookStoreHTTPMessageHandler;
+import com.acertainbookstore.server.BookStoreHTTPServerUtility;
+
+/**
+ * {@link CrashTestServer} is the server that {@link CrashConsistencyTest}
+ * forks and crashes. It recovers the books from a checkpoint and a
+ * {@link WriteAheadLog} whose file is wrapped in a
+ * {@link FaultInjectingFileChannel}, checkpoints them frequently in the
+ * background, and serves them over HTTP until it crashes or is killed. The
+ * books are kept on the heap, since the log recovers them; the files of the
+ * mapped storage are tested on crash images instead.
+ *
+ * The arguments are the port, the log file, the checkpoint file, the
+ * concurrency mode, the durability mode, the checkpoint mode, the number of
+ * the log write that crashes, or 0 to never crash, and the seed of the faults.
+ */
+public class CrashTestServer {
+
+	/** The interval between checkpoints, in milliseconds. */
+	private static final long CHECKPOINT_INTERVAL_MILLIS = 200;
+
+	/** The number of checkpoints between merges of delta checkpoints. */
+	private static final long CHECKPOINTS_PER_MERGE = 5;
+
+	/**
+	 * Prevents the instantiation of a new {@link CrashTestServer}.
+	 */
+	private CrashTestServer() {
+		// Prevent instances from being created.
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *            the arguments
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = Integer.parseInt(args[0]);
+		Path logFile = Paths.get(args[1]);
+		Path checkpointFile = Paths.get(args[2]);
+		ConcurrencyMode concurrencyMode = ConcurrencyMode.valueOf(args[3]);
+		DurabilityMode durabilityMode = DurabilityMode.valueOf(args[4]);
+		CheckpointMode checkpointMode = CheckpointMode.valueOf(args[5]);
+		int crashingWrite = Integer.parseInt(args[6]);
+		long seed = Long.parseLong(args[7]);
+
+		FileChannel channel = new FaultInjectingFileChannel(FileChannel.open(logFile, StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE), crashingWrite, new Random(seed));
+		CertainBookStore store = new CertainBookStore(concurrencyMode, StorageEngine.HEAP,
+				new WriteAheadLog(channel, durabilityMode), checkpointFile);
+
+		ScheduledExecutorService checkpointer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "Checkpointer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		AtomicLong numCheckpoints = new AtomicLong();
+
+		checkpointer.scheduleWithFixedDelay(() -> {
+			try {
+				store.checkpoint(checkpointFile, checkpointMode);
+
+				if (checkpointMode == CheckpointMode.INCREMENTAL
+						&& numCheckpoints.incrementAndGet() % CHECKPOINTS_PER_MERGE == 0) {
+					store.mergeCheckpoints(checkpointFile);
+				}
+			} catch (IOException ex) {
+				System.err.println("Could not write the checkpoint: " + ex);
+			}
+		}, CHECKPOINT_INTERVAL_MILLIS, CHECKPOINT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+		BookStoreHTTPServerUtility.createServer(port, new BookStoreHTTPMessageHandler(store));
+	}
+}
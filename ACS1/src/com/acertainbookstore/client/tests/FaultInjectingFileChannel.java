@@ -0,0 +1,314 @@
+package com.acertainbookstore.client.tests;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Random;
+
+/**
+ * {@link FaultInjectingFileChannel} wraps the channel of a file and crashes
+ * the process at a chosen write, the way a power failure would: the write is
+ * only partly done, the bytes written since the channel was last forced are
+ * cut off at a random point, the unforced part of the last page may be torn,
+ * i.e., some of its sectors garbled, and the process halts at once, without
+ * running shutdown hooks. Bytes that were forced before are never lost.
+ *
+ * @see CrashConsistencyTest
+ */
+public class FaultInjectingFileChannel extends FileChannel {
+
+	/** The exit code of a process halted by an injected crash. */
+	public static final int CRASH_EXIT_CODE = 86;
+
+	/** The size of a page. */
+	private static final int PAGE_SIZE = 4096;
+
+	/** The size of a sector, the unit in which a page is torn. */
+	private static final int SECTOR_SIZE = 512;
+
+	/** The wrapped channel. */
+	private final FileChannel channel;
+
+	/** The number of the write that crashes, or 0 to never crash. */
+	private final int crashingWrite;
+
+	/** The source of the random faults. */
+	private final Random random;
+
+	/** The number of writes so far. */
+	private int numWrites = 0;
+
+	/** The size of the file when it was last forced. */
+	private long forcedSize = 0;
+
+	/**
+	 * Instantiates a new {@link FaultInjectingFileChannel}.
+	 *
+	 * @param channel
+	 *            the wrapped channel
+	 * @param crashingWrite
+	 *            the number of the write that crashes, counting from 1, or 0
+	 *            to never crash
+	 * @param random
+	 *            the source of the random faults
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public FaultInjectingFileChannel(FileChannel channel, int crashingWrite, Random random) throws IOException {
+		this.channel = channel;
+		this.crashingWrite = crashingWrite;
+		this.random = random;
+		this.forcedSize = channel.size();
+	}
+
+	/**
+	 * Counts a write, and crashes if it is the chosen one.
+	 *
+	 * @param src
+	 *            the bytes to write
+	 * @param position
+	 *            the position to write them at, or -1 for the current position
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private synchronized void countWrite(ByteBuffer src, long position) throws IOException {
+		if (++numWrites != crashingWrite) {
+			return;
+		}
+
+		// Write only a part of the bytes.
+		ByteBuffer part = src.duplicate();
+		part.limit(part.position() + random.nextInt(part.remaining() + 1));
+
+		if (position < 0) {
+			channel.write(part);
+		} else {
+			channel.write(part, position);
+		}
+
+		// Lose a random part of what was not forced.
+		long size = channel.size();
+		long end = forcedSize + (long) (random.nextDouble() * (size - forcedSize + 1));
+		end = Math.min(end, size);
+		channel.truncate(end);
+		String fault = "cut off at " + end + " of " + size + " bytes, forced up to " + forcedSize;
+
+		// Tear the last page: garble some of its unforced sectors.
+		long pageStart = Math.max(forcedSize, (end - 1) / PAGE_SIZE * PAGE_SIZE);
+
+		if (end > pageStart && random.nextBoolean()) {
+			long sector = pageStart + random.nextInt((int) (end - pageStart)) / SECTOR_SIZE * SECTOR_SIZE;
+			byte[] garbage = new byte[(int) Math.min(SECTOR_SIZE, end - sector)];
+			random.nextBytes(garbage);
+			channel.write(ByteBuffer.wrap(garbage), sector);
+			fault += ", garbled " + garbage.length + " bytes at " + sector;
+		}
+
+		System.err.println("Crash injected at write " + numWrites + ": " + fault);
+		System.err.flush();
+		Runtime.getRuntime().halt(CRASH_EXIT_CODE);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.nio.channels.FileChannel#read(java.nio.ByteBuffer)
+	 */
+	@Override
+	public int read(ByteBuffer dst) throws IOException {
+		return channel.read(dst);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.nio.channels.FileChannel#read(java.nio.ByteBuffer[], int, int)
+	 */
+	@Override
+	public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+		return channel.read(dsts, offset, length);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.nio.channels.FileChannel#read(java.nio.ByteBuffer, long)
+	 */
+	@Override
+	public int read(ByteBuffer dst, long position) throws IOException {
+		return channel.read(dst, position);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.nio.channels.FileChannel#write(java.nio.ByteBuffer)
+	 */
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		countWrite(src, -1);
+		return channel.write(src);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.nio.channels.FileChannel#write(java.nio.ByteBuffer[], int, int)
+	 */
+	@Override
+	public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+		long numBytes = 0;
+
+		for (int i = offset; i < offset + length; i++) {
+			numBytes += write(srcs[i]);
+		}
+
+		return numBytes;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.nio.channels.FileChannel#write(java.nio.ByteBuffer, long)
+	 */
+	@Override
+	public int write(ByteBuffer src, long position) throws IOException {
+		countWrite(src, position);
+		return channel.write(src, position);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.nio.channels.FileChannel#position()
+	 */
+	@Override
+	public long position() throws IOException {
+		return channel.position();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.nio.channels.FileChannel#position(long)
+	 */
+	@Override
+	public FileChannel position(long newPosition) throws IOException {
+		channel.position(newPosition);
+		return this;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.nio.channels.FileChannel#size()
+	 */
+	@Override
+	public long size() throws IOException {
+		return channel.size();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.nio.channels.FileChannel#truncate(long)
+	 */
+	@Override
+	public FileChannel truncate(long size) throws IOException {
+		channel.truncate(size);
+
+		synchronized (this) {
+			forcedSize = Math.min(forcedSize, size);
+		}
+
+		return this;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.nio.channels.FileChannel#force(boolean)
+	 */
+	@Override
+	public void force(boolean metaData) throws IOException {
+		// Only what was written before the force started is durable.
+		long size = channel.size();
+		channel.force(metaData);
+
+		synchronized (this) {
+			forcedSize = Math.max(forcedSize, size);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.nio.channels.FileChannel#transferTo(long, long,
+	 * java.nio.channels.WritableByteChannel)
+	 */
+	@Override
+	public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+		return channel.transferTo(position, count, target);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * java.nio.channels.FileChannel#transferFrom(java.nio.channels.ReadableByteChannel,
+	 * long, long)
+	 */
+	@Override
+	public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+		throw new UnsupportedOperationException("Writes are only injected with faults through write");
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.nio.channels.FileChannel#map(java.nio.channels.FileChannel.MapMode,
+	 * long, long)
+	 */
+	@Override
+	public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+		if (mode != MapMode.READ_ONLY) {
+			throw new UnsupportedOperationException("Writes are only injected with faults through write");
+		}
+
+		return channel.map(mode, position, size);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.nio.channels.FileChannel#lock(long, long, boolean)
+	 */
+	@Override
+	public FileLock lock(long position, long size, boolean shared) throws IOException {
+		return channel.lock(position, size, shared);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.nio.channels.FileChannel#tryLock(long, long, boolean)
+	 */
+	@Override
+	public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+		return channel.tryLock(position, size, shared);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.nio.channels.spi.AbstractInterruptibleChannel#implCloseChannel()
+	 */
+	@Override
+	protected void implCloseChannel() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,453 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.client.BookStoreClientConstants;
+import com.acertainbookstore.client.BookStoreHTTPProxy;
+import com.acertainbookstore.client.StockManagerHTTPProxy;
+import com.acertainbookstore.server.BookStoreHTTPServer;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link ReplicationTest} forks a primary {@link BookStoreHTTPServer} with a
+ * log and two backups that replicate it, each in its own JVM, and tests that
+ * the backups apply the writes sent to the primary, reject writes of their
+ * own, and serve the reads that the proxies route to them within the
+ * staleness the proxies allow.
+ */
+public class ReplicationTest {
+
+	/** The number of books the tests add. */
+	private static final int NUM_BOOKS = 20;
+
+	/** The number of backups. */
+	private static final int NUM_BACKUPS = 2;
+
+	/** The time the servers may take to start and to converge, in ms. */
+	private static final long TIMEOUT_MILLIS = 60000;
+
+	/** The size of the segments of the log of the primary. */
+	private static final int LOG_SEGMENT_SIZE = 1024;
+
+	/** The staleness the bounded reads allow, in milliseconds. */
+	private static final long MAX_STALENESS_MILLIS = 500;
+
+	/** The directory of the files of the servers. */
+	private Path directory;
+
+	/** The processes of the primary and the backups, in this order. */
+	private final List<Process> servers = new ArrayList<>();
+
+	/** The address of the primary. */
+	private String primaryAddress;
+
+	/** The addresses of the backups. */
+	private final List<String> backupAddresses = new ArrayList<>();
+
+	/** The stock manager of the primary alone. */
+	private StockManagerHTTPProxy primaryStockManager;
+
+	/** The book store of the primary alone. */
+	private BookStoreHTTPProxy primaryBookStore;
+
+	/** The stock managers of the backups alone. */
+	private final List<StockManagerHTTPProxy> backupStockManagers = new ArrayList<>();
+
+	/**
+	 * Forks the primary and the backups, and waits until they serve requests.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		directory = Files.createTempDirectory("replication");
+		primaryAddress = "http://localhost:" + freePort();
+		servers.add(startServer(primaryAddress, "primary",
+				"-D" + BookStoreConstants.PROPERTY_KEY_LOG_FILE + "=" + directory.resolve("books.log"),
+				"-D" + BookStoreConstants.PROPERTY_KEY_LOG_SEGMENT_SIZE + "=" + LOG_SEGMENT_SIZE,
+				"-D" + BookStoreConstants.PROPERTY_KEY_CHECKPOINT_FILE + "=" + directory.resolve("books.checkpoint"),
+				"-D" + BookStoreConstants.PROPERTY_KEY_CHECKPOINT_INTERVAL + "=1"));
+		primaryStockManager = new StockManagerHTTPProxy(primaryAddress + "/stock");
+		primaryBookStore = new BookStoreHTTPProxy(primaryAddress);
+		awaitServer(servers.get(0), primaryStockManager);
+
+		for (int i = 0; i < NUM_BACKUPS; i++) {
+			String backupAddress = "http://localhost:" + freePort();
+			backupAddresses.add(backupAddress);
+			servers.add(startServer(backupAddress, "backup" + i,
+					"-D" + BookStoreConstants.PROPERTY_KEY_PRIMARY + "=" + primaryAddress));
+			backupStockManagers.add(new StockManagerHTTPProxy(backupAddress + "/stock"));
+			awaitServer(servers.get(i + 1), backupStockManagers.get(i));
+		}
+
+		Set<StockBook> books = new HashSet<>();
+
+		for (int isbn = 1; isbn <= NUM_BOOKS; isbn++) {
+			books.add(new ImmutableStockBook(isbn, "Title " + isbn, "Author " + isbn, 10, 5, 0, 0, 0, isbn % 2 == 0));
+		}
+
+		primaryStockManager.addBooks(books);
+	}
+
+	/**
+	 * Kills the servers and deletes their files.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@After
+	public void tearDown() throws Exception {
+		primaryStockManager.stop();
+		primaryBookStore.stop();
+
+		for (StockManagerHTTPProxy backupStockManager : backupStockManagers) {
+			backupStockManager.stop();
+		}
+
+		for (Process server : servers) {
+			server.destroyForcibly();
+			server.waitFor();
+		}
+
+		try (Stream<Path> files = Files.walk(directory)) {
+			for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	/**
+	 * Tests that the backups apply the writes sent to the primary, and that
+	 * the reads routed to them return what the primary returns.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testBackupsApplyWrites() throws Exception {
+		primaryBookStore.buyBooks(new HashSet<>(Arrays.asList(new BookCopy(1, 2), new BookCopy(2, 5))));
+		primaryBookStore.rateBooks(new HashSet<>(Arrays.asList(new BookRating(3, 4), new BookRating(4, 5))));
+
+		try {
+			primaryBookStore.buyBooks(Collections.singleton(new BookCopy(2, 1)));
+			fail("The book is sold out");
+		} catch (BookStoreException ex) {
+			// A failed purchase records its sale miss.
+		}
+
+		String state = stateOf(primaryStockManager.getBooks());
+		awaitBackups(state);
+
+		StockManagerHTTPProxy stockManager = new StockManagerHTTPProxy(primaryAddress + "/stock",
+				backupStockAddresses(), BookStoreClientConstants.UNBOUNDED_STALENESS);
+		BookStoreHTTPProxy bookStore = new BookStoreHTTPProxy(primaryAddress, backupAddresses,
+				MAX_STALENESS_MILLIS);
+
+		try {
+			// Each backup serves every other read.
+			for (int i = 0; i < 2 * NUM_BACKUPS; i++) {
+				assertEquals(state, stateOf(stockManager.getBooks()));
+				assertEquals(primaryStockManager.getBooksInDemand().size(), stockManager.getBooksInDemand().size());
+				assertEquals(primaryBookStore.getTopRatedBooks(1), bookStore.getTopRatedBooks(1));
+				assertEquals(NUM_BOOKS / 2, bookStore.getEditorPicks(NUM_BOOKS).size());
+			}
+
+			// Writes go to the primary and reach the backups.
+			stockManager.addCopies(Collections.singleton(new BookCopy(2, 3)));
+			awaitBackups(stateOf(primaryStockManager.getBooks()));
+			assertEquals(3, stockManager.getBooksByISBN(Collections.singleton(2)).get(0).getNumCopies());
+		} finally {
+			stockManager.stop();
+			bookStore.stop();
+		}
+	}
+
+	/**
+	 * Tests that the backups reject writes, which would make them diverge
+	 * from the primary.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testBackupsAreReadOnly() throws Exception {
+		awaitBackups(stateOf(primaryStockManager.getBooks()));
+		StockManagerHTTPProxy backupStockManager = backupStockManagers.get(0);
+
+		try {
+			backupStockManager.addCopies(Collections.singleton(new BookCopy(1, 1)));
+			fail("The backup accepted a write");
+		} catch (BookStoreException ex) {
+			assertEquals(BookStoreConstants.BACKUP + BookStoreConstants.READ_ONLY, ex.getMessage());
+		}
+
+		try {
+			backupStockManager.removeAllBooks();
+			fail("The backup accepted a write");
+		} catch (BookStoreException ex) {
+			assertEquals(BookStoreConstants.BACKUP + BookStoreConstants.READ_ONLY, ex.getMessage());
+		}
+
+		assertEquals(NUM_BOOKS, backupStockManager.getBooks().size());
+	}
+
+	/**
+	 * Tests that a backup that lost its primary still serves reads that allow
+	 * any staleness, but not reads that allow less than it lags behind.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testStalenessIsBounded() throws Exception {
+		String state = stateOf(primaryStockManager.getBooks());
+		awaitBackups(state);
+
+		Process primary = servers.get(0);
+		primary.destroyForcibly();
+		primary.waitFor();
+		Thread.sleep(2 * MAX_STALENESS_MILLIS);
+
+		StockManagerHTTPProxy unboundedStockManager = new StockManagerHTTPProxy(primaryAddress + "/stock",
+				backupStockAddresses(), BookStoreClientConstants.UNBOUNDED_STALENESS);
+		StockManagerHTTPProxy boundedStockManager = new StockManagerHTTPProxy(primaryAddress + "/stock",
+				backupStockAddresses(), MAX_STALENESS_MILLIS);
+
+		try {
+			for (int i = 0; i < NUM_BACKUPS; i++) {
+				assertEquals(state, stateOf(unboundedStockManager.getBooks()));
+
+				try {
+					boundedStockManager.getBooks();
+					fail("A stale backup served a bounded read");
+				} catch (BookStoreException ex) {
+					// Neither the backup nor the primary can serve it.
+				}
+			}
+		} finally {
+			unboundedStockManager.stop();
+			boundedStockManager.stop();
+		}
+	}
+
+	/**
+	 * Tests that a backup started after the primary retired the start of its
+	 * log catches up from the books of the primary and the rest of the log.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testLateBackupCatchesUpAfterRetiredLog() throws Exception {
+		for (int i = 0; i < NUM_BOOKS; i++) {
+			primaryStockManager.addCopies(Collections.singleton(new BookCopy(i % NUM_BOOKS + 1, 1)));
+		}
+
+		// Wait until a checkpoint retires the log the backups started from.
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+
+		while (primaryStockManager.readLog(0, 1, 0).size() <= 2) {
+			if (System.currentTimeMillis() > deadline) {
+				fail(failure("The primary did not retire its log in time"));
+			}
+
+			Thread.sleep(100);
+		}
+
+		primaryBookStore.rateBooks(Collections.singleton(new BookRating(1, 5)));
+		String backupAddress = "http://localhost:" + freePort();
+		backupAddresses.add(backupAddress);
+		servers.add(startServer(backupAddress, "backup" + NUM_BACKUPS,
+				"-D" + BookStoreConstants.PROPERTY_KEY_PRIMARY + "=" + primaryAddress));
+		backupStockManagers.add(new StockManagerHTTPProxy(backupAddress + "/stock"));
+		awaitServer(servers.get(NUM_BACKUPS + 1), backupStockManagers.get(NUM_BACKUPS));
+
+		awaitBackups(stateOf(primaryStockManager.getBooks()));
+		primaryStockManager.addCopies(Collections.singleton(new BookCopy(2, 3)));
+		awaitBackups(stateOf(primaryStockManager.getBooks()));
+	}
+
+	/**
+	 * Waits until every backup has the state of the primary.
+	 *
+	 * @param state
+	 *            the state of the primary
+	 * @throws Exception
+	 *             the exception
+	 */
+	private void awaitBackups(String state) throws Exception {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+
+		for (StockManagerHTTPProxy backupStockManager : backupStockManagers) {
+			while (!state.equals(stateOf(backupStockManager.getBooks()))) {
+				if (System.currentTimeMillis() > deadline) {
+					fail(failure("The backups did not converge in time"));
+				}
+
+				Thread.sleep(50);
+			}
+		}
+	}
+
+	/**
+	 * Gets the addresses of the stock managers of the backups.
+	 *
+	 * @return the addresses
+	 */
+	private List<String> backupStockAddresses() {
+		return backupAddresses.stream().map(address -> address + "/stock").collect(Collectors.toList());
+	}
+
+	/**
+	 * Gets a port that is free.
+	 *
+	 * @return the port
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static int freePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+
+	/**
+	 * Forks a server.
+	 *
+	 * @param address
+	 *            the address of the server
+	 * @param name
+	 *            the name of the file of its output
+	 * @param properties
+	 *            the system properties that make it a primary or a backup
+	 * @return the process of the server
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private Process startServer(String address, String name, String... properties) throws IOException {
+		List<String> command = new ArrayList<>();
+		command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+
+		// Pass on the options of this JVM, e.g., the modules opened to the
+		// serializers, but not those of debuggers and agents.
+		for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+			if (!argument.startsWith("-agent") && !argument.startsWith("-javaagent")
+					&& !argument.startsWith("-Xrunjdwp") && !argument.startsWith("-Xdebug")) {
+				command.add(argument);
+			}
+		}
+
+		command.add("-D" + BookStoreConstants.PROPERTY_KEY_SERVER_PORT + "="
+				+ address.substring(address.lastIndexOf(':') + 1));
+		command.addAll(Arrays.asList(properties));
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(BookStoreHTTPServer.class.getName());
+
+		return new ProcessBuilder(command).redirectErrorStream(true)
+				.redirectOutput(ProcessBuilder.Redirect.appendTo(directory.resolve(name + ".out").toFile())).start();
+	}
+
+	/**
+	 * Waits until a server serves requests.
+	 *
+	 * @param server
+	 *            the process of the server
+	 * @param stockManager
+	 *            the stock manager of the server
+	 * @throws Exception
+	 *             the exception
+	 */
+	private void awaitServer(Process server, StockManagerHTTPProxy stockManager) throws Exception {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+
+		while (true) {
+			if (!server.isAlive()) {
+				fail(failure("A server exited while it started"));
+			}
+
+			try {
+				stockManager.getBooks();
+				return;
+			} catch (BookStoreException ex) {
+				if (System.currentTimeMillis() > deadline) {
+					fail(failure("A server did not start in time"));
+				}
+
+				Thread.sleep(100);
+			}
+		}
+	}
+
+	/**
+	 * Adds the last lines of the output of the servers to a failure message.
+	 *
+	 * @param message
+	 *            the message
+	 * @return the message with the output
+	 */
+	private String failure(String message) {
+		StringBuilder builder = new StringBuilder(message);
+
+		try (Stream<Path> files = Files.list(directory)) {
+			for (Path file : files.filter(file -> file.toString().endsWith(".out")).sorted()
+					.collect(Collectors.toList())) {
+				List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+				builder.append("\n").append(file.getFileName()).append(":\n")
+						.append(String.join("\n", lines.subList(Math.max(0, lines.size() - 20), lines.size())));
+			}
+		} catch (IOException ex) {
+			builder.append("\n").append(ex);
+		}
+
+		return builder.toString();
+	}
+
+	/**
+	 * Gets the state of books, with all their counters, in the order of their
+	 * ISBNs.
+	 *
+	 * @param books
+	 *            the books
+	 * @return the state
+	 */
+	private static String stateOf(List<StockBook> books) {
+		List<String> states = new ArrayList<String>();
+
+		for (StockBook book : books) {
+			states.add(book.getISBN() + ": Copies = " + book.getNumCopies() + " Misses = " + book.getNumSaleMisses()
+					+ " Rated = " + book.getNumTimesRated() + " Rating = " + book.getTotalRating() + " Pick = "
+					+ book.isEditorPick());
+		}
+
+		Collections.sort(states);
+		return String.join("\n", states);
+	}
+}
@@ -2,10 +2,21 @@ package com.acertainbookstore.client.tests;
 
 import static org.junit.Assert.*;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.After;
 import org.junit.AfterClass;
@@ -15,10 +26,26 @@ import org.junit.Test;
 
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookCursor;
 import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookQuery;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.BookRange;
+import com.acertainbookstore.business.BookSearch;
+import com.acertainbookstore.business.CatalogExporter;
+import com.acertainbookstore.business.CatalogImporter;
+import com.acertainbookstore.business.CatalogSnapshot;
 import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.Checkpoint;
+import com.acertainbookstore.business.CheckpointMode;
+import com.acertainbookstore.business.ConcurrencyMode;
+import com.acertainbookstore.business.DurabilityMode;
 import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.MappedBookStorage;
 import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.business.StorageEngine;
+import com.acertainbookstore.business.TieredBookStorage;
+import com.acertainbookstore.business.WriteAheadLog;
 import com.acertainbookstore.client.BookStoreHTTPProxy;
 import com.acertainbookstore.client.StockManagerHTTPProxy;
 import com.acertainbookstore.interfaces.BookStore;
@@ -158,6 +185,38 @@ public class StockManagerTest {
 				&& booksInStorePreTest.size() == booksInStorePostTest.size());
 	}
 
+	/**
+	 * Checks whether the insertion of a book whose title does not fit a
+	 * record is rejected.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testAddBookTooLongTitle() throws BookStoreException {
+		List<StockBook> booksInStorePreTest = storeManager.getBooks();
+
+		char[] title = new char[BookStoreConstants.MAX_STRING_BYTES + 1];
+		Arrays.fill(title, 'a');
+
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, new String(title), "JUnit Rowling", (float) 100, 5, 0, 0,
+				0, false));
+
+		try {
+			storeManager.addBooks(booksToAdd);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		List<StockBook> booksInStorePostTest = storeManager.getBooks();
+
+		// Check pre and post state are same.
+		assertTrue(booksInStorePreTest.containsAll(booksInStorePostTest)
+				&& booksInStorePreTest.size() == booksInStorePostTest.size());
+	}
+
 	/**
 	 * Checks whether the insertion of a book with a negative number of copies
 	 * is rejected.
@@ -384,6 +443,46 @@ public class StockManagerTest {
 		assertTrue(editorPick.equals(defaultBookAdded));
 	}
 
+	/**
+	 * Tests that editor picks are sampled without replacement, and that
+	 * removed books are no longer picked.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testEditorPicksAreDistinct() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+
+		for (int i = 1; i <= 5; i++) {
+			booksToAdd.add(new ImmutableStockBook(TEST_ISBN + i, "Pick " + i, "Editor", (float) 10, NUM_COPIES, 0, 0,
+					0, false));
+		}
+
+		storeManager.addBooks(booksToAdd);
+
+		for (int i = 1; i <= 5; i++) {
+			addEditorPick(TEST_ISBN + i, true);
+		}
+
+		// Remove one of the picks.
+		Set<Integer> isbnsToRemove = new HashSet<Integer>();
+		isbnsToRemove.add(TEST_ISBN + 5);
+		storeManager.removeBooks(isbnsToRemove);
+
+		List<Book> editorPicks = client.getEditorPicks(3);
+		Set<Integer> pickedIsbns = new HashSet<Integer>();
+
+		for (Book book : editorPicks) {
+			pickedIsbns.add(book.getISBN());
+		}
+
+		assertEquals(3, editorPicks.size());
+		assertEquals(3, pickedIsbns.size());
+		assertFalse(pickedIsbns.contains(TEST_ISBN + 5));
+		assertEquals(4, client.getEditorPicks(10).size());
+	}
+
 	/**
 	 * Checks that a book can be removed.
 	 *
@@ -510,6 +609,31 @@ public class StockManagerTest {
 		// Check not in missed books list
 		assertTrue(missedSalesAfter.contains(book));
 	}
+
+	// Restocking a book in demand removes it from the books in demand
+	@Test
+	public void testAddCopiesClearsBooksInDemand() throws BookStoreException {
+		StockBook book = getDefaultBook();
+
+		// Cause a sale miss
+		Set<BookCopy> buySet = new HashSet<>();
+		buySet.add(new BookCopy(book.getISBN(), book.getNumCopies() + 1));
+
+		try {
+			client.buyBooks(buySet);
+		} catch (BookStoreException e) {
+			// Do nothing - the sale miss is expected
+		}
+
+		assertEquals(1, storeManager.getBooksInDemand().size());
+
+		// Restock the book
+		Set<BookCopy> copiesSet = new HashSet<>();
+		copiesSet.add(new BookCopy(book.getISBN(), 1));
+		storeManager.addCopies(copiesSet);
+
+		assertEquals(0, storeManager.getBooksInDemand().size());
+	}
 	
 
 	/**
@@ -527,4 +651,743 @@ public class StockManagerTest {
 			((StockManagerHTTPProxy) storeManager).stop();
 		}
 	}
+
+	// Get the books in an ISBN range, in ISBN order
+	@Test
+	public void testGetStockBooksInISBNRange() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 2, "The C Programming Language",
+				"Dennis Ritchie and Brian Kerninghan", (float) 50, NUM_COPIES, 0, 0, 0, false));
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "The Art of Computer Programming", "Donald Knuth",
+				(float) 300, NUM_COPIES, 0, 0, 0, false));
+		storeManager.addBooks(booksToAdd);
+
+		List<StockBook> books = storeManager.getStockBooksInRange(BookRange.byISBN(TEST_ISBN + 1, TEST_ISBN + 5, 10));
+		assertTrue(books.size() == 2 && books.get(0).getISBN() == TEST_ISBN + 1
+				&& books.get(1).getISBN() == TEST_ISBN + 2);
+	}
+
+	// List the books page by page while books are added and removed
+	@Test
+	public void testGetBooksByCursor() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "The Art of Computer Programming", "Donald Knuth",
+				(float) 300, NUM_COPIES, 0, 0, 0, false));
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 2, "The C Programming Language",
+				"Dennis Ritchie and Brian Kerninghan", (float) 50, NUM_COPIES, 0, 0, 0, false));
+		storeManager.addBooks(booksToAdd);
+
+		BookCursor cursor = BookCursor.first(1);
+		List<StockBook> firstPage = storeManager.getBooks(cursor);
+		assertTrue(firstPage.size() == 1 && firstPage.get(0).getISBN() == TEST_ISBN);
+
+		// Books added before or removed after the cursor do not disturb it
+		Set<StockBook> bookBefore = new HashSet<StockBook>();
+		bookBefore.add(new ImmutableStockBook(TEST_ISBN - 1, "The Pragmatic Programmer", "Andrew Hunt", (float) 30,
+				NUM_COPIES, 0, 0, 0, false));
+		storeManager.addBooks(bookBefore);
+
+		Set<Integer> isbnAfter = new HashSet<Integer>();
+		isbnAfter.add(TEST_ISBN + 1);
+		storeManager.removeBooks(isbnAfter);
+
+		cursor = cursor.next(firstPage);
+		List<StockBook> secondPage = storeManager.getBooks(cursor);
+		assertTrue(secondPage.size() == 1 && secondPage.get(0).getISBN() == TEST_ISBN + 2);
+
+		assertTrue(storeManager.getBooks(cursor.next(secondPage)).isEmpty());
+	}
+
+	// Repeated reads of an unchanged book share one copy, in-process
+	@Test
+	public void testReadsOfUnchangedBookShareCopy() throws BookStoreException {
+		if (!localTest) {
+			return;
+		}
+
+		Set<Integer> isbns = new HashSet<Integer>();
+		isbns.add(TEST_ISBN);
+
+		StockBook book = storeManager.getBooksByISBN(isbns).get(0);
+		assertSame(book, storeManager.getBooksByISBN(isbns).get(0));
+
+		// An update yields a new copy
+		Set<BookCopy> copies = new HashSet<BookCopy>();
+		copies.add(new BookCopy(TEST_ISBN, 1));
+		storeManager.addCopies(copies);
+
+		StockBook updatedBook = storeManager.getBooksByISBN(isbns).get(0);
+		assertTrue(updatedBook != book && updatedBook.getNumCopies() == NUM_COPIES + 1);
+
+		// And the view reads the book in place
+		List<Integer> numCopies = new ArrayList<Integer>();
+		((CertainBookStore) storeManager).viewBooks(isbns, view -> numCopies.add(view.getNumCopies()));
+		assertTrue(numCopies.size() == 1 && numCopies.get(0) == NUM_COPIES + 1);
+	}
+
+	// A bulk load is added entirely, or not at all if one book is duplicated
+	@Test
+	public void testBulkAddBooksAllOrNothing() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+
+		for (int i = 1; i < BookStoreConstants.BULK_LOAD_THRESHOLD; i++) {
+			booksToAdd.add(new ImmutableStockBook(TEST_ISBN + i, "Bulk Book " + i, "Bulk Author", (float) 10,
+					NUM_COPIES, 0, 0, 0, false));
+		}
+
+		booksToAdd.add(getDefaultBook());
+
+		try {
+			storeManager.addBooks(booksToAdd);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		BookRange bulkRange = BookRange.byISBN(TEST_ISBN + 1, TEST_ISBN + BookStoreConstants.BULK_LOAD_THRESHOLD, 10);
+		assertTrue(storeManager.getStockBooksInRange(bulkRange).isEmpty());
+		assertTrue(client.searchBooks(new BookSearch(BookSearch.Field.TITLE, "bulk", 10)).isEmpty());
+
+		booksToAdd.remove(getDefaultBook());
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + BookStoreConstants.BULK_LOAD_THRESHOLD, "Bulk Book",
+				"Bulk Author", (float) 10, NUM_COPIES, 0, 0, 0, false));
+		storeManager.addBooks(booksToAdd);
+
+		// Count the books page by page
+		int numBooks = 0;
+
+		for (BookCursor cursor = BookCursor.first(BookStoreConstants.MAX_PAGE_SIZE); cursor != null;) {
+			List<StockBook> page = storeManager.getBooks(cursor);
+			numBooks += page.size();
+			cursor = cursor.next(page);
+		}
+
+		assertTrue(numBooks == booksToAdd.size() + 1);
+	}
+
+	// Books added and removed one at a time are found by the words they share
+	@Test
+	public void testQueryBooksAfterSingleUpdates() throws BookStoreException {
+		Set<Integer> expectedIsbns = new HashSet<Integer>();
+
+		for (int i = 1; i <= 600; i++) {
+			storeManager.addBooks(Collections.singleton(new ImmutableStockBook(TEST_ISBN + i, "Common Book " + i,
+					"Common Author", (float) 10, NUM_COPIES, 0, 0, 0, false)));
+			expectedIsbns.add(TEST_ISBN + i);
+		}
+
+		// Reuse the ISBNs of the removed books for books without these words
+		for (int i = 3; i <= 600; i += 3) {
+			storeManager.removeBooks(Collections.singleton(TEST_ISBN + i));
+			storeManager.addBooks(Collections.singleton(new ImmutableStockBook(TEST_ISBN + i, "Rare Book " + i,
+					"Rare Author", (float) 10, NUM_COPIES, 0, 0, 0, false)));
+			expectedIsbns.remove(TEST_ISBN + i);
+		}
+
+		Set<Integer> isbns = new HashSet<Integer>();
+
+		for (Book book : client.queryBooks(new BookQuery("common book", BookStoreConstants.MAX_PAGE_SIZE))) {
+			isbns.add(book.getISBN());
+		}
+
+		assertEquals(expectedIsbns, isbns);
+		assertTrue(client.queryBooks(new BookQuery("common 3", 10)).isEmpty());
+		assertTrue(client.queryBooks(new BookQuery("rare 3", 10)).size() == 1);
+	}
+
+	// A CSV catalog is imported in batches, and a binary catalog restores it
+	@Test
+	public void testImportCatalogFiles() throws BookStoreException, IOException {
+		Path csvFile = Files.createTempFile("catalog", ".csv");
+		Path binaryFile = Files.createTempFile("catalog", ".bin");
+
+		try {
+			Files.write(csvFile, Arrays.asList("isbn,title,author,price,numCopies,editorPick",
+					(TEST_ISBN + 1) + ",\"Tea, \"\"Coffee\"\" and JUnit\",Unit Tester,12.99,3,true",
+					(TEST_ISBN + 2) + ",Imported Book,Unit Tester,0.5,1", "",
+					(TEST_ISBN + 3) + ",Last Book,\"Unit Tester\",7,2,0"), StandardCharsets.UTF_8);
+
+			List<Long> progress = new ArrayList<>();
+			CatalogImporter importer = new CatalogImporter(storeManager, 2, progress::add);
+			assertEquals(3, importer.importFile(csvFile));
+			assertEquals(Arrays.asList(2L, 3L), progress);
+
+			List<StockBook> books = storeManager.getBooks();
+			assertEquals(4, books.size());
+
+			StockBook quoted = storeManager.getBooksByISBN(Collections.singleton(TEST_ISBN + 1)).get(0);
+			assertEquals("Tea, \"Coffee\" and JUnit", quoted.getTitle());
+			assertEquals(12.99f, quoted.getPrice(), 0.0f);
+			assertEquals(3, quoted.getNumCopies());
+			assertTrue(quoted.isEditorPick());
+
+			CatalogImporter.writeBinary(books, binaryFile);
+			storeManager.removeAllBooks();
+			assertEquals(4, new CatalogImporter(storeManager, CatalogImporter.DEFAULT_BATCH_SIZE, numBooks -> {
+			}).importFile(binaryFile));
+
+			assertEquals(new HashSet<>(books), new HashSet<>(storeManager.getBooks()));
+			assertTrue(storeManager.getBooksByISBN(Collections.singleton(TEST_ISBN + 1)).get(0).isEditorPick());
+		} finally {
+			Files.delete(csvFile);
+			Files.delete(binaryFile);
+		}
+	}
+
+	// An export sees the books as of its start, despite changes while it runs
+	@Test
+	public void testExportConsistentSnapshot() throws BookStoreException, IOException {
+		if (!localTest) {
+			return;
+		}
+
+		Path directory = Files.createTempDirectory("export");
+		int numBooks = 3 * CatalogSnapshot.PAGE_SIZE;
+
+		try {
+			for (ConcurrencyMode mode : ConcurrencyMode.values()) {
+				if (mode.updatesBooksWithoutLocks()) {
+					continue;
+				}
+
+				try (CertainBookStore store = new CertainBookStore(mode, StorageEngine.HEAP)) {
+					Set<StockBook> booksToAdd = new HashSet<StockBook>();
+
+					for (int isbn = 1; isbn <= numBooks; isbn++) {
+						booksToAdd.add(new ImmutableStockBook(isbn, "Book " + isbn, "Unit, \"Tester\"", (float) isbn,
+								NUM_COPIES, 0, 0, 0, false));
+					}
+
+					store.addBooks(booksToAdd);
+					List<String> expectedState = stateOf(store.getBooks());
+					List<StockBook> exportedBooks = new ArrayList<>();
+
+					// Change books on both sides of the export halfway through
+					try (CatalogSnapshot snapshot = store.snapshot()) {
+						snapshot.forEach(book -> {
+							exportedBooks.add(book);
+
+							if (exportedBooks.size() == numBooks / 2) {
+								try {
+									store.buyBooks(new HashSet<>(Arrays.asList(new BookCopy(1, 1),
+											new BookCopy(numBooks, 1))));
+									store.rateBooks(Collections.singleton(new BookRating(numBooks - 1, 5)));
+									store.removeBooks(new HashSet<>(Arrays.asList(2, numBooks - 2)));
+									store.addBooks(Collections.singleton(new ImmutableStockBook(numBooks + 1, "Added",
+											"Unit Tester", (float) 1, 1, 0, 0, 0, false)));
+								} catch (BookStoreException ex) {
+									throw new IOException(ex);
+								}
+							}
+						});
+					}
+
+					assertEquals(mode.name(), expectedState, stateOf(exportedBooks));
+
+					// The exported files restore the current books
+					List<String> currentState = stateOf(store.getBooks());
+
+					for (String fileName : Arrays.asList("books.csv", "books.csv.gz", "books.bin.gz")) {
+						Path file = directory.resolve(fileName);
+						List<Long> progress = new ArrayList<>();
+						CatalogExporter exporter = new CatalogExporter(store, CatalogSnapshot.PAGE_SIZE,
+								(numExported, numBytes, elapsedNanos) -> progress.add(numExported));
+						assertEquals(numBooks - 1, exporter.exportFile(file));
+						assertEquals(Arrays.asList(1024L, 2048L, 3071L), progress);
+
+						try (CertainBookStore importedStore = new CertainBookStore()) {
+							new CatalogImporter(importedStore, CatalogImporter.DEFAULT_BATCH_SIZE, numImported -> {
+							}).importFile(file);
+							assertEquals(fileName, currentState, stateOf(importedStore.getBooks()));
+						}
+					}
+				}
+			}
+		} finally {
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+				for (Path file : files) {
+					Files.delete(file);
+				}
+			}
+
+			Files.delete(directory);
+		}
+	}
+
+	// The state of the books is recovered from the log, despite a torn record
+	@Test
+	public void testRecoverFromWriteAheadLog() throws BookStoreException, IOException {
+		if (!localTest) {
+			return;
+		}
+
+		Path logFile = Files.createTempFile("bookstore", ".log");
+
+		try {
+			List<StockBook> books;
+
+			try (WriteAheadLog log = new WriteAheadLog(logFile, DurabilityMode.BATCH);
+					CertainBookStore store = new CertainBookStore(ConcurrencyMode.STRIPED, StorageEngine.HEAP, log)) {
+				Set<StockBook> booksToAdd = new HashSet<StockBook>();
+				booksToAdd.add(getDefaultBook());
+				booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "Logged Book", "Unit Tester", (float) 20,
+						NUM_COPIES, 0, 0, 0, false));
+				store.addBooks(booksToAdd);
+				store.addCopies(Collections.singleton(new BookCopy(TEST_ISBN, 2)));
+				store.buyBooks(Collections.singleton(new BookCopy(TEST_ISBN + 1, 1)));
+
+				try {
+					store.buyBooks(Collections.singleton(new BookCopy(TEST_ISBN, NUM_COPIES + 3)));
+					fail();
+				} catch (BookStoreException ex) {
+					;
+				}
+
+				store.rateBooks(Collections.singleton(new BookRating(TEST_ISBN, 4)));
+				store.updateEditorPicks(Collections.singleton(new BookEditorPick(TEST_ISBN + 1, true)));
+				store.removeBooks(Collections.singleton(TEST_ISBN));
+				books = store.getBooks();
+			}
+
+			// Tear a record at the end of the log
+			Files.write(logFile, new byte[] { 0, 0, 1, 0, 0, 0, 0, 0, 42 }, StandardOpenOption.APPEND);
+
+			try (WriteAheadLog log = new WriteAheadLog(logFile, DurabilityMode.NONE);
+					CertainBookStore recoveredStore = new CertainBookStore(ConcurrencyMode.GLOBAL, StorageEngine.HEAP,
+							log)) {
+				assertEquals(stateOf(books), stateOf(recoveredStore.getBooks()));
+
+				// The log goes on after the last intact record
+				recoveredStore.addBooks(Collections.singleton(getDefaultBook()));
+			}
+
+			try (WriteAheadLog log = new WriteAheadLog(logFile, DurabilityMode.NONE);
+					CertainBookStore recoveredStore = new CertainBookStore(ConcurrencyMode.GLOBAL, StorageEngine.HEAP,
+							log)) {
+				assertEquals(2, recoveredStore.getBooks().size());
+			}
+		} finally {
+			Files.delete(logFile);
+		}
+	}
+
+	// The state of the books is recovered from a checkpoint and the log after it
+	@Test
+	public void testRecoverFromCheckpoint() throws BookStoreException, IOException {
+		if (!localTest) {
+			return;
+		}
+
+		Path logFile = Files.createTempFile("bookstore", ".log");
+		Path checkpointFile = Files.createTempFile("bookstore", ".checkpoint");
+		Files.delete(checkpointFile);
+
+		try {
+			WriteAheadLog log = new WriteAheadLog(logFile, DurabilityMode.BATCH);
+			CertainBookStore store = new CertainBookStore(ConcurrencyMode.SNAPSHOT, StorageEngine.HEAP, log,
+					checkpointFile);
+
+			Set<StockBook> booksToAdd = new HashSet<StockBook>();
+			booksToAdd.add(getDefaultBook());
+			booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "Checkpointed Book", "Unit Tester", (float) 20, 1, 0,
+					0, 0, false));
+			store.addBooks(booksToAdd);
+
+			// Sell out a book, which is checkpointed with no copies
+			store.buyBooks(Collections.singleton(new BookCopy(TEST_ISBN + 1, 1)));
+			store.rateBooks(Collections.singleton(new BookRating(TEST_ISBN, 4)));
+			assertEquals(2, store.checkpoint(checkpointFile));
+
+			store.addCopies(Collections.singleton(new BookCopy(TEST_ISBN + 1, 3)));
+			store.updateEditorPicks(Collections.singleton(new BookEditorPick(TEST_ISBN, true)));
+			List<StockBook> books = store.getBooks();
+			log.close();
+
+			// Only the records after the checkpoint are redone
+			log = new WriteAheadLog(logFile, DurabilityMode.NONE);
+			CertainBookStore recoveredStore = new CertainBookStore(ConcurrencyMode.GLOBAL, StorageEngine.HEAP, log,
+					checkpointFile);
+			assertEquals(stateOf(books), stateOf(recoveredStore.getBooks()));
+			log.close();
+		} finally {
+			Files.delete(logFile);
+			Files.deleteIfExists(checkpointFile);
+		}
+	}
+
+	// A full checkpoint reads a snapshot while the books keep changing
+	@Test
+	public void testCheckpointWhileWriting() throws Exception {
+		if (!localTest) {
+			return;
+		}
+
+		Path logFile = Files.createTempFile("bookstore", ".log");
+		Path checkpointFile = Files.createTempFile("bookstore", ".checkpoint");
+		Files.delete(checkpointFile);
+
+		try {
+			WriteAheadLog log = new WriteAheadLog(logFile, DurabilityMode.NONE);
+			CertainBookStore store = new CertainBookStore(ConcurrencyMode.GLOBAL, StorageEngine.HEAP, log,
+					checkpointFile);
+			int numBooks = 3 * CatalogSnapshot.PAGE_SIZE;
+			Set<StockBook> booksToAdd = new HashSet<StockBook>();
+
+			for (int i = 0; i < numBooks; i++) {
+				booksToAdd.add(new ImmutableStockBook(TEST_ISBN + i, "Checkpointed Book", "Unit Tester", (float) 20,
+						NUM_COPIES, 0, 0, 0, false));
+			}
+
+			store.addBooks(booksToAdd);
+			AtomicBoolean done = new AtomicBoolean(false);
+			AtomicReference<Exception> failure = new AtomicReference<>();
+
+			// Update, remove and re-add books all over the catalog meanwhile
+			Thread writer = new Thread(() -> {
+				try {
+					for (int i = 0; !done.get() || i < numBooks; i++) {
+						int isbn = TEST_ISBN + (i * 7919) % numBooks;
+						store.addCopies(Collections.singleton(new BookCopy(isbn, 1)));
+
+						if (i % 10 == 0) {
+							StockBook book = store.getBooksByISBN(Collections.singleton(isbn)).get(0);
+							store.removeBooks(Collections.singleton(isbn));
+							store.addBooks(Collections.singleton(book));
+						}
+					}
+				} catch (Exception ex) {
+					failure.set(ex);
+				}
+			});
+
+			writer.start();
+			store.checkpoint(checkpointFile);
+			done.set(true);
+			writer.join();
+
+			if (failure.get() != null) {
+				throw failure.get();
+			}
+
+			List<StockBook> books = store.getBooks();
+			log.close();
+
+			log = new WriteAheadLog(logFile, DurabilityMode.NONE);
+			CertainBookStore recoveredStore = new CertainBookStore(ConcurrencyMode.GLOBAL, StorageEngine.HEAP, log,
+					checkpointFile);
+			assertEquals(stateOf(books), stateOf(recoveredStore.getBooks()));
+			log.close();
+		} finally {
+			Files.delete(logFile);
+			Files.deleteIfExists(checkpointFile);
+		}
+	}
+
+	// Incremental checkpoints write only the changed books and are merged
+	@Test
+	public void testRecoverFromIncrementalCheckpoints() throws BookStoreException, IOException {
+		if (!localTest) {
+			return;
+		}
+
+		Path directory = Files.createTempDirectory("bookstore");
+		Path logFile = directory.resolve("books.log");
+		Path checkpointFile = directory.resolve("books.checkpoint");
+
+		try {
+			WriteAheadLog log = new WriteAheadLog(logFile, DurabilityMode.BATCH);
+			CertainBookStore store = new CertainBookStore(ConcurrencyMode.STRIPED, StorageEngine.HEAP, log,
+					checkpointFile);
+
+			Set<StockBook> booksToAdd = new HashSet<StockBook>();
+			booksToAdd.add(getDefaultBook());
+
+			for (int i = 1; i <= 3; i++) {
+				booksToAdd.add(new ImmutableStockBook(TEST_ISBN + i, "Checkpointed Book", "Unit Tester", (float) 20,
+						NUM_COPIES, 0, 0, 0, false));
+			}
+
+			store.addBooks(booksToAdd);
+
+			// The first checkpoint is full
+			assertEquals(4, store.checkpoint(checkpointFile, CheckpointMode.INCREMENTAL));
+
+			store.buyBooks(Collections.singleton(new BookCopy(TEST_ISBN + 1, 1)));
+			store.removeBooks(Collections.singleton(TEST_ISBN + 2));
+			assertEquals(1, store.checkpoint(checkpointFile, CheckpointMode.INCREMENTAL));
+
+			store.addBooks(Collections.singleton(new ImmutableStockBook(TEST_ISBN + 4, "Added Book", "Unit Tester",
+					(float) 30, NUM_COPIES, 0, 0, 0, false)));
+			store.rateBooks(Collections.singleton(new BookRating(TEST_ISBN, 5)));
+			assertEquals(2, store.checkpoint(checkpointFile, CheckpointMode.INCREMENTAL));
+
+			store.addCopies(Collections.singleton(new BookCopy(TEST_ISBN + 3, 2)));
+			List<StockBook> books = store.getBooks();
+			log.close();
+
+			log = new WriteAheadLog(logFile, DurabilityMode.NONE);
+			CertainBookStore recoveredStore = new CertainBookStore(ConcurrencyMode.GLOBAL, StorageEngine.HEAP, log,
+					checkpointFile);
+			assertEquals(stateOf(books), stateOf(recoveredStore.getBooks()));
+
+			// Merging folds the deltas into the full checkpoint
+			assertEquals(2, recoveredStore.mergeCheckpoints(checkpointFile));
+			assertFalse(Files.exists(Checkpoint.deltaFile(checkpointFile, 2)));
+			assertFalse(Files.exists(Checkpoint.deltaFile(checkpointFile, 3)));
+			log.close();
+
+			log = new WriteAheadLog(logFile, DurabilityMode.NONE);
+			recoveredStore = new CertainBookStore(ConcurrencyMode.GLOBAL, StorageEngine.HEAP, log, checkpointFile);
+			assertEquals(stateOf(books), stateOf(recoveredStore.getBooks()));
+			log.close();
+		} finally {
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+				for (Path file : files) {
+					Files.delete(file);
+				}
+			}
+
+			Files.delete(directory);
+		}
+	}
+
+	// A full checkpoint retires the log before it, and backups catch up from
+	// a snapshot of the books instead
+	@Test
+	public void testRetireLogBeforeFullCheckpoint() throws BookStoreException, IOException {
+		if (!localTest) {
+			return;
+		}
+
+		Path directory = Files.createTempDirectory("bookstore");
+		Path logFile = directory.resolve("books.log");
+		Path checkpointFile = directory.resolve("books.checkpoint");
+
+		try {
+			WriteAheadLog log = new WriteAheadLog(logFile, DurabilityMode.BATCH, 256);
+			CertainBookStore store = new CertainBookStore(ConcurrencyMode.STRIPED, StorageEngine.HEAP, log,
+					checkpointFile);
+			store.addBooks(Collections.singleton(getDefaultBook()));
+
+			for (int i = 0; i < 100; i++) {
+				store.addCopies(Collections.singleton(new BookCopy(TEST_ISBN, 1)));
+			}
+
+			assertEquals(0, log.getStartPosition());
+			long numSegments = countFiles(directory, "books.log*");
+			assertTrue(numSegments > 2);
+
+			store.checkpoint(checkpointFile);
+			assertTrue(log.getStartPosition() > 0);
+			assertTrue(countFiles(directory, "books.log*") < numSegments);
+
+			try {
+				store.readLog(0, 1 << 16, 0);
+				fail();
+			} catch (BookStoreException ex) {
+				;
+			}
+
+			// A backup replaces its books with a snapshot and redoes the rest
+			Checkpoint snapshot = store.snapshotLog();
+			store.rateBooks(Collections.singleton(new BookRating(TEST_ISBN, 4)));
+			store.buyBooks(Collections.singleton(new BookCopy(TEST_ISBN, 2)));
+
+			CertainBookStore backup = new CertainBookStore(ConcurrencyMode.GLOBAL, StorageEngine.HEAP);
+			backup.addBooks(Collections.singleton(new ImmutableStockBook(TEST_ISBN + 1, "Stale Book", "Unit Tester",
+					(float) 10, NUM_COPIES, 0, 0, 0, false)));
+			backup.restoreBooks(snapshot.getBooks());
+			backup.redoLog(ByteBuffer.wrap(store.readLog(snapshot.getLogPosition(), 1 << 16, 0)));
+			List<StockBook> books = store.getBooks();
+			assertEquals(stateOf(books), stateOf(backup.getBooks()));
+			log.close();
+
+			// The store recovers from the checkpoint and the rest of the log
+			log = new WriteAheadLog(logFile, DurabilityMode.NONE, 256);
+			CertainBookStore recoveredStore = new CertainBookStore(ConcurrencyMode.GLOBAL, StorageEngine.HEAP, log,
+					checkpointFile);
+			assertEquals(stateOf(books), stateOf(recoveredStore.getBooks()));
+			log.close();
+		} finally {
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+				for (Path file : files) {
+					Files.delete(file);
+				}
+			}
+
+			Files.delete(directory);
+		}
+	}
+
+	// Frequently read books move to the heap and back out once they are idle
+	@Test
+	public void testEvictIdleBooks() throws BookStoreException, IOException {
+		if (!localTest) {
+			return;
+		}
+
+		try (CertainBookStore store = new CertainBookStore(ConcurrencyMode.STRIPED, StorageEngine.TIERED)) {
+			store.addBooks(Collections.singleton(getDefaultBook()));
+			assertEquals(0, store.evictIdleBooks());
+
+			// Read the book until it is admitted, and update it on the heap
+			Set<Integer> isbns = Collections.singleton(TEST_ISBN);
+
+			for (int i = 0; i < TieredBookStorage.ADMISSION_FREQUENCY; i++) {
+				store.getBooks(isbns);
+			}
+
+			store.buyBooks(Collections.singleton(new BookCopy(TEST_ISBN, 1)));
+			List<StockBook> books = store.getBooksByISBN(isbns);
+
+			// The book was accessed in the first period
+			assertEquals(0, store.evictIdleBooks());
+			int numPeriods = 1;
+
+			while (store.evictIdleBooks() == 0) {
+				assertTrue(++numPeriods < 5);
+			}
+
+			// The update was written back when the book was evicted
+			assertEquals(stateOf(books), stateOf(store.getBooksByISBN(isbns)));
+			assertEquals(0, store.evictIdleBooks());
+		}
+	}
+
+	// Exports and cursors read the whole catalog without moving it to the heap
+	@Test
+	public void testScansDoNotAdmitBooks() throws BookStoreException, IOException {
+		if (!localTest) {
+			return;
+		}
+
+		try (CertainBookStore store = new CertainBookStore(ConcurrencyMode.STRIPED, StorageEngine.TIERED)) {
+			int numBooks = 3 * CatalogSnapshot.PAGE_SIZE;
+			Set<StockBook> booksToAdd = new HashSet<StockBook>();
+
+			for (int isbn = 1; isbn <= numBooks; isbn++) {
+				booksToAdd.add(new ImmutableStockBook(isbn, "Book " + isbn, "Unit Tester", (float) isbn, NUM_COPIES, 0,
+						0, 0, false));
+			}
+
+			store.addBooks(booksToAdd);
+
+			// Read every book as often as admits it, by exports and by cursors
+			for (int i = 0; i < TieredBookStorage.ADMISSION_FREQUENCY; i++) {
+				List<StockBook> exportedBooks = new ArrayList<>();
+
+				try (CatalogSnapshot snapshot = store.snapshot()) {
+					snapshot.forEach(exportedBooks::add);
+				}
+
+				int numScannedBooks = 0;
+
+				for (BookCursor cursor = BookCursor.first(BookStoreConstants.MAX_PAGE_SIZE); cursor != null;) {
+					List<StockBook> page = store.getBooks(cursor);
+					numScannedBooks += page.size();
+					cursor = cursor.next(page);
+				}
+
+				assertEquals(numBooks, exportedBooks.size());
+				assertEquals(numBooks, numScannedBooks);
+			}
+
+			// Any book admitted to the heap would be evicted within four periods
+			int numEvictedBooks = 0;
+
+			for (int i = 0; i < 5; i++) {
+				numEvictedBooks += store.evictIdleBooks();
+			}
+
+			assertEquals(0, numEvictedBooks);
+		}
+	}
+
+	// The books kept in a mapped file are served again after a restart
+	@Test
+	public void testReopenMappedStore() throws BookStoreException, IOException {
+		if (!localTest) {
+			return;
+		}
+
+		Path storeFile = Files.createTempFile("bookstore", ".slots");
+		Files.delete(storeFile);
+
+		try {
+			CertainBookStore store = new CertainBookStore(ConcurrencyMode.SNAPSHOT, StorageEngine.MAPPED, storeFile);
+
+			Set<StockBook> booksToAdd = new HashSet<StockBook>();
+			booksToAdd.add(getDefaultBook());
+			booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "Mapped Book", "Unit Tester", (float) 20, 1, 0, 0, 0,
+					false));
+			booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 2, "Removed Book", "Unit Tester", (float) 30, 1, 0, 0,
+					0, false));
+			store.addBooks(booksToAdd);
+
+			// Update the counters in place, and reuse the slot of a removed book
+			store.buyBooks(Collections.singleton(new BookCopy(TEST_ISBN + 1, 1)));
+			store.rateBooks(Collections.singleton(new BookRating(TEST_ISBN, 4)));
+			store.updateEditorPicks(Collections.singleton(new BookEditorPick(TEST_ISBN, true)));
+			store.removeBooks(Collections.singleton(TEST_ISBN + 2));
+			store.addBooks(Collections.singleton(new ImmutableStockBook(TEST_ISBN + 3, "Reused Slot",
+					"Unit Tester \u00e9", (float) 40, 2, 0, 0, 0, false)));
+			List<StockBook> books = store.getBooks();
+			store.close();
+
+			CertainBookStore reopenedStore = new CertainBookStore(ConcurrencyMode.GLOBAL, StorageEngine.MAPPED,
+					storeFile);
+
+			// The index of the ISBNs is rebuilt in the background meanwhile
+			assertEquals(stateOf(books), stateOf(reopenedStore.getBooks(BookCursor.first(books.size()))));
+			assertEquals(stateOf(books), stateOf(reopenedStore.getBooks()));
+			assertEquals(1, reopenedStore.getEditorPicks(1).size());
+			reopenedStore.close();
+		} finally {
+			Files.deleteIfExists(storeFile);
+			Files.deleteIfExists(MappedBookStorage.stringsFile(storeFile));
+		}
+	}
+
+	/**
+	 * Counts the files in a directory whose names match a pattern.
+	 *
+	 * @param directory
+	 *            the directory
+	 * @param glob
+	 *            the pattern
+	 * @return the number of files
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static long countFiles(Path directory, String glob) throws IOException {
+		long numFiles = 0;
+
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, glob)) {
+			for (Path file : files) {
+				numFiles++;
+			}
+		}
+
+		return numFiles;
+	}
+
+	/**
+	 * Describes the full state of books, in ISBN order.
+	 *
+	 * @param books
+	 *            the books
+	 * @return the states of the books
+	 */
+	private static List<String> stateOf(List<StockBook> books) {
+		List<String> states = new ArrayList<String>();
+
+		for (StockBook book : books) {
+			states.add(book + " Copies = " + book.getNumCopies() + " Misses = " + book.getNumSaleMisses()
+					+ " Rated = " + book.getNumTimesRated() + " Rating = " + book.getTotalRating() + " Pick = "
+					+ book.isEditorPick());
+		}
+
+		Collections.sort(states);
+		return states;
+	}
 }
@@ -0,0 +1,245 @@
+package com.acertainbookstore.client.workloads;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.ConcurrencyMode;
+import com.acertainbookstore.business.DurabilityMode;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.business.StorageEngine;
+import com.acertainbookstore.business.WriteAheadLog;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * {@link ConcurrencyBenchmark} measures the throughput of a local
+ * {@link CertainBookStore} in each {@link ConcurrencyMode} for an increasing
+ * number of client threads. Each client thread issues a mix of customer reads
+ * ({@link CertainBookStore#getBooks(Set)}) and writes (alternating
+ * {@link CertainBookStore#buyBooks(Set)} and
+ * {@link CertainBookStore#addCopies(Set)}) on random books.
+ * 
+ * The modes to benchmark can be given as arguments, e.g.,
+ * <code>GLOBAL OPTIMISTIC</code>; by default all modes are benchmarked. The
+ * system property <code>readpercentage</code> sets the read/write mix, and the
+ * system property <code>durability</code> makes the stores log their mutations
+ * to a temporary {@link WriteAheadLog} in the given {@link DurabilityMode}.
+ */
+public class ConcurrencyBenchmark {
+
+	/** The Constant NUM_BOOKS. */
+	private static final int NUM_BOOKS = 10000;
+
+	/** The Constant FIRST_ISBN. */
+	private static final int FIRST_ISBN = 1;
+
+	/** The Constant NUM_COPIES. */
+	private static final int NUM_COPIES = 1000000;
+
+	/** The Constant BOOKS_PER_OPERATION. */
+	private static final int BOOKS_PER_OPERATION = 3;
+
+	/** The Constant DEFAULT_READ_PERCENTAGE. */
+	private static final int DEFAULT_READ_PERCENTAGE = 95;
+
+	/** The Constant WARMUP_MILLIS. */
+	private static final long WARMUP_MILLIS = 1000;
+
+	/** The Constant RUN_MILLIS. */
+	private static final long RUN_MILLIS = 3000;
+
+	/** The numbers of client threads to run. */
+	private static final int[] THREAD_COUNTS = { 1, 2, 4, 8, 16, 32 };
+
+	/**
+	 * Prevents the instantiation of a new {@link ConcurrencyBenchmark}.
+	 */
+	private ConcurrencyBenchmark() {
+		// Prevent instances from being created.
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *            the concurrency modes to benchmark
+	 * @throws Exception
+	 *             the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		List<ConcurrencyMode> modes = new ArrayList<>();
+
+		for (String arg : args) {
+			modes.add(ConcurrencyMode.valueOf(arg.toUpperCase()));
+		}
+
+		if (modes.isEmpty()) {
+			for (ConcurrencyMode mode : ConcurrencyMode.values()) {
+				modes.add(mode);
+			}
+		}
+
+		int readPercentage = Integer.getInteger("readpercentage", DEFAULT_READ_PERCENTAGE);
+		System.out.printf("%d books, %d%% reads, %d books per operation%n", NUM_BOOKS, readPercentage,
+				BOOKS_PER_OPERATION);
+		System.out.printf("%-14s %8s %14s %14s%n", "mode", "threads", "ops/s", "reads/s");
+
+		String durability = System.getProperty("durability");
+		DurabilityMode durabilityMode = BookStoreUtility.isEmpty(durability) ? null
+				: DurabilityMode.valueOf(durability.toUpperCase());
+
+		if (durabilityMode != null) {
+			System.out.println("Logging with durability " + durabilityMode);
+		}
+
+		for (ConcurrencyMode mode : modes) {
+			if (durabilityMode != null && mode.updatesBooksWithoutLocks()) {
+				continue;
+			}
+
+			Path logFile = durabilityMode == null ? null : Files.createTempFile("benchmark", ".log");
+			WriteAheadLog log = logFile == null ? null : new WriteAheadLog(logFile, durabilityMode);
+			CertainBookStore store = newStore(mode, log);
+
+			for (int numThreads : THREAD_COUNTS) {
+				run(store, numThreads, readPercentage, WARMUP_MILLIS, new LongAdder(), new LongAdder());
+
+				LongAdder operations = new LongAdder();
+				LongAdder reads = new LongAdder();
+				run(store, numThreads, readPercentage, RUN_MILLIS, operations, reads);
+
+				System.out.printf("%-14s %8d %14.0f %14.0f%n", mode, numThreads,
+						operations.sum() * 1000.0 / RUN_MILLIS, reads.sum() * 1000.0 / RUN_MILLIS);
+			}
+
+			store.close();
+
+			if (log != null) {
+				log.close();
+				WriteAheadLog.delete(logFile);
+			}
+		}
+	}
+
+	/**
+	 * Creates a store in the given mode and fills it with the books used by
+	 * the benchmark.
+	 *
+	 * @param mode
+	 *            the concurrency mode
+	 * @param log
+	 *            the log of the store, or null if it does not log
+	 * @return the store
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static CertainBookStore newStore(ConcurrencyMode mode, WriteAheadLog log)
+			throws BookStoreException, IOException {
+		CertainBookStore store = log == null ? new CertainBookStore(mode)
+				: new CertainBookStore(mode, StorageEngine.HEAP, log);
+		Set<StockBook> books = new HashSet<>();
+
+		for (int i = 0; i < NUM_BOOKS; i++) {
+			books.add(new ImmutableStockBook(FIRST_ISBN + i, "Title " + i, "Author " + i, 10.0f, NUM_COPIES, 0, 0, 0,
+					false));
+		}
+
+		store.addBooks(books);
+		return store;
+	}
+
+	/**
+	 * Runs the client threads against the store for the given time.
+	 *
+	 * @param store
+	 *            the store
+	 * @param numThreads
+	 *            the number of client threads
+	 * @param readPercentage
+	 *            the percentage of operations that are reads
+	 * @param millis
+	 *            the duration of the run
+	 * @param operations
+	 *            counts the completed operations
+	 * @param reads
+	 *            counts the completed reads
+	 * @throws InterruptedException
+	 *             the interrupted exception
+	 */
+	private static void run(CertainBookStore store, int numThreads, int readPercentage, long millis,
+			LongAdder operations, LongAdder reads) throws InterruptedException {
+		long deadline = System.nanoTime() + millis * 1000000L;
+		List<Thread> threads = new ArrayList<>();
+
+		for (int i = 0; i < numThreads; i++) {
+			threads.add(new Thread(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				boolean buy = true;
+
+				try {
+					while (System.nanoTime() < deadline) {
+						if (random.nextInt(100) < readPercentage) {
+							store.getBooks(randomIsbns(random));
+							reads.increment();
+						} else {
+							Set<BookCopy> copies = new HashSet<>();
+
+							for (Integer isbn : randomIsbns(random)) {
+								copies.add(new BookCopy(isbn, 1));
+							}
+
+							if (buy) {
+								store.buyBooks(copies);
+							} else {
+								store.addCopies(copies);
+							}
+
+							buy = !buy;
+						}
+
+						operations.increment();
+					}
+				} catch (BookStoreException ex) {
+					ex.printStackTrace();
+				}
+			}));
+		}
+
+		for (Thread thread : threads) {
+			thread.start();
+		}
+
+		for (Thread thread : threads) {
+			thread.join();
+		}
+	}
+
+	/**
+	 * Picks random ISBNs of books in the store.
+	 *
+	 * @param random
+	 *            the random number generator
+	 * @return the ISBNs
+	 */
+	private static Set<Integer> randomIsbns(ThreadLocalRandom random) {
+		Set<Integer> isbns = new HashSet<>();
+
+		while (isbns.size() < BOOKS_PER_OPERATION) {
+			isbns.add(FIRST_ISBN + random.nextInt(NUM_BOOKS));
+		}
+
+		return isbns;
+	}
+}
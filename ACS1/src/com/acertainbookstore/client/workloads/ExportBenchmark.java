@@ -0,0 +1,280 @@
+package com.acertainbookstore.client.workloads;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.CatalogExporter;
+import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.ConcurrencyMode;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.business.StorageEngine;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link ExportBenchmark} measures how much an export of a large catalog by
+ * the {@link CatalogExporter} slows down the purchases that run meanwhile on
+ * a local {@link CertainBookStore}. Buyer threads purchase random books, first
+ * for as long as the export will take, then while the catalog is exported;
+ * the benchmark prints the rate of the export and the throughput and the tail
+ * latencies of the purchases in both phases.
+ *
+ * The arguments are the number of books (default: 10000000), the concurrency
+ * mode (default: striped), the number of buyer threads (default: 4) and the
+ * name of the file, whose extension chooses its format (default:
+ * books.bin.gz); the heap must hold the catalog, e.g., -Xmx8g for the default.
+ */
+public class ExportBenchmark {
+
+	/** The Constant DEFAULT_NUM_BOOKS. */
+	private static final int DEFAULT_NUM_BOOKS = 10000000;
+
+	/** The Constant DEFAULT_NUM_THREADS. */
+	private static final int DEFAULT_NUM_THREADS = 4;
+
+	/** The Constant DEFAULT_FILE_NAME. */
+	private static final String DEFAULT_FILE_NAME = "books.bin.gz";
+
+	/** The Constant BATCH_SIZE. */
+	private static final int BATCH_SIZE = 100000;
+
+	/** The Constant FIRST_ISBN. */
+	private static final int FIRST_ISBN = 1;
+
+	/** The Constant NUM_COPIES. */
+	private static final int NUM_COPIES = 1000000;
+
+	/**
+	 * Prevents the instantiation of a new {@link ExportBenchmark}.
+	 */
+	private ExportBenchmark() {
+		// Prevent instances from being created.
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *            the number of books, the concurrency mode, the number of
+	 *            buyer threads and the name of the file
+	 * @throws Exception
+	 *             the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		int numBooks = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_NUM_BOOKS;
+		ConcurrencyMode mode = args.length > 1 ? ConcurrencyMode.valueOf(args[1].toUpperCase())
+				: ConcurrencyMode.STRIPED;
+		int numThreads = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_NUM_THREADS;
+		String fileName = args.length > 3 ? args[3] : DEFAULT_FILE_NAME;
+		Path directory = Files.createTempDirectory("export");
+		Path file = directory.resolve(fileName);
+
+		try {
+			CertainBookStore store = new CertainBookStore(mode, StorageEngine.HEAP);
+			fill(store, numBooks);
+			System.gc();
+			System.out.printf("%d books, %s mode, %d buyers, %s%n", numBooks, mode, numThreads, fileName);
+
+			// Time a first export to size the phases, then measure both
+			long exportNanos = export(store, file, false);
+			System.gc();
+			Buyers baseline = new Buyers(store, numBooks, numThreads);
+			Thread.sleep(exportNanos / 1000000);
+			baseline.stop();
+			Buyers concurrent = new Buyers(store, numBooks, numThreads);
+			export(store, file, true);
+			concurrent.stop();
+
+			baseline.print("without export");
+			concurrent.print("during export");
+		} finally {
+			Files.deleteIfExists(file);
+			Files.delete(directory);
+		}
+	}
+
+	/**
+	 * Fills a store with the books.
+	 *
+	 * @param store
+	 *            the store
+	 * @param numBooks
+	 *            the number of books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private static void fill(CertainBookStore store, int numBooks) throws BookStoreException {
+		Set<StockBook> books = new HashSet<>();
+
+		for (int i = 0; i < numBooks; i++) {
+			books.add(new ImmutableStockBook(FIRST_ISBN + i, "Title " + i, "Author " + i, 10.0f, NUM_COPIES, 0, 0,
+					0, false));
+
+			if (books.size() == BATCH_SIZE || i == numBooks - 1) {
+				store.addBooks(books);
+				books = new HashSet<>();
+			}
+		}
+	}
+
+	/**
+	 * Exports the books to a file.
+	 *
+	 * @param store
+	 *            the store
+	 * @param file
+	 *            the file
+	 * @param verbose
+	 *            whether to print the progress and the rate
+	 * @return the time the export took, in nanoseconds
+	 * @throws Exception
+	 *             the exception
+	 */
+	private static long export(CertainBookStore store, Path file, boolean verbose) throws Exception {
+		long start = System.nanoTime();
+		CatalogExporter exporter = new CatalogExporter(store, CatalogExporter.DEFAULT_PROGRESS_INTERVAL,
+				(numBooks, numBytes, elapsedNanos) -> {
+					if (verbose) {
+						System.out.printf("%10d books %10.1f MB %8.1f MB/s%n", numBooks, numBytes / 1e6,
+								numBytes * 1e3 / Math.max(elapsedNanos, 1));
+					}
+				});
+		exporter.exportFile(file);
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * {@link Buyers} runs threads that each buy a random book at a time, and
+	 * records the latencies of the purchases.
+	 */
+	private static final class Buyers {
+
+		/** The threads. */
+		private final List<Thread> threads = new ArrayList<>();
+
+		/** The latencies of the purchases of each thread, in nanoseconds. */
+		private final List<long[]> latencies = new ArrayList<>();
+
+		/** The numbers of purchases of each thread. */
+		private final int[] numPurchases;
+
+		/** Whether the threads should stop. */
+		private final AtomicBoolean stopped = new AtomicBoolean();
+
+		/** The time the threads started. */
+		private final long startTime = System.nanoTime();
+
+		/** The time the threads stopped. */
+		private long stopTime;
+
+		/**
+		 * Instantiates new {@link Buyers} and starts them.
+		 *
+		 * @param store
+		 *            the store
+		 * @param numBooks
+		 *            the number of books
+		 * @param numThreads
+		 *            the number of threads
+		 */
+		private Buyers(CertainBookStore store, int numBooks, int numThreads) {
+			numPurchases = new int[numThreads];
+
+			for (int i = 0; i < numThreads; i++) {
+				int thread = i;
+				latencies.add(new long[1 << 16]);
+
+				threads.add(new Thread(() -> {
+					ThreadLocalRandom random = ThreadLocalRandom.current();
+
+					while (!stopped.get()) {
+						Set<BookCopy> copies = Collections
+								.singleton(new BookCopy(FIRST_ISBN + random.nextInt(numBooks), 1));
+						long start = System.nanoTime();
+
+						try {
+							store.buyBooks(copies);
+						} catch (BookStoreException ex) {
+							throw new IllegalStateException(ex);
+						}
+
+						record(thread, System.nanoTime() - start);
+					}
+				}, "Buyer " + i));
+			}
+
+			threads.forEach(Thread::start);
+		}
+
+		/**
+		 * Records the latency of a purchase.
+		 *
+		 * @param thread
+		 *            the number of the thread
+		 * @param latency
+		 *            the latency, in nanoseconds
+		 */
+		private void record(int thread, long latency) {
+			long[] threadLatencies = latencies.get(thread);
+
+			if (numPurchases[thread] == threadLatencies.length) {
+				threadLatencies = Arrays.copyOf(threadLatencies, threadLatencies.length * 2);
+				latencies.set(thread, threadLatencies);
+			}
+
+			threadLatencies[numPurchases[thread]++] = latency;
+		}
+
+		/**
+		 * Stops the threads and waits for them.
+		 *
+		 * @throws InterruptedException
+		 *             if interrupted while waiting
+		 */
+		private void stop() throws InterruptedException {
+			stopped.set(true);
+
+			for (Thread thread : threads) {
+				thread.join();
+			}
+
+			stopTime = System.nanoTime();
+		}
+
+		/**
+		 * Prints the throughput and the tail latencies of the purchases.
+		 *
+		 * @param phase
+		 *            the name of the phase
+		 */
+		private void print(String phase) {
+			int total = 0;
+
+			for (int count : numPurchases) {
+				total += count;
+			}
+
+			long[] all = new long[total];
+			int offset = 0;
+
+			for (int i = 0; i < numPurchases.length; i++) {
+				System.arraycopy(latencies.get(i), 0, all, offset, numPurchases[i]);
+				offset += numPurchases[i];
+			}
+
+			Arrays.sort(all);
+			System.out.printf("%-16s %10.0f buys/s  p99 %8.1f us  p99.9 %8.1f us  max %8.1f ms%n", phase,
+					total * 1e9 / (stopTime - startTime), all[(int) (total * 0.99)] / 1e3,
+					all[(int) (total * 0.999)] / 1e3, all[total - 1] / 1e6);
+		}
+	}
+}
@@ -0,0 +1,276 @@
+package com.acertainbookstore.client.workloads;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.Checkpoint;
+import com.acertainbookstore.business.CheckpointMode;
+import com.acertainbookstore.business.ConcurrencyMode;
+import com.acertainbookstore.business.DurabilityMode;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.MappedBookStorage;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.business.StorageEngine;
+import com.acertainbookstore.business.WriteAheadLog;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link RecoveryBenchmark} measures how long a local {@link CertainBookStore}
+ * takes to recover a large catalog, from a {@link Checkpoint} and the tail of
+ * its {@link WriteAheadLog}, and from the whole log for comparison. The store
+ * is filled with the given number of books and updated by purchases and
+ * additions of copies, then checkpointed fully, then updated again and
+ * checkpointed incrementally, and then updated once more, so that only the
+ * tail of the log after the delta checkpoint is redone. Finally, it measures
+ * how long a store kept in a {@link MappedBookStorage} of the same size takes
+ * to reopen, until it serves books by ISBN and until it has built its
+ * indexes.
+ *
+ * The arguments are the number of books (default: 10000000), the number of
+ * mutations before the full checkpoint (default: 1000000) and the number of
+ * mutations before the delta checkpoint and after it (default: 100000); the
+ * heap must hold the catalog, e.g., -Xmx8g for the default.
+ */
+public class RecoveryBenchmark {
+
+	/** The Constant DEFAULT_NUM_BOOKS. */
+	private static final int DEFAULT_NUM_BOOKS = 10000000;
+
+	/** The Constant DEFAULT_NUM_MUTATIONS. */
+	private static final int DEFAULT_NUM_MUTATIONS = 1000000;
+
+	/** The Constant DEFAULT_NUM_TAIL_MUTATIONS. */
+	private static final int DEFAULT_NUM_TAIL_MUTATIONS = 100000;
+
+	/** The Constant BATCH_SIZE. */
+	private static final int BATCH_SIZE = 100000;
+
+	/** The Constant FIRST_ISBN. */
+	private static final int FIRST_ISBN = 1;
+
+	/** The Constant NUM_COPIES. */
+	private static final int NUM_COPIES = 1000000;
+
+	/** The Constant BOOKS_PER_OPERATION. */
+	private static final int BOOKS_PER_OPERATION = 3;
+
+	/** The Constant MODE. */
+	private static final ConcurrencyMode MODE = ConcurrencyMode.STRIPED;
+
+	/**
+	 * Prevents the instantiation of a new {@link RecoveryBenchmark}.
+	 */
+	private RecoveryBenchmark() {
+		// Prevent instances from being created.
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *            the number of books and the numbers of mutations before and
+	 *            after the checkpoint
+	 * @throws Exception
+	 *             the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		int numBooks = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_NUM_BOOKS;
+		int numMutations = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_NUM_MUTATIONS;
+		int numTailMutations = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_NUM_TAIL_MUTATIONS;
+		Path directory = Files.createTempDirectory("recovery");
+		Path logFile = directory.resolve("books.log");
+		Path checkpointFile = directory.resolve("books.checkpoint");
+
+		try {
+			System.out.printf("%d books, %d mutations before the full checkpoint, %d before the delta and after it%n",
+					numBooks, numMutations, numTailMutations);
+			fill(logFile, checkpointFile, numBooks, numMutations, numTailMutations);
+
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+				for (Path file : files) {
+					System.out.printf("%-24s %8d KB%n", file.getFileName(), Files.size(file) >> 10);
+				}
+			}
+
+			System.gc();
+			System.out.printf("%-24s %8d ms%n", "checkpoint and log tail", recover(logFile, checkpointFile));
+			System.gc();
+			System.out.printf("%-24s %8d ms%n", "whole log", recover(logFile, null));
+			System.gc();
+			reopenMapped(directory.resolve("books.slots"), numBooks);
+		} finally {
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+				for (Path file : files) {
+					Files.delete(file);
+				}
+			}
+
+			Files.delete(directory);
+		}
+	}
+
+	/**
+	 * Fills a store with the books, mutates it, checkpoints it fully, mutates
+	 * it again, checkpoints it incrementally, and mutates it once more.
+	 *
+	 * @param logFile
+	 *            the file of the log
+	 * @param checkpointFile
+	 *            the file of the checkpoint
+	 * @param numBooks
+	 *            the number of books
+	 * @param numMutations
+	 *            the number of mutations before the full checkpoint
+	 * @param numTailMutations
+	 *            the number of mutations before the delta checkpoint and
+	 *            after it
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static void fill(Path logFile, Path checkpointFile, int numBooks, int numMutations,
+			int numTailMutations) throws BookStoreException, IOException {
+		try (WriteAheadLog log = new WriteAheadLog(logFile, DurabilityMode.NONE)) {
+			CertainBookStore store = new CertainBookStore(MODE, StorageEngine.HEAP, log);
+			Set<StockBook> books = new HashSet<>();
+
+			for (int i = 0; i < numBooks; i++) {
+				books.add(new ImmutableStockBook(FIRST_ISBN + i, "Title " + i, "Author " + i, 10.0f, NUM_COPIES, 0,
+						0, 0, false));
+
+				if (books.size() == BATCH_SIZE || i == numBooks - 1) {
+					store.addBooks(books);
+					books.clear();
+				}
+			}
+
+			mutate(store, numBooks, numMutations);
+			checkpoint(store, checkpointFile, CheckpointMode.FULL);
+			mutate(store, numBooks, numTailMutations);
+			checkpoint(store, checkpointFile, CheckpointMode.INCREMENTAL);
+			mutate(store, numBooks, numTailMutations);
+		}
+	}
+
+	/**
+	 * Checkpoints a store and measures the time it takes.
+	 *
+	 * @param store
+	 *            the store
+	 * @param checkpointFile
+	 *            the file of the full checkpoint
+	 * @param mode
+	 *            the checkpoint mode
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static void checkpoint(CertainBookStore store, Path checkpointFile, CheckpointMode mode)
+			throws IOException {
+		long startTime = System.nanoTime();
+		long numBooks = store.checkpoint(checkpointFile, mode);
+		System.out.printf("%-24s %8d ms (%d books)%n", mode.toString().toLowerCase() + " checkpoint",
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime), numBooks);
+	}
+
+	/**
+	 * Mutates random books of a store, alternating purchases and additions of
+	 * copies.
+	 *
+	 * @param store
+	 *            the store
+	 * @param numBooks
+	 *            the number of books
+	 * @param numMutations
+	 *            the number of mutations
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private static void mutate(CertainBookStore store, int numBooks, int numMutations) throws BookStoreException {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+
+		for (int i = 0; i < numMutations; i++) {
+			Set<BookCopy> copies = new HashSet<>();
+
+			while (copies.size() < BOOKS_PER_OPERATION) {
+				copies.add(new BookCopy(FIRST_ISBN + random.nextInt(numBooks), 1));
+			}
+
+			if (i % 2 == 0) {
+				store.buyBooks(copies);
+			} else {
+				store.addCopies(copies);
+			}
+		}
+	}
+
+	/**
+	 * Recovers a store and measures the time it takes.
+	 *
+	 * @param logFile
+	 *            the file of the log
+	 * @param checkpointFile
+	 *            the file of the checkpoint, or null to redo the whole log
+	 * @return the time the recovery took, in milliseconds
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static long recover(Path logFile, Path checkpointFile) throws IOException {
+		try (WriteAheadLog log = new WriteAheadLog(logFile, DurabilityMode.NONE)) {
+			long startTime = System.nanoTime();
+			new CertainBookStore(MODE, StorageEngine.HEAP, log, checkpointFile);
+			return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+		}
+	}
+
+	/**
+	 * Fills a mapped storage with the books, closes it, and measures the time
+	 * it takes to reopen the storage alone, and a store on it until it serves
+	 * books by ISBN and until it has built its indexes.
+	 *
+	 * @param storeFile
+	 *            the file of the storage
+	 * @param numBooks
+	 *            the number of books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static void reopenMapped(Path storeFile, int numBooks) throws BookStoreException, IOException {
+		try (MappedBookStorage storage = MappedBookStorage.open(storeFile)) {
+			for (int i = 0; i < numBooks; i++) {
+				storage.add(new ImmutableStockBook(FIRST_ISBN + i, "Title " + i, "Author " + i, 10.0f, NUM_COPIES, 0,
+						0, 0, false));
+			}
+		}
+
+		long startTime = System.nanoTime();
+
+		try (MappedBookStorage storage = MappedBookStorage.open(storeFile)) {
+			System.out.printf("%-24s %8d ms (%d books)%n", "mapped storage",
+					TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime), storage.size());
+		}
+
+		System.gc();
+		startTime = System.nanoTime();
+
+		try (CertainBookStore store = new CertainBookStore(MODE, StorageEngine.MAPPED, storeFile)) {
+			System.out.printf("%-24s %8d ms%n", "mapped store ready",
+					TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+
+			// Wait for the indexes built in the background.
+			store.getTopRatedBooks(1);
+			System.out.printf("%-24s %8d ms%n", "mapped store indexed",
+					TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+		}
+	}
+}
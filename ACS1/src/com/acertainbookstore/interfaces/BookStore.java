@@ -5,7 +5,10 @@ import java.util.Set;
 
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookQuery;
+import com.acertainbookstore.business.BookRange;
 import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.BookSearch;
 import com.acertainbookstore.utils.BookStoreException;
 
 /**
@@ -67,4 +70,44 @@ public interface BookStore {
 	 *             the book store exception
 	 */
 	public List<Book> getEditorPicks(int numBooks) throws BookStoreException;
+
+	/**
+	 * Searches for books whose title or author starts with a prefix, ignoring
+	 * case, and returns a page of at most <code>search.getNumBooks()</code>
+	 * books, ordered by the searched field and then by ISBN. The search for the
+	 * next page is obtained by {@link BookSearch#next(List)}.
+	 *
+	 * @param search
+	 *            the search
+	 * @return the page of matching books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public List<Book> searchBooks(BookSearch search) throws BookStoreException;
+
+	/**
+	 * Searches for books whose title or author contains all words of a text,
+	 * ignoring case, and returns at most <code>query.getNumBooks()</code> of
+	 * them, best ranked first, as described by {@link BookQuery}.
+	 *
+	 * @param query
+	 *            the query
+	 * @return the best ranked matching books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public List<Book> queryBooks(BookQuery query) throws BookStoreException;
+
+	/**
+	 * Gets a page of at most <code>range.getNumBooks()</code> books whose price
+	 * or ISBN lies in a range, ordered by the queried field and then by ISBN.
+	 * The query for the next page is obtained by {@link BookRange#next(List)}.
+	 *
+	 * @param range
+	 *            the range
+	 * @return the page of books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public List<Book> getBooksInRange(BookRange range) throws BookStoreException;
 }
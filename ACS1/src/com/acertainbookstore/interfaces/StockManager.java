@@ -4,7 +4,9 @@ import java.util.List;
 import java.util.Set;
 
 import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookCursor;
 import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRange;
 import com.acertainbookstore.business.BookRating;
 import com.acertainbookstore.business.StockBook;
 import com.acertainbookstore.utils.BookStoreException;
@@ -44,6 +46,19 @@ public interface StockManager {
 	 */
 	public List<StockBook> getBooks() throws BookStoreException;
 
+	/**
+	 * Gets a page of at most <code>cursor.getNumBooks()</code> books of the
+	 * bookstore, ordered by ISBN. The cursor for the next page is obtained by
+	 * {@link BookCursor#next(List)}.
+	 *
+	 * @param cursor
+	 *            the cursor
+	 * @return the page of books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public List<StockBook> getBooks(BookCursor cursor) throws BookStoreException;
+
 	/**
 	 * Gets the books matching the set of ISBNs given, is different to getBooks
 	 * in the BookStore interface because of the return type of the books.
@@ -56,6 +71,19 @@ public interface StockManager {
 	 */
 	public List<StockBook> getBooksByISBN(Set<Integer> isbns) throws BookStoreException;
 
+	/**
+	 * Gets a page of at most <code>range.getNumBooks()</code> books whose price
+	 * or ISBN lies in a range, ordered by the queried field and then by ISBN.
+	 * The query for the next page is obtained by {@link BookRange#next(List)}.
+	 *
+	 * @param range
+	 *            the range
+	 * @return the page of books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public List<StockBook> getStockBooksInRange(BookRange range) throws BookStoreException;
+
 	/**
 	 * Gets the list of books which has sale miss.
 	 *
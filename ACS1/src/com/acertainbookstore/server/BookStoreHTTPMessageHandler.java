@@ -2,6 +2,11 @@ package com.acertainbookstore.server;
 
 import java.io.IOException;
 import java.net.URLDecoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.Set;
 
 import javax.servlet.ServletException;
@@ -12,9 +17,16 @@ import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 
 import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookCursor;
 import com.acertainbookstore.business.BookEditorPick;
 import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.BookQuery;
+import com.acertainbookstore.business.BookRange;
+import com.acertainbookstore.business.BookSearch;
+import com.acertainbookstore.business.CatalogExporter;
+import com.acertainbookstore.business.CatalogImporter;
 import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.Checkpoint;
 import com.acertainbookstore.business.StockBook;
 import com.acertainbookstore.utils.BookStoreKryoSerializer;
 import com.acertainbookstore.interfaces.BookStoreSerializer;
@@ -41,6 +53,30 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	/** The book store. */
 	private CertainBookStore myBookStore = null;
 
+	/** The directory that catalog files are imported from, if any. */
+	private final Path importDirectory;
+
+	/** The directory that catalog files are exported to, if any. */
+	private final Path exportDirectory;
+
+	/** The replicator of the primary, if the server is a backup. */
+	private final BookStoreReplicator replicator;
+
+	/** The messages a backup serves, which do not change books. */
+	private static final Set<BookStoreMessageTag> BACKUP_MESSAGE_TAGS = Collections.unmodifiableSet(
+			EnumSet.of(BookStoreMessageTag.LISTBOOKS, BookStoreMessageTag.LISTBOOKSPAGE, BookStoreMessageTag.GETBOOKS,
+					BookStoreMessageTag.GETEDITORPICKS, BookStoreMessageTag.GETSTOCKBOOKSBYISBN,
+					BookStoreMessageTag.GETTOPRATEDBOOKS, BookStoreMessageTag.GETBOOKSINDEMAND,
+					BookStoreMessageTag.SEARCHBOOKS, BookStoreMessageTag.QUERYBOOKS,
+					BookStoreMessageTag.GETBOOKSINRANGE, BookStoreMessageTag.GETSTOCKBOOKSINRANGE,
+					BookStoreMessageTag.EXPORTBOOKS, BookStoreMessageTag.READLOG));
+
+	/** The maximum number of bytes of the log read at once. */
+	private static final int MAX_LOG_READ_BYTES = 1 << 26;
+
+	/** The maximum time a read of the log waits for records, in milliseconds. */
+	private static final long MAX_LOG_READ_TIMEOUT_MILLIS = 10000;
+
 	/** The serializer. */
 	private static ThreadLocal<BookStoreSerializer> serializer;
 
@@ -51,7 +87,64 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	 *            the book store
 	 */
 	public BookStoreHTTPMessageHandler(CertainBookStore bookStore) {
+		this(bookStore, null);
+	}
+
+	/**
+	 * Instantiates a new {@link BookStoreHTTPMessageHandler} that imports
+	 * catalog files from a directory.
+	 *
+	 * @param bookStore
+	 *            the book store
+	 * @param importDirectory
+	 *            the directory that catalog files are imported from, or null
+	 *            to reject imports
+	 */
+	public BookStoreHTTPMessageHandler(CertainBookStore bookStore, Path importDirectory) {
+		this(bookStore, importDirectory, null);
+	}
+
+	/**
+	 * Instantiates a new {@link BookStoreHTTPMessageHandler} that imports
+	 * catalog files from a directory and exports them to another.
+	 *
+	 * @param bookStore
+	 *            the book store
+	 * @param importDirectory
+	 *            the directory that catalog files are imported from, or null
+	 *            to reject imports
+	 * @param exportDirectory
+	 *            the directory that catalog files are exported to, or null
+	 *            to reject exports
+	 */
+	public BookStoreHTTPMessageHandler(CertainBookStore bookStore, Path importDirectory, Path exportDirectory) {
+		this(bookStore, importDirectory, exportDirectory, null);
+	}
+
+	/**
+	 * Instantiates a new {@link BookStoreHTTPMessageHandler} of a server that
+	 * may be a backup of a primary. A backup serves only the messages that do
+	 * not change books, and rejects reads that allow less staleness than it
+	 * has.
+	 *
+	 * @param bookStore
+	 *            the book store
+	 * @param importDirectory
+	 *            the directory that catalog files are imported from, or null
+	 *            to reject imports
+	 * @param exportDirectory
+	 *            the directory that catalog files are exported to, or null
+	 *            to reject exports
+	 * @param replicator
+	 *            the replicator of the primary, or null if the server is not
+	 *            a backup
+	 */
+	public BookStoreHTTPMessageHandler(CertainBookStore bookStore, Path importDirectory, Path exportDirectory,
+			BookStoreReplicator replicator) {
 		myBookStore = bookStore;
+		this.replicator = replicator;
+		this.importDirectory = importDirectory == null ? null : importDirectory.toAbsolutePath().normalize();
+		this.exportDirectory = exportDirectory == null ? null : exportDirectory.toAbsolutePath().normalize();
 
 		// Setup the type of serializer.
 		if (BookStoreConstants.BINARY_SERIALIZATION) {
@@ -88,7 +181,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 		// The RequestURI before the switch.
 		if (messageTag == null) {
 			System.err.println("No message tag.");
-		} else {
+		} else if (replicator == null || !rejectOnBackup(messageTag, request, response)) {
 			switch (messageTag) {
 			case REMOVEBOOKS:
 				removeBooks(request, response);
@@ -110,6 +203,10 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 				listBooks(response);
 				break;
 
+			case LISTBOOKSPAGE:
+				listBooksPage(request, response);
+				break;
+
 			case UPDATEEDITORPICKS:
 				updateEditorPicks(request, response);
 				break;
@@ -142,6 +239,34 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 				getBooksInDemand(response);
 				break;
 
+			case SEARCHBOOKS:
+				searchBooks(request, response);
+				break;
+
+			case QUERYBOOKS:
+				queryBooks(request, response);
+				break;
+
+			case GETBOOKSINRANGE:
+				getBooksInRange(request, response);
+				break;
+
+			case GETSTOCKBOOKSINRANGE:
+				getStockBooksInRange(request, response);
+				break;
+
+			case IMPORTBOOKS:
+				importBooks(request, response);
+				break;
+
+			case EXPORTBOOKS:
+				exportBooks(request, response);
+				break;
+
+			case READLOG:
+				readLog(request, response);
+				break;
+
 			default:
 				System.err.println("Unsupported message tag.");
 				break;
@@ -249,6 +374,110 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 		response.getOutputStream().write(serializedResponseContent);	
 	}
 
+	/**
+	 * Searches books.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void searchBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		byte[] serializedRequestContent = getSerializedRequestContent(request);
+
+		BookSearch search = (BookSearch) serializer.get().deserialize(serializedRequestContent);
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			bookStoreResponse.setList(myBookStore.searchBooks(search));
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		response.getOutputStream().write(serializedResponseContent);
+	}
+
+	/**
+	 * Queries books.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void queryBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		byte[] serializedRequestContent = getSerializedRequestContent(request);
+
+		BookQuery query = (BookQuery) serializer.get().deserialize(serializedRequestContent);
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			bookStoreResponse.setList(myBookStore.queryBooks(query));
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		response.getOutputStream().write(serializedResponseContent);
+	}
+
+	/**
+	 * Gets the books in a range.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void getBooksInRange(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		byte[] serializedRequestContent = getSerializedRequestContent(request);
+
+		BookRange range = (BookRange) serializer.get().deserialize(serializedRequestContent);
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			bookStoreResponse.setList(myBookStore.getBooksInRange(range));
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		response.getOutputStream().write(serializedResponseContent);
+	}
+
+	/**
+	 * Gets the stock books in a range.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void getStockBooksInRange(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		byte[] serializedRequestContent = getSerializedRequestContent(request);
+
+		BookRange range = (BookRange) serializer.get().deserialize(serializedRequestContent);
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			bookStoreResponse.setList(myBookStore.getStockBooksInRange(range));
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		response.getOutputStream().write(serializedResponseContent);
+	}
+
 	/**
 	 * Buys books.
 	 *
@@ -333,13 +562,230 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	 */
 	private void listBooks(HttpServletResponse response) throws IOException {
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
-		bookStoreResponse.setList(myBookStore.getBooks());
+
+		try {
+			bookStoreResponse.setList(myBookStore.getBooks());
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		response.getOutputStream().write(serializedResponseContent);
+	}
+
+	/**
+	 * Lists a page of books.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void listBooksPage(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		byte[] serializedRequestContent = getSerializedRequestContent(request);
+
+		BookCursor cursor = (BookCursor) serializer.get().deserialize(serializedRequestContent);
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			bookStoreResponse.setList(myBookStore.getBooks(cursor));
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
 
 		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
 		response.getOutputStream().write(serializedResponseContent);
 	}
 	
 	
+	/**
+	 * Imports the books of a catalog file in the import directory, and
+	 * responds with the number of books imported.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void importBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		byte[] serializedRequestContent = getSerializedRequestContent(request);
+
+		String fileName = (String) serializer.get().deserialize(serializedRequestContent);
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			if (fileName == null) {
+				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+			}
+
+			// Only files inside the import directory may be read.
+			Path file = importDirectory == null ? null : importDirectory.resolve(fileName).normalize();
+
+			if (file == null || !file.startsWith(importDirectory) || file.equals(importDirectory)) {
+				throw new BookStoreException(BookStoreConstants.FILE + fileName + BookStoreConstants.NOT_AVAILABLE);
+			}
+
+			CatalogImporter importer = new CatalogImporter(myBookStore, CatalogImporter.DEFAULT_BATCH_SIZE,
+					numBooks -> {
+					});
+
+			try {
+				bookStoreResponse.setList(Collections.singletonList(importer.importFile(file)));
+			} catch (IOException ex) {
+				throw new BookStoreException(BookStoreConstants.FILE + fileName + BookStoreConstants.NOT_AVAILABLE,
+						ex);
+			}
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		response.getOutputStream().write(serializedResponseContent);
+	}
+
+	/**
+	 * Rejects a message on a backup if it would change books, or if it allows
+	 * less staleness than the backup has.
+	 *
+	 * @param messageTag
+	 *            the message tag
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @return true, if the message was rejected
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private boolean rejectOnBackup(BookStoreMessageTag messageTag, HttpServletRequest request,
+			HttpServletResponse response) throws IOException {
+		BookStoreException exception = null;
+
+		if (!BACKUP_MESSAGE_TAGS.contains(messageTag)) {
+			exception = new BookStoreException(BookStoreConstants.BACKUP + BookStoreConstants.READ_ONLY);
+		} else {
+			String maxStalenessString = request.getParameter(BookStoreConstants.MAX_STALENESS_PARAM);
+
+			if (maxStalenessString != null) {
+				try {
+					long maxStalenessMillis = Long.parseLong(maxStalenessString);
+
+					if (replicator.getStalenessMillis() > maxStalenessMillis) {
+						exception = new BookStoreException(
+								BookStoreConstants.BACKUP + BookStoreConstants.STALE + maxStalenessMillis + " ms");
+					}
+				} catch (NumberFormatException ex) {
+					exception = new BookStoreException(BookStoreConstants.NULL_INPUT);
+				}
+			}
+		}
+
+		if (exception == null) {
+			return false;
+		}
+
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+		bookStoreResponse.setException(exception);
+		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		response.getOutputStream().write(serializedResponseContent);
+		return true;
+	}
+
+	/**
+	 * Reads the committed records of the log from a position on, for a
+	 * backup, waiting for new records if there are none yet. If the log no
+	 * longer holds the position, the response carries all books and the
+	 * position they reflect instead, from which the backup goes on.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void readLog(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		byte[] serializedRequestContent = getSerializedRequestContent(request);
+
+		long[] arguments = (long[]) serializer.get().deserialize(serializedRequestContent);
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			if (arguments == null || arguments.length != 3) {
+				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+			}
+
+			if (arguments[0] < myBookStore.getLogStartPosition()) {
+				Checkpoint snapshot = myBookStore.snapshotLog();
+				bookStoreResponse.setList(
+						Arrays.asList(new byte[0], 0L, snapshot.getLogPosition(), snapshot.getBooks()));
+			} else {
+				long startTime = System.nanoTime();
+				byte[] records = myBookStore.readLog(arguments[0], (int) Math.min(arguments[1], MAX_LOG_READ_BYTES),
+						Math.min(arguments[2], MAX_LOG_READ_TIMEOUT_MILLIS));
+				bookStoreResponse.setList(Arrays.asList(records, System.nanoTime() - startTime));
+			}
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		response.getOutputStream().write(serializedResponseContent);
+	}
+
+	/**
+	 * Exports a consistent snapshot of all books to a catalog file in the
+	 * export directory while the store keeps serving, and responds with the
+	 * number of books and bytes written.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void exportBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		byte[] serializedRequestContent = getSerializedRequestContent(request);
+
+		String fileName = (String) serializer.get().deserialize(serializedRequestContent);
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			if (fileName == null) {
+				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+			}
+
+			// Only files inside the export directory may be written.
+			Path file = exportDirectory == null ? null : exportDirectory.resolve(fileName).normalize();
+
+			if (file == null || !file.startsWith(exportDirectory) || file.equals(exportDirectory)) {
+				throw new BookStoreException(BookStoreConstants.FILE + fileName + BookStoreConstants.NOT_AVAILABLE);
+			}
+
+			CatalogExporter exporter = new CatalogExporter(myBookStore, CatalogExporter.DEFAULT_PROGRESS_INTERVAL,
+					(numBooks, numBytes, elapsedNanos) -> {
+					});
+
+			try {
+				long numBooks = exporter.exportFile(file);
+				bookStoreResponse.setList(Arrays.asList(numBooks, Files.size(file)));
+			} catch (IOException ex) {
+				throw new BookStoreException(BookStoreConstants.FILE + fileName + BookStoreConstants.NOT_AVAILABLE,
+						ex);
+			}
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		response.getOutputStream().write(serializedResponseContent);
+	}
+
 	private void getBooksInDemand(HttpServletResponse response) throws IOException {
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 		try {
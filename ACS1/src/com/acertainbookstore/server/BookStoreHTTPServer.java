@@ -1,7 +1,21 @@
 package com.acertainbookstore.server;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
 import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.CheckpointMode;
+import com.acertainbookstore.business.ConcurrencyMode;
+import com.acertainbookstore.business.DurabilityMode;
+import com.acertainbookstore.business.StorageEngine;
+import com.acertainbookstore.business.WriteAheadLog;
 import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
 
 /**
  * Starts the {@link BookStoreHTTPServer} that the clients will communicate
@@ -12,6 +26,15 @@ public class BookStoreHTTPServer {
 	/** The Constant defaultListenOnPort. */
 	private static final int DEFAULT_PORT = 8081;
 
+	/** The default interval between checkpoints, in seconds. */
+	private static final long DEFAULT_CHECKPOINT_INTERVAL_SECONDS = 300;
+
+	/** The default interval between evictions of idle books, in seconds. */
+	private static final long DEFAULT_EVICTION_INTERVAL_SECONDS = 60;
+
+	/** The number of checkpoint intervals between merges of delta checkpoints. */
+	private static final long CHECKPOINTS_PER_MERGE = 10;
+
 	/**
 	 * Prevents the instantiation of a new {@link BookStoreHTTPServer}.
 	 */
@@ -26,10 +49,190 @@ public class BookStoreHTTPServer {
 	 *            the arguments
 	 */
 	public static void main(String[] args) {
-		CertainBookStore bookStore = new CertainBookStore();
+		ConcurrencyMode concurrencyMode = ConcurrencyMode.GLOBAL;
+		String concurrencyModeString = System.getProperty(BookStoreConstants.PROPERTY_KEY_CONCURRENCY_MODE);
+
+		if (concurrencyModeString != null) {
+			try {
+				concurrencyMode = ConcurrencyMode.valueOf(concurrencyModeString.toUpperCase());
+			} catch (IllegalArgumentException ex) {
+				System.err.println("Unsupported concurrency mode, using " + concurrencyMode);
+			}
+		}
+
+		StorageEngine storageEngine = StorageEngine.HEAP;
+		String storageEngineString = System.getProperty(BookStoreConstants.PROPERTY_KEY_STORAGE_ENGINE);
+
+		if (storageEngineString != null) {
+			try {
+				storageEngine = StorageEngine.valueOf(storageEngineString.toUpperCase());
+			} catch (IllegalArgumentException ex) {
+				System.err.println("Unsupported storage engine, using " + storageEngine);
+			}
+		}
+
+		CertainBookStore bookStore;
+		String logFileString = System.getProperty(BookStoreConstants.PROPERTY_KEY_LOG_FILE);
+		String checkpointFileString = System.getProperty(BookStoreConstants.PROPERTY_KEY_CHECKPOINT_FILE);
+		String storeFileString = System.getProperty(BookStoreConstants.PROPERTY_KEY_STORE_FILE);
+		String primaryAddress = System.getProperty(BookStoreConstants.PROPERTY_KEY_PRIMARY);
+		BookStoreReplicator replicator = null;
+
+		if (!BookStoreUtility.isEmpty(primaryAddress)) {
+			if (!BookStoreUtility.isEmpty(logFileString) || !BookStoreUtility.isEmpty(checkpointFileString)
+					|| !BookStoreUtility.isEmpty(storeFileString)) {
+				System.err.println("A backup redoes the log of its primary, without a log of its own");
+				return;
+			}
+
+			bookStore = new CertainBookStore(concurrencyMode, storageEngine);
+
+			try {
+				replicator = new BookStoreReplicator(bookStore, primaryAddress);
+			} catch (Exception ex) {
+				System.err.println("Could not connect to the primary: " + ex);
+				return;
+			}
+
+			Thread replicatorThread = new Thread(replicator, "Replicator");
+			replicatorThread.setDaemon(true);
+			replicatorThread.start();
+			System.out.println("Replicating the primary " + primaryAddress);
+		} else if (!BookStoreUtility.isEmpty(storeFileString)) {
+			if (!BookStoreUtility.isEmpty(logFileString) || !BookStoreUtility.isEmpty(checkpointFileString)) {
+				System.err.println("The store file keeps the books itself, without a log or a checkpoint");
+				return;
+			}
+
+			if (BookStoreUtility.isEmpty(storageEngineString)) {
+				storageEngine = StorageEngine.MAPPED;
+			}
+
+			try {
+				long startTime = System.nanoTime();
+				CertainBookStore store = new CertainBookStore(concurrencyMode, storageEngine,
+						Paths.get(storeFileString));
+				long recoveryMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+
+				Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+					try {
+						store.close();
+					} catch (IOException ex) {
+						System.err.println("Could not close the store file: " + ex);
+					}
+				}));
+
+				bookStore = store;
+				System.out.println("Recovered the books in " + recoveryMillis + " ms");
+			} catch (IOException | IllegalArgumentException ex) {
+				System.err.println("Could not open the store file: " + ex);
+				return;
+			}
+		} else if (BookStoreUtility.isEmpty(logFileString) && BookStoreUtility.isEmpty(checkpointFileString)) {
+			bookStore = new CertainBookStore(concurrencyMode, storageEngine);
+		} else {
+			DurabilityMode durabilityMode = DurabilityMode.BATCH;
+			String durabilityModeString = System.getProperty(BookStoreConstants.PROPERTY_KEY_DURABILITY_MODE);
+
+			if (durabilityModeString != null) {
+				try {
+					durabilityMode = DurabilityMode.valueOf(durabilityModeString.toUpperCase());
+				} catch (IllegalArgumentException ex) {
+					System.err.println("Unsupported durability mode, using " + durabilityMode);
+				}
+			}
+
+			long segmentSize = WriteAheadLog.DEFAULT_SEGMENT_SIZE;
+			String segmentSizeString = System.getProperty(BookStoreConstants.PROPERTY_KEY_LOG_SEGMENT_SIZE);
+
+			if (!BookStoreUtility.isEmpty(segmentSizeString)) {
+				try {
+					segmentSize = Math.max(Long.parseLong(segmentSizeString), 1);
+				} catch (NumberFormatException ex) {
+					System.err.println("Unsupported log segment size, using " + segmentSize);
+				}
+			}
+
+			Path checkpointFile = BookStoreUtility.isEmpty(checkpointFileString) ? null
+					: Paths.get(checkpointFileString);
+
+			try {
+				long startTime = System.nanoTime();
+				WriteAheadLog log = BookStoreUtility.isEmpty(logFileString) ? null
+						: new WriteAheadLog(Paths.get(logFileString), durabilityMode, segmentSize);
+				bookStore = new CertainBookStore(concurrencyMode, storageEngine, log, checkpointFile);
+				long recoveryMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+
+				if (log != null) {
+					Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+						try {
+							log.close();
+						} catch (IOException ex) {
+							System.err.println("Could not close the log: " + ex);
+						}
+					}));
+				}
+
+				System.out.println("Recovered the books in " + recoveryMillis + " ms");
+			} catch (IOException ex) {
+				System.err.println("Could not recover the books: " + ex);
+				return;
+			}
+
+			if (checkpointFile != null) {
+				long checkpointIntervalSeconds = DEFAULT_CHECKPOINT_INTERVAL_SECONDS;
+				String checkpointIntervalString = System
+						.getProperty(BookStoreConstants.PROPERTY_KEY_CHECKPOINT_INTERVAL);
+
+				if (!BookStoreUtility.isEmpty(checkpointIntervalString)) {
+					try {
+						checkpointIntervalSeconds = Long.parseLong(checkpointIntervalString);
+					} catch (NumberFormatException ex) {
+						System.err.println("Unsupported checkpoint interval, using " + checkpointIntervalSeconds);
+					}
+				}
+
+				CheckpointMode checkpointMode = CheckpointMode.FULL;
+				String checkpointModeString = System.getProperty(BookStoreConstants.PROPERTY_KEY_CHECKPOINT_MODE);
+
+				if (!BookStoreUtility.isEmpty(checkpointModeString)) {
+					try {
+						checkpointMode = CheckpointMode.valueOf(checkpointModeString.toUpperCase());
+					} catch (IllegalArgumentException ex) {
+						System.err.println("Unsupported checkpoint mode, using " + checkpointMode);
+					}
+				}
+
+				scheduleCheckpoints(bookStore, checkpointFile, checkpointMode,
+						Math.max(checkpointIntervalSeconds, 1));
+			}
+		}
+
+		if (storageEngine == StorageEngine.TIERED) {
+			long evictionIntervalSeconds = DEFAULT_EVICTION_INTERVAL_SECONDS;
+			String evictionIntervalString = System.getProperty(BookStoreConstants.PROPERTY_KEY_EVICTION_INTERVAL);
+
+			if (!BookStoreUtility.isEmpty(evictionIntervalString)) {
+				try {
+					evictionIntervalSeconds = Long.parseLong(evictionIntervalString);
+				} catch (NumberFormatException ex) {
+					System.err.println("Unsupported eviction interval, using " + evictionIntervalSeconds);
+				}
+			}
+
+			scheduleEvictions(bookStore, Math.max(evictionIntervalSeconds, 1));
+		}
+
 		int listenOnPort = DEFAULT_PORT;
 
-		BookStoreHTTPMessageHandler handler = new BookStoreHTTPMessageHandler(bookStore);
+		String importDirectoryString = System.getProperty(BookStoreConstants.PROPERTY_KEY_IMPORT_DIR);
+		Path importDirectory = BookStoreUtility.isEmpty(importDirectoryString) ? null
+				: Paths.get(importDirectoryString);
+		String exportDirectoryString = System.getProperty(BookStoreConstants.PROPERTY_KEY_EXPORT_DIR);
+		Path exportDirectory = BookStoreUtility.isEmpty(exportDirectoryString) ? null
+				: Paths.get(exportDirectoryString);
+		BookStoreHTTPMessageHandler handler = new BookStoreHTTPMessageHandler(bookStore, importDirectory,
+				exportDirectory, replicator);
 		String serverPortString = System.getProperty(BookStoreConstants.PROPERTY_KEY_SERVER_PORT);
 
 		if (serverPortString != null) {
@@ -44,4 +247,85 @@ public class BookStoreHTTPServer {
 			System.out.println("Server started.");
 		}
 	}
+
+	/**
+	 * Writes checkpoints of the books at a fixed interval in the background,
+	 * while the server keeps serving, and merges the deltas of incremental
+	 * checkpoints every {@link #CHECKPOINTS_PER_MERGE} intervals.
+	 *
+	 * @param bookStore
+	 *            the book store
+	 * @param checkpointFile
+	 *            the file of the checkpoints
+	 * @param checkpointMode
+	 *            the checkpoint mode
+	 * @param intervalSeconds
+	 *            the interval between checkpoints, in seconds
+	 */
+	private static void scheduleCheckpoints(CertainBookStore bookStore, Path checkpointFile,
+			CheckpointMode checkpointMode, long intervalSeconds) {
+		ScheduledExecutorService checkpointer = Executors.newScheduledThreadPool(2, runnable -> {
+			Thread thread = new Thread(runnable, "Checkpointer");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		checkpointer.scheduleWithFixedDelay(() -> {
+			try {
+				long startTime = System.nanoTime();
+				long numBooks = bookStore.checkpoint(checkpointFile, checkpointMode);
+				System.out.println("Checkpointed " + numBooks + " books in "
+						+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " ms");
+			} catch (IOException ex) {
+				System.err.println("Could not write the checkpoint: " + ex);
+			}
+		}, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+
+		if (checkpointMode == CheckpointMode.INCREMENTAL) {
+			long mergeIntervalSeconds = intervalSeconds * CHECKPOINTS_PER_MERGE;
+
+			checkpointer.scheduleWithFixedDelay(() -> {
+				try {
+					long startTime = System.nanoTime();
+					int numDeltas = bookStore.mergeCheckpoints(checkpointFile);
+
+					if (numDeltas > 0) {
+						System.out.println("Merged " + numDeltas + " checkpoints in "
+								+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " ms");
+					}
+				} catch (IOException ex) {
+					System.err.println("Could not merge the checkpoints: " + ex);
+				}
+			}, mergeIntervalSeconds, mergeIntervalSeconds, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Moves the books that were not accessed recently out of the heap at a
+	 * fixed interval in the background, while the server keeps serving.
+	 *
+	 * @param bookStore
+	 *            the book store
+	 * @param intervalSeconds
+	 *            the interval between evictions, in seconds
+	 */
+	private static void scheduleEvictions(CertainBookStore bookStore, long intervalSeconds) {
+		ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "Evictor");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		evictor.scheduleWithFixedDelay(() -> {
+			try {
+				int numBooks = bookStore.evictIdleBooks();
+
+				if (numBooks > 0) {
+					System.out.println("Evicted " + numBooks + " idle books from the heap");
+				}
+			} catch (BookStoreException ex) {
+				System.err.println("Could not evict the idle books: " + ex);
+			}
+		}, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+	}
 }
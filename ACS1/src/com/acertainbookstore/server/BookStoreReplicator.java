@@ -0,0 +1,197 @@
+package com.acertainbookstore.server;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.business.WriteAheadLog;
+import com.acertainbookstore.client.StockManagerHTTPProxy;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link BookStoreReplicator} keeps the {@link CertainBookStore} of a backup
+ * server up to date with a primary server. It polls the primary for the
+ * records its {@link WriteAheadLog} has committed since the last poll, which
+ * the primary holds back until there are new ones or the poll times out, and
+ * redoes them in order on the store of the backup, which serves reads
+ * meanwhile.
+ *
+ * The backup is as fresh as the primary was when the last poll that returned
+ * all of its committed records reached it; this is no earlier than the time
+ * the poll was sent plus the time the primary waited for new records, which
+ * bounds the staleness of the backup without comparing the clocks of the two
+ * servers.
+ *
+ * A backup that starts, or falls behind, after the primary retired the part
+ * of its log the backup needs gets all books of the primary instead, with the
+ * position of the log they reflect, replaces its own books with them and
+ * goes on redoing the log from that position.
+ */
+public class BookStoreReplicator implements Runnable {
+
+	/** The maximum number of bytes of records read in one poll. */
+	public static final int MAX_BYTES_PER_POLL = 1 << 20;
+
+	/** The time the primary holds a poll back, in milliseconds. */
+	public static final long POLL_TIMEOUT_MILLIS = 1000;
+
+	/** The time to wait before polling again after a failure. */
+	private static final long RETRY_DELAY_MILLIS = 1000;
+
+	/** The store of the backup. */
+	private final CertainBookStore bookStore;
+
+	/** The primary. */
+	private final StockManagerHTTPProxy primary;
+
+	/** The bytes of the records read but not redone yet. */
+	private ByteBuffer pendingRecords = ByteBuffer.allocate(MAX_BYTES_PER_POLL);
+
+	/** The position in the log of the primary up to which it was read. */
+	private long position = 0;
+
+	/**
+	 * The time, by {@link System#nanoTime()}, as of which the backup holds
+	 * all records of the primary, or null if it never did.
+	 */
+	private volatile Long upToDateNanos = null;
+
+	/** Whether the replicator should stop. */
+	private volatile boolean stopped = false;
+
+	/**
+	 * Instantiates a new {@link BookStoreReplicator}.
+	 *
+	 * @param bookStore
+	 *            the store of the backup, which must not log its mutations
+	 * @param primaryAddress
+	 *            the address of the primary, e.g.,
+	 *            <code>http://localhost:8081</code>
+	 * @throws Exception
+	 *             if the client of the primary cannot be started
+	 */
+	public BookStoreReplicator(CertainBookStore bookStore, String primaryAddress) throws Exception {
+		this.bookStore = bookStore;
+		this.primary = new StockManagerHTTPProxy(primaryAddress + "/stock");
+	}
+
+	/**
+	 * Gets how long ago the backup last held all records of the primary.
+	 *
+	 * @return the staleness, in milliseconds, or {@link Long#MAX_VALUE} if
+	 *         the backup never caught up with the primary
+	 */
+	public long getStalenessMillis() {
+		Long upToDate = upToDateNanos;
+		return upToDate == null ? Long.MAX_VALUE : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - upToDate);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		while (!stopped) {
+			List<?> result;
+			long pollNanos = System.nanoTime();
+
+			try {
+				result = primary.readLog(position, MAX_BYTES_PER_POLL, POLL_TIMEOUT_MILLIS);
+			} catch (BookStoreException ex) {
+				if (!stopped) {
+					System.err.println("Could not poll the primary, retrying: " + ex);
+
+					try {
+						Thread.sleep(RETRY_DELAY_MILLIS);
+					} catch (InterruptedException ie) {
+						return;
+					}
+				}
+
+				continue;
+			}
+
+			byte[] records = (byte[]) result.get(0);
+			long waitedNanos = (Long) result.get(1);
+
+			try {
+				if (result.size() > 2) {
+					restore((Long) result.get(2), (List<?>) result.get(3));
+					continue;
+				}
+
+				redo(records);
+			} catch (BookStoreException ex) {
+
+				// The backup cannot follow the primary anymore, so it stops,
+				// and its staleness grows from now on.
+				System.err.println("Could not redo the log of the primary at " + position + ": " + ex);
+				stop();
+				return;
+			}
+
+			if (records.length < MAX_BYTES_PER_POLL && pendingRecords.position() == 0) {
+				upToDateNanos = pollNanos + waitedNanos;
+			}
+		}
+	}
+
+	/**
+	 * Redoes the complete records among the pending ones and newly read ones,
+	 * and keeps the rest pending.
+	 *
+	 * @param records
+	 *            the records newly read
+	 * @throws BookStoreException
+	 *             if a record is corrupt or cannot be redone
+	 */
+	private void redo(byte[] records) throws BookStoreException {
+		if (pendingRecords.remaining() < records.length) {
+			ByteBuffer larger = ByteBuffer.allocate(pendingRecords.position() + records.length);
+			pendingRecords.flip();
+			larger.put(pendingRecords);
+			pendingRecords = larger;
+		}
+
+		pendingRecords.put(records);
+		position += records.length;
+		pendingRecords.flip();
+
+		try {
+			bookStore.redoLog(pendingRecords);
+		} finally {
+			pendingRecords.compact();
+		}
+	}
+
+	/**
+	 * Replaces the books of the backup with those of the primary, once the
+	 * primary no longer holds the records from the position of the backup on,
+	 * and goes on from the position the books reflect.
+	 *
+	 * @param logPosition
+	 *            the position of the log of the primary the books reflect
+	 * @param books
+	 *            the books of the primary
+	 * @throws BookStoreException
+	 *             if the books cannot be restored
+	 */
+	@SuppressWarnings("unchecked")
+	private void restore(long logPosition, List<?> books) throws BookStoreException {
+		bookStore.restoreBooks((List<StockBook>) books);
+		pendingRecords.clear();
+		position = logPosition;
+	}
+
+	/**
+	 * Stops replicating after the current poll.
+	 */
+	public void stop() {
+		stopped = true;
+		primary.stop();
+	}
+}
@@ -19,6 +19,24 @@ public final class BookStoreConstants {
 	/** The Constant BOOK_NUM_PARAM. */
 	public static final String BOOK_NUM_PARAM = "number_of_books";
 
+	/** The Constant MAX_STALENESS_PARAM. */
+	public static final String MAX_STALENESS_PARAM = "max_staleness_ms";
+
+	/** The Constant MAX_PAGE_SIZE, the maximum number of books in a page. */
+	public static final int MAX_PAGE_SIZE = 1000;
+
+	/**
+	 * The Constant MAX_STRING_BYTES, the maximum length of a title or an
+	 * author in UTF-8 bytes, as stored in logs, checkpoints and catalogs.
+	 */
+	public static final int MAX_STRING_BYTES = 0xFFFF;
+
+	/**
+	 * The Constant BULK_LOAD_THRESHOLD, the number of books from which
+	 * addBooks validates and indexes the books outside of the catalog lock.
+	 */
+	public static final int BULK_LOAD_THRESHOLD = 10000;
+
 	/** The Constant XMLSTRINGLEN_PARAM. */
 	public static final String XMLSTRINGLEN_PARAM = "len";
 
@@ -51,6 +69,33 @@ public final class BookStoreConstants {
 	/** The Constant RATING. */
 	public static final String RATING = "The rating: ";
 
+	/** The Constant RECORD. */
+	public static final String RECORD = "The record: ";
+
+	/** The Constant FILE. */
+	public static final String FILE = "The file: ";
+
+	/** The Constant SNAPSHOT. */
+	public static final String SNAPSHOT = "A consistent snapshot";
+
+	/** The Constant LOG. */
+	public static final String LOG = "The write-ahead log";
+
+	/** The Constant STORE. */
+	public static final String STORE = "The store";
+
+	/** The Constant CLOSED when a closed store is used. */
+	public static final String CLOSED = " is closed";
+
+	/** The Constant BACKUP. */
+	public static final String BACKUP = "The backup";
+
+	/** The Constant READ_ONLY when a backup is asked to change books. */
+	public static final String READ_ONLY = " is read-only";
+
+	/** The Constant STALE when a backup lags too far behind its primary. */
+	public static final String STALE = " lags behind the primary by more than ";
+
 	/** The Constant NULL_INPUT. */
 	public static final String NULL_INPUT = "null input parameters";
 
@@ -60,6 +105,48 @@ public final class BookStoreConstants {
 	/** The Constant PROPERTY_KEY_SERVER_PORT. */
 	public static final String PROPERTY_KEY_SERVER_PORT = "port";
 
+	/** The Constant PROPERTY_KEY_CONCURRENCY_MODE. */
+	public static final String PROPERTY_KEY_CONCURRENCY_MODE = "concurrency";
+
+	/** The Constant PROPERTY_KEY_STORAGE_ENGINE. */
+	public static final String PROPERTY_KEY_STORAGE_ENGINE = "storage";
+
+	/** The Constant PROPERTY_KEY_IMPORT_DIR. */
+	public static final String PROPERTY_KEY_IMPORT_DIR = "importdir";
+
+	/** The Constant PROPERTY_KEY_EXPORT_DIR. */
+	public static final String PROPERTY_KEY_EXPORT_DIR = "exportdir";
+
+	/** The Constant PROPERTY_KEY_LOG_FILE. */
+	public static final String PROPERTY_KEY_LOG_FILE = "log";
+
+	/** The Constant PROPERTY_KEY_LOG_SEGMENT_SIZE. */
+	public static final String PROPERTY_KEY_LOG_SEGMENT_SIZE = "logsegmentsize";
+
+	/** The Constant PROPERTY_KEY_DURABILITY_MODE. */
+	public static final String PROPERTY_KEY_DURABILITY_MODE = "durability";
+
+	/** The Constant PROPERTY_KEY_CHECKPOINT_FILE. */
+	public static final String PROPERTY_KEY_CHECKPOINT_FILE = "checkpoint";
+
+	/** The Constant PROPERTY_KEY_CHECKPOINT_INTERVAL. */
+	public static final String PROPERTY_KEY_CHECKPOINT_INTERVAL = "checkpointinterval";
+
+	/** The Constant PROPERTY_KEY_CHECKPOINT_MODE. */
+	public static final String PROPERTY_KEY_CHECKPOINT_MODE = "checkpointmode";
+
+	/** The Constant PROPERTY_KEY_STORE_FILE. */
+	public static final String PROPERTY_KEY_STORE_FILE = "storefile";
+
+	/** The Constant PROPERTY_KEY_EVICTION_INTERVAL. */
+	public static final String PROPERTY_KEY_EVICTION_INTERVAL = "evictioninterval";
+
+	/** The Constant PROPERTY_KEY_PRIMARY. */
+	public static final String PROPERTY_KEY_PRIMARY = "primary";
+
+	/** The Constant PROPERTY_KEY_CRASH_ROUNDS. */
+	public static final String PROPERTY_KEY_CRASH_ROUNDS = "crashrounds";
+
 	/** The Constant EPSILON used for floating point number comparison */
 	public static final float EPSILON = 0.000001F;
 
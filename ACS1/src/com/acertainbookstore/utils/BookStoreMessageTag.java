@@ -43,5 +43,29 @@ public enum BookStoreMessageTag {
 	GETTOPRATEDBOOKS,
 	
 	/** The tag for get top rated books */
-	GETBOOKSINDEMAND;
+	GETBOOKSINDEMAND,
+
+	/** The tag for search books */
+	SEARCHBOOKS,
+
+	/** The tag for query books */
+	QUERYBOOKS,
+
+	/** The tag for get books in range */
+	GETBOOKSINRANGE,
+
+	/** The tag for get stock books in range */
+	GETSTOCKBOOKSINRANGE,
+
+	/** The tag for the list books page message. */
+	LISTBOOKSPAGE,
+
+	/** The tag for the import books message. */
+	IMPORTBOOKS,
+
+	/** The tag for the export books message. */
+	EXPORTBOOKS,
+
+	/** The tag for the read log message, sent by backups to the primary. */
+	READLOG;
 }
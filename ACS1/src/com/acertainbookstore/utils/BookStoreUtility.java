@@ -83,6 +83,41 @@ public final class BookStoreUtility {
 		return str == null || str.isEmpty();
 	}
 
+	/**
+	 * Checks if a string is longer than
+	 * {@link BookStoreConstants#MAX_STRING_BYTES} in UTF-8.
+	 *
+	 * @param str
+	 *            the string
+	 * @return true, if is too long
+	 */
+	public static boolean isTooLong(String str) {
+		// A char takes at most three bytes in UTF-8.
+		if (str == null || str.length() * 3 <= BookStoreConstants.MAX_STRING_BYTES) {
+			return false;
+		}
+
+		long numBytes = 0;
+
+		for (int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+
+			if (c < 0x80) {
+				numBytes++;
+			} else if (c < 0x800) {
+				numBytes += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < str.length()
+					&& Character.isLowSurrogate(str.charAt(i + 1))) {
+				numBytes += 4;
+				i++;
+			} else {
+				numBytes += 3;
+			}
+		}
+
+		return numBytes > BookStoreConstants.MAX_STRING_BYTES;
+	}
+
 	/**
 	 * Converts a string to a float if possible else it returns the signal value
 	 * for failure passed as parameter.
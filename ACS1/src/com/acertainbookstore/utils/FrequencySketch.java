@@ -0,0 +1,138 @@
+package com.acertainbookstore.utils;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link FrequencySketch} estimates how often <code>int</code> keys were
+ * accessed recently, in constant space whatever the number of keys. It is a
+ * count-min sketch: each key increments one saturating counter in each of
+ * four rows, chosen by independent hashes, and its estimate is the minimum of
+ * the four counters, which overestimates only when all four collide. After a
+ * number of increments proportional to the width of the rows, all counters are
+ * halved, so that the estimates favor recent accesses.
+ *
+ * The sketch may be updated by several threads without locking: racing
+ * increments may be lost, which only makes the estimates slightly lower.
+ */
+public final class FrequencySketch {
+
+	/** The largest value of a counter. */
+	public static final int MAX_FREQUENCY = 15;
+
+	/** The number of rows. */
+	private static final int NUM_ROWS = 4;
+
+	/** The seeds of the hashes of the rows. */
+	private static final int[] SEEDS = { 0x9e3779b9, 0x85ebca6b, 0xc2b2ae35, 0x27d4eb2f };
+
+	/** The number of increments between two halvings, per counter of a row. */
+	private static final int SAMPLES_PER_COUNTER = 10;
+
+	/** The counters, one row after the other. */
+	private final byte[] counters;
+
+	/** The mask selecting a counter within a row. */
+	private final int mask;
+
+	/** The number of increments after which the counters are halved. */
+	private final int sampleSize;
+
+	/** The number of increments since the last halving. */
+	private final AtomicInteger numIncrements = new AtomicInteger();
+
+	/**
+	 * Instantiates a new {@link FrequencySketch}.
+	 *
+	 * @param width
+	 *            the number of counters per row, rounded up to a power of two;
+	 *            about the number of keys accessed between two halvings
+	 */
+	public FrequencySketch(int width) {
+		if (width < 1 || width > 1 << 28) {
+			throw new IllegalArgumentException("width = " + width + ", but it must be between 1 and 2^28");
+		}
+
+		int size = Integer.highestOneBit(width);
+
+		if (size < width) {
+			size <<= 1;
+		}
+
+		this.counters = new byte[NUM_ROWS * size];
+		this.mask = size - 1;
+		this.sampleSize = size * SAMPLES_PER_COUNTER;
+	}
+
+	/**
+	 * Gets the index of the counter of a key in a row.
+	 *
+	 * @param key
+	 *            the key
+	 * @param row
+	 *            the row
+	 * @return the index in the counters
+	 */
+	private int indexOf(int key, int row) {
+		int h = (key ^ SEEDS[row]) * SEEDS[(row + 1) % NUM_ROWS];
+		h ^= h >>> 16;
+		return row * (mask + 1) + (h & mask);
+	}
+
+	/**
+	 * Estimates the recent accesses of a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the estimate, at most {@link #MAX_FREQUENCY}
+	 */
+	public int frequency(int key) {
+		int frequency = MAX_FREQUENCY;
+
+		for (int row = 0; row < NUM_ROWS; row++) {
+			frequency = Math.min(frequency, counters[indexOf(key, row)]);
+		}
+
+		return frequency;
+	}
+
+	/**
+	 * Records an access of a key. Only the counters at the minimum are
+	 * incremented, which keeps the overestimates of colliding keys lower.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the estimate of the recent accesses of the key, including this
+	 *         one
+	 */
+	public int increment(int key) {
+		int frequency = frequency(key);
+
+		if (frequency < MAX_FREQUENCY) {
+			for (int row = 0; row < NUM_ROWS; row++) {
+				int index = indexOf(key, row);
+
+				if (counters[index] == frequency) {
+					counters[index] = (byte) (frequency + 1);
+				}
+			}
+
+			frequency++;
+		}
+
+		if (numIncrements.incrementAndGet() == sampleSize) {
+			halve();
+			numIncrements.set(0);
+		}
+
+		return frequency;
+	}
+
+	/**
+	 * Halves all counters.
+	 */
+	private void halve() {
+		for (int i = 0; i < counters.length; i++) {
+			counters[i] = (byte) (counters[i] >> 1);
+		}
+	}
+}
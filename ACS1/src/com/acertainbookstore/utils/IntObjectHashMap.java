@@ -0,0 +1,383 @@
+package com.acertainbookstore.utils;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * {@link IntObjectHashMap} is a mutable map from <code>int</code> keys to
+ * non-null values, implemented as an open-addressing hash table with linear
+ * probing. Keys are stored unboxed in an <code>int</code> array next to the
+ * array of values, so an entry costs two array slots instead of an entry
+ * object and a boxed key, and a lookup probes adjacent slots instead of
+ * chasing pointers. Removals shift the following entries back, so the table
+ * never holds tombstones.
+ *
+ * The map is not synchronized: any number of threads may read it
+ * concurrently, but updates must exclude all other accesses.
+ *
+ * @param <V>
+ *            the type of the values
+ */
+public final class IntObjectHashMap<V> implements Iterable<V> {
+
+	/** The default initial capacity. */
+	private static final int DEFAULT_CAPACITY = 16;
+
+	/** The maximum capacity. */
+	private static final int MAX_CAPACITY = 1 << 30;
+
+	/** The keys, valid in the slots holding a value. */
+	private int[] keys;
+
+	/** The values, null in empty slots. */
+	private Object[] values;
+
+	/** The number of entries. */
+	private int size;
+
+	/** The number of entries above which the table grows. */
+	private int threshold;
+
+	/**
+	 * Instantiates a new, empty {@link IntObjectHashMap}.
+	 */
+	public IntObjectHashMap() {
+		this(DEFAULT_CAPACITY / 2);
+	}
+
+	/**
+	 * Instantiates a new, empty {@link IntObjectHashMap} that holds the given
+	 * number of entries without growing.
+	 *
+	 * @param expectedSize
+	 *            the expected number of entries
+	 */
+	public IntObjectHashMap(int expectedSize) {
+		if (expectedSize < 0) {
+			throw new IllegalArgumentException("expectedSize = " + expectedSize + ", but it must not be negative");
+		}
+
+		allocate(capacityFor(expectedSize));
+	}
+
+	/**
+	 * Computes the table capacity holding a number of entries without growing.
+	 *
+	 * @param numEntries
+	 *            the number of entries
+	 * @return the capacity, a power of two
+	 */
+	private static int capacityFor(int numEntries) {
+		long minCapacity = Math.max(DEFAULT_CAPACITY, (long) numEntries * 8 / 5 + 1);
+
+		if (minCapacity > MAX_CAPACITY) {
+			return MAX_CAPACITY;
+		}
+
+		return Integer.highestOneBit((int) minCapacity - 1) << 1;
+	}
+
+	/**
+	 * Allocates an empty table.
+	 *
+	 * @param capacity
+	 *            the capacity, a power of two
+	 */
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		values = new Object[capacity];
+
+		// Grow at a load factor of 5/8, which keeps linear probe sequences
+		// short.
+		threshold = capacity == MAX_CAPACITY ? MAX_CAPACITY - 1 : capacity / 8 * 5;
+	}
+
+	/**
+	 * Computes the home slot of a key by Fibonacci hashing, which spreads
+	 * sequential keys such as ISBNs over the table.
+	 *
+	 * @param key
+	 *            the key
+	 * @param mask
+	 *            the table mask
+	 * @return the slot
+	 */
+	private static int slotOf(int key, int mask) {
+		int h = key * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	/**
+	 * Finds the slot holding a key.
+	 *
+	 * @param keys
+	 *            the keys of the table
+	 * @param values
+	 *            the values of the table
+	 * @param key
+	 *            the key
+	 * @return the slot, or -1 if the key is not in the map
+	 */
+	private static int find(int[] keys, Object[] values, int key) {
+		int mask = values.length - 1;
+		int slot = slotOf(key, mask);
+
+		// The probe is bounded so that a lookup terminates even if it races
+		// with an update and never sees an empty slot.
+		for (int probes = 0; probes <= mask; probes++) {
+			if (values[slot] == null) {
+				return -1;
+			}
+
+			if (keys[slot] == key) {
+				return slot;
+			}
+
+			slot = (slot + 1) & mask;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Gets the number of entries.
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Checks if the map is empty.
+	 *
+	 * @return true, if the map is empty
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Gets the value of a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value, or null if the key is not in the map
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		Object[] values = this.values;
+		int slot = find(keys, values, key);
+		return slot < 0 ? null : (V) values[slot];
+	}
+
+	/**
+	 * Checks if the map contains a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return true, if the map contains the key
+	 */
+	public boolean containsKey(int key) {
+		return find(keys, values, key) >= 0;
+	}
+
+	/**
+	 * Gets the values of a batch of keys in one pass, stopping at the first key
+	 * that is not in the map.
+	 *
+	 * @param keys
+	 *            the keys
+	 * @param result
+	 *            the array receiving the value of each key at the same index,
+	 *            at least as long as <code>keys</code>
+	 * @return the index of the first key that is not in the map, or -1 if all
+	 *         keys are in the map
+	 */
+	@SuppressWarnings("unchecked")
+	public int getAll(int[] keys, V[] result) {
+		int[] tableKeys = this.keys;
+		Object[] tableValues = this.values;
+
+		for (int i = 0; i < keys.length; i++) {
+			int slot = find(tableKeys, tableValues, keys[i]);
+
+			if (slot < 0) {
+				return i;
+			}
+
+			result[i] = (V) tableValues[slot];
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Associates a value with a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value, not null
+	 * @return the previous value of the key, or null if the key was not in the
+	 *         map
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value) {
+		if (value == null) {
+			throw new NullPointerException("value");
+		}
+
+		int mask = values.length - 1;
+		int slot = slotOf(key, mask);
+
+		while (values[slot] != null) {
+			if (keys[slot] == key) {
+				V previous = (V) values[slot];
+				values[slot] = value;
+				return previous;
+			}
+
+			slot = (slot + 1) & mask;
+		}
+
+		keys[slot] = key;
+		values[slot] = value;
+
+		if (++size > threshold) {
+			resize(values.length << 1);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Removes a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value of the key, or null if the key was not in the map
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(int key) {
+		int slot = find(keys, values, key);
+
+		if (slot < 0) {
+			return null;
+		}
+
+		V previous = (V) values[slot];
+		int mask = values.length - 1;
+		int next = slot;
+
+		// Shift back every following entry of the probe sequence whose home
+		// slot does not lie cyclically between the hole and its own slot.
+		while (true) {
+			next = (next + 1) & mask;
+
+			if (values[next] == null) {
+				break;
+			}
+
+			int home = slotOf(keys[next], mask);
+
+			if (((next - home) & mask) >= ((next - slot) & mask)) {
+				keys[slot] = keys[next];
+				values[slot] = values[next];
+				slot = next;
+			}
+		}
+
+		values[slot] = null;
+		size--;
+		return previous;
+	}
+
+	/**
+	 * Removes all entries, keeping the capacity.
+	 */
+	public void clear() {
+		Arrays.fill(values, null);
+		size = 0;
+	}
+
+	/**
+	 * Grows the table.
+	 *
+	 * @param capacity
+	 *            the new capacity, a power of two
+	 */
+	private void resize(int capacity) {
+		if (capacity <= 0 || capacity > MAX_CAPACITY) {
+			throw new IllegalStateException("The map cannot hold more than " + threshold + " entries");
+		}
+
+		int[] oldKeys = keys;
+		Object[] oldValues = values;
+		int[] newKeys = new int[capacity];
+		Object[] newValues = new Object[capacity];
+		int mask = capacity - 1;
+
+		for (int i = 0; i < oldValues.length; i++) {
+			if (oldValues[i] != null) {
+				int slot = slotOf(oldKeys[i], mask);
+
+				while (newValues[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+
+				newKeys[slot] = oldKeys[i];
+				newValues[slot] = oldValues[i];
+			}
+		}
+
+		keys = newKeys;
+		values = newValues;
+		threshold = capacity == MAX_CAPACITY ? MAX_CAPACITY - 1 : capacity / 8 * 5;
+	}
+
+	/**
+	 * Iterates over the values in table order. The iterator does not support
+	 * removal and fails if the map grows during the iteration.
+	 *
+	 * @return the iterator
+	 */
+	@Override
+	public Iterator<V> iterator() {
+		return new Iterator<V>() {
+			private final Object[] table = values;
+			private int slot = advance(0);
+
+			private int advance(int from) {
+				while (from < table.length && table[from] == null) {
+					from++;
+				}
+
+				return from;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return slot < table.length;
+			}
+
+			@Override
+			@SuppressWarnings("unchecked")
+			public V next() {
+				if (slot >= table.length) {
+					throw new NoSuchElementException();
+				}
+
+				if (table != values) {
+					throw new ConcurrentModificationException();
+				}
+
+				V value = (V) table[slot];
+				slot = advance(slot + 1);
+				return value;
+			}
+		};
+	}
+}
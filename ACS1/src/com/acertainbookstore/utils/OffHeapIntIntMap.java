@@ -0,0 +1,265 @@
+package com.acertainbookstore.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * {@link OffHeapIntIntMap} is a mutable map from <code>int</code> keys to
+ * non-negative <code>int</code> values, implemented as an open-addressing hash
+ * table with linear probing in direct memory. Each entry is packed into one
+ * <code>long</code> holding the key and the value plus one, so that zero marks
+ * an empty slot and a probe reads a single word. The map occupies no heap
+ * beyond a few fields, whatever its size.
+ *
+ * Like {@link IntObjectHashMap}, the map is not synchronized: any number of
+ * threads may read it concurrently, but updates must exclude all other
+ * accesses.
+ */
+public final class OffHeapIntIntMap {
+
+	/** The default initial capacity. */
+	private static final int DEFAULT_CAPACITY = 1024;
+
+	/** The maximum capacity, bounded by the size of a direct buffer. */
+	private static final int MAX_CAPACITY = 1 << 27;
+
+	/** The table, one <code>long</code> per slot. */
+	private ByteBuffer table;
+
+	/** The capacity, a power of two. */
+	private int capacity;
+
+	/** The number of entries. */
+	private int size;
+
+	/**
+	 * Instantiates a new, empty {@link OffHeapIntIntMap}.
+	 */
+	public OffHeapIntIntMap() {
+		allocate(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Instantiates a new, empty {@link OffHeapIntIntMap} that holds a number of
+	 * entries without growing.
+	 *
+	 * @param expectedSize
+	 *            the expected number of entries
+	 */
+	public OffHeapIntIntMap(int expectedSize) {
+		int capacity = DEFAULT_CAPACITY;
+
+		while (capacity < MAX_CAPACITY && capacity / 8 * 5 < expectedSize) {
+			capacity <<= 1;
+		}
+
+		allocate(capacity);
+	}
+
+	/**
+	 * Allocates an empty table.
+	 *
+	 * @param capacity
+	 *            the capacity, a power of two
+	 */
+	private void allocate(int capacity) {
+		this.table = ByteBuffer.allocateDirect(capacity * Long.BYTES).order(ByteOrder.nativeOrder());
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Computes the home slot of a key, cf. {@link IntObjectHashMap}.
+	 *
+	 * @param key
+	 *            the key
+	 * @param mask
+	 *            the table mask
+	 * @return the slot
+	 */
+	private static int slotOf(int key, int mask) {
+		int h = key * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	/**
+	 * Packs an entry.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value
+	 * @return the entry
+	 */
+	private static long entry(int key, int value) {
+		return ((long) key << 32) | (value + 1L);
+	}
+
+	/**
+	 * Finds the slot holding a key.
+	 *
+	 * @param table
+	 *            the table
+	 * @param key
+	 *            the key
+	 * @return the slot, or -1 if the key is not in the map
+	 */
+	private static int find(ByteBuffer table, int key) {
+		int mask = table.capacity() / Long.BYTES - 1;
+		int slot = slotOf(key, mask);
+
+		// Bounded as in IntObjectHashMap, to terminate while racing an update.
+		for (int probes = 0; probes <= mask; probes++) {
+			long entry = table.getLong(slot * Long.BYTES);
+
+			if (entry == 0) {
+				return -1;
+			}
+
+			if ((int) (entry >>> 32) == key) {
+				return slot;
+			}
+
+			slot = (slot + 1) & mask;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Gets the number of entries.
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the value of a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value, or -1 if the key is not in the map
+	 */
+	public int get(int key) {
+		ByteBuffer table = this.table;
+		int slot = find(table, key);
+		return slot < 0 ? -1 : (int) table.getLong(slot * Long.BYTES) - 1;
+	}
+
+	/**
+	 * Associates a value with a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value, not negative
+	 */
+	public void put(int key, int value) {
+		if (value < 0) {
+			throw new IllegalArgumentException("value = " + value + ", but it must not be negative");
+		}
+
+		int mask = capacity - 1;
+		int slot = slotOf(key, mask);
+		long entry;
+
+		while ((entry = table.getLong(slot * Long.BYTES)) != 0) {
+			if ((int) (entry >>> 32) == key) {
+				table.putLong(slot * Long.BYTES, entry(key, value));
+				return;
+			}
+
+			slot = (slot + 1) & mask;
+		}
+
+		table.putLong(slot * Long.BYTES, entry(key, value));
+
+		// Grow at a load factor of 5/8, as IntObjectHashMap.
+		if (++size > capacity / 8 * 5) {
+			resize(capacity << 1);
+		}
+	}
+
+	/**
+	 * Removes a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value of the key, or -1 if the key was not in the map
+	 */
+	public int remove(int key) {
+		int slot = find(table, key);
+
+		if (slot < 0) {
+			return -1;
+		}
+
+		int value = (int) table.getLong(slot * Long.BYTES) - 1;
+		int mask = capacity - 1;
+		int next = slot;
+
+		// Backward-shift deletion, cf. IntObjectHashMap#remove(int).
+		while (true) {
+			next = (next + 1) & mask;
+			long entry = table.getLong(next * Long.BYTES);
+
+			if (entry == 0) {
+				break;
+			}
+
+			int home = slotOf((int) (entry >>> 32), mask);
+
+			if (((next - home) & mask) >= ((next - slot) & mask)) {
+				table.putLong(slot * Long.BYTES, entry);
+				slot = next;
+			}
+		}
+
+		table.putLong(slot * Long.BYTES, 0);
+		size--;
+		return value;
+	}
+
+	/**
+	 * Removes all entries and releases the table, keeping the default capacity.
+	 */
+	public void clear() {
+		allocate(DEFAULT_CAPACITY);
+		size = 0;
+	}
+
+	/**
+	 * Grows the table.
+	 *
+	 * @param newCapacity
+	 *            the new capacity, a power of two
+	 */
+	private void resize(int newCapacity) {
+		if (newCapacity > MAX_CAPACITY) {
+			throw new IllegalStateException("The map cannot hold more than " + size + " entries");
+		}
+
+		ByteBuffer oldTable = table;
+		int oldCapacity = capacity;
+		ByteBuffer newTable = ByteBuffer.allocateDirect(newCapacity * Long.BYTES).order(ByteOrder.nativeOrder());
+		int mask = newCapacity - 1;
+
+		for (int i = 0; i < oldCapacity; i++) {
+			long entry = oldTable.getLong(i * Long.BYTES);
+
+			if (entry != 0) {
+				int slot = slotOf((int) (entry >>> 32), mask);
+
+				while (newTable.getLong(slot * Long.BYTES) != 0) {
+					slot = (slot + 1) & mask;
+				}
+
+				newTable.putLong(slot * Long.BYTES, entry);
+			}
+		}
+
+		table = newTable;
+		capacity = newCapacity;
+	}
+}
@@ -0,0 +1,168 @@
+package com.acertainbookstore.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link OffHeapStringArena} stores strings as UTF-8 bytes in chunks of direct
+ * memory. A string is appended once and referenced by a <code>long</code>
+ * holding its chunk and offset, so the arena occupies no heap per string. The
+ * space of strings that are no longer referenced is only reclaimed by
+ * {@link #clear()}; the owner tracks its live bytes and copies them into a new
+ * arena when the garbage grows too large.
+ *
+ * The arena is not synchronized: any number of threads may read it
+ * concurrently, but appends must exclude all other accesses. Optimistic
+ * readers that race an append or a compaction of the owner may pass a
+ * reference that is stale or torn; the arena checks the length it reads
+ * against its chunk and fails such a read with an
+ * {@link IllegalStateException}, rather than allocate an array of garbage
+ * length, so that the reader can validate and retry.
+ */
+public final class OffHeapStringArena {
+
+	/** The default size of a chunk in bytes. */
+	public static final int DEFAULT_CHUNK_SIZE = 16 * 1024 * 1024;
+
+	/** The size of a chunk in bytes. */
+	private final int chunkSize;
+
+	/** The chunks; only the last one is appended to. */
+	private final List<ByteBuffer> chunks = new ArrayList<>();
+
+	/** The offset of the free space in the last chunk. */
+	private int offset;
+
+	/** The number of bytes appended so far. */
+	private long usedBytes;
+
+	/**
+	 * Instantiates a new, empty {@link OffHeapStringArena} with chunks of the
+	 * default size.
+	 */
+	public OffHeapStringArena() {
+		this(DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Instantiates a new, empty {@link OffHeapStringArena}.
+	 *
+	 * @param chunkSize
+	 *            the size of a chunk in bytes
+	 */
+	public OffHeapStringArena(int chunkSize) {
+		if (chunkSize < Integer.BYTES) {
+			throw new IllegalArgumentException("chunkSize = " + chunkSize + ", but it must be at least 4");
+		}
+
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Appends a string.
+	 *
+	 * @param string
+	 *            the string
+	 * @return the reference to the string
+	 */
+	public long add(String string) {
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		int length = Integer.BYTES + bytes.length;
+		ByteBuffer chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+
+		if (chunk == null || chunk.capacity() - offset < length) {
+
+			// Strings longer than a chunk get a chunk of their own.
+			chunk = ByteBuffer.allocateDirect(Math.max(chunkSize, length)).order(ByteOrder.nativeOrder());
+			chunks.add(chunk);
+			offset = 0;
+		}
+
+		long ref = ((long) (chunks.size() - 1) << 32) | offset;
+		chunk.putInt(offset, bytes.length);
+
+		ByteBuffer target = chunk.duplicate();
+		target.position(offset + Integer.BYTES);
+		target.put(bytes);
+
+		offset += length;
+		usedBytes += length;
+		return ref;
+	}
+
+	/**
+	 * Gets a string.
+	 *
+	 * @param ref
+	 *            the reference returned by {@link #add(String)}
+	 * @return the string
+	 * @throws IllegalStateException
+	 *             if the reference is stale or torn
+	 */
+	public String get(long ref) {
+		ByteBuffer chunk = chunks.get((int) (ref >>> 32));
+		int position = (int) ref;
+		byte[] bytes = new byte[lengthAt(chunk, position)];
+
+		// A duplicate has its own position, so that readers do not interfere.
+		ByteBuffer source = chunk.duplicate();
+		source.position(position + Integer.BYTES);
+		source.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Gets the number of bytes a string occupies in the arena.
+	 *
+	 * @param ref
+	 *            the reference returned by {@link #add(String)}
+	 * @return the number of bytes
+	 */
+	public int sizeOf(long ref) {
+		return Integer.BYTES + lengthAt(chunks.get((int) (ref >>> 32)), (int) ref);
+	}
+
+	/**
+	 * Reads the length of a string, and checks that the string lies within
+	 * its chunk.
+	 *
+	 * @param chunk
+	 *            the chunk
+	 * @param position
+	 *            the position of the string in the chunk
+	 * @return the length of the string in bytes
+	 * @throws IllegalStateException
+	 *             if the string does not lie within the chunk, i.e., the
+	 *             reference is stale or torn
+	 */
+	private static int lengthAt(ByteBuffer chunk, int position) {
+		int length = chunk.getInt(position);
+
+		if (length < 0 || length > chunk.capacity() - position - Integer.BYTES) {
+			throw new IllegalStateException("The string at " + position + " has the invalid length " + length);
+		}
+
+		return length;
+	}
+
+	/**
+	 * Gets the number of bytes appended since the arena was created or cleared.
+	 *
+	 * @return the number of bytes
+	 */
+	public long usedBytes() {
+		return usedBytes;
+	}
+
+	/**
+	 * Removes all strings and releases the chunks.
+	 */
+	public void clear() {
+		chunks.clear();
+		offset = 0;
+		usedBytes = 0;
+	}
+}
@@ -0,0 +1,399 @@
+package com.acertainbookstore.utils;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * {@link PersistentIntMap} is an immutable map from <code>int</code> keys to
+ * non-null values, implemented as a hash array mapped trie. Updates return a
+ * new map that shares all untouched nodes with the old one, so an update costs
+ * O(log32 n) time and space, and any map instance can be read concurrently
+ * without synchronization once it has been safely published.
+ *
+ * @param <V>
+ *            the type of the values
+ */
+public final class PersistentIntMap<V> implements Iterable<V> {
+
+	/** The number of key bits consumed by each level of the trie. */
+	private static final int BITS_PER_LEVEL = 5;
+
+	/** The mask selecting the key bits of a level. */
+	private static final int LEVEL_MASK = (1 << BITS_PER_LEVEL) - 1;
+
+	/** The maximum depth of the trie. */
+	private static final int MAX_DEPTH = (Integer.SIZE + BITS_PER_LEVEL - 1) / BITS_PER_LEVEL;
+
+	/** The empty map. */
+	private static final PersistentIntMap<?> EMPTY = new PersistentIntMap<>(Node.EMPTY, 0);
+
+	/** The root node. */
+	private final Node root;
+
+	/** The number of entries. */
+	private final int size;
+
+	/**
+	 * Instantiates a new {@link PersistentIntMap}.
+	 *
+	 * @param root
+	 *            the root node
+	 * @param size
+	 *            the number of entries
+	 */
+	private PersistentIntMap(Node root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	/**
+	 * Gets the empty map.
+	 *
+	 * @param <V>
+	 *            the type of the values
+	 * @return the empty map
+	 */
+	@SuppressWarnings("unchecked")
+	public static <V> PersistentIntMap<V> empty() {
+		return (PersistentIntMap<V>) EMPTY;
+	}
+
+	/**
+	 * Gets the number of entries.
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Checks if the map is empty.
+	 *
+	 * @return true, if the map is empty
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Gets the value of a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value, or null if the key is not in the map
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		Node node = root;
+
+		for (int shift = 0;; shift += BITS_PER_LEVEL) {
+			int bit = 1 << ((key >>> shift) & LEVEL_MASK);
+
+			if ((node.bitmap & bit) == 0) {
+				return null;
+			}
+
+			Object slot = node.slots[Integer.bitCount(node.bitmap & (bit - 1))];
+
+			if (slot instanceof Node) {
+				node = (Node) slot;
+			} else {
+				Leaf leaf = (Leaf) slot;
+				return (leaf.key == key) ? (V) leaf.value : null;
+			}
+		}
+	}
+
+	/**
+	 * Checks if a key is in the map.
+	 *
+	 * @param key
+	 *            the key
+	 * @return true, if the key is in the map
+	 */
+	public boolean containsKey(int key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * Returns a map in which the key is mapped to the value.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value
+	 * @return the updated map
+	 */
+	public PersistentIntMap<V> plus(int key, V value) {
+		if (value == null) {
+			throw new IllegalArgumentException("null values are not supported");
+		}
+
+		Node newRoot = root.plus(key, value, 0);
+		return (newRoot == root) ? this : new PersistentIntMap<>(newRoot, containsKey(key) ? size : size + 1);
+	}
+
+	/**
+	 * Returns a map without the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the updated map
+	 */
+	public PersistentIntMap<V> minus(int key) {
+		Node newRoot = root.minus(key, 0);
+		return (newRoot == root) ? this : new PersistentIntMap<>(newRoot, size - 1);
+	}
+
+	/**
+	 * Iterates over the values of the map. The iteration order is determined by
+	 * the bits of the keys, least significant bits first.
+	 *
+	 * @return the iterator
+	 */
+	@Override
+	public Iterator<V> iterator() {
+		return new ValueIterator<>(root);
+	}
+
+	/**
+	 * {@link Leaf} is an entry stored in a trie node.
+	 */
+	private static final class Leaf {
+
+		/** The key. */
+		private final int key;
+
+		/** The value. */
+		private final Object value;
+
+		/**
+		 * Instantiates a new {@link Leaf}.
+		 *
+		 * @param key
+		 *            the key
+		 * @param value
+		 *            the value
+		 */
+		private Leaf(int key, Object value) {
+			this.key = key;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * {@link Node} is an immutable trie node. Its slots hold the leaves and the
+	 * child nodes of the key prefixes present in the bitmap, in prefix order.
+	 */
+	private static final class Node {
+
+		/** The empty node. */
+		private static final Node EMPTY = new Node(0, new Object[0]);
+
+		/** The bitmap of occupied slots. */
+		private final int bitmap;
+
+		/** The slots. */
+		private final Object[] slots;
+
+		/**
+		 * Instantiates a new {@link Node}.
+		 *
+		 * @param bitmap
+		 *            the bitmap
+		 * @param slots
+		 *            the slots
+		 */
+		private Node(int bitmap, Object[] slots) {
+			this.bitmap = bitmap;
+			this.slots = slots;
+		}
+
+		/**
+		 * Returns a node in which the key is mapped to the value.
+		 *
+		 * @param key
+		 *            the key
+		 * @param value
+		 *            the value
+		 * @param shift
+		 *            the position of the key bits of this level
+		 * @return the updated node
+		 */
+		private Node plus(int key, Object value, int shift) {
+			int bit = 1 << ((key >>> shift) & LEVEL_MASK);
+			int index = Integer.bitCount(bitmap & (bit - 1));
+
+			if ((bitmap & bit) == 0) {
+				Object[] newSlots = new Object[slots.length + 1];
+				System.arraycopy(slots, 0, newSlots, 0, index);
+				newSlots[index] = new Leaf(key, value);
+				System.arraycopy(slots, index, newSlots, index + 1, slots.length - index);
+				return new Node(bitmap | bit, newSlots);
+			}
+
+			Object slot = slots[index];
+			Object newSlot;
+
+			if (slot instanceof Node) {
+				Node child = (Node) slot;
+				Node newChild = child.plus(key, value, shift + BITS_PER_LEVEL);
+
+				if (newChild == child) {
+					return this;
+				}
+
+				newSlot = newChild;
+			} else {
+				Leaf leaf = (Leaf) slot;
+
+				if (leaf.key == key) {
+					if (leaf.value == value) {
+						return this;
+					}
+
+					newSlot = new Leaf(key, value);
+				} else {
+					newSlot = EMPTY.plus(leaf.key, leaf.value, shift + BITS_PER_LEVEL).plus(key, value,
+							shift + BITS_PER_LEVEL);
+				}
+			}
+
+			Object[] newSlots = slots.clone();
+			newSlots[index] = newSlot;
+			return new Node(bitmap, newSlots);
+		}
+
+		/**
+		 * Returns a node without the key.
+		 *
+		 * @param key
+		 *            the key
+		 * @param shift
+		 *            the position of the key bits of this level
+		 * @return the updated node
+		 */
+		private Node minus(int key, int shift) {
+			int bit = 1 << ((key >>> shift) & LEVEL_MASK);
+
+			if ((bitmap & bit) == 0) {
+				return this;
+			}
+
+			int index = Integer.bitCount(bitmap & (bit - 1));
+			Object slot = slots[index];
+
+			if (slot instanceof Node) {
+				Node child = (Node) slot;
+				Node newChild = child.minus(key, shift + BITS_PER_LEVEL);
+
+				if (newChild == child) {
+					return this;
+				}
+
+				if (newChild.bitmap != 0) {
+					Object[] newSlots = slots.clone();
+
+					// Pull a lone leaf up so that the trie stays compact.
+					boolean loneLeaf = newChild.slots.length == 1 && newChild.slots[0] instanceof Leaf;
+					newSlots[index] = loneLeaf ? newChild.slots[0] : newChild;
+					return new Node(bitmap, newSlots);
+				}
+			} else if (((Leaf) slot).key != key) {
+				return this;
+			}
+
+			Object[] newSlots = new Object[slots.length - 1];
+			System.arraycopy(slots, 0, newSlots, 0, index);
+			System.arraycopy(slots, index + 1, newSlots, index, slots.length - index - 1);
+			return new Node(bitmap & ~bit, newSlots);
+		}
+	}
+
+	/**
+	 * {@link ValueIterator} walks the trie depth-first.
+	 *
+	 * @param <V>
+	 *            the type of the values
+	 */
+	private static final class ValueIterator<V> implements Iterator<V> {
+
+		/** The nodes on the path to the next leaf. */
+		private final Node[] nodes = new Node[MAX_DEPTH + 1];
+
+		/** The positions in the nodes on the path to the next leaf. */
+		private final int[] positions = new int[MAX_DEPTH + 1];
+
+		/** The depth of the current node. */
+		private int depth = 0;
+
+		/** The next leaf. */
+		private Leaf next;
+
+		/**
+		 * Instantiates a new {@link ValueIterator}.
+		 *
+		 * @param root
+		 *            the root node
+		 */
+		private ValueIterator(Node root) {
+			nodes[0] = root;
+			advance();
+		}
+
+		/**
+		 * Moves to the next leaf, if any.
+		 */
+		private void advance() {
+			next = null;
+
+			while (depth >= 0) {
+				Node node = nodes[depth];
+
+				if (positions[depth] == node.slots.length) {
+					depth--;
+					continue;
+				}
+
+				Object slot = node.slots[positions[depth]++];
+
+				if (slot instanceof Leaf) {
+					next = (Leaf) slot;
+					return;
+				}
+
+				depth++;
+				nodes[depth] = (Node) slot;
+				positions[depth] = 0;
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Iterator#hasNext()
+		 */
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Iterator#next()
+		 */
+		@Override
+		@SuppressWarnings("unchecked")
+		public V next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+
+			V value = (V) next.value;
+			advance();
+			return value;
+		}
+	}
+}
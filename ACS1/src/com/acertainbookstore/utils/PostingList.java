@@ -0,0 +1,210 @@
+package com.acertainbookstore.utils;
+
+import java.util.Arrays;
+
+/**
+ * {@link PostingList} is an immutable, sorted set of <code>int</code>s, e.g.,
+ * the ISBNs of the books containing a term, stored as the variable-length
+ * encoded differences between consecutive values. Dense lists of ISBNs thus
+ * take one or two bytes per entry instead of four. Updates return a new list,
+ * so that a list can be read concurrently without synchronization once it has
+ * been safely published.
+ */
+public final class PostingList {
+
+	/** The empty list. */
+	private static final PostingList EMPTY = new PostingList(new byte[0], 0);
+
+	/** The encoded differences. */
+	private final byte[] bytes;
+
+	/** The number of values. */
+	private final int size;
+
+	/**
+	 * Instantiates a new {@link PostingList}.
+	 *
+	 * @param bytes
+	 *            the encoded differences
+	 * @param size
+	 *            the number of values
+	 */
+	private PostingList(byte[] bytes, int size) {
+		this.bytes = bytes;
+		this.size = size;
+	}
+
+	/**
+	 * Gets the empty list.
+	 *
+	 * @return the empty list
+	 */
+	public static PostingList empty() {
+		return EMPTY;
+	}
+
+	/**
+	 * Encodes a list of values.
+	 *
+	 * @param values
+	 *            the values, sorted and distinct
+	 * @param length
+	 *            the number of values to encode
+	 * @return the list
+	 */
+	private static PostingList encode(int[] values, int length) {
+		if (length == 0) {
+			return EMPTY;
+		}
+
+		byte[] bytes = new byte[length * 5];
+		int position = 0;
+
+		// The first value is encoded relative to the smallest int, so that all
+		// differences are non-negative.
+		long previous = Integer.MIN_VALUE;
+
+		for (int i = 0; i < length; i++) {
+			long delta = values[i] - previous;
+			previous = values[i];
+
+			while (delta >= 0x80) {
+				bytes[position++] = (byte) (delta | 0x80);
+				delta >>>= 7;
+			}
+
+			bytes[position++] = (byte) delta;
+		}
+
+		return new PostingList(Arrays.copyOf(bytes, position), length);
+	}
+
+	/**
+	 * Creates a list of values.
+	 *
+	 * @param values
+	 *            the values, in any order and possibly repeated
+	 * @return the list
+	 */
+	public static PostingList of(int... values) {
+		int[] sorted = values.clone();
+		Arrays.sort(sorted);
+		int length = 0;
+
+		for (int i = 0; i < sorted.length; i++) {
+			if (i == 0 || sorted[i] != sorted[i - 1]) {
+				sorted[length++] = sorted[i];
+			}
+		}
+
+		return encode(sorted, length);
+	}
+
+	/**
+	 * Gets the number of values.
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Checks if the list is empty.
+	 *
+	 * @return true, if the list is empty
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Gets the number of bytes of the encoded list.
+	 *
+	 * @return the number of bytes
+	 */
+	public int sizeInBytes() {
+		return bytes.length;
+	}
+
+	/**
+	 * Decodes the values.
+	 *
+	 * @return the values, sorted
+	 */
+	public int[] toArray() {
+		int[] values = new int[size];
+		long previous = Integer.MIN_VALUE;
+		int position = 0;
+
+		for (int i = 0; i < size; i++) {
+			long delta = 0;
+			int shift = 0;
+			byte b;
+
+			do {
+				b = bytes[position++];
+				delta |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+
+			previous += delta;
+			values[i] = (int) previous;
+		}
+
+		return values;
+	}
+
+	/**
+	 * Returns the list with values added.
+	 *
+	 * @param added
+	 *            the added values, sorted and distinct
+	 * @return the new list
+	 */
+	public PostingList plus(int[] added) {
+		int[] values = toArray();
+		int[] merged = new int[values.length + added.length];
+		int i = 0;
+		int j = 0;
+		int length = 0;
+
+		while (i < values.length || j < added.length) {
+			if (j == added.length || (i < values.length && values[i] < added[j])) {
+				merged[length++] = values[i++];
+			} else if (i == values.length || added[j] < values[i]) {
+				merged[length++] = added[j++];
+			} else {
+				merged[length++] = values[i++];
+				j++;
+			}
+		}
+
+		return encode(merged, length);
+	}
+
+	/**
+	 * Returns the list with values removed.
+	 *
+	 * @param removed
+	 *            the removed values, sorted and distinct
+	 * @return the new list
+	 */
+	public PostingList minus(int[] removed) {
+		int[] values = toArray();
+		int j = 0;
+		int length = 0;
+
+		for (int value : values) {
+			while (j < removed.length && removed[j] < value) {
+				j++;
+			}
+
+			if (j == removed.length || removed[j] != value) {
+				values[length++] = value;
+			}
+		}
+
+		return encode(values, length);
+	}
+}
@@ -0,0 +1,369 @@
+package com.acertainbookstore.utils;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * {@link SortedLongSet} is a sorted set of <code>long</code> keys, stored
+ * unboxed in chunks of at most {@link #MAX_CHUNK_SIZE} keys. Each chunk is a
+ * sorted array holding the keys between its separator and the next one, so an
+ * entry costs about one <code>long</code> instead of a skip list node and a
+ * boxed key, and a lookup is a binary search over the separators followed by
+ * one over a chunk.
+ *
+ * The chunks are never changed once published: an update copies the chunk it
+ * changes and swaps it in, so it costs time proportional to the size of a
+ * chunk. Only when a chunk is split or merged is the array of chunks copied,
+ * about once every {@link #MAX_CHUNK_SIZE} / 2 updates of the chunk.
+ *
+ * Any number of threads may read the set without locking while updates are
+ * serialized on the set. Iteration is weakly consistent, like the iteration
+ * of a concurrent skip list: it returns the keys in order, and sees every key
+ * present throughout the iteration, and possibly keys added or removed
+ * meanwhile.
+ */
+public final class SortedLongSet {
+
+	/** The maximum number of keys in a chunk. */
+	private static final int MAX_CHUNK_SIZE = 1024;
+
+	/** The number of keys below which a chunk is merged with a neighbour. */
+	private static final int MIN_CHUNK_SIZE = MAX_CHUNK_SIZE / 4;
+
+	/** The number of keys in a chunk filled by {@link #addAll(long[])}. */
+	private static final int BULK_CHUNK_SIZE = MAX_CHUNK_SIZE * 3 / 4;
+
+	/** The empty chunk. */
+	private static final long[] EMPTY = new long[0];
+
+	/**
+	 * The chunks of the set, with the smallest key each may hold. The
+	 * separators are fixed, while the chunks are swapped in place.
+	 */
+	private static final class Version {
+
+		/** The smallest key of each chunk; the first is Long.MIN_VALUE. */
+		private final long[] separators;
+
+		/** The chunks. */
+		private final AtomicReferenceArray<long[]> chunks;
+
+		/**
+		 * Instantiates a new {@link Version}.
+		 *
+		 * @param separators
+		 *            the separators
+		 * @param chunks
+		 *            the chunks
+		 */
+		private Version(long[] separators, long[][] chunks) {
+			this.separators = separators;
+			this.chunks = new AtomicReferenceArray<>(chunks);
+		}
+
+		/**
+		 * Finds the chunk that holds a key.
+		 *
+		 * @param key
+		 *            the key
+		 * @return the index of the chunk
+		 */
+		private int chunkOf(long key) {
+			int i = Arrays.binarySearch(separators, key);
+			return i >= 0 ? i : -i - 2;
+		}
+
+		/**
+		 * Gets the chunks as an array.
+		 *
+		 * @return the chunks
+		 */
+		private long[][] toArray() {
+			long[][] array = new long[chunks.length()][];
+
+			for (int i = 0; i < array.length; i++) {
+				array[i] = chunks.get(i);
+			}
+
+			return array;
+		}
+	}
+
+	/** The current version. */
+	private volatile Version version = emptyVersion();
+
+	/**
+	 * Creates a version without keys.
+	 *
+	 * @return the version
+	 */
+	private static Version emptyVersion() {
+		return new Version(new long[] { Long.MIN_VALUE }, new long[][] { EMPTY });
+	}
+
+	/**
+	 * Adds a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return true, if the key was not present
+	 */
+	public synchronized boolean add(long key) {
+		Version current = version;
+		int i = current.chunkOf(key);
+		long[] chunk = current.chunks.get(i);
+		int position = Arrays.binarySearch(chunk, key);
+
+		if (position >= 0) {
+			return false;
+		}
+
+		position = -position - 1;
+		long[] updated = new long[chunk.length + 1];
+		System.arraycopy(chunk, 0, updated, 0, position);
+		updated[position] = key;
+		System.arraycopy(chunk, position, updated, position + 1, chunk.length - position);
+
+		if (updated.length <= MAX_CHUNK_SIZE) {
+			current.chunks.set(i, updated);
+			return true;
+		}
+
+		// Split the chunk in halves, the second starting at its middle key.
+		int half = updated.length / 2;
+		long[] separators = new long[current.separators.length + 1];
+		System.arraycopy(current.separators, 0, separators, 0, i + 1);
+		separators[i + 1] = updated[half];
+		System.arraycopy(current.separators, i + 1, separators, i + 2, current.separators.length - i - 1);
+
+		long[][] chunks = new long[separators.length][];
+		long[][] currentChunks = current.toArray();
+		System.arraycopy(currentChunks, 0, chunks, 0, i);
+		chunks[i] = Arrays.copyOfRange(updated, 0, half);
+		chunks[i + 1] = Arrays.copyOfRange(updated, half, updated.length);
+		System.arraycopy(currentChunks, i + 1, chunks, i + 2, currentChunks.length - i - 1);
+
+		version = new Version(separators, chunks);
+		return true;
+	}
+
+	/**
+	 * Removes a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return true, if the key was present
+	 */
+	public synchronized boolean remove(long key) {
+		Version current = version;
+		int i = current.chunkOf(key);
+		long[] chunk = current.chunks.get(i);
+		int position = Arrays.binarySearch(chunk, key);
+
+		if (position < 0) {
+			return false;
+		}
+
+		long[] updated = chunk.length == 1 ? EMPTY : new long[chunk.length - 1];
+		System.arraycopy(chunk, 0, updated, 0, position);
+		System.arraycopy(chunk, position + 1, updated, position, updated.length - position);
+
+		int numChunks = current.separators.length;
+
+		if (updated.length >= MIN_CHUNK_SIZE || numChunks == 1) {
+			current.chunks.set(i, updated);
+			return true;
+		}
+
+		// Merge the chunk with the smaller of its neighbours, if they fit in
+		// one chunk; the merged chunk keeps the separator of the first.
+		int first = i;
+
+		if (i == numChunks - 1 || (i > 0 && current.chunks.get(i - 1).length < current.chunks.get(i + 1).length)) {
+			first = i - 1;
+		}
+
+		long[] left = first == i ? updated : current.chunks.get(first);
+		long[] right = first == i ? current.chunks.get(i + 1) : updated;
+
+		if (left.length + right.length > MAX_CHUNK_SIZE) {
+			current.chunks.set(i, updated);
+			return true;
+		}
+
+		long[] merged = Arrays.copyOf(left, left.length + right.length);
+		System.arraycopy(right, 0, merged, left.length, right.length);
+
+		long[] separators = new long[numChunks - 1];
+		System.arraycopy(current.separators, 0, separators, 0, first + 1);
+		System.arraycopy(current.separators, first + 2, separators, first + 1, numChunks - first - 2);
+
+		long[][] chunks = new long[numChunks - 1][];
+		long[][] currentChunks = current.toArray();
+		System.arraycopy(currentChunks, 0, chunks, 0, first);
+		chunks[first] = merged;
+		System.arraycopy(currentChunks, first + 2, chunks, first + 1, numChunks - first - 2);
+
+		version = new Version(separators, chunks);
+		return true;
+	}
+
+	/**
+	 * Adds many keys at once, merging them with the keys in the set in one
+	 * pass instead of copying a chunk for each key.
+	 *
+	 * @param keys
+	 *            the keys, in any order; the array is sorted in place
+	 */
+	public synchronized void addAll(long[] keys) {
+		if (keys.length == 0) {
+			return;
+		}
+
+		Arrays.parallelSort(keys);
+		Version current = version;
+		long[][] currentChunks = current.toArray();
+		int size = 0;
+
+		for (long[] chunk : currentChunks) {
+			size += chunk.length;
+		}
+
+		long[] merged = new long[size + keys.length];
+		int n = 0;
+		int k = 0;
+
+		for (long[] chunk : currentChunks) {
+			for (long key : chunk) {
+				while (k < keys.length && keys[k] < key) {
+					n = append(merged, n, keys[k++]);
+				}
+
+				n = append(merged, n, key);
+			}
+		}
+
+		while (k < keys.length) {
+			n = append(merged, n, keys[k++]);
+		}
+
+		int numChunks = Math.max(1, (n + BULK_CHUNK_SIZE - 1) / BULK_CHUNK_SIZE);
+		long[] separators = new long[numChunks];
+		long[][] chunks = new long[numChunks][];
+
+		for (int i = 0; i < numChunks; i++) {
+			int from = i * BULK_CHUNK_SIZE;
+			chunks[i] = Arrays.copyOfRange(merged, from, Math.min(n, from + BULK_CHUNK_SIZE));
+			separators[i] = i == 0 ? Long.MIN_VALUE : merged[from];
+		}
+
+		version = new Version(separators, chunks);
+	}
+
+	/**
+	 * Appends a key to a sorted array, unless it is the last key there.
+	 *
+	 * @param keys
+	 *            the array
+	 * @param size
+	 *            the number of keys in the array
+	 * @param key
+	 *            the key
+	 * @return the new number of keys
+	 */
+	private static int append(long[] keys, int size, long key) {
+		if (size > 0 && keys[size - 1] == key) {
+			return size;
+		}
+
+		keys[size] = key;
+		return size + 1;
+	}
+
+	/**
+	 * Removes all keys.
+	 */
+	public synchronized void clear() {
+		version = emptyVersion();
+	}
+
+	/**
+	 * Checks if the set holds a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return true, if the key is present
+	 */
+	public boolean contains(long key) {
+		Version current = version;
+		return Arrays.binarySearch(current.chunks.get(current.chunkOf(key)), key) >= 0;
+	}
+
+	/**
+	 * Iterates over the keys in a range, in ascending order.
+	 *
+	 * @param from
+	 *            the first key, inclusive
+	 * @param to
+	 *            the last key, inclusive
+	 * @return the keys, read lazily from the set
+	 */
+	public PrimitiveIterator.OfLong range(long from, long to) {
+		return new PrimitiveIterator.OfLong() {
+
+			/** The chunk being read. */
+			private long[] chunk = EMPTY;
+
+			/** The position of the next key in the chunk. */
+			private int position;
+
+			/** The smallest key not returned yet. */
+			private long next = from;
+
+			/** Whether the keys up to the end of the range were read. */
+			private boolean done = from > to;
+
+			@Override
+			public boolean hasNext() {
+				while (!done && position == chunk.length) {
+					// Read on from the chunk now holding the next key, so
+					// that the chunks split or merged meanwhile are seen.
+					Version current = version;
+					int i = current.chunkOf(next);
+					chunk = current.chunks.get(i);
+					position = Arrays.binarySearch(chunk, next);
+					position = position >= 0 ? position : -position - 1;
+
+					if (position == chunk.length) {
+						if (i + 1 == current.separators.length) {
+							done = true;
+						} else {
+							next = current.separators[i + 1];
+						}
+					}
+				}
+
+				if (done || chunk[position] > to) {
+					done = true;
+					return false;
+				}
+
+				return true;
+			}
+
+			@Override
+			public long nextLong() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+
+				long key = chunk[position++];
+				done = key == to;
+				next = key + 1;
+				return key;
+			}
+		};
+	}
+}